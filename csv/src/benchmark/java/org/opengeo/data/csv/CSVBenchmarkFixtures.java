@@ -0,0 +1,78 @@
+package org.opengeo.data.csv;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+import org.opengeo.data.csv.parse.CSVAttributesOnlyStrategy;
+import org.opengeo.data.csv.parse.CSVLatLonStrategy;
+import org.opengeo.data.csv.parse.CSVSpecifiedWKTStrategy;
+import org.opengeo.data.csv.parse.CSVStrategy;
+
+/**
+ * Generated csv files shared by the benchmarks. Files are written once per row count into
+ * <code>target/benchmark-fixtures</code> (or the <code>csv.benchmark.dir</code> directory) and
+ * reused by later runs, the 10 million row one takes close to a gigabyte.
+ * <p>
+ * Every record holds a point both as lat/lon columns and as WKT, so each strategy reads the same
+ * data.
+ */
+public class CSVBenchmarkFixtures {
+
+    public static final String HEADER = "lat,lon,wkt,name,description,count,value";
+
+    private CSVBenchmarkFixtures() {
+    }
+
+    public static synchronized File getFile(int rows) throws IOException {
+        File directory = new File(System.getProperty("csv.benchmark.dir",
+                "target/benchmark-fixtures"));
+        File file = new File(directory, "points-" + rows + ".csv");
+        if (file.exists()) {
+            return file;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        File tmp = new File(directory, file.getName() + ".tmp");
+        Random random = new Random(42);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp),
+                "UTF-8"), 1 << 16);
+        try {
+            writer.write(HEADER);
+            writer.write('\n');
+            for (int i = 0; i < rows; i++) {
+                String lat = String.valueOf(random.nextDouble() * 180 - 90);
+                String lon = String.valueOf(random.nextDouble() * 360 - 180);
+                writer.write(lat + "," + lon + ",POINT (" + lon + " " + lat + "),name" + i
+                        + ",\"a longer, quoted description of row " + i + "\","
+                        + random.nextInt(1000) + "," + random.nextDouble() + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not create " + file);
+        }
+        return file;
+    }
+
+    /**
+     * Creates the strategy benchmarks refer to as latlon, wkt or attributes.
+     */
+    public static CSVStrategy createStrategy(String name, CSVFileState csvFileState) {
+        if ("latlon".equals(name)) {
+            return new CSVLatLonStrategy(csvFileState);
+        } else if ("wkt".equals(name)) {
+            return new CSVSpecifiedWKTStrategy(csvFileState, "wkt");
+        } else if ("attributes".equals(name)) {
+            return new CSVAttributesOnlyStrategy(csvFileState);
+        }
+        throw new IllegalArgumentException("Unknown strategy: " + name);
+    }
+}
@@ -0,0 +1,58 @@
+package org.opengeo.data.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to infer the schema and statistics of the generated files with each
+ * {@link CSVInferenceMode}. Sampling seeks into the file and does not need its row index.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CSVInferenceBenchmark {
+
+    @Param({ "10000", "100000", "1000000", "10000000" })
+    public int rows;
+
+    @Param({ "full", "first", "sample" })
+    public String mode;
+
+    private File file;
+
+    private CSVFileState csvFileState;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = CSVBenchmarkFixtures.getFile(rows);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpState() {
+        csvFileState = new CSVFileState(file);
+        csvFileState.setInferenceMode(CSVInferenceMode.lookup(mode),
+                CSVInferenceMode.DEFAULT_SAMPLE_SIZE);
+    }
+
+    @Benchmark
+    public CSVFileStatistics infer() throws IOException {
+        return csvFileState.computeStatistics();
+    }
+}
@@ -0,0 +1,89 @@
+package org.opengeo.data.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.data.Transaction;
+import org.geotools.factory.CommonFactoryFinder;
+import org.opengeo.data.csv.parse.CSVStrategy;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Latency of BBOX queries through the data store, the way a WMS tile request reads the file.
+ * Boxes are random squares covering about 0.1% of the world, sampled times come out as a latency
+ * distribution. The spatial index is built during setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CSVQueryBenchmark {
+
+    private static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2(null);
+
+    @Param({ "10000", "100000", "1000000", "10000000" })
+    public int rows;
+
+    @Param({ "latlon", "wkt" })
+    public String strategyName;
+
+    private CSVDataStore dataStore;
+
+    private String geometryName;
+
+    private final Random random = new Random(42);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        File file = CSVBenchmarkFixtures.getFile(rows);
+        CSVFileState csvFileState = new CSVFileState(file);
+        CSVStrategy strategy = CSVBenchmarkFixtures.createStrategy(strategyName, csvFileState);
+        dataStore = new CSVDataStore(csvFileState, strategy);
+        geometryName = strategy.getFeatureType().getGeometryDescriptor().getLocalName();
+        // builds the spatial index before measuring
+        strategy.iterator(new Envelope(0, 1, 0, 1)).close();
+    }
+
+    @Benchmark
+    public int bbox(Blackhole blackhole) throws IOException {
+        double x = random.nextDouble() * 349 - 180;
+        double y = random.nextDouble() * 169 - 90;
+        Filter filter = FF.bbox(geometryName, x, y, x + 11, y + 11, "EPSG:4326");
+        FeatureReader<SimpleFeatureType, SimpleFeature> reader = dataStore.getFeatureReader(
+                new Query(dataStore.getTypeName().getLocalPart(), filter), Transaction.AUTO_COMMIT);
+        int count = 0;
+        try {
+            while (reader.hasNext()) {
+                blackhole.consume(reader.next());
+                count++;
+            }
+        } finally {
+            reader.close();
+        }
+        return count;
+    }
+}
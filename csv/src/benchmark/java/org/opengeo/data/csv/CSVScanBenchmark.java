@@ -0,0 +1,104 @@
+package org.opengeo.data.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.opengeo.data.csv.parse.CSVIterator;
+import org.opengeo.data.csv.parse.CSVStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Full scans of the generated files with each strategy, through CsvReader and the memory mapped
+ * tokenizer. Results are milliseconds per scan: divide the rows parameter by the score for rows
+ * per second. Run with <code>-prof gc</code> (the default for the benchmark profile) for the
+ * allocation rate.
+ * <p>
+ * Time to first feature is measured on a store opened cold, with no statistics cached, so it
+ * includes schema inference, and on a warm one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CSVScanBenchmark {
+
+    @Param({ "10000", "100000", "1000000", "10000000" })
+    public int rows;
+
+    @Param({ "latlon", "wkt", "attributes" })
+    public String strategyName;
+
+    @Param({ "false", "true" })
+    public boolean memoryMapped;
+
+    private File file;
+
+    private CSVStrategy strategy;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = CSVBenchmarkFixtures.getFile(rows);
+        strategy = CSVBenchmarkFixtures.createStrategy(strategyName, createFileState());
+        strategy.getFeatureType();
+    }
+
+    private CSVFileState createFileState() {
+        CSVFileState csvFileState = new CSVFileState(file);
+        csvFileState.setMemoryMapped(memoryMapped);
+        return csvFileState;
+    }
+
+    @Benchmark
+    public int scan(Blackhole blackhole) throws IOException {
+        CSVIterator iterator = strategy.iterator();
+        int count = 0;
+        try {
+            while (iterator.hasNext()) {
+                blackhole.consume(iterator.next());
+                count++;
+            }
+        } finally {
+            iterator.close();
+        }
+        return count;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Measurement(iterations = 10)
+    public Object firstFeatureCold() throws IOException {
+        CSVStatisticsCache.clear();
+        return first(CSVBenchmarkFixtures.createStrategy(strategyName, createFileState()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object firstFeatureWarm() throws IOException {
+        return first(strategy);
+    }
+
+    private Object first(CSVStrategy strategy) throws IOException {
+        CSVIterator iterator = strategy.iterator();
+        try {
+            return iterator.next();
+        } finally {
+            iterator.close();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.opengeo.data.csv.parse;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opengeo.data.csv.CSVFileState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Rows per second turned into features, building every record from scratch through
+ * {@link CSVStrategy#createFeature(String, String[])} versus a reused {@link CSVFeatureBuilder},
+ * and for a complete iteration over a file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CSVFeatureBuilderBenchmark {
+
+    private static final int ROWS = 10000;
+
+    @Param({ "latlon", "wkt" })
+    public String strategyName;
+
+    private File file;
+
+    private CSVStrategy strategy;
+
+    private String[][] records;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = File.createTempFile("benchmark", ".csv");
+        records = new String[ROWS][];
+        Random random = new Random(42);
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write("lat,lon,wkt,name,count,value\n");
+            for (int i = 0; i < ROWS; i++) {
+                String lat = String.valueOf(random.nextDouble() * 180 - 90);
+                String lon = String.valueOf(random.nextDouble() * 360 - 180);
+                String wkt = "POINT (" + lon + " " + lat + ")";
+                records[i] = new String[] { lat, lon, wkt, "name" + i,
+                        String.valueOf(random.nextInt(1000)), String.valueOf(random.nextDouble()) };
+                writer.write(lat + "," + lon + ",\"" + wkt + "\",name" + i + "," + records[i][4]
+                        + "," + records[i][5] + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        CSVFileState fileState = new CSVFileState(file);
+        if ("wkt".equals(strategyName)) {
+            strategy = new CSVSpecifiedWKTStrategy(fileState, "wkt");
+        } else {
+            strategy = new CSVLatLonStrategy(fileState);
+        }
+        strategy.getFeatureType();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void createFeature(Blackhole blackhole) {
+        for (int i = 0; i < ROWS; i++) {
+            blackhole.consume(strategy.createFeature(String.valueOf(i), records[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void featureBuilder(Blackhole blackhole) {
+        CSVFeatureBuilder builder = strategy.createFeatureBuilder();
+        for (int i = 0; i < ROWS; i++) {
+            blackhole.consume(builder.build(String.valueOf(i), records[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void readFile(Blackhole blackhole) throws IOException {
+        CSVIterator iterator = strategy.iterator();
+        try {
+            while (iterator.hasNext()) {
+                blackhole.consume(iterator.next());
+            }
+        } finally {
+            iterator.close();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.opengeo.data.csv.parse;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Values per second parsed by {@link WKTReader} versus the {@link CSVWKTParser}, for points and
+ * for polygons with a given number of vertices, and by {@link Double#parseDouble(String)} versus
+ * the {@link CSVDecimalParser} for coordinate columns. Coordinates are rounded to 7 decimals like
+ * typical GPS data, longer values are left to {@link Double#parseDouble(String)} by both parsers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CSVGeometryParseBenchmark {
+
+    private static final int VALUES = 1000;
+
+    // 1 generates points
+    @Param({ "1", "10", "1000" })
+    public int vertices;
+
+    private String[] wkts;
+
+    private String[] coordinates;
+
+    private WKTReader wktReader;
+
+    private CSVWKTParser wktParser;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        wkts = new String[VALUES];
+        coordinates = new String[VALUES];
+        for (int i = 0; i < VALUES; i++) {
+            coordinates[i] = String.valueOf(round(random.nextDouble() * 360 - 180));
+            StringBuilder wkt = new StringBuilder(vertices == 1 ? "POINT (" : "POLYGON ((");
+            double x = random.nextDouble() * 360 - 180;
+            double y = random.nextDouble() * 180 - 90;
+            for (int j = 0; j < vertices; j++) {
+                double angle = 2 * Math.PI * j / vertices;
+                wkt.append(j == 0 ? "" : ", ").append(round(x + Math.cos(angle))).append(' ')
+                        .append(round(y + Math.sin(angle)));
+            }
+            if (vertices > 1) {
+                // closes the ring on the first vertex
+                wkt.append(", ").append(round(x + 1)).append(' ').append(round(y)).append(')');
+            }
+            wkts[i] = wkt.append(')').toString();
+        }
+        GeometryFactory geometryFactory = new GeometryFactory();
+        wktReader = new WKTReader(geometryFactory);
+        wktParser = new CSVWKTParser(geometryFactory);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1e7) / 1e7;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void wktReader(Blackhole blackhole) throws ParseException {
+        for (int i = 0; i < VALUES; i++) {
+            blackhole.consume(wktReader.read(wkts[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void wktParser(Blackhole blackhole) throws ParseException {
+        for (int i = 0; i < VALUES; i++) {
+            blackhole.consume(wktParser.read(wkts[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void parseDouble(Blackhole blackhole) {
+        for (int i = 0; i < VALUES; i++) {
+            blackhole.consume(Double.parseDouble(coordinates[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void decimalParser(Blackhole blackhole) {
+        for (int i = 0; i < VALUES; i++) {
+            blackhole.consume(CSVDecimalParser.parseDouble(coordinates[i]));
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.opengeo.data.csv.parse;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opengeo.data.csv.CSVFileState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.csvreader.CsvReader;
+
+/**
+ * Rows per second read by CsvReader over a character stream versus the memory mapped
+ * {@link CSVMappedTokenizer}, decoding every field or only parsing the coordinates, and for a
+ * complete feature iteration with memory mapping off and on.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CSVTokenizerBenchmark {
+
+    private static final int ROWS = 100000;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private File file;
+
+    private CSVFileState fileState;
+
+    private CSVFileState mappedFileState;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = File.createTempFile("benchmark", ".csv");
+        Random random = new Random(42);
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write("lat,lon,name,description,count,value\n");
+            for (int i = 0; i < ROWS; i++) {
+                writer.write((random.nextDouble() * 180 - 90) + ","
+                        + (random.nextDouble() * 360 - 180) + ",name" + i
+                        + ",\"a longer, quoted description of row " + i + "\","
+                        + random.nextInt(1000) + "," + random.nextDouble() + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        fileState = new CSVFileState(file);
+        fileState.setCharset(UTF8);
+        mappedFileState = new CSVFileState(file);
+        mappedFileState.setCharset(UTF8);
+        mappedFileState.setMemoryMapped(true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void csvReader(Blackhole blackhole) throws IOException {
+        CsvReader csvReader = fileState.openCSVReader();
+        try {
+            while (csvReader.readRecord()) {
+                blackhole.consume(csvReader.getValues());
+            }
+        } finally {
+            csvReader.close();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void tokenizerValues(Blackhole blackhole) throws IOException {
+        CSVMappedTokenizer tokenizer = new CSVMappedTokenizer(file, UTF8);
+        try {
+            while (tokenizer.readRecord()) {
+                blackhole.consume(tokenizer.getValues());
+            }
+        } finally {
+            tokenizer.close();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void tokenizerCoordinates(Blackhole blackhole) throws IOException {
+        CSVMappedTokenizer tokenizer = new CSVMappedTokenizer(file, UTF8);
+        try {
+            tokenizer.readRecord();
+            while (tokenizer.readRecord()) {
+                blackhole.consume(tokenizer.getDouble(0));
+                blackhole.consume(tokenizer.getDouble(1));
+            }
+        } finally {
+            tokenizer.close();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void readFeatures(Blackhole blackhole) throws IOException {
+        read(new CSVLatLonStrategy(fileState), blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void readFeaturesMapped(Blackhole blackhole) throws IOException {
+        read(new CSVLatLonStrategy(mappedFileState), blackhole);
+    }
+
+    private void read(CSVStrategy strategy, Blackhole blackhole) throws IOException {
+        CSVIterator iterator = strategy.iterator();
+        try {
+            while (iterator.hasNext()) {
+                blackhole.consume(iterator.next());
+            }
+        } finally {
+            iterator.close();
+        }
+    }
+}
@@ -0,0 +1,527 @@
+package org.opengeo.data.csv;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+
+import org.geotools.feature.visitor.AverageVisitor;
+import org.geotools.feature.visitor.BoundsVisitor;
+import org.geotools.feature.visitor.CountVisitor;
+import org.geotools.feature.visitor.MaxVisitor;
+import org.geotools.feature.visitor.MedianVisitor;
+import org.geotools.feature.visitor.MinVisitor;
+import org.geotools.feature.visitor.SumVisitor;
+import org.geotools.feature.visitor.UniqueVisitor;
+import org.opengeo.data.csv.CSVParallelReader.Chunk;
+import org.opengeo.data.csv.memory.CSVColumnStore;
+import org.opengeo.data.csv.parse.CSVArrayRecord;
+import org.opengeo.data.csv.parse.CSVFeatureBuilder;
+import org.opengeo.data.csv.parse.CSVMappedTokenizer;
+import org.opengeo.data.csv.parse.CSVRecord;
+import org.opengeo.data.csv.parse.CSVRecordFilter;
+import org.opengeo.data.csv.parse.CSVStrategy;
+import org.opengis.feature.FeatureVisitor;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.filter.Filter;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.PropertyName;
+
+import com.csvreader.CsvReader;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Computes the result of common feature visitors straight from the csv records, without building
+ * features: counts, bounds, and the minimum, maximum or unique values of an attribute copied from
+ * a column. The records are split into chunks like {@link CSVParallelReader} does, every chunk is
+ * aggregated by a task on the shared pool and the partial results are merged at the end.
+ * <p>
+ * Filters are evaluated on the records through a {@link CSVRecordFilter}, only the records it
+ * cannot decide on are turned into features.
+ * <p>
+ * Other visitors whose result does not depend on the order of the features are handed the
+ * features of an unordered {@link CSVParallelReader}.
+ */
+class CSVAggregator {
+
+    private final CSVFileState csvFileState;
+
+    private final CSVStrategy csvStrategy;
+
+    private final Filter filter;
+
+    private final int parallelism;
+
+    CSVAggregator(CSVFileState csvFileState, CSVStrategy csvStrategy, Filter filter,
+            int parallelism) {
+        this.csvFileState = csvFileState;
+        this.csvStrategy = csvStrategy;
+        this.filter = filter == null ? Filter.INCLUDE : filter;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Returns an empty aggregate computing the result of the visitor, or null when the visitor is
+     * not supported or aggregates something else than an attribute copied from a column.
+     */
+    static Aggregate createAggregate(FeatureVisitor visitor, CSVStrategy csvStrategy,
+            String[] headers) {
+        if (visitor instanceof CountVisitor) {
+            return new Count();
+        } else if (visitor instanceof BoundsVisitor) {
+            return csvStrategy.getFeatureType().getGeometryDescriptor() != null ? new Bounds(
+                    csvStrategy) : null;
+        } else if (visitor instanceof MinVisitor || visitor instanceof MaxVisitor) {
+            Expression expression = visitor instanceof MinVisitor ? ((MinVisitor) visitor)
+                    .getExpression() : ((MaxVisitor) visitor).getExpression();
+            Column column = Column.lookup(expression, csvStrategy.getFeatureType(), headers);
+            return column != null ? new Range(column) : null;
+        } else if (visitor instanceof UniqueVisitor) {
+            Column column = Column.lookup(((UniqueVisitor) visitor).getExpression(),
+                    csvStrategy.getFeatureType(), headers);
+            return column != null ? new Unique(column) : null;
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether the result of the visitor is the same whatever the order it visits the
+     * features in.
+     */
+    static boolean isOrderIndependent(FeatureVisitor visitor) {
+        return visitor instanceof CountVisitor || visitor instanceof BoundsVisitor
+                || visitor instanceof MinVisitor || visitor instanceof MaxVisitor
+                || visitor instanceof UniqueVisitor || visitor instanceof SumVisitor
+                || visitor instanceof AverageVisitor || visitor instanceof MedianVisitor;
+    }
+
+    /**
+     * Hands every feature matching the filter to the visitor, in the order chunks read in
+     * parallel produce them. Only valid for files and order independent visitors.
+     */
+    void visit(FeatureVisitor visitor) throws IOException {
+        CSVParallelReader reader = new CSVParallelReader(csvFileState, csvStrategy, parallelism,
+                false);
+        try {
+            while (reader.hasNext()) {
+                SimpleFeature feature = reader.next();
+                if (filter.evaluate(feature)) {
+                    visitor.visit(feature);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Feeds every record matching the filter to the aggregate, in chunks read in parallel for
+     * files.
+     */
+    void aggregate(Aggregate aggregate) throws IOException {
+        CSVColumnStore columnStore = csvFileState.getColumnStore();
+        if (parallelism == 1 || csvFileState.getFile() == null) {
+            read(aggregate, new Chunk(0, -1, 0), columnStore);
+            return;
+        }
+        List<Chunk> chunks;
+        if (columnStore != null) {
+            chunks = new ArrayList<Chunk>();
+            int rowCount = columnStore.getRowCount();
+            int chunkRows = Math.max(1, (rowCount + parallelism - 1) / parallelism);
+            for (int row = 0; row < rowCount; row += chunkRows) {
+                chunks.add(new Chunk(row, Math.min(chunkRows, rowCount - row), 0));
+            }
+        } else {
+            chunks = CSVParallelReader.split(csvFileState.getRowIndex(), parallelism);
+        }
+        CompletionService<Aggregate> completion = new ExecutorCompletionService<Aggregate>(
+                CSVParallelReader.getExecutor());
+        List<Future<Aggregate>> futures = new ArrayList<Future<Aggregate>>();
+        int submitted = 0;
+        try {
+            // at most parallelism chunks are in flight, like when reading features
+            for (; submitted < Math.min(parallelism, chunks.size()); submitted++) {
+                futures.add(completion.submit(new ChunkTask(aggregate, chunks.get(submitted),
+                        columnStore)));
+            }
+            for (int finished = 0; finished < chunks.size(); finished++) {
+                aggregate.merge(completion.take().get());
+                if (submitted < chunks.size()) {
+                    futures.add(completion.submit(new ChunkTask(aggregate, chunks
+                            .get(submitted++), columnStore)));
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while aggregating csv file");
+        } catch (ExecutionException e) {
+            throw (IOException) new IOException("Failure aggregating csv file").initCause(e
+                    .getCause());
+        } finally {
+            for (Future<Aggregate> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private void read(Aggregate aggregate, Chunk chunk, CSVColumnStore columnStore)
+            throws IOException {
+        CSVRecordFilter recordFilter = filter == Filter.INCLUDE ? null : CSVRecordFilter
+                .compile(filter, csvStrategy, csvFileState.getCSVHeaders());
+        CSVFeatureBuilder featureBuilder = null;
+        CSVColumnStore.Cursor cursor = null;
+        CSVMappedTokenizer tokenizer = null;
+        CsvReader csvReader = null;
+        CSVArrayRecord arrayRecord = null;
+        CSVRecord record;
+        if (columnStore != null) {
+            cursor = columnStore.cursor(chunk.startRow);
+            record = cursor;
+        } else {
+            tokenizer = csvFileState.openTokenizer(chunk.offset);
+            record = tokenizer;
+            if (tokenizer == null) {
+                csvReader = csvFileState.openCSVReader(chunk.offset);
+                record = arrayRecord = new CSVArrayRecord();
+            }
+        }
+        try {
+            for (int i = 0; chunk.rowCount < 0 || i < chunk.rowCount; i++) {
+                if (cursor != null ? !cursor.next() : tokenizer != null ? !tokenizer
+                        .readRecord() : !csvReader.readRecord()) {
+                    break;
+                }
+                if (arrayRecord != null) {
+                    arrayRecord.setValues(csvReader.getValues());
+                }
+                if (recordFilter != null) {
+                    int match = recordFilter.evaluate(record);
+                    if (match == CSVRecordFilter.NO_MATCH) {
+                        continue;
+                    } else if (match == CSVRecordFilter.UNKNOWN) {
+                        if (featureBuilder == null) {
+                            featureBuilder = csvStrategy.createFeatureBuilder();
+                        }
+                        String id = String.valueOf(chunk.startRow + i + 1);
+                        if (!filter.evaluate(featureBuilder.build(id, record))) {
+                            continue;
+                        }
+                    }
+                }
+                aggregate.add(record);
+            }
+        } finally {
+            if (csvReader != null) {
+                csvReader.close();
+            }
+            if (tokenizer != null) {
+                tokenizer.close();
+            }
+        }
+    }
+
+    private class ChunkTask implements Callable<Aggregate> {
+
+        private final Aggregate aggregate;
+
+        private final Chunk chunk;
+
+        private final CSVColumnStore columnStore;
+
+        ChunkTask(Aggregate aggregate, Chunk chunk, CSVColumnStore columnStore) {
+            this.aggregate = aggregate;
+            this.chunk = chunk;
+            this.columnStore = columnStore;
+        }
+
+        public Aggregate call() throws IOException {
+            Aggregate partial = aggregate.create();
+            read(partial, chunk, columnStore);
+            return partial;
+        }
+    }
+
+    /**
+     * Result of a visitor computed over records. Aggregates are not thread safe, every chunk is
+     * aggregated into its own and merged afterwards.
+     */
+    abstract static class Aggregate {
+
+        /**
+         * Returns a new empty aggregate of the same kind.
+         */
+        abstract Aggregate create();
+
+        abstract void add(CSVRecord record);
+
+        abstract void merge(Aggregate partial);
+
+        /**
+         * Hands the result over to the visitor, as if it had visited the features.
+         */
+        abstract void setResult(FeatureVisitor visitor);
+
+        /**
+         * Takes the result from the statistics of the file instead of reading it, when they hold
+         * it. Only valid when every record is aggregated.
+         */
+        boolean setResult(FeatureVisitor visitor, CSVFileStatistics statistics) {
+            return false;
+        }
+    }
+
+    private static class Count extends Aggregate {
+
+        int count;
+
+        @Override
+        Aggregate create() {
+            return new Count();
+        }
+
+        @Override
+        void add(CSVRecord record) {
+            count++;
+        }
+
+        @Override
+        void merge(Aggregate partial) {
+            count += ((Count) partial).count;
+        }
+
+        @Override
+        void setResult(FeatureVisitor visitor) {
+            ((CountVisitor) visitor).setValue(count);
+        }
+    }
+
+    private static class Bounds extends Aggregate {
+
+        private final CSVStrategy csvStrategy;
+
+        private final CSVFeatureBuilder featureBuilder;
+
+        final Envelope bounds = new Envelope();
+
+        Bounds(CSVStrategy csvStrategy) {
+            this.csvStrategy = csvStrategy;
+            this.featureBuilder = csvStrategy.createFeatureBuilder();
+        }
+
+        @Override
+        Aggregate create() {
+            return new Bounds(csvStrategy);
+        }
+
+        @Override
+        void add(CSVRecord record) {
+            Geometry geometry;
+            try {
+                geometry = featureBuilder.buildGeometry(record);
+            } catch (RuntimeException e) {
+                // like features, records with an invalid geometry have no bounds
+                return;
+            }
+            if (geometry != null) {
+                bounds.expandToInclude(geometry.getEnvelopeInternal());
+            }
+        }
+
+        @Override
+        void merge(Aggregate partial) {
+            bounds.expandToInclude(((Bounds) partial).bounds);
+        }
+
+        @Override
+        void setResult(FeatureVisitor visitor) {
+            if (!bounds.isNull()) {
+                ((BoundsVisitor) visitor).getBounds().expandToInclude(bounds);
+            }
+        }
+    }
+
+    private static class Range extends Aggregate {
+
+        private final Column column;
+
+        @SuppressWarnings("rawtypes")
+        Comparable minimum;
+
+        @SuppressWarnings("rawtypes")
+        Comparable maximum;
+
+        Range(Column column) {
+            this.column = column;
+        }
+
+        @Override
+        Aggregate create() {
+            return new Range(column);
+        }
+
+        @Override
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        void add(CSVRecord record) {
+            Comparable value = (Comparable) column.getValue(record);
+            if (value == null) {
+                return;
+            }
+            if (minimum == null || value.compareTo(minimum) < 0) {
+                minimum = value;
+            }
+            if (maximum == null || value.compareTo(maximum) > 0) {
+                maximum = value;
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void merge(Aggregate partial) {
+            Range range = (Range) partial;
+            if (range.minimum != null
+                    && (minimum == null || range.minimum.compareTo(minimum) < 0)) {
+                minimum = range.minimum;
+            }
+            if (range.maximum != null
+                    && (maximum == null || range.maximum.compareTo(maximum) > 0)) {
+                maximum = range.maximum;
+            }
+        }
+
+        @Override
+        void setResult(FeatureVisitor visitor) {
+            if (visitor instanceof MinVisitor) {
+                if (minimum != null) {
+                    ((MinVisitor) visitor).setValue(minimum);
+                }
+            } else if (maximum != null) {
+                ((MaxVisitor) visitor).setValue(maximum);
+            }
+        }
+
+        @Override
+        boolean setResult(FeatureVisitor visitor, CSVFileStatistics statistics) {
+            Object value = visitor instanceof MinVisitor ? statistics.getMinimum(column.name)
+                    : statistics.getMaximum(column.name);
+            if (!column.binding.isInstance(value)) {
+                // sampled statistics have no ranges
+                return false;
+            }
+            if (visitor instanceof MinVisitor) {
+                ((MinVisitor) visitor).setValue(value);
+            } else {
+                ((MaxVisitor) visitor).setValue(value);
+            }
+            return true;
+        }
+    }
+
+    private static class Unique extends Aggregate {
+
+        private final Column column;
+
+        final Set<Object> values = new HashSet<Object>();
+
+        Unique(Column column) {
+            this.column = column;
+        }
+
+        @Override
+        Aggregate create() {
+            return new Unique(column);
+        }
+
+        @Override
+        void add(CSVRecord record) {
+            Object value = column.getValue(record);
+            if (value != null) {
+                values.add(value);
+            }
+        }
+
+        @Override
+        void merge(Aggregate partial) {
+            values.addAll(((Unique) partial).values);
+        }
+
+        @Override
+        void setResult(FeatureVisitor visitor) {
+            ((UniqueVisitor) visitor).setValue(values);
+        }
+    }
+
+    /**
+     * Column an attribute is copied from, with the value conversion done by the feature builder
+     * for the bindings inferred from csv data.
+     */
+    private static class Column {
+
+        final String name;
+
+        final int index;
+
+        final Class<?> binding;
+
+        Column(String name, int index, Class<?> binding) {
+            this.name = name;
+            this.index = index;
+            this.binding = binding;
+        }
+
+        static Column lookup(Expression expression, SimpleFeatureType featureType,
+                String[] headers) {
+            if (!(expression instanceof PropertyName)) {
+                return null;
+            }
+            String name = ((PropertyName) expression).getPropertyName();
+            AttributeDescriptor descriptor = featureType.getDescriptor(name);
+            int index = Arrays.asList(headers).indexOf(name);
+            if (descriptor == null || descriptor instanceof GeometryDescriptor || index < 0) {
+                return null;
+            }
+            Class<?> binding = descriptor.getType().getBinding();
+            if (binding != String.class && binding != Integer.class && binding != Long.class
+                    && binding != Double.class) {
+                return null;
+            }
+            return new Column(name, index, binding);
+        }
+
+        Object getValue(CSVRecord record) {
+            if (index >= record.getColumnCount()) {
+                return null;
+            }
+            if (binding == String.class) {
+                return record.get(index);
+            }
+            if (record.isEmpty(index)) {
+                return null;
+            }
+            try {
+                if (binding == Integer.class) {
+                    long value = record.getLong(index);
+                    return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE ? Integer
+                            .valueOf((int) value) : null;
+                } else if (binding == Long.class) {
+                    return Long.valueOf(record.getLong(index));
+                }
+                return Double.valueOf(record.getDouble(index));
+            } catch (NumberFormatException e) {
+                // values that are not numbers are left out, features would hold null
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.opengeo.data.csv;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.opengeo.data.csv.index.CSVGzipInputStream;
+
+/**
+ * How a csv file is compressed, told by its file name suffix. Compressed files are decompressed
+ * while they are read and cannot be written.
+ */
+public enum CSVCompression {
+
+    NONE(""),
+
+    /** Also reads files made of several gzip members, like the ones written by bgzip. */
+    GZIP(".gz"),
+
+    /** Also reads files made of several bzip2 streams, like the ones written by pbzip2. */
+    BZIP2(".bz2");
+
+    private final String suffix;
+
+    private CSVCompression(String suffix) {
+        this.suffix = suffix;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+
+    /**
+     * Wraps the stream of compressed bytes, which must start at the beginning of a gzip member or
+     * bzip2 stream, into a stream of decompressed bytes.
+     */
+    public InputStream decompress(InputStream in) throws IOException {
+        switch (this) {
+        case GZIP:
+            return new CSVGzipInputStream(in);
+        case BZIP2:
+            // the decompressor reads its input one byte at a time
+            return new BZip2CompressorInputStream(new BufferedInputStream(in), true);
+        default:
+            return in;
+        }
+    }
+
+    public static CSVCompression forFile(File file) {
+        String name = file.getName().toLowerCase();
+        for (CSVCompression compression : values()) {
+            if (compression != NONE && name.endsWith(compression.suffix)) {
+                return compression;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the file name without the compression suffix.
+     */
+    public String stripSuffix(String name) {
+        return name.substring(0, name.length() - suffix.length());
+    }
+}
@@ -26,6 +26,8 @@ public class CSVDataStore extends ContentDataStore implements FileDataStore {
 
     private final CSVFileState csvFileState;
 
+    private int parallelism = 1;
+
     public CSVDataStore(CSVFileState csvFileState, CSVStrategy csvStrategy) {
         this.csvFileState = csvFileState;
         this.csvStrategy = csvStrategy;
@@ -43,6 +45,11 @@ public class CSVDataStore extends ContentDataStore implements FileDataStore {
 
     @Override
     protected ContentFeatureSource createFeatureSource(ContentEntry entry) throws IOException {
+        // compressed files are read only
+        if (csvFileState.getFile() != null
+                && csvFileState.getCompression() == CSVCompression.NONE) {
+            return new CSVFeatureStore(entry, Query.ALL);
+        }
         return new CSVFeatureSource(entry, Query.ALL);
     }
 
@@ -58,7 +65,7 @@ public class CSVDataStore extends ContentDataStore implements FileDataStore {
 
     @Override
     public SimpleFeatureSource getFeatureSource() throws IOException {
-        return new CSVFeatureSource(this);
+        return getFeatureSource(getTypeName());
     }
 
     @Override
@@ -69,23 +76,38 @@ public class CSVDataStore extends ContentDataStore implements FileDataStore {
     @Override
     public FeatureWriter<SimpleFeatureType, SimpleFeature> getFeatureWriter(Filter filter,
             Transaction transaction) throws IOException {
-        throw new UnsupportedOperationException();
+        return getFeatureWriter(getTypeName().getLocalPart(), filter, transaction);
     }
 
     @Override
     public FeatureWriter<SimpleFeatureType, SimpleFeature> getFeatureWriter(Transaction transaction)
             throws IOException {
-        throw new UnsupportedOperationException();
+        return getFeatureWriter(getTypeName().getLocalPart(), Filter.INCLUDE, transaction);
     }
 
     @Override
     public FeatureWriter<SimpleFeatureType, SimpleFeature> getFeatureWriterAppend(
             Transaction transaction) throws IOException {
-        throw new UnsupportedOperationException();
+        return getFeatureWriterAppend(getTypeName().getLocalPart(), transaction);
     }
 
     public CSVStrategy getCSVStrategy() {
         return csvStrategy;
     }
 
+    public CSVFileState getCSVFileState() {
+        return csvFileState;
+    }
+
+    /**
+     * Number of threads used to read the whole file, 1 reads it sequentially.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
 }
@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.net.URI;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.util.Collections;
 import java.util.Map;
 
@@ -24,7 +25,9 @@ public class CSVDataStoreFactory implements FileDataStoreFactorySpi {
 
     private static final String FILE_TYPE = "csv";
 
-    public static final String[] EXTENSIONS = new String[] { "." + FILE_TYPE };
+    public static final String[] EXTENSIONS = new String[] { "." + FILE_TYPE,
+            "." + FILE_TYPE + CSVCompression.GZIP.getSuffix(),
+            "." + FILE_TYPE + CSVCompression.BZIP2.getSuffix() };
 
     public static final Param FILE_PARAM = new Param("file", File.class, FILE_TYPE + " file", false);
 
@@ -44,6 +47,43 @@ public class CSVDataStoreFactory implements FileDataStoreFactorySpi {
     public static final Param WKTP = new Param("wktField", String.class,
             "WKT field. Assumes a CSVSpecifiedWKTStrategy", false);
 
+    public static final Param INFERENCEP = new Param("inference", String.class,
+            "How the schema is inferred: 'full' (default), 'first' or 'sample'", false, null,
+            new KVP(Param.LEVEL, "advanced"));
+
+    public static final Param SAMPLESIZEP = new Param("sampleSize", Integer.class,
+            "Number of records read by the 'first' and 'sample' inference modes", false,
+            CSVInferenceMode.DEFAULT_SAMPLE_SIZE, new KVP(Param.LEVEL, "advanced"));
+
+    public static final Param PARALLELISMP = new Param("parallelism", Integer.class,
+            "Number of threads reading the whole file, 1 reads it sequentially", false, 1,
+            new KVP(Param.LEVEL, "advanced"));
+
+    public static final Param CHARSETP = new Param("charset", String.class,
+            "Character set the file is encoded in, defaults to the platform encoding", false, null,
+            new KVP(Param.LEVEL, "advanced"));
+
+    public static final Param MEMORYMAPPEDP = new Param("memoryMapped", Boolean.class,
+            "Read records from a memory mapped buffer rather than through a character stream",
+            false, false, new KVP(Param.LEVEL, "advanced"));
+
+    public static final Param MEMORYLIMITP = new Param("memoryLimit", Long.class,
+            "Files up to this many bytes are loaded into memory columns, 0 always reads the file",
+            false, 0L, new KVP(Param.LEVEL, "advanced"));
+
+    public static final Param COLUMNCACHEP = new Param("columnCache", Boolean.class,
+            "Convert the file into a binary columnar cache next to it on first access, and read "
+                    + "from the cache afterwards", false, false, new KVP(Param.LEVEL, "advanced"));
+
+    public static final Param INDEXFILESP = new Param("indexFiles", Boolean.class,
+            "Write the indexes built over the file next to it so they survive restarts, rather "
+                    + "than only keeping them in memory", false, true, new KVP(Param.LEVEL,
+                    "advanced"));
+
+    public static final Param WATCHP = new Param("watch", Boolean.class,
+            "Follow records appended to the file without rescanning it", false, false,
+            new KVP(Param.LEVEL, "advanced"));
+
     public static final Param[] parametersInfo = new Param[] { FILE_PARAM };
 
     @Override
@@ -61,8 +101,9 @@ public class CSVDataStoreFactory implements FileDataStoreFactorySpi {
         return parametersInfo;
     }
 
-    private boolean canProcessExtension(String filename) {
-        String extension = FilenameUtils.getExtension(filename);
+    boolean canProcessExtension(String filename) {
+        String extension = FilenameUtils.getExtension(CSVCompression.forFile(new File(filename))
+                .stripSuffix(filename));
         return FILE_TYPE.equalsIgnoreCase(extension);
     }
 
@@ -130,9 +171,64 @@ public class CSVDataStoreFactory implements FileDataStoreFactorySpi {
         return createDataStoreFromFile(file, namespace, params);
     }
 
-    private FileDataStore createDataStoreFromFile(File file, URI namespace,
+    CSVDataStore createDataStoreFromFile(File file, URI namespace,
+            Map<String, Serializable> params) throws IOException {
+        // stores for the same file and settings share the parsed state
+        CSVFileStateCache cache = CSVFileStateCache.getInstance();
+        String key = CSVFileStateCache.getKey(file, getCacheParameters(namespace, params));
+        CSVFileStateCache.Entry entry = cache.get(key, file);
+        if (entry == null) {
+            entry = createEntry(file, namespace, params);
+            cache.put(key, entry);
+        }
+        CSVDataStore dataStore = new CSVDataStore(entry.getCSVFileState(),
+                entry.getCSVStrategy());
+        Integer parallelism = (Integer) PARALLELISMP.lookUp(params);
+        if (parallelism != null) {
+            dataStore.setParallelism(parallelism);
+        }
+        return dataStore;
+    }
+
+    private String getCacheParameters(URI namespace, Map<String, Serializable> params)
+            throws IOException {
+        StringBuilder parameters = new StringBuilder().append(namespace);
+        for (Param param : new Param[] { CHARSETP, MEMORYMAPPEDP, MEMORYLIMITP, COLUMNCACHEP,
+                INDEXFILESP, WATCHP, INFERENCEP, SAMPLESIZEP, STRATEGYP, LATFIELDP, LnGFIELDP, WKTP }) {
+            parameters.append('|').append(param.lookUp(params));
+        }
+        return parameters.toString();
+    }
+
+    private CSVFileStateCache.Entry createEntry(File file, URI namespace,
             Map<String, Serializable> params) throws IOException {
         CSVFileState csvFileState = new CSVFileState(file, namespace);
+        Object charsetParam = CHARSETP.lookUp(params);
+        if (charsetParam != null) {
+            csvFileState.setCharset(Charset.forName(charsetParam.toString()));
+        }
+        Boolean memoryMapped = (Boolean) MEMORYMAPPEDP.lookUp(params);
+        if (memoryMapped != null) {
+            csvFileState.setMemoryMapped(memoryMapped);
+        }
+        Long memoryLimit = (Long) MEMORYLIMITP.lookUp(params);
+        if (memoryLimit != null) {
+            csvFileState.setMemoryLimit(memoryLimit);
+        }
+        Boolean columnCache = (Boolean) COLUMNCACHEP.lookUp(params);
+        if (columnCache != null) {
+            csvFileState.setColumnCache(columnCache);
+        }
+        Boolean indexFiles = (Boolean) INDEXFILESP.lookUp(params);
+        if (indexFiles != null) {
+            csvFileState.setIndexFiles(indexFiles);
+        }
+        Object inferenceParam = INFERENCEP.lookUp(params);
+        if (inferenceParam != null) {
+            Integer sampleSize = (Integer) SAMPLESIZEP.lookUp(params);
+            csvFileState.setInferenceMode(CSVInferenceMode.lookup(inferenceParam.toString()),
+                    sampleSize != null ? sampleSize : CSVInferenceMode.DEFAULT_SAMPLE_SIZE);
+        }
         Object strategyParam = STRATEGYP.lookUp(params);
         CSVStrategy csvStrategy = null;
         if (strategyParam != null) {
@@ -161,7 +257,13 @@ public class CSVDataStoreFactory implements FileDataStoreFactorySpi {
         } else {
             csvStrategy = new CSVAttributesOnlyStrategy(csvFileState);
         }
-        return new CSVDataStore(csvFileState, csvStrategy);
+        CSVFileStateCache.Entry entry = new CSVFileStateCache.Entry(file, csvFileState,
+                csvStrategy);
+        Boolean watch = (Boolean) WATCHP.lookUp(params);
+        if (watch != null && watch) {
+            csvFileState.setWatched(true);
+        }
+        return entry;
     }
 
     @Override
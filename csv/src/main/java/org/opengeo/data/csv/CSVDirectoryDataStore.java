@@ -0,0 +1,189 @@
+package org.opengeo.data.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+
+import org.geotools.data.store.ContentDataStore;
+import org.geotools.data.store.ContentEntry;
+import org.geotools.data.store.ContentFeatureSource;
+import org.geotools.feature.NameImpl;
+import org.opengis.feature.type.Name;
+
+/**
+ * Serves every csv file of a directory, one type per file named after it. Listing the type names
+ * only lists the directory; a file is opened, and its schema inferred, the first time its type is
+ * accessed. The opened files are held by the {@link CSVFileStateCache} rather than by the store,
+ * so the least recently used ones are evicted once more files are open than the cache holds.
+ * <p>
+ * Files whose names match the union pattern are not listed on their own but served together as
+ * a single type named after the directory, see {@link CSVUnionFeatureSource}.
+ */
+public class CSVDirectoryDataStore extends ContentDataStore {
+
+    private final File directory;
+
+    private final CSVDataStoreFactory fileFactory;
+
+    private final URI namespace;
+
+    private final Map<String, Serializable> params;
+
+    private final Pattern union;
+
+    private int parallelism = 1;
+
+    // files of the last listing by type name, and the union files, reused while the directory is
+    // not modified
+    private Map<String, File> files;
+
+    private List<File> unionFiles;
+
+    private long listedModified;
+
+    private long listedAt;
+
+    /**
+     * Creates a store for the directory, the parameters are the ones of the
+     * {@link CSVDataStoreFactory} and apply to each file.
+     */
+    public CSVDirectoryDataStore(File directory, URI namespace, Map<String, Serializable> params,
+            Pattern union) {
+        this.directory = directory;
+        this.namespace = namespace;
+        if (namespace != null) {
+            setNamespaceURI(namespace.toString());
+        }
+        this.fileFactory = new CSVDataStoreFactory();
+        this.params = new HashMap<String, Serializable>(params);
+        this.union = union;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Name of the type the files matching the union pattern are served as.
+     */
+    public String getUnionTypeName() {
+        return directory.getName();
+    }
+
+    /**
+     * Number of files a union type reads at the same time.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Lists the csv files of the directory by type name, in file name order. When several files
+     * map to the same type name, for instance a compressed and an uncompressed copy, the first
+     * one wins.
+     */
+    synchronized Map<String, File> listFiles() throws IOException {
+        list();
+        return files;
+    }
+
+    /**
+     * Lists the files served as the union type, in file name order.
+     */
+    synchronized List<File> listUnionFiles() throws IOException {
+        list();
+        return unionFiles;
+    }
+
+    /**
+     * Lists the directory unless it was not modified since the last listing. Modification times
+     * may only have a resolution of a second, so a listing taken within the second the directory
+     * was last modified is not trusted.
+     */
+    private synchronized void list() throws IOException {
+        long modified = directory.lastModified();
+        if (files != null && modified == listedModified && listedAt - modified >= 1000) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        File[] listing = directory.listFiles();
+        if (listing == null) {
+            throw new IOException("Could not list the files of " + directory);
+        }
+        Arrays.sort(listing);
+        Map<String, File> result = new LinkedHashMap<String, File>();
+        List<File> unionResult = new ArrayList<File>();
+        for (File file : listing) {
+            if (!file.isFile() || !fileFactory.canProcessExtension(file.getName())) {
+                continue;
+            }
+            boolean inUnion = union != null && union.matcher(file.getName()).matches();
+            if (inUnion) {
+                unionResult.add(file);
+            }
+            String typeName = inUnion ? getUnionTypeName() : new CSVFileState(file).getTypeName();
+            if (!result.containsKey(typeName)) {
+                result.put(typeName, file);
+            } else if (!typeName.equals(getUnionTypeName())) {
+                CSVFileStateCache.LOGGER.log(Level.FINE, "Skipping " + file + ", type "
+                        + typeName + " is already served from " + result.get(typeName));
+            }
+        }
+        files = Collections.unmodifiableMap(result);
+        unionFiles = Collections.unmodifiableList(unionResult);
+        listedModified = modified;
+        listedAt = now;
+    }
+
+    @Override
+    protected List<Name> createTypeNames() throws IOException {
+        String namespaceURI = namespace != null ? namespace.toString() : null;
+        List<Name> names = new ArrayList<Name>();
+        for (String typeName : listFiles().keySet()) {
+            names.add(new NameImpl(namespaceURI, typeName));
+        }
+        return names;
+    }
+
+    @Override
+    protected ContentFeatureSource createFeatureSource(ContentEntry entry) throws IOException {
+        String typeName = entry.getName().getLocalPart();
+        if (union != null && typeName.equals(getUnionTypeName())) {
+            List<CSVDataStore> stores = new ArrayList<CSVDataStore>();
+            for (File file : listUnionFiles()) {
+                stores.add(openFile(file));
+            }
+            if (!stores.isEmpty()) {
+                return new CSVUnionFeatureSource(entry, stores);
+            }
+        } else {
+            File file = listFiles().get(typeName);
+            if (file != null) {
+                CSVDataStore dataStore = openFile(file);
+                return dataStore.getFeatureSource(dataStore.getTypeName());
+            }
+        }
+        throw new IOException("No csv file in " + directory + " for type " + typeName);
+    }
+
+    /**
+     * Opens the store of a single file, sharing its state with any other store of the file.
+     */
+    CSVDataStore openFile(File file) throws IOException {
+        return fileFactory.createDataStoreFromFile(file, namespace, params);
+    }
+}
@@ -0,0 +1,105 @@
+package org.opengeo.data.csv;
+
+import java.awt.RenderingHints.Key;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.geotools.data.DataStore;
+import org.geotools.data.DataStoreFactorySpi;
+import org.geotools.util.KVP;
+
+/**
+ * Creates {@link CSVDirectoryDataStore} instances. The parameters of the
+ * {@link CSVDataStoreFactory} other than the file apply to every file of the directory.
+ */
+public class CSVDirectoryDataStoreFactory implements DataStoreFactorySpi {
+
+    public static final Param DIRECTORYP = new Param("directory", File.class,
+            "Directory of csv files", true);
+
+    public static final Param UNIONP = new Param("union", String.class,
+            "Regular expression, files whose names match are served as one type named after "
+                    + "the directory", false, null, new KVP(Param.LEVEL, "advanced"));
+
+    public static final Param[] parametersInfo = new Param[] { DIRECTORYP,
+            CSVDataStoreFactory.NAMESPACEP, CSVDataStoreFactory.STRATEGYP,
+            CSVDataStoreFactory.LATFIELDP, CSVDataStoreFactory.LnGFIELDP,
+            CSVDataStoreFactory.WKTP, CSVDataStoreFactory.PARALLELISMP, UNIONP };
+
+    @Override
+    public String getDisplayName() {
+        return "Directory of CSV files";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Directory of comma delimited text files";
+    }
+
+    @Override
+    public Param[] getParametersInfo() {
+        return parametersInfo;
+    }
+
+    @Override
+    public boolean canProcess(Map<String, Serializable> params) {
+        try {
+            File directory = (File) DIRECTORYP.lookUp(params);
+            return directory != null && directory.isDirectory();
+        } catch (IOException e) {
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        try {
+            CSVDirectoryDataStore.class.getName();
+        } catch (Exception e) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Map<Key, ?> getImplementationHints() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public DataStore createDataStore(Map<String, Serializable> params) throws IOException {
+        File directory = (File) DIRECTORYP.lookUp(params);
+        if (directory == null || !directory.isDirectory()) {
+            throw new IllegalArgumentException("Cannot create store without a directory: "
+                    + directory);
+        }
+        URI namespace = (URI) CSVDataStoreFactory.NAMESPACEP.lookUp(params);
+        Pattern union = null;
+        Object unionParam = UNIONP.lookUp(params);
+        if (unionParam != null) {
+            try {
+                union = Pattern.compile(unionParam.toString());
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("Invalid union pattern: " + unionParam, e);
+            }
+        }
+        CSVDirectoryDataStore dataStore = new CSVDirectoryDataStore(directory, namespace, params,
+                union);
+        Integer parallelism = (Integer) CSVDataStoreFactory.PARALLELISMP.lookUp(params);
+        if (parallelism != null) {
+            dataStore.setParallelism(parallelism);
+        }
+        return dataStore;
+    }
+
+    @Override
+    public DataStore createNewDataStore(Map<String, Serializable> params) throws IOException {
+        return createDataStore(params);
+    }
+}
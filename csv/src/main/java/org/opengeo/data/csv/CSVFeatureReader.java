@@ -1,29 +1,110 @@
 package org.opengeo.data.csv;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
+import org.geotools.data.DataUtilities;
 import org.geotools.data.FeatureReader;
 import org.geotools.data.Query;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.filter.visitor.ExtractBoundsFilterVisitor;
 import org.opengeo.data.csv.parse.CSVIterator;
 import org.opengeo.data.csv.parse.CSVStrategy;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.filter.Filter;
+
+import com.vividsolutions.jts.geom.Envelope;
 
 public class CSVFeatureReader implements FeatureReader<SimpleFeatureType, SimpleFeature> {
 
     private SimpleFeatureType featureType;
 
+    // holds the requested attributes plus the ones the filter needs
+    private SimpleFeatureType readType;
+
     private CSVIterator iterator;
 
+    private final Filter filter;
+
+    private int skip;
+
+    private int remaining;
+
+    private SimpleFeature next;
+
     public CSVFeatureReader(CSVStrategy csvStrategy) throws IOException {
         this(csvStrategy, Query.ALL);
     }
 
     public CSVFeatureReader(CSVStrategy csvStrategy, Query query)
             throws IOException {
-        this.featureType = csvStrategy.getFeatureType();
-        this.iterator = csvStrategy.iterator();
+        SimpleFeatureType schema = csvStrategy.getFeatureType();
+        this.filter = query.getFilter() != null ? query.getFilter() : Filter.INCLUDE;
+        String[] propertyNames = query.getPropertyNames();
+        if (propertyNames == null) {
+            this.featureType = schema;
+            this.readType = schema;
+        } else {
+            this.featureType = SimpleFeatureTypeBuilder.retype(schema, propertyNames);
+            this.readType = getReadType(schema, featureType, filter);
+        }
+        int offset = query.getStartIndex() != null ? query.getStartIndex() : 0;
+        if (filter == Filter.INCLUDE) {
+            // every record matches, so the offset can be resolved by seeking in the file
+            this.iterator = csvStrategy.iterator(offset);
+            this.skip = 0;
+        } else {
+            Envelope bbox = (Envelope) filter.accept(ExtractBoundsFilterVisitor.BOUNDS_VISITOR,
+                    null);
+            if (bbox != null && !bbox.isNull() && !Double.isInfinite(bbox.getWidth())
+                    && !Double.isInfinite(bbox.getHeight())) {
+                // only read the records the spatial index says may match
+                this.iterator = csvStrategy.iterator(bbox);
+            } else {
+                this.iterator = csvStrategy.iterator();
+            }
+            this.skip = offset;
+        }
+        if (readType != schema) {
+            iterator.setFeatureBuilder(csvStrategy.createFeatureBuilder(readType));
+        }
+        iterator.setFilter(filter);
+        this.remaining = query.getMaxFeatures();
+    }
+
+    private static SimpleFeatureType getReadType(SimpleFeatureType schema,
+            SimpleFeatureType featureType, Filter filter) {
+        List<String> requested = new ArrayList<String>();
+        for (AttributeDescriptor descriptor : featureType.getAttributeDescriptors()) {
+            requested.add(descriptor.getLocalName());
+        }
+        Set<String> names = new HashSet<String>(requested);
+        if (filter != Filter.INCLUDE) {
+            names.addAll(Arrays.asList(DataUtilities.attributeNames(filter, schema)));
+        }
+        // keep the schema order, features are retyped to the requested order when returned
+        List<String> readNames = new ArrayList<String>();
+        for (AttributeDescriptor descriptor : schema.getAttributeDescriptors()) {
+            if (names.contains(descriptor.getLocalName())) {
+                readNames.add(descriptor.getLocalName());
+            }
+        }
+        if (readNames.equals(requested)) {
+            return featureType;
+        }
+        if (readNames.size() == schema.getAttributeCount()) {
+            return schema;
+        }
+        return SimpleFeatureTypeBuilder.retype(schema,
+                readNames.toArray(new String[readNames.size()]));
     }
 
     @Override
@@ -39,12 +120,32 @@ public class CSVFeatureReader implements FeatureReader<SimpleFeatureType, Simple
     @Override
     public SimpleFeature next() throws IOException, IllegalArgumentException,
             NoSuchElementException {
-        return iterator.next();
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        SimpleFeature result = next;
+        next = null;
+        return result;
     }
 
     @Override
     public boolean hasNext() throws IOException {
-        return iterator.hasNext();
+        if (next != null) {
+            return true;
+        }
+        while (remaining > 0 && iterator.hasNext()) {
+            // the iterator only returns features matching the filter
+            SimpleFeature feature = iterator.next();
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            remaining--;
+            next = readType != featureType ? SimpleFeatureBuilder.retype(feature, featureType)
+                    : feature;
+            return true;
+        }
+        return false;
     }
 
 }
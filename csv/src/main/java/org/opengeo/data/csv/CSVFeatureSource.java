@@ -4,11 +4,18 @@ import java.io.IOException;
 
 import org.geotools.data.FeatureReader;
 import org.geotools.data.Query;
+import org.geotools.data.Transaction;
 import org.geotools.data.store.ContentEntry;
 import org.geotools.data.store.ContentFeatureSource;
+import org.geotools.feature.visitor.BoundsVisitor;
+import org.geotools.feature.visitor.CountVisitor;
 import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengeo.data.csv.memory.CSVColumnStore;
+import org.opengis.feature.FeatureVisitor;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.filter.Filter;
 
 @SuppressWarnings("unchecked")
 public class CSVFeatureSource extends ContentFeatureSource {
@@ -34,8 +41,18 @@ public class CSVFeatureSource extends ContentFeatureSource {
     }
 
     protected ReferencedEnvelope getBoundsInternal(Query query) throws IOException {
+        if (isAll(query)) {
+            return getDataStore().getCSVStrategy().getBounds();
+        }
         ReferencedEnvelope bounds = new ReferencedEnvelope(getSchema()
                 .getCoordinateReferenceSystem());
+        GeometryDescriptor geometryDescriptor = getSchema().getGeometryDescriptor();
+        if (geometryDescriptor == null) {
+            return bounds;
+        }
+        // only the geometry is needed, the filter attributes are read on top of it
+        query = new Query(query);
+        query.setPropertyNames(new String[] { geometryDescriptor.getLocalName() });
         FeatureReader<SimpleFeatureType, SimpleFeature> featureReader = getReader(query);
         try {
             while (featureReader.hasNext()) {
@@ -49,6 +66,27 @@ public class CSVFeatureSource extends ContentFeatureSource {
     }
 
     protected int getCountInternal(Query query) throws IOException {
+        if (query.getFilter() == null || query.getFilter() == Filter.INCLUDE) {
+            CSVFileState csvFileState = getDataStore().getCSVFileState();
+            int rowCount = csvFileState.getStatistics().getRowCount();
+            if (rowCount < 0) {
+                // schema was inferred from the first records only, count through the rows held
+                // in memory or the index
+                CSVColumnStore columnStore = csvFileState.getColumnStore();
+                if (columnStore != null) {
+                    rowCount = columnStore.getRowCount();
+                } else if (csvFileState.getRowIndex() != null) {
+                    rowCount = csvFileState.getRowIndex().getRowCount();
+                }
+            }
+            if (rowCount >= 0) {
+                int offset = query.getStartIndex() != null ? query.getStartIndex() : 0;
+                return Math.min(Math.max(0, rowCount - offset), query.getMaxFeatures());
+            }
+        }
+        // counting needs no attributes besides the ones the filter reads
+        query = new Query(query);
+        query.setPropertyNames(new String[0]);
         FeatureReader<SimpleFeatureType, SimpleFeature> featureReader = getReader(query);
         int n = 0;
         try {
@@ -61,13 +99,102 @@ public class CSVFeatureSource extends ContentFeatureSource {
         return n;
     }
 
+    private boolean isAll(Query query) {
+        return (query.getFilter() == null || query.getFilter() == Filter.INCLUDE)
+                && (query.getStartIndex() == null || query.getStartIndex() == 0)
+                && query.getMaxFeatures() == Integer.MAX_VALUE;
+    }
+
+    /**
+     * Computes counts, bounds, minimums, maximums and unique values from the records, see
+     * {@link CSVAggregator}. Other visitors that do not depend on the order of the features are
+     * handed them as they are read in parallel, the rest as usual.
+     */
+    @Override
+    protected boolean handleVisitor(Query query, FeatureVisitor visitor) throws IOException {
+        // aggregates ignore paging, and changes pending in a transaction only exist as features
+        if (query.getStartIndex() != null && query.getStartIndex() > 0
+                || query.getMaxFeatures() != Integer.MAX_VALUE || !isAutoCommit(getTransaction())) {
+            return false;
+        }
+        CSVDataStore dataStore = getDataStore();
+        CSVFileState csvFileState = dataStore.getCSVFileState();
+        CSVAggregator.Aggregate aggregate = CSVAggregator.createAggregate(visitor,
+                dataStore.getCSVStrategy(), csvFileState.getCSVHeaders());
+        if (aggregate == null) {
+            if (!isParallel() || !CSVAggregator.isOrderIndependent(visitor)) {
+                return false;
+            }
+            new CSVAggregator(csvFileState, dataStore.getCSVStrategy(), query.getFilter(),
+                    dataStore.getParallelism()).visit(visitor);
+            return true;
+        }
+        if (isAll(query)) {
+            // counts and bounds of the whole file are usually known already
+            if (visitor instanceof CountVisitor) {
+                ((CountVisitor) visitor).setValue(getCountInternal(query));
+                return true;
+            } else if (visitor instanceof BoundsVisitor) {
+                ((BoundsVisitor) visitor).getBounds().include(getBoundsInternal(query));
+                return true;
+            } else if (aggregate.setResult(visitor, csvFileState.getStatistics())) {
+                return true;
+            }
+        }
+        new CSVAggregator(csvFileState, dataStore.getCSVStrategy(), query.getFilter(),
+                dataStore.getParallelism()).aggregate(aggregate);
+        aggregate.setResult(visitor);
+        return true;
+    }
+
+    static boolean isAutoCommit(Transaction transaction) {
+        return transaction == null || transaction == Transaction.AUTO_COMMIT;
+    }
+
     protected FeatureReader<SimpleFeatureType, SimpleFeature> getReaderInternal(Query query)
             throws IOException {
         CSVDataStore dataStore = getDataStore();
+        if (isParallel() && isAll(query) && query.getPropertyNames() == null) {
+            return new CSVParallelReader(dataStore.getCSVFileState(),
+                    dataStore.getCSVStrategy(), dataStore.getParallelism(), true);
+        }
         return new CSVFeatureReader(dataStore.getCSVStrategy(), query);
     }
 
+    /**
+     * Returns whether whole file reads are split over several threads. Files loaded in memory
+     * have nothing left to parse in parallel.
+     */
+    private boolean isParallel() throws IOException {
+        CSVDataStore dataStore = getDataStore();
+        return dataStore.getParallelism() > 1 && dataStore.getCSVFileState().getFile() != null
+                && dataStore.getCSVFileState().getColumnStore() == null;
+    }
+
     protected SimpleFeatureType buildFeatureType() throws IOException {
         return getDataStore().getSchema();
     }
+
+    // CSVFeatureReader evaluates the filter itself so that the offset applies to matching features,
+    // and only builds the requested attributes
+
+    @Override
+    protected boolean canFilter() {
+        return true;
+    }
+
+    @Override
+    protected boolean canOffset() {
+        return true;
+    }
+
+    @Override
+    protected boolean canLimit() {
+        return true;
+    }
+
+    @Override
+    protected boolean canRetype() {
+        return true;
+    }
 }
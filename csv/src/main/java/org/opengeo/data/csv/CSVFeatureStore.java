@@ -0,0 +1,91 @@
+package org.opengeo.data.csv;
+
+import java.io.IOException;
+
+import org.geotools.data.FeatureReader;
+import org.geotools.data.FeatureWriter;
+import org.geotools.data.Query;
+import org.geotools.data.store.ContentEntry;
+import org.geotools.data.store.ContentFeatureStore;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.feature.FeatureVisitor;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Writable access to a csv file. Reading is delegated to a {@link CSVFeatureSource}, writing is
+ * done by {@link CSVFeatureWriter}.
+ * <p>
+ * Edits made in a transaction are kept in the transaction state until it is committed, and then
+ * applied through a single writer, so each commit costs one append to the file, or one rewrite
+ * when existing features were modified or removed.
+ */
+@SuppressWarnings("unchecked")
+public class CSVFeatureStore extends ContentFeatureStore {
+
+    private final CSVFeatureSource delegate;
+
+    public CSVFeatureStore(ContentEntry entry, Query query) {
+        super(entry, query);
+        delegate = new CSVFeatureSource(entry, query);
+    }
+
+    public CSVDataStore getDataStore() {
+        return (CSVDataStore) super.getDataStore();
+    }
+
+    @Override
+    protected FeatureWriter<SimpleFeatureType, SimpleFeature> getWriterInternal(Query query,
+            int flags) throws IOException {
+        CSVDataStore dataStore = getDataStore();
+        boolean append = (flags & WRITER_UPDATE) == 0;
+        return new CSVFeatureWriter(dataStore.getCSVFileState(), dataStore.getCSVStrategy(),
+                query.getFilter(), append);
+    }
+
+    protected ReferencedEnvelope getBoundsInternal(Query query) throws IOException {
+        return delegate.getBoundsInternal(query);
+    }
+
+    protected int getCountInternal(Query query) throws IOException {
+        return delegate.getCountInternal(query);
+    }
+
+    protected FeatureReader<SimpleFeatureType, SimpleFeature> getReaderInternal(Query query)
+            throws IOException {
+        return delegate.getReaderInternal(query);
+    }
+
+    protected SimpleFeatureType buildFeatureType() throws IOException {
+        return delegate.buildFeatureType();
+    }
+
+    @Override
+    protected boolean handleVisitor(Query query, FeatureVisitor visitor) throws IOException {
+        // the delegate does not see the edits pending in this store's transaction
+        return CSVFeatureSource.isAutoCommit(getTransaction())
+                && delegate.handleVisitor(query, visitor);
+    }
+
+    // the writer evaluates the filter itself as well
+
+    @Override
+    protected boolean canFilter() {
+        return delegate.canFilter();
+    }
+
+    @Override
+    protected boolean canOffset() {
+        return delegate.canOffset();
+    }
+
+    @Override
+    protected boolean canLimit() {
+        return delegate.canLimit();
+    }
+
+    @Override
+    protected boolean canRetype() {
+        return delegate.canRetype();
+    }
+}
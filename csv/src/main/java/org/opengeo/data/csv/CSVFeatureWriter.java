@@ -0,0 +1,349 @@
+package org.opengeo.data.csv;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Semaphore;
+
+import org.geotools.data.FeatureWriter;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.opengeo.data.csv.index.CSVRowIndex;
+import org.opengeo.data.csv.parse.CSVFeatureBuilder;
+import org.opengeo.data.csv.parse.CSVMappedTokenizer;
+import org.opengeo.data.csv.parse.CSVStrategy;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+/**
+ * Writes features to a csv file without holding more than the current record in memory.
+ * <p>
+ * New features are streamed to the end of the file through a buffered channel. Existing records
+ * are read in order, and once one of them is modified or removed the file is rewritten into a
+ * temporary file next to it: the untouched records are copied as raw bytes, and the temporary
+ * file replaces the original by a rename when the writer is closed. Until then readers keep
+ * seeing the original file. Modifying or removing records requires a charset the records can be
+ * split in as bytes, see {@link CSVMappedTokenizer#isSupported(Charset)}.
+ * <p>
+ * Feature ids are row numbers, so removing a feature renumbers the ones after it.
+ */
+public class CSVFeatureWriter implements FeatureWriter<SimpleFeatureType, SimpleFeature> {
+
+    private final CSVFileState csvFileState;
+
+    private final File file;
+
+    private final Charset charset;
+
+    private final CSVStrategy csvStrategy;
+
+    private final SimpleFeatureType featureType;
+
+    private final Filter filter;
+
+    private final Semaphore lock;
+
+    private final long lastModified;
+
+    private final SimpleFeatureBuilder newFeatureBuilder;
+
+    private CSVFeatureBuilder featureBuilder;
+
+    // reads the existing records, null for append only writers and once all were read
+    private CSVMappedTokenizer tokenizer;
+
+    // records read or added so far, -1 until known for append only writers
+    private int rows;
+
+    private int removed;
+
+    private SimpleFeature next;
+
+    private long nextStart;
+
+    private long nextEnd;
+
+    private SimpleFeature current;
+
+    private boolean currentAdded;
+
+    private long currentStart;
+
+    private long currentEnd;
+
+    // set once the file is rewritten, the original is then read through source
+    private File tempFile;
+
+    private FileChannel source;
+
+    // bytes of the original accounted for in the temporary file
+    private long copied;
+
+    private CSVRecordWriter output;
+
+    private boolean appending;
+
+    private boolean closed;
+
+    /**
+     * Creates a writer visiting the records matching the filter before adding new features, or
+     * only adding new features when <code>append</code> is set.
+     */
+    public CSVFeatureWriter(CSVFileState csvFileState, CSVStrategy csvStrategy, Filter filter,
+            boolean append) throws IOException {
+        if (csvFileState.getFile() == null) {
+            throw new IOException("In memory csv data cannot be written");
+        }
+        this.csvFileState = csvFileState;
+        this.file = csvFileState.getFile();
+        this.charset = csvFileState.getCharset();
+        this.csvStrategy = csvStrategy;
+        this.featureType = csvStrategy.getFeatureType();
+        this.filter = filter != null ? filter : Filter.INCLUDE;
+        this.newFeatureBuilder = new SimpleFeatureBuilder(featureType);
+        this.lock = csvFileState.getWriteLock();
+        lock.acquireUninterruptibly();
+        try {
+            this.lastModified = file.lastModified();
+            if (append) {
+                rows = -1;
+            } else {
+                if (!CSVMappedTokenizer.isSupported(charset)) {
+                    throw new IOException("Cannot update csv files encoded in " + charset
+                            + ", only adding features is supported");
+                }
+                featureBuilder = csvStrategy.createFeatureBuilder();
+                tokenizer = new CSVMappedTokenizer(file, charset);
+                // skip the headers
+                tokenizer.readRecord();
+                rows = 0;
+            }
+        } catch (IOException e) {
+            lock.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public SimpleFeatureType getFeatureType() {
+        return featureType;
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        if (next != null) {
+            return true;
+        }
+        if (tokenizer == null) {
+            return false;
+        }
+        while (tokenizer.readRecord()) {
+            rows++;
+            SimpleFeature feature = featureBuilder.build(String.valueOf(rows), tokenizer);
+            if (filter == Filter.INCLUDE || filter.evaluate(feature)) {
+                next = feature;
+                nextStart = tokenizer.getRecordOffset();
+                nextEnd = tokenizer.getRecordEnd();
+                return true;
+            }
+        }
+        tokenizer.close();
+        tokenizer = null;
+        return false;
+    }
+
+    /**
+     * Returns the next existing feature matching the filter, or a new feature once there are none
+     * left. Features that are neither written nor removed are left as they are.
+     */
+    @Override
+    public SimpleFeature next() throws IOException, NoSuchElementException {
+        checkOpen();
+        if (hasNext()) {
+            current = next;
+            currentAdded = false;
+            currentStart = nextStart;
+            currentEnd = nextEnd;
+            next = null;
+        } else {
+            if (rows < 0) {
+                rows = countRows();
+            }
+            current = newFeatureBuilder.buildFeature(csvFileState.getTypeName() + "-"
+                    + (rows - removed + 1));
+            currentAdded = true;
+        }
+        return current;
+    }
+
+    @Override
+    public void write() throws IOException {
+        checkOpen();
+        if (current == null) {
+            throw new IOException("No feature available to write");
+        }
+        String[] csvRecord = csvStrategy.createRecord(current);
+        if (currentAdded) {
+            startAppending();
+            output.writeRecord(csvRecord);
+            rows++;
+        } else {
+            startRewriting();
+            output.copy(source, copied, currentStart);
+            output.writeRecord(csvRecord);
+            copied = currentEnd;
+        }
+        current = null;
+    }
+
+    @Override
+    public void remove() throws IOException {
+        checkOpen();
+        if (current == null) {
+            throw new IOException("No feature available to remove");
+        }
+        if (!currentAdded) {
+            startRewriting();
+            output.copy(source, copied, currentStart);
+            copied = currentEnd;
+            removed++;
+        }
+        current = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (tokenizer != null) {
+                tokenizer.close();
+                tokenizer = null;
+            }
+            if (tempFile != null) {
+                if (!appending) {
+                    output.copy(source, copied, source.size());
+                }
+                output.sync();
+                output.close();
+                output = null;
+                source.close();
+                source = null;
+                replace(tempFile, file);
+                tempFile = null;
+                csvFileState.fileRewritten();
+            } else if (output != null) {
+                output.close();
+                output = null;
+            } else {
+                return;
+            }
+            // caches and indexes compare size and modification time, make sure an edit within
+            // the timestamp resolution is noticed too
+            if (file.lastModified() <= lastModified) {
+                file.setLastModified(lastModified + 1000);
+            }
+        } finally {
+            try {
+                if (output != null) {
+                    output.close();
+                }
+                if (source != null) {
+                    source.close();
+                }
+            } finally {
+                if (tempFile != null) {
+                    tempFile.delete();
+                }
+                lock.release();
+            }
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Writer is closed");
+        }
+    }
+
+    private int countRows() throws IOException {
+        CSVRowIndex rowIndex = csvFileState.getRowIndex();
+        return rowIndex != null ? rowIndex.getRowCount() : 0;
+    }
+
+    private void startRewriting() throws IOException {
+        if (tempFile != null) {
+            return;
+        }
+        File directory = file.getAbsoluteFile().getParentFile();
+        tempFile = File.createTempFile(file.getName() + "-", ".tmp", directory);
+        source = new FileInputStream(file).getChannel();
+        output = new CSVRecordWriter(new FileOutputStream(tempFile).getChannel(), charset);
+        copied = 0;
+    }
+
+    private void startAppending() throws IOException {
+        if (appending) {
+            return;
+        }
+        if (tempFile != null) {
+            // new features go after the rest of the original records
+            long length = source.size();
+            output.copy(source, copied, length);
+            copied = length;
+            if (!endsWithLineSeparator()) {
+                output.writeLineSeparator();
+            }
+        } else {
+            boolean terminated = endsWithLineSeparator();
+            output = new CSVRecordWriter(new FileOutputStream(file, true).getChannel(), charset);
+            if (!terminated) {
+                output.writeLineSeparator();
+            }
+        }
+        appending = true;
+    }
+
+    // whether the original file ends with a line terminator
+    private boolean endsWithLineSeparator() throws IOException {
+        if (!CSVMappedTokenizer.isSupported(charset)) {
+            return true;
+        }
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            long length = in.length();
+            if (length == 0) {
+                return true;
+            }
+            in.seek(length - 1);
+            int last = in.read();
+            return last == '\n' || last == '\r';
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void replace(File tempFile, File file) throws IOException {
+        if (tempFile.renameTo(file)) {
+            return;
+        }
+        // renaming over an existing file fails on some platforms, move the original aside first
+        File backup = new File(file.getPath() + ".bak");
+        backup.delete();
+        if (!file.renameTo(backup)) {
+            throw new IOException("Could not replace " + file + " with " + tempFile);
+        }
+        if (!tempFile.renameTo(file)) {
+            backup.renameTo(file);
+            throw new IOException("Could not replace " + file + " with " + tempFile);
+        }
+        backup.delete();
+    }
+}
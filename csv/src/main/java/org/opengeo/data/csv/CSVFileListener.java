@@ -0,0 +1,23 @@
+package org.opengeo.data.csv;
+
+import java.io.IOException;
+
+/**
+ * Notified by a watched {@link CSVFileState} when its file changes on disk, so that whatever was
+ * derived from the file outside the state, like bounds and spatial indexes, follows along.
+ */
+public interface CSVFileListener {
+
+    /**
+     * Records were appended to the file, starting at the given byte offset. The state already
+     * covers them. Row is the number of the first appended record, -1 when it is not known.
+     */
+    void recordsAppended(CSVFileState csvFileState, long offset, int row, long fileLength,
+            long lastModified) throws IOException;
+
+    /**
+     * The file changed in a way that cannot be followed incrementally. The schema only has to be
+     * rebuilt when the headers or the inferred column types changed.
+     */
+    void fileChanged(CSVFileState csvFileState, boolean schemaChanged);
+}
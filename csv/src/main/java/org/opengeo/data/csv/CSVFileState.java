@@ -1,15 +1,36 @@
 package org.opengeo.data.csv;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.Reader;
 import java.io.StringReader;
 import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
 
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.geotools.referencing.CRS;
+import org.opengeo.data.csv.index.CSVBlockIndex;
+import org.opengeo.data.csv.index.CSVRowIndex;
+import org.opengeo.data.csv.memory.CSVColumnCache;
+import org.opengeo.data.csv.memory.CSVColumnStore;
+import org.opengeo.data.csv.parse.CSVMappedTokenizer;
+import org.opengeo.data.csv.parse.CSVStrategySupport;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.FactoryException;
 
@@ -33,6 +54,43 @@ public class CSVFileState {
 
     private volatile String[] headers = null;
 
+    private CSVRowIndex rowIndex = null;
+
+    private CSVBlockIndex blockIndex = null;
+
+    private final CSVCompression compression;
+
+    private volatile CSVFileStatistics statistics = null;
+
+    private CSVInferenceMode inferenceMode = CSVInferenceMode.FULL;
+
+    private int sampleSize = CSVInferenceMode.DEFAULT_SAMPLE_SIZE;
+
+    private Charset charset = Charset.defaultCharset();
+
+    private boolean memoryMapped = false;
+
+    private long memoryLimit = 0;
+
+    private boolean columnCache = false;
+
+    private boolean indexFiles = true;
+
+    private CSVColumnStore columnStore = null;
+
+    // conversion or load of the columns in progress, run by the first reader outside of the state
+    // lock while the others wait for it
+    private FutureTask<CSVColumnStore> columnStoreTask = null;
+
+    private final Semaphore writeLock = new Semaphore(1);
+
+    private final List<CSVFileListener> listeners = new CopyOnWriteArrayList<CSVFileListener>();
+
+    // size and modification time of the file when it was last refreshed, -1 when not watched
+    private long syncedLength = -1;
+
+    private long syncedModified = -1;
+
     public CSVFileState(File file) {
         this(file, null, null, null);
     }
@@ -47,6 +105,7 @@ public class CSVFileState {
         this.crs = crs;
         this.namespace = namespace;
         this.dataInput = null;
+        this.compression = file != null ? CSVCompression.forFile(file) : CSVCompression.NONE;
     }
 
     // used by unit tests
@@ -60,6 +119,7 @@ public class CSVFileState {
         this.crs = null;
         this.namespace = null;
         this.file = null;
+        this.compression = CSVCompression.NONE;
     }
 
     public URI getNamespace() {
@@ -71,7 +131,14 @@ public class CSVFileState {
     }
 
     public String getTypeName() {
-        return typeName != null ? typeName : FilenameUtils.getBaseName(file.getPath());
+        if (typeName != null) {
+            return typeName;
+        }
+        return FilenameUtils.getBaseName(compression.stripSuffix(file.getName()));
+    }
+
+    public CSVCompression getCompression() {
+        return compression;
     }
 
     public CoordinateReferenceSystem getCrs() {
@@ -89,7 +156,7 @@ public class CSVFileState {
     public CsvReader openCSVReader() throws IOException {
         Reader reader;
         if (file != null) {
-            reader = new BufferedReader(new FileReader(file));
+            reader = new BufferedReader(new InputStreamReader(openStream(0), charset));
         } else {
             reader = new StringReader(dataInput);
         }
@@ -100,6 +167,474 @@ public class CSVFileState {
         return csvReader;
     }
 
+    /**
+     * Opens a reader positioned on the record starting at the given byte offset, as reported by
+     * the row index. Headers are not read from the stream but taken from this state.
+     */
+    public CsvReader openCSVReader(long offset) throws IOException {
+        if (offset <= 0 || file == null) {
+            return openCSVReader();
+        }
+        CsvReader csvReader = new CsvReader(new BufferedReader(new InputStreamReader(
+                openStream(offset), charset)));
+        csvReader.setHeaders(getCSVHeaders());
+        return csvReader;
+    }
+
+    /**
+     * Same as {@link #openCSVReader(long)}, reading stops at the end offset even if the file kept
+     * growing.
+     */
+    public CsvReader openCSVReader(long offset, long end) throws IOException {
+        CsvReader csvReader = new CsvReader(new BufferedReader(new InputStreamReader(openStream(
+                offset, end), charset)));
+        csvReader.setHeaders(getCSVHeaders());
+        return csvReader;
+    }
+
+    /**
+     * Same as {@link #openStream(long)}, the stream ends at the end offset even if the file kept
+     * growing.
+     */
+    public InputStream openStream(long offset, long end) throws IOException {
+        return new BoundedInputStream(openStream(offset), Math.max(0, end - offset));
+    }
+
+    /**
+     * Opens the file contents, decompressed if needed, positioned at the given byte offset of the
+     * decompressed data. Compressed files are decompressed from the closest block of the
+     * {@link CSVBlockIndex} before the offset.
+     */
+    public InputStream openStream(long offset) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            if (compression == CSVCompression.NONE) {
+                in.getChannel().position(offset);
+                return in;
+            }
+            long start = 0;
+            if (offset > 0) {
+                CSVBlockIndex blockIndex = getBlockIndex();
+                int block = blockIndex.getBlock(offset);
+                in.getChannel().position(blockIndex.getCompressedOffset(block));
+                start = blockIndex.getOffset(block);
+            }
+            InputStream decompressed = compression.decompress(in);
+            for (long skip = offset - start; skip > 0;) {
+                long skipped = decompressed.skip(skip);
+                if (skipped <= 0) {
+                    throw new EOFException("Offset " + offset + " is past the end of " + file);
+                }
+                skip -= skipped;
+            }
+            return decompressed;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a memory mapped tokenizer positioned on the record starting at the given byte offset,
+     * or on the first record after the headers for offsets up to 0. Returns null when memory
+     * mapping is disabled, for in memory data and compressed files, or when the charset cannot be
+     * tokenized as bytes; callers should fall back on {@link #openCSVReader(long)}.
+     */
+    public CSVMappedTokenizer openTokenizer(long offset) throws IOException {
+        if (!memoryMapped || file == null || compression != CSVCompression.NONE
+                || !CSVMappedTokenizer.isSupported(charset)) {
+            return null;
+        }
+        CSVMappedTokenizer tokenizer = new CSVMappedTokenizer(file, charset);
+        try {
+            if (offset > 0) {
+                tokenizer.seek(offset);
+            } else {
+                // skip the headers
+                tokenizer.readRecord();
+            }
+        } catch (IOException e) {
+            tokenizer.close();
+            throw e;
+        }
+        return tokenizer;
+    }
+
+    /**
+     * Returns the row offset index for the file, building or refreshing it when the file changed.
+     * In memory data has no index, null is returned in that case.
+     */
+    public synchronized CSVRowIndex getRowIndex() throws IOException {
+        if (file == null) {
+            return null;
+        }
+        if (rowIndex == null || !rowIndex.isCurrent(file)) {
+            rowIndex = CSVRowIndex.open(file, compression, CSVRowIndex.DEFAULT_INTERVAL,
+                    indexFiles);
+        }
+        return rowIndex;
+    }
+
+    /**
+     * Returns the index of the points the file can be decompressed from, building or refreshing
+     * it when the file changed. Only meaningful for compressed files.
+     */
+    public synchronized CSVBlockIndex getBlockIndex() throws IOException {
+        if (blockIndex == null || !blockIndex.isCurrent(file)) {
+            blockIndex = CSVBlockIndex.open(file, compression, indexFiles);
+        }
+        return blockIndex;
+    }
+
+    public CSVInferenceMode getInferenceMode() {
+        return inferenceMode;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * Selects how the schema is inferred. Must be called before the statistics are first used.
+     */
+    public synchronized void setInferenceMode(CSVInferenceMode inferenceMode, int sampleSize) {
+        if (sampleSize < 1) {
+            throw new IllegalArgumentException("Sample size must be positive: " + sampleSize);
+        }
+        this.inferenceMode = inferenceMode;
+        this.sampleSize = sampleSize;
+        this.statistics = null;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Sets the charset the file is encoded in, the platform default unless specified. Must be
+     * called before the headers are first read.
+     */
+    public synchronized void setCharset(Charset charset) {
+        this.charset = charset;
+        this.headers = null;
+        this.statistics = null;
+    }
+
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * Selects whether records are read through a memory mapped {@link CSVMappedTokenizer} rather
+     * than CsvReader, when the charset allows it.
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * Files up to this many bytes are loaded into a {@link CSVColumnStore} and read from memory,
+     * 0 (the default) always reads the file.
+     */
+    public void setMemoryLimit(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    public boolean isIndexFiles() {
+        return indexFiles;
+    }
+
+    /**
+     * Selects whether the indexes built over the file are written to sidecar files next to it, so
+     * that they survive restarts, or only kept in memory. Enabled by default, sidecars are skipped
+     * anyway when the directory is read only.
+     */
+    public void setIndexFiles(boolean indexFiles) {
+        this.indexFiles = indexFiles;
+    }
+
+    public boolean isColumnCache() {
+        return columnCache;
+    }
+
+    /**
+     * Selects whether the file is converted into a {@link CSVColumnCache} on first access and read
+     * from it afterwards, whatever its size.
+     */
+    public synchronized void setColumnCache(boolean columnCache) {
+        this.columnCache = columnCache;
+        this.columnStore = null;
+        this.columnStoreTask = null;
+    }
+
+    /**
+     * Returns the columns of the file, read from the column cache when enabled or loaded into
+     * memory, again when the file changed. Returns null when the file is larger than the memory
+     * limit, or for in memory data.
+     * <p>
+     * Converting or loading the file reads all of it, so it is done outside of the state lock:
+     * the first caller does the work, concurrent callers wait for its result, and the result is
+     * only published if the file was not refreshed in the meantime.
+     */
+    public CSVColumnStore getColumnStore() throws IOException {
+        FutureTask<CSVColumnStore> task;
+        boolean run = false;
+        final boolean cached;
+        synchronized (this) {
+            if (file == null) {
+                return null;
+            }
+            cached = columnCache;
+            if (!cached && (memoryLimit <= 0 || file.length() > memoryLimit)) {
+                columnStore = null;
+                columnStoreTask = null;
+                return null;
+            }
+            if (columnStore != null && columnStore.isCurrent(file)) {
+                return columnStore;
+            }
+            task = columnStoreTask;
+            if (task == null) {
+                task = new FutureTask<CSVColumnStore>(new Callable<CSVColumnStore>() {
+                    public CSVColumnStore call() throws IOException {
+                        return cached ? CSVColumnCache.open(CSVFileState.this) : CSVColumnStore
+                                .load(CSVFileState.this);
+                    }
+                });
+                columnStoreTask = task;
+                run = true;
+            }
+        }
+        if (run) {
+            task.run();
+        }
+        CSVColumnStore result;
+        try {
+            result = task.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted waiting for the columns of " + file);
+        } catch (ExecutionException e) {
+            synchronized (this) {
+                if (columnStoreTask == task) {
+                    columnStoreTask = null;
+                }
+            }
+            Throwable cause = e.getCause();
+            if (cached && cause instanceof IOException) {
+                // keep serving the file, without trying to convert it on every read
+                synchronized (this) {
+                    if (columnCache) {
+                        CSVFileStateCache.LOGGER.log(Level.WARNING, "Unable to cache the columns "
+                                + "of " + file + ", reading the file instead", cause);
+                        columnCache = false;
+                    }
+                }
+                return getColumnStore();
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Unable to read the columns of " + file, cause);
+        }
+        synchronized (this) {
+            if (columnStoreTask == task) {
+                columnStoreTask = null;
+                columnStore = result;
+            }
+        }
+        return result;
+    }
+
+    public void addListener(CSVFileListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(CSVFileListener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean isWatched() {
+        return CSVFileWatcher.getInstance().isWatched(this);
+    }
+
+    /**
+     * Has the {@link CSVFileWatcher} refresh this state whenever the file changes.
+     */
+    public synchronized void setWatched(boolean watched) {
+        if (file == null) {
+            return;
+        }
+        if (watched) {
+            syncedLength = file.length();
+            syncedModified = file.lastModified();
+            CSVFileWatcher.getInstance().watch(this);
+        } else {
+            CSVFileWatcher.getInstance().unwatch(this);
+            syncedLength = -1;
+            syncedModified = -1;
+        }
+    }
+
+    /**
+     * Catches up with changes made to the file since the last refresh. Records appended to an
+     * uncompressed file, with the headers left alone, are read on their own: the row index and
+     * the statistics are extended and listeners are told where the new records start. Any other
+     * change drops everything derived from the file. Returns false when there was nothing to do,
+     * which includes a last record still being written.
+     */
+    public boolean refresh() throws IOException {
+        long offset;
+        long length;
+        long modified;
+        int row = -1;
+        boolean appended;
+        boolean schemaChanged = false;
+        synchronized (this) {
+            if (file == null) {
+                return false;
+            }
+            length = file.length();
+            modified = file.lastModified();
+            offset = syncedLength;
+            if (offset < 0) {
+                syncedLength = length;
+                syncedModified = modified;
+                return false;
+            }
+            if (length == offset && modified == syncedModified) {
+                return false;
+            }
+            appended = compression == CSVCompression.NONE && length > offset && offset > 0
+                    && endsLine(offset - 1);
+            if (appended && !endsLine(length - 1)) {
+                // wait for the writer to finish the record
+                return false;
+            }
+            if (headers != null) {
+                String[] current = readCSVHeaders();
+                if (!Arrays.equals(headers, current)) {
+                    headers = current;
+                    appended = false;
+                    schemaChanged = true;
+                }
+            }
+            syncedLength = length;
+            syncedModified = modified;
+            columnStore = null;
+            columnStoreTask = null;
+            blockIndex = null;
+            if (appended) {
+                if (rowIndex != null && rowIndex.getFileLength() == offset) {
+                    row = rowIndex.getRowCount();
+                    InputStream tail = new BufferedInputStream(openStream(offset, length));
+                    try {
+                        rowIndex = rowIndex.append(file, length, modified, tail, indexFiles);
+                    } finally {
+                        tail.close();
+                    }
+                } else {
+                    rowIndex = null;
+                }
+            } else {
+                rowIndex = null;
+            }
+        }
+        // the statistics cache locks its entry and may compute statistics, which takes the state
+        // lock, so it is also called outside of it
+        if (appended && !CSVStatisticsCache.append(this, offset, length, modified)) {
+            appended = false;
+            schemaChanged = true;
+        }
+        // listeners lock themselves, they are called outside of the state lock
+        for (CSVFileListener listener : listeners) {
+            if (appended) {
+                listener.recordsAppended(this, offset, row, length, modified);
+            } else {
+                listener.fileChanged(this, schemaChanged);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tells a watched state the file was rewritten rather than appended to, which cannot be told
+     * apart from the file alone when it grew.
+     */
+    public synchronized void fileRewritten() {
+        if (syncedLength > 0) {
+            syncedLength = 0;
+        }
+    }
+
+    private boolean endsLine(long position) throws IOException {
+        InputStream in = openStream(position);
+        try {
+            int b = in.read();
+            return b == '\n' || b == '\r';
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Held by feature writers while they change the file, so that edits made through this state
+     * are applied one after the other. A semaphore rather than a lock, since writers are often
+     * closed by another thread than the one that created them.
+     */
+    public Semaphore getWriteLock() {
+        return writeLock;
+    }
+
+    /**
+     * Returns the column types, row count and value ranges of the data. For files these are
+     * shared through the {@link CSVStatisticsCache}, so they survive store re-creation.
+     */
+    public CSVFileStatistics getStatistics() throws IOException {
+        if (file != null) {
+            return CSVStatisticsCache.get(this);
+        }
+        if (statistics == null) {
+            synchronized (this) {
+                if (statistics == null) {
+                    statistics = computeStatistics();
+                }
+            }
+        }
+        return statistics;
+    }
+
+    CSVFileStatistics computeStatistics() throws IOException {
+        if (inferenceMode == CSVInferenceMode.SAMPLE && file != null
+                && compression == CSVCompression.NONE) {
+            return CSVStrategySupport.computeStatisticsFromSample(this, sampleSize);
+        }
+        // sample the file attributes first, a concurrent append then leaves the result stale
+        long fileLength = file != null ? file.length() : -1;
+        long lastModified = file != null ? file.lastModified() : -1;
+        CsvReader csvReader = openCSVReader();
+        try {
+            String[] headers = csvReader.getHeaders();
+            if (inferenceMode == CSVInferenceMode.FIRST) {
+                return CSVStrategySupport.computeStatisticsFromFirst(fileLength, lastModified,
+                        csvReader, headers, sampleSize);
+            } else if (inferenceMode == CSVInferenceMode.SAMPLE) {
+                return CSVStrategySupport.computeStatisticsFromReservoir(csvReader, headers,
+                        sampleSize);
+            }
+            return CSVStrategySupport.computeStatistics(fileLength, lastModified, csvReader,
+                    headers);
+        } finally {
+            csvReader.close();
+        }
+    }
+
     public String[] getCSVHeaders() {
         if (headers == null) {
             synchronized (this) {
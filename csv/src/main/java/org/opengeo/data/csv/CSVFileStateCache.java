@@ -0,0 +1,205 @@
+package org.opengeo.data.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.ObjectName;
+
+import org.geotools.util.logging.Logging;
+import org.opengeo.data.csv.parse.CSVStrategy;
+
+/**
+ * Process wide cache of the file state and strategy built for a csv file, so that stores created
+ * for the same file with the same parameters, for instance on a catalog reload or by concurrent
+ * requests, share the headers, schema and indexes instead of inferring them again.
+ * <p>
+ * Entries are keyed on the canonical path of the file and the store parameters, and dropped when
+ * the modification time or size of the file changes. The least recently used entries are evicted
+ * once more than {@link #getMaxSize()} files are cached; the default of 64 can be changed with the
+ * <code>org.opengeo.data.csv.cacheSize</code> system property or over JMX.
+ */
+public class CSVFileStateCache implements CSVFileStateCacheMBean {
+
+    static final Logger LOGGER = Logging.getLogger("org.opengeo.data.csv");
+
+    public static final String OBJECT_NAME = "org.opengeo.data.csv:type=CSVFileStateCache";
+
+    public static final int DEFAULT_MAX_SIZE = 64;
+
+    private static final CSVFileStateCache INSTANCE = new CSVFileStateCache(Integer.getInteger(
+            "org.opengeo.data.csv.cacheSize", DEFAULT_MAX_SIZE));
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE,
+                    new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Unable to register the csv cache with JMX", e);
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> entries;
+
+    private int maxSize;
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long evictionCount;
+
+    CSVFileStateCache(int maxSize) {
+        setMaxSize(maxSize);
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, CSVFileStateCache.Entry> eldest) {
+                if (size() > CSVFileStateCache.this.maxSize) {
+                    evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public static CSVFileStateCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Builds the key of a file, the parameters string holds whatever else shapes the file state
+     * and strategy.
+     */
+    public static String getKey(File file, String parameters) throws IOException {
+        return file.getCanonicalPath() + "|" + parameters;
+    }
+
+    /**
+     * Returns the entry cached for the key, or null if there is none or the file changed since it
+     * was cached.
+     */
+    public synchronized Entry get(String key, File file) {
+        Entry entry = entries.get(key);
+        if (entry != null && !entry.isCurrent(file)) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry;
+    }
+
+    public synchronized void put(String key, Entry entry) {
+        entries.put(key, entry);
+    }
+
+    /**
+     * Drops every entry of the file, whatever the parameters it was cached with.
+     */
+    public synchronized void remove(File file) throws IOException {
+        String prefix = file.getCanonicalPath() + "|";
+        for (Iterator<String> it = entries.keySet().iterator(); it.hasNext();) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public synchronized void setMaxSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        if (entries != null) {
+            for (Iterator<Entry> it = entries.values().iterator(); entries.size() > maxSize;) {
+                it.next();
+                it.remove();
+                evictionCount++;
+            }
+        }
+    }
+
+    @Override
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    @Override
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    @Override
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized double getHitRatio() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 0 : (double) hitCount / requests;
+    }
+
+    @Override
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public static class Entry {
+
+        private final long fileLength;
+
+        private final long lastModified;
+
+        private final CSVFileState csvFileState;
+
+        private final CSVStrategy csvStrategy;
+
+        /**
+         * Samples the size and modification time of the file, create entries before reading it.
+         */
+        public Entry(File file, CSVFileState csvFileState, CSVStrategy csvStrategy) {
+            this.fileLength = file.length();
+            this.lastModified = file.lastModified();
+            this.csvFileState = csvFileState;
+            this.csvStrategy = csvStrategy;
+        }
+
+        public CSVFileState getCSVFileState() {
+            return csvFileState;
+        }
+
+        public CSVStrategy getCSVStrategy() {
+            return csvStrategy;
+        }
+
+        boolean isCurrent(File file) {
+            // watched states follow the file on their own
+            return csvFileState.isWatched() || file.length() == fileLength
+                    && file.lastModified() == lastModified;
+        }
+    }
+}
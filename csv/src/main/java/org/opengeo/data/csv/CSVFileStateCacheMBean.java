@@ -0,0 +1,24 @@
+package org.opengeo.data.csv;
+
+/**
+ * Management interface of the {@link CSVFileStateCache}, registered with the platform MBean
+ * server as <code>org.opengeo.data.csv:type=CSVFileStateCache</code>.
+ */
+public interface CSVFileStateCacheMBean {
+
+    int getSize();
+
+    int getMaxSize();
+
+    void setMaxSize(int maxSize);
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getEvictionCount();
+
+    double getHitRatio();
+
+    void clear();
+}
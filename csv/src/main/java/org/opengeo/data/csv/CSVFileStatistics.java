@@ -0,0 +1,128 @@
+package org.opengeo.data.csv;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opengeo.data.csv.parse.CSVTypeInference;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Results of a pass over a csv file: the inferred column types, the row count and the minimum
+ * and maximum value of each column. Bounds depend on how a strategy builds geometries, so
+ * they are computed on demand and kept per strategy signature.
+ * <p>
+ * Statistics are tied to the size and modification time of the file they were computed from, see
+ * {@link #isCurrent(File)}.
+ */
+public class CSVFileStatistics {
+
+    private final long fileLength;
+
+    private final long lastModified;
+
+    private final String[] headers;
+
+    private final Map<String, Class<?>> types;
+
+    private final int rowCount;
+
+    private final Map<String, Object> minimums;
+
+    private final Map<String, Object> maximums;
+
+    private final Map<String, Envelope> bounds = new ConcurrentHashMap<String, Envelope>();
+
+    private final CSVTypeInference inference;
+
+    public CSVFileStatistics(long fileLength, long lastModified, String[] headers,
+            Map<String, Class<?>> types, int rowCount, Map<String, Object> minimums,
+            Map<String, Object> maximums) {
+        this(fileLength, lastModified, headers, types, rowCount, minimums, maximums, null);
+    }
+
+    public CSVFileStatistics(long fileLength, long lastModified, String[] headers,
+            Map<String, Class<?>> types, int rowCount, Map<String, Object> minimums,
+            Map<String, Object> maximums, CSVTypeInference inference) {
+        this.fileLength = fileLength;
+        this.lastModified = lastModified;
+        this.headers = headers;
+        this.types = Collections.unmodifiableMap(types);
+        this.rowCount = rowCount;
+        this.minimums = Collections.unmodifiableMap(minimums);
+        this.maximums = Collections.unmodifiableMap(maximums);
+        this.inference = inference;
+    }
+
+    /**
+     * Returns a copy of these statistics for the file after records were appended to it, with
+     * the same types, ranges and bounds but a new row count.
+     */
+    public CSVFileStatistics withRowCount(long fileLength, long lastModified, int rowCount) {
+        CSVFileStatistics statistics = new CSVFileStatistics(fileLength, lastModified, headers,
+                types, rowCount, minimums, maximums, inference);
+        statistics.bounds.putAll(bounds);
+        return statistics;
+    }
+
+    public boolean isCurrent(File file) {
+        return file.length() == fileLength && file.lastModified() == lastModified;
+    }
+
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    /**
+     * Returns the inference the statistics were computed with when every record was read, so
+     * that it can be fed appended records, null for sampled statistics. It must not be modified,
+     * see {@link CSVTypeInference#CSVTypeInference(CSVTypeInference)}.
+     */
+    public CSVTypeInference getInference() {
+        return inference;
+    }
+
+    public String[] getHeaders() {
+        return headers;
+    }
+
+    public Map<String, Class<?>> getTypes() {
+        return types;
+    }
+
+    /**
+     * Number of records in the file, or -1 when inference did not read far enough to know.
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Smallest value of the column, converted to its inferred type, or null if the column has no
+     * values or the statistics were computed from a sample.
+     */
+    public Object getMinimum(String column) {
+        return minimums.get(column);
+    }
+
+    public Object getMaximum(String column) {
+        return maximums.get(column);
+    }
+
+    public Envelope getBounds(String signature) {
+        return bounds.get(signature);
+    }
+
+    public void setBounds(String signature, Envelope envelope) {
+        bounds.put(signature, envelope);
+    }
+
+    /**
+     * Copies the bounds of other statistics, for instance the ones these were extended from.
+     */
+    public void copyBounds(CSVFileStatistics statistics) {
+        bounds.putAll(statistics.bounds);
+    }
+}
@@ -0,0 +1,102 @@
+package org.opengeo.data.csv;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+
+/**
+ * Polls the files of watched {@link CSVFileState}s and refreshes the states when the files
+ * change, so that records appended by a logger or a feed show up without rescanning the file.
+ * A single daemon thread polls every state, every <code>org.opengeo.data.csv.watchInterval</code>
+ * milliseconds (5 seconds by default). States are only weakly referenced.
+ */
+public class CSVFileWatcher {
+
+    static final Logger LOGGER = Logging.getLogger("org.opengeo.data.csv");
+
+    public static final long DEFAULT_INTERVAL = 5000;
+
+    private static final CSVFileWatcher INSTANCE = new CSVFileWatcher(Long.getLong(
+            "org.opengeo.data.csv.watchInterval", DEFAULT_INTERVAL));
+
+    private final long interval;
+
+    private final Set<CSVFileState> states = Collections
+            .newSetFromMap(new WeakHashMap<CSVFileState, Boolean>());
+
+    private ScheduledExecutorService executor;
+
+    CSVFileWatcher(long interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Watch interval must be positive: " + interval);
+        }
+        this.interval = interval;
+    }
+
+    public static CSVFileWatcher getInstance() {
+        return INSTANCE;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public synchronized void watch(CSVFileState csvFileState) {
+        states.add(csvFileState);
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "csv-watcher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    poll();
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void unwatch(CSVFileState csvFileState) {
+        states.remove(csvFileState);
+        if (states.isEmpty() && executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    public synchronized boolean isWatched(CSVFileState csvFileState) {
+        return states.contains(csvFileState);
+    }
+
+    /**
+     * Refreshes every watched state once, normally called from the polling thread.
+     */
+    public void poll() {
+        List<CSVFileState> polled;
+        synchronized (this) {
+            polled = new ArrayList<CSVFileState>(states);
+        }
+        for (CSVFileState csvFileState : polled) {
+            try {
+                csvFileState.refresh();
+            } catch (Exception e) {
+                // keep polling, the file may be in the middle of being replaced
+                LOGGER.log(Level.WARNING, "Failure refreshing csv file " + csvFileState.getFile(),
+                        e);
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.opengeo.data.csv;
+
+/**
+ * How much of a csv file is read to infer its schema.
+ */
+public enum CSVInferenceMode {
+
+    /** Every record is read; also yields the exact row count and column value ranges. */
+    FULL,
+
+    /** Only the first records are read. Fastest, but late outliers are not seen. */
+    FIRST,
+
+    /**
+     * Records are sampled at random offsets over the whole file, without scanning it. The row
+     * count is left unknown. Compressed files are read whole and sampled as they go by.
+     */
+    SAMPLE;
+
+    public static final int DEFAULT_SAMPLE_SIZE = 1000;
+
+    public static CSVInferenceMode lookup(String name) {
+        for (CSVInferenceMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown csv inference mode: " + name);
+    }
+}
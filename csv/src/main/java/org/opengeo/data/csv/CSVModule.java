@@ -0,0 +1,17 @@
+package org.opengeo.data.csv;
+
+/**
+ * Lifecycle of the csv module as a whole, for the application loading it. GeoServer picks it up
+ * from the <code>applicationContext.xml</code> of the module and disposes it on shutdown or
+ * reload; other applications should call {@link #dispose()} when they unload the module.
+ */
+public class CSVModule {
+
+    /**
+     * Stops the threads shared by every store for parallel reads and aggregations. A read
+     * started afterwards starts them again.
+     */
+    public void dispose() {
+        CSVParallelReader.shutdown();
+    }
+}
@@ -0,0 +1,302 @@
+package org.opengeo.data.csv;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geotools.data.FeatureReader;
+import org.opengeo.data.csv.index.CSVRowIndex;
+import org.opengeo.data.csv.parse.CSVFeatureBuilder;
+import org.opengeo.data.csv.parse.CSVMappedTokenizer;
+import org.opengeo.data.csv.parse.CSVStrategy;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.csvreader.CsvReader;
+
+/**
+ * Reads a whole csv file with several threads. The file is split into chunks at record
+ * boundaries taken from the {@link CSVRowIndex}, which was built by a quote aware scan, so quoted
+ * fields spanning several lines are never cut in half. Each chunk is parsed into features by a
+ * task on a shared pool and handed over in batches.
+ * <p>
+ * In ordered mode features come out in file order; otherwise batches are returned as soon as any
+ * chunk produces them. At most <code>parallelism</code> chunks are in flight ahead of the
+ * consumer, which bounds memory use without ever blocking a pool thread.
+ * <p>
+ * The pool is shared by every store. Idle pool threads exit after a while, {@link #shutdown()}
+ * stops them right away when the module is unloaded, see {@link CSVModule}.
+ */
+public class CSVParallelReader implements FeatureReader<SimpleFeatureType, SimpleFeature> {
+
+    private static final int BATCH_SIZE = 256;
+
+    // upper bound on the row index blocks making up a chunk, to cap buffered features
+    private static final int MAX_CHUNK_BLOCKS = 8;
+
+    private static final Object END = new Object();
+
+    private static final long IDLE_SECONDS = 60;
+
+    private static ThreadPoolExecutor pool;
+
+    private static final Executor EXECUTOR = new Executor() {
+        public void execute(Runnable task) {
+            CSVParallelReader.execute(task);
+        }
+    };
+
+    private final CSVFileState csvFileState;
+
+    private final CSVStrategy csvStrategy;
+
+    private final SimpleFeatureType featureType;
+
+    private final boolean ordered;
+
+    private final int parallelism;
+
+    private final List<Chunk> chunks;
+
+    private final BlockingQueue<Object> unorderedQueue;
+
+    private volatile boolean closed;
+
+    private int submitted;
+
+    private int finished;
+
+    private List<SimpleFeature> batch;
+
+    private int batchPosition;
+
+    public CSVParallelReader(CSVFileState csvFileState, CSVStrategy csvStrategy,
+            int parallelism, boolean ordered) throws IOException {
+        if (csvFileState.getFile() == null) {
+            throw new IllegalArgumentException("Parallel reading requires a csv file");
+        }
+        this.csvFileState = csvFileState;
+        this.csvStrategy = csvStrategy;
+        this.featureType = csvStrategy.getFeatureType();
+        this.parallelism = Math.max(1, parallelism);
+        this.ordered = ordered;
+        this.unorderedQueue = ordered ? null : new LinkedBlockingQueue<Object>();
+        this.chunks = split(csvFileState.getRowIndex(), this.parallelism);
+        while (submitted < Math.min(this.parallelism, chunks.size())) {
+            submitNext();
+        }
+    }
+
+    /**
+     * Returns the executor running tasks on the shared pool. It keeps working after a
+     * {@link #shutdown()}, handing tasks to a new pool.
+     */
+    static Executor getExecutor() {
+        return EXECUTOR;
+    }
+
+    /**
+     * Runs the task on the shared pool.
+     */
+    static Future<?> submit(Runnable task) {
+        FutureTask<Object> future = new FutureTask<Object>(task, null);
+        EXECUTOR.execute(future);
+        return future;
+    }
+
+    private static synchronized void execute(Runnable task) {
+        if (pool == null) {
+            final AtomicInteger count = new AtomicInteger();
+            int threads = Runtime.getRuntime().availableProcessors();
+            pool = new ThreadPoolExecutor(threads, threads, IDLE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "csv-reader-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            pool.allowCoreThreadTimeOut(true);
+        }
+        pool.execute(task);
+    }
+
+    /**
+     * Stops the shared pool once the tasks already submitted are done. Readers still running
+     * carry on, the next task submitted starts a new pool. Meant for whoever unloads the module,
+     * stores leave the pool alone since other stores share it.
+     */
+    public static synchronized void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    static List<Chunk> split(CSVRowIndex rowIndex, int parallelism) {
+        int interval = rowIndex.getInterval();
+        int rowCount = rowIndex.getRowCount();
+        int blocks = (rowCount + interval - 1) / interval;
+        // a few chunks per thread evens out chunks that parse slower than others
+        int chunkBlocks = (blocks + parallelism * 4 - 1) / (parallelism * 4);
+        chunkBlocks = Math.max(1, Math.min(MAX_CHUNK_BLOCKS, chunkBlocks));
+        int chunkRows = chunkBlocks * interval;
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        for (int row = 0; row < rowCount; row += chunkRows) {
+            int count = Math.min(chunkRows, rowCount - row);
+            chunks.add(new Chunk(row, count, rowIndex.getOffset(row)));
+        }
+        return chunks;
+    }
+
+    private void submitNext() {
+        if (submitted < chunks.size()) {
+            Chunk chunk = chunks.get(submitted++);
+            chunk.future = submit(new ChunkTask(chunk));
+        }
+    }
+
+    @Override
+    public SimpleFeatureType getFeatureType() {
+        return featureType;
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        while (batch == null || batchPosition >= batch.size()) {
+            batch = takeBatch();
+            batchPosition = 0;
+            if (batch == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public SimpleFeature next() throws IOException, IllegalArgumentException,
+            NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return batch.get(batchPosition++);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<SimpleFeature> takeBatch() throws IOException {
+        while (finished < chunks.size()) {
+            BlockingQueue<Object> queue = ordered ? chunks.get(finished).queue : unorderedQueue;
+            Object item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while reading csv file");
+            }
+            if (item == END) {
+                finished++;
+                submitNext();
+            } else if (item instanceof Throwable) {
+                close();
+                throw (IOException) new IOException("Failure reading csv file").initCause(
+                        (Throwable) item);
+            } else {
+                return (List<SimpleFeature>) item;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        for (Chunk chunk : chunks) {
+            if (chunk.future != null) {
+                chunk.future.cancel(false);
+            }
+        }
+    }
+
+    static class Chunk {
+
+        final int startRow;
+
+        final int rowCount;
+
+        final long offset;
+
+        final BlockingQueue<Object> queue = new LinkedBlockingQueue<Object>();
+
+        Future<?> future;
+
+        Chunk(int startRow, int rowCount, long offset) {
+            this.startRow = startRow;
+            this.rowCount = rowCount;
+            this.offset = offset;
+        }
+    }
+
+    private class ChunkTask implements Runnable {
+
+        private final Chunk chunk;
+
+        ChunkTask(Chunk chunk) {
+            this.chunk = chunk;
+        }
+
+        public void run() {
+            BlockingQueue<Object> queue = ordered ? chunk.queue : unorderedQueue;
+            CsvReader csvReader = null;
+            CSVMappedTokenizer tokenizer = null;
+            try {
+                CSVFeatureBuilder featureBuilder = csvStrategy.createFeatureBuilder();
+                tokenizer = csvFileState.openTokenizer(chunk.offset);
+                if (tokenizer == null) {
+                    csvReader = csvFileState.openCSVReader(chunk.offset);
+                }
+                List<SimpleFeature> features = new ArrayList<SimpleFeature>(BATCH_SIZE);
+                for (int i = 0; i < chunk.rowCount && !closed; i++) {
+                    String id = String.valueOf(chunk.startRow + i + 1);
+                    if (tokenizer != null && tokenizer.readRecord()) {
+                        features.add(featureBuilder.build(id, tokenizer));
+                    } else if (csvReader != null && csvReader.readRecord()) {
+                        features.add(featureBuilder.build(id, csvReader.getValues()));
+                    } else {
+                        break;
+                    }
+                    if (features.size() == BATCH_SIZE) {
+                        queue.add(features);
+                        features = new ArrayList<SimpleFeature>(BATCH_SIZE);
+                    }
+                }
+                if (!features.isEmpty()) {
+                    queue.add(features);
+                }
+                queue.add(END);
+            } catch (Throwable t) {
+                queue.add(t);
+            } finally {
+                if (csvReader != null) {
+                    csvReader.close();
+                }
+                if (tokenizer != null) {
+                    try {
+                        tokenizer.close();
+                    } catch (IOException e) {
+                        // nothing left to release
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.opengeo.data.csv;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import com.csvreader.CsvWriter;
+
+/**
+ * Writes csv records to a file channel through a byte buffer. Byte ranges of an existing file can
+ * be copied in between, without decoding them. Not thread safe.
+ */
+class CSVRecordWriter {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    private final FileChannel channel;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private final CharsetEncoder encoder;
+
+    private final StringWriter text = new StringWriter();
+
+    private final CsvWriter csvWriter;
+
+    CSVRecordWriter(FileChannel channel, Charset charset) {
+        this.channel = channel;
+        this.encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.csvWriter = new CsvWriter(text, ',');
+    }
+
+    void writeRecord(String[] values) throws IOException {
+        text.getBuffer().setLength(0);
+        // values are quoted where needed, leading and trailing blanks are kept
+        csvWriter.writeRecord(values, true);
+        csvWriter.flush();
+        write(text.getBuffer());
+    }
+
+    /**
+     * Ends the last line of a file that does not end with a line terminator.
+     */
+    void writeLineSeparator() throws IOException {
+        write(LINE_SEPARATOR);
+    }
+
+    private void write(CharSequence chars) throws IOException {
+        CharBuffer in = CharBuffer.wrap(chars);
+        encoder.reset();
+        CoderResult result;
+        while ((result = encoder.encode(in, buffer, true)).isOverflow()) {
+            flushBuffer();
+        }
+        if (result.isError()) {
+            result.throwException();
+        }
+        while (encoder.flush(buffer).isOverflow()) {
+            flushBuffer();
+        }
+    }
+
+    /**
+     * Copies the bytes of the source between the two offsets.
+     */
+    void copy(FileChannel source, long from, long to) throws IOException {
+        flushBuffer();
+        long position = from;
+        while (position < to) {
+            long n = source.transferTo(position, to - position, channel);
+            if (n <= 0) {
+                throw new EOFException("Source ended at " + position + " instead of " + to);
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * Writes out the buffered records and forces them to the storage device.
+     */
+    void sync() throws IOException {
+        flushBuffer();
+        channel.force(false);
+    }
+
+    void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
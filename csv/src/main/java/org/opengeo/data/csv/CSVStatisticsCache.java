@@ -0,0 +1,118 @@
+package org.opengeo.data.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.opengeo.data.csv.parse.CSVStrategySupport;
+
+import com.csvreader.CsvReader;
+
+/**
+ * Process wide cache of {@link CSVFileStatistics}, keyed on the canonical path of the file, its
+ * charset and the inference settings, and invalidated when its size or modification time
+ * changes. Stores created for the same file, for instance on a catalog reload, share the
+ * statistics instead of rescanning the file.
+ * <p>
+ * The least recently used entries are evicted once more files are cached than the
+ * {@link CSVFileStateCache} holds, the same <code>org.opengeo.data.csv.cacheSize</code> system
+ * property sets both.
+ */
+public class CSVStatisticsCache {
+
+    static final int MAX_SIZE = Integer.getInteger("org.opengeo.data.csv.cacheSize",
+            CSVFileStateCache.DEFAULT_MAX_SIZE);
+
+    private static final Map<String, Entry> ENTRIES = new LinkedHashMap<String, Entry>(16, 0.75f,
+            true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    private CSVStatisticsCache() {
+    }
+
+    public static CSVFileStatistics get(CSVFileState csvFileState) throws IOException {
+        File file = csvFileState.getFile();
+        Entry entry = getEntry(csvFileState);
+        // the entry lock keeps concurrent requests from scanning the same file twice
+        synchronized (entry) {
+            if (entry.statistics == null || !entry.statistics.isCurrent(file)) {
+                entry.statistics = csvFileState.computeStatistics();
+            }
+            return entry.statistics;
+        }
+    }
+
+    /**
+     * Extends the cached statistics with the records appended to the file between offset and
+     * fileLength, when they were computed up to offset. Returns false when the appended values do
+     * not fit the inferred column types, the statistics are then dropped and computed again on
+     * the next request.
+     */
+    public static boolean append(CSVFileState csvFileState, long offset, long fileLength,
+            long lastModified) throws IOException {
+        Entry entry = getEntry(csvFileState);
+        synchronized (entry) {
+            if (entry.statistics == null) {
+                // another state sharing the statistics may have appended the records already
+                return entry.typesChangedAt != fileLength;
+            }
+            if (entry.statistics.getFileLength() != offset) {
+                if (entry.statistics.getFileLength() != fileLength) {
+                    entry.statistics = null;
+                }
+                return true;
+            }
+            CsvReader csvReader = csvFileState.openCSVReader(offset, fileLength);
+            try {
+                entry.statistics = CSVStrategySupport.appendStatistics(entry.statistics,
+                        fileLength, lastModified, csvReader);
+            } finally {
+                csvReader.close();
+            }
+            entry.typesChangedAt = entry.statistics == null ? fileLength : -1;
+            return entry.statistics != null;
+        }
+    }
+
+    private static Entry getEntry(CSVFileState csvFileState) throws IOException {
+        String key = csvFileState.getFile().getCanonicalPath() + "|"
+                + csvFileState.getCharset().name() + "|" + csvFileState.getInferenceMode();
+        if (csvFileState.getInferenceMode() != CSVInferenceMode.FULL) {
+            key += "|" + csvFileState.getSampleSize();
+        }
+        synchronized (ENTRIES) {
+            Entry entry = ENTRIES.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                ENTRIES.put(key, entry);
+            }
+            return entry;
+        }
+    }
+
+    static int size() {
+        synchronized (ENTRIES) {
+            return ENTRIES.size();
+        }
+    }
+
+    public static void clear() {
+        synchronized (ENTRIES) {
+            ENTRIES.clear();
+        }
+    }
+
+    private static class Entry {
+        CSVFileStatistics statistics;
+
+        // file length at which appended records last changed the column types
+        long typesChangedAt = -1;
+    }
+}
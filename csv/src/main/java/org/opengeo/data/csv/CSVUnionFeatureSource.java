@@ -0,0 +1,316 @@
+package org.opengeo.data.csv;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.data.store.ContentEntry;
+import org.geotools.data.store.ContentFeatureSource;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.filter.Filter;
+
+/**
+ * Serves several csv files sharing their columns as a single type. The schema is the one of the
+ * first file, attributes missing from another file are left empty. Feature ids are prefixed with
+ * the type name of the file they come from to keep them unique.
+ * <p>
+ * Files are read concurrently on the pool of the {@link CSVParallelReader}, up to the parallelism
+ * of the {@link CSVDirectoryDataStore} at a time, and features come out in no particular order.
+ * Each file is read a few batches at a time, the next ones only once the consumer has taken
+ * those, which bounds memory use without ever blocking a pool thread on a slow or abandoned
+ * consumer.
+ */
+public class CSVUnionFeatureSource extends ContentFeatureSource {
+
+    private static final int BATCH_SIZE = 256;
+
+    // batches a file task reads before it waits for the consumer
+    private static final int CHUNK_BATCHES = 4;
+
+    private static final Object END = new Object();
+
+    private final List<CSVDataStore> stores;
+
+    public CSVUnionFeatureSource(ContentEntry entry, List<CSVDataStore> stores) {
+        super(entry, Query.ALL);
+        this.stores = stores;
+    }
+
+    public CSVDirectoryDataStore getDataStore() {
+        return (CSVDirectoryDataStore) super.getDataStore();
+    }
+
+    @Override
+    protected SimpleFeatureType buildFeatureType() throws IOException {
+        SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+        builder.init(stores.get(0).getSchema());
+        builder.setName(entry.getName().getLocalPart());
+        builder.setNamespaceURI(entry.getName().getNamespaceURI());
+        return builder.buildFeatureType();
+    }
+
+    /**
+     * Restricts the query to a single file. Properties the file does not have are not asked for,
+     * they are left empty in its features.
+     */
+    private Query getFileQuery(CSVDataStore store, Query query) {
+        Filter filter = query.getFilter() != null ? query.getFilter() : Filter.INCLUDE;
+        Query fileQuery = new Query(store.getTypeName().getLocalPart(), filter);
+        String[] propertyNames = query.getPropertyNames();
+        if (propertyNames != null) {
+            SimpleFeatureType schema = store.getCSVStrategy().getFeatureType();
+            List<String> fileNames = new ArrayList<String>(propertyNames.length);
+            for (String propertyName : propertyNames) {
+                if (schema.getDescriptor(propertyName) != null) {
+                    fileNames.add(propertyName);
+                }
+            }
+            propertyNames = fileNames.toArray(new String[fileNames.size()]);
+        }
+        fileQuery.setPropertyNames(propertyNames);
+        return fileQuery;
+    }
+
+    @Override
+    protected ReferencedEnvelope getBoundsInternal(Query query) throws IOException {
+        ReferencedEnvelope bounds = new ReferencedEnvelope(getSchema()
+                .getCoordinateReferenceSystem());
+        for (CSVDataStore store : stores) {
+            ReferencedEnvelope fileBounds = store.getFeatureSource(store.getTypeName())
+                    .getBounds(getFileQuery(store, query));
+            if (fileBounds != null) {
+                bounds.include(fileBounds);
+            }
+        }
+        return bounds;
+    }
+
+    @Override
+    protected int getCountInternal(Query query) throws IOException {
+        int count = 0;
+        for (CSVDataStore store : stores) {
+            int fileCount = store.getFeatureSource(store.getTypeName()).getCount(
+                    getFileQuery(store, query));
+            if (fileCount < 0) {
+                return -1;
+            }
+            count += fileCount;
+        }
+        return count;
+    }
+
+    @Override
+    protected FeatureReader<SimpleFeatureType, SimpleFeature> getReaderInternal(Query query)
+            throws IOException {
+        SimpleFeatureType featureType = getSchema();
+        if (query.getPropertyNames() != null) {
+            featureType = SimpleFeatureTypeBuilder.retype(featureType, query.getPropertyNames());
+        }
+        return new UnionReader(featureType, query, getDataStore().getParallelism());
+    }
+
+    // each file filters and retypes its own features, paging is left to the caller since
+    // features come out in no particular order
+
+    @Override
+    protected boolean canFilter() {
+        return true;
+    }
+
+    @Override
+    protected boolean canRetype() {
+        return true;
+    }
+
+    private class UnionReader implements FeatureReader<SimpleFeatureType, SimpleFeature> {
+
+        private final SimpleFeatureType featureType;
+
+        private final Query query;
+
+        private final BlockingQueue<Object> queue = new LinkedBlockingQueue<Object>();
+
+        private final List<FileTask> tasks = new ArrayList<FileTask>();
+
+        private volatile boolean closed;
+
+        private int submitted;
+
+        private int finished;
+
+        private List<SimpleFeature> batch;
+
+        private int batchPosition;
+
+        UnionReader(SimpleFeatureType featureType, Query query, int parallelism) {
+            this.featureType = featureType;
+            this.query = query;
+            while (submitted < Math.min(parallelism, stores.size())) {
+                submitNext();
+            }
+        }
+
+        private void submitNext() {
+            if (submitted < stores.size()) {
+                FileTask task = new FileTask(stores.get(submitted++));
+                tasks.add(task);
+                task.submit();
+            }
+        }
+
+        @Override
+        public SimpleFeatureType getFeatureType() {
+            return featureType;
+        }
+
+        @Override
+        public boolean hasNext() throws IOException {
+            while (batch == null || batchPosition >= batch.size()) {
+                batch = takeBatch();
+                batchPosition = 0;
+                if (batch == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public SimpleFeature next() throws IOException, IllegalArgumentException,
+                NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return batch.get(batchPosition++);
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<SimpleFeature> takeBatch() throws IOException {
+            while (finished < stores.size()) {
+                Object item;
+                try {
+                    item = queue.take();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Interrupted while reading csv files");
+                }
+                if (item == END) {
+                    finished++;
+                    submitNext();
+                } else if (item instanceof FileTask) {
+                    // the batches of its last chunk were taken, read the next one
+                    ((FileTask) item).submit();
+                } else if (item instanceof Throwable) {
+                    close();
+                    throw (IOException) new IOException("Failure reading csv files").initCause(
+                            (Throwable) item);
+                } else {
+                    return (List<SimpleFeature>) item;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            for (FileTask task : tasks) {
+                task.cancel();
+            }
+        }
+
+        /**
+         * Reads a file a chunk of batches at a time. After the batches of a chunk the task queues
+         * itself, and the consumer submits it again once it gets there, so the file reader stays
+         * open between chunks without holding a pool thread.
+         */
+        private class FileTask implements Runnable {
+
+            private final CSVDataStore store;
+
+            private FeatureReader<SimpleFeatureType, SimpleFeature> reader;
+
+            private Future<?> future;
+
+            FileTask(CSVDataStore store) {
+                this.store = store;
+            }
+
+            synchronized void submit() {
+                future = CSVParallelReader.submit(this);
+            }
+
+            synchronized void cancel() {
+                if (future != null) {
+                    future.cancel(false);
+                }
+                closeReader();
+            }
+
+            public synchronized void run() {
+                if (closed) {
+                    closeReader();
+                    return;
+                }
+                try {
+                    if (reader == null) {
+                        reader = new CSVFeatureReader(store.getCSVStrategy(), getFileQuery(store,
+                                query));
+                    }
+                    String prefix = store.getTypeName().getLocalPart() + ".";
+                    SimpleFeatureBuilder builder = new SimpleFeatureBuilder(featureType);
+                    for (int i = 0; i < CHUNK_BATCHES; i++) {
+                        List<SimpleFeature> features = new ArrayList<SimpleFeature>(BATCH_SIZE);
+                        while (!closed && features.size() < BATCH_SIZE && reader.hasNext()) {
+                            SimpleFeature feature = reader.next();
+                            for (AttributeDescriptor descriptor : featureType
+                                    .getAttributeDescriptors()) {
+                                String name = descriptor.getLocalName();
+                                builder.set(name, feature.getAttribute(name));
+                            }
+                            features.add(builder.buildFeature(prefix + feature.getID()));
+                        }
+                        if (!features.isEmpty()) {
+                            queue.add(features);
+                        }
+                        if (closed) {
+                            closeReader();
+                            return;
+                        }
+                        if (features.size() < BATCH_SIZE) {
+                            closeReader();
+                            queue.add(END);
+                            return;
+                        }
+                    }
+                    queue.add(this);
+                } catch (Throwable t) {
+                    closeReader();
+                    queue.add(t);
+                }
+            }
+
+            private void closeReader() {
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        // nothing left to release
+                    }
+                    reader = null;
+                }
+            }
+        }
+    }
+}
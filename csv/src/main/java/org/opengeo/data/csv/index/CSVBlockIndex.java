@@ -0,0 +1,267 @@
+package org.opengeo.data.csv.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.logging.Level;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.io.input.CountingInputStream;
+import org.opengeo.data.csv.CSVCompression;
+
+/**
+ * Index of the points a compressed csv file can be decompressed from, so that reading can start
+ * near a row index offset rather than at the beginning of the file. These are the starts of the
+ * gzip members or bzip2 streams the file is made of: files written by bgzip or pbzip2 have many of
+ * them, while a file compressed in one go has a single block starting at 0.
+ * <p>
+ * Blocks closer than {@link #MIN_BLOCK_SIZE} decompressed bytes are merged. The index is persisted
+ * in a sidecar file (<code>foo.csv.gz.bidx</code>) like the {@link CSVRowIndex}.
+ */
+public class CSVBlockIndex {
+
+    public static final String EXTENSION = ".bidx";
+
+    public static final int MIN_BLOCK_SIZE = 1 << 20;
+
+    private static final int MAGIC = 0x43535642;
+
+    private static final int VERSION = 1;
+
+    private final long fileLength;
+
+    private final long lastModified;
+
+    private final long[] compressedOffsets;
+
+    private final long[] offsets;
+
+    CSVBlockIndex(long fileLength, long lastModified, long[] compressedOffsets, long[] offsets) {
+        this.fileLength = fileLength;
+        this.lastModified = lastModified;
+        this.compressedOffsets = compressedOffsets;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Loads the sidecar index for the file if it is present and current, otherwise decompresses
+     * the whole file once and (re)writes the sidecar.
+     */
+    public static CSVBlockIndex open(File file, CSVCompression compression) throws IOException {
+        return open(file, compression, true);
+    }
+
+    /**
+     * Same as {@link #open(File, CSVCompression)}, the sidecar is neither read nor written when
+     * <code>sidecar</code> is false.
+     */
+    public static CSVBlockIndex open(File file, CSVCompression compression, boolean sidecar)
+            throws IOException {
+        File indexFile = getIndexFile(file);
+        if (sidecar && indexFile.exists()) {
+            try {
+                CSVBlockIndex index = read(indexFile);
+                if (index.isCurrent(file)) {
+                    return index;
+                }
+            } catch (IOException e) {
+                CSVRowIndex.LOGGER.log(Level.FINE, "Ignoring unreadable csv block index "
+                        + indexFile, e);
+            }
+        }
+        CSVBlockIndex index = build(file, compression);
+        if (sidecar && CSVRowIndex.canWrite(indexFile)) {
+            try {
+                index.write(indexFile);
+            } catch (IOException e) {
+                CSVRowIndex.LOGGER.log(Level.FINE, "Unable to write csv block index " + indexFile,
+                        e);
+            }
+        }
+        return index;
+    }
+
+    public static File getIndexFile(File file) {
+        return new File(file.getPath() + EXTENSION);
+    }
+
+    public static CSVBlockIndex build(File file, CSVCompression compression) throws IOException {
+        return build(file, compression, MIN_BLOCK_SIZE);
+    }
+
+    static CSVBlockIndex build(File file, CSVCompression compression, int minBlockSize)
+            throws IOException {
+        long fileLength = file.length();
+        long lastModified = file.lastModified();
+        Builder builder = new Builder(minBlockSize);
+        InputStream in = new FileInputStream(file);
+        try {
+            switch (compression) {
+            case GZIP:
+                buildGzip(in, builder);
+                break;
+            case BZIP2:
+                buildBzip2(in, builder);
+                break;
+            default:
+                // uncompressed files are seeked directly
+                break;
+            }
+        } finally {
+            in.close();
+        }
+        return new CSVBlockIndex(fileLength, lastModified, builder.getCompressedOffsets(),
+                builder.getOffsets());
+    }
+
+    private static void buildGzip(InputStream in, Builder builder) throws IOException {
+        CSVGzipInputStream gzip = new CSVGzipInputStream(in);
+        byte[] buffer = new byte[1 << 16];
+        long memberStart = -1;
+        while (gzip.read(buffer) != -1) {
+            if (gzip.getMemberStart() != memberStart) {
+                memberStart = gzip.getMemberStart();
+                builder.add(memberStart, gzip.getMemberPosition());
+            }
+        }
+    }
+
+    private static void buildBzip2(InputStream in, Builder builder) throws IOException {
+        // the counting stream sits above the buffer so it reports the bytes actually consumed
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        CountingInputStream counting = new CountingInputStream(buffered);
+        byte[] buffer = new byte[1 << 16];
+        long position = 0;
+        while (true) {
+            buffered.mark(1);
+            int next = buffered.read();
+            buffered.reset();
+            if (next == -1) {
+                break;
+            }
+            builder.add(counting.getByteCount(), position);
+            InputStream bzip2 = new BZip2CompressorInputStream(counting, false);
+            int n;
+            while ((n = bzip2.read(buffer)) != -1) {
+                position += n;
+            }
+        }
+    }
+
+    public static CSVBlockIndex read(File indexFile) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+                indexFile)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a csv block index file: " + indexFile);
+            }
+            long fileLength = in.readLong();
+            long lastModified = in.readLong();
+            int size = in.readInt();
+            long[] compressedOffsets = new long[size];
+            long[] offsets = new long[size];
+            for (int i = 0; i < size; i++) {
+                compressedOffsets[i] = in.readLong();
+                offsets[i] = in.readLong();
+            }
+            return new CSVBlockIndex(fileLength, lastModified, compressedOffsets, offsets);
+        } finally {
+            in.close();
+        }
+    }
+
+    public void write(File indexFile) throws IOException {
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+                tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fileLength);
+            out.writeLong(lastModified);
+            out.writeInt(offsets.length);
+            for (int i = 0; i < offsets.length; i++) {
+                out.writeLong(compressedOffsets[i]);
+                out.writeLong(offsets[i]);
+            }
+        } finally {
+            out.close();
+        }
+        if (indexFile.exists() && !indexFile.delete() || !tmp.renameTo(indexFile)) {
+            tmp.delete();
+            throw new IOException("Unable to replace csv block index " + indexFile);
+        }
+    }
+
+    public boolean isCurrent(File file) {
+        return file.length() == fileLength && file.lastModified() == lastModified;
+    }
+
+    public int size() {
+        return offsets.length;
+    }
+
+    /**
+     * Returns the last block starting at or before the given decompressed offset.
+     */
+    public int getBlock(long offset) {
+        int block = Arrays.binarySearch(offsets, offset);
+        return block >= 0 ? block : Math.max(0, -block - 2);
+    }
+
+    /**
+     * Returns where the block starts in the compressed file.
+     */
+    public long getCompressedOffset(int block) {
+        return block < compressedOffsets.length ? compressedOffsets[block] : 0;
+    }
+
+    /**
+     * Returns where the block starts in the decompressed data.
+     */
+    public long getOffset(int block) {
+        return block < offsets.length ? offsets[block] : 0;
+    }
+
+    static class Builder {
+
+        private long[] compressedOffsets = new long[16];
+
+        private long[] offsets = new long[16];
+
+        private int size;
+
+        private final int minBlockSize;
+
+        Builder(int minBlockSize) {
+            this.minBlockSize = minBlockSize;
+        }
+
+        void add(long compressedOffset, long offset) {
+            if (size > 0 && offset - offsets[size - 1] < minBlockSize) {
+                return;
+            }
+            if (size == offsets.length) {
+                compressedOffsets = Arrays.copyOf(compressedOffsets, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            compressedOffsets[size] = compressedOffset;
+            offsets[size++] = offset;
+        }
+
+        long[] getCompressedOffsets() {
+            return Arrays.copyOf(compressedOffsets, size);
+        }
+
+        long[] getOffsets() {
+            return Arrays.copyOf(offsets, size);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package org.opengeo.data.csv.index;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decompresses gzip data made of one or more members, as written by bgzip or by concatenating
+ * gzip files. Unlike GZIPInputStream on Java 6 every member is read, and a single read never
+ * returns bytes of two members, so callers can tell where each member starts in both the
+ * compressed and the decompressed data.
+ */
+public class CSVGzipInputStream extends InputStream {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final int FHCRC = 2;
+
+    private static final int FEXTRA = 4;
+
+    private static final int FNAME = 8;
+
+    private static final int FCOMMENT = 16;
+
+    private final PushbackInputStream in;
+
+    private final Inflater inflater = new Inflater(true);
+
+    private final CRC32 crc = new CRC32();
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private int inputLength;
+
+    private final byte[] single = new byte[1];
+
+    // compressed bytes consumed and decompressed bytes returned, since the stream was opened
+    private long compressedPosition;
+
+    private long position;
+
+    private long memberStart = -1;
+
+    private long memberPosition;
+
+    private boolean eof;
+
+    public CSVGzipInputStream(InputStream in) throws IOException {
+        this.in = new PushbackInputStream(in, BUFFER_SIZE);
+        eof = !startMember();
+    }
+
+    /**
+     * Compressed offset of the member the last bytes read come from, relative to where the stream
+     * was opened.
+     */
+    public long getMemberStart() {
+        return memberStart;
+    }
+
+    /**
+     * Decompressed offset the member the last bytes read come from starts at.
+     */
+    public long getMemberPosition() {
+        return memberPosition;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (!eof) {
+            if (inflater.finished()) {
+                finishMember();
+                eof = !startMember();
+                continue;
+            }
+            if (inflater.needsInput()) {
+                inputLength = in.read(buffer);
+                if (inputLength == -1) {
+                    throw new EOFException("Unexpected end of gzip data");
+                }
+                inflater.setInput(buffer, 0, inputLength);
+                compressedPosition += inputLength;
+            }
+            int n;
+            try {
+                n = inflater.inflate(b, off, len);
+            } catch (DataFormatException e) {
+                throw new ZipException("Invalid gzip data: " + e.getMessage());
+            }
+            if (n > 0) {
+                crc.update(b, off, n);
+                position += n;
+                return n;
+            }
+            if (inflater.needsDictionary()) {
+                throw new ZipException("Invalid gzip data: unexpected preset dictionary");
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] scratch = new byte[(int) Math.min(n, BUFFER_SIZE)];
+        long skipped = 0;
+        while (skipped < n) {
+            int read = read(scratch, 0, (int) Math.min(n - skipped, scratch.length));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+
+    // reads the member header, returns false at the end of the data
+    private boolean startMember() throws IOException {
+        int id1 = in.read();
+        if (id1 == -1) {
+            return false;
+        }
+        int id2 = in.read();
+        if (id1 != 0x1f || id2 != 0x8b) {
+            if (memberStart < 0) {
+                throw new ZipException("Not in gzip format");
+            }
+            // like gzip, trailing garbage after a member is ignored
+            return false;
+        }
+        long start = compressedPosition;
+        compressedPosition += 2;
+        if (readByte() != 8) {
+            throw new ZipException("Unsupported gzip compression method");
+        }
+        int flags = readByte();
+        // modification time, extra flags and operating system
+        skipBytes(6);
+        if ((flags & FEXTRA) != 0) {
+            skipBytes(readByte() | readByte() << 8);
+        }
+        if ((flags & FNAME) != 0) {
+            while (readByte() != 0) {
+            }
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (readByte() != 0) {
+            }
+        }
+        if ((flags & FHCRC) != 0) {
+            skipBytes(2);
+        }
+        inflater.reset();
+        crc.reset();
+        memberStart = start;
+        memberPosition = position;
+        return true;
+    }
+
+    // gives back the input read past the deflate data and checks the trailer
+    private void finishMember() throws IOException {
+        int remaining = inflater.getRemaining();
+        if (remaining > 0) {
+            in.unread(buffer, inputLength - remaining, remaining);
+            compressedPosition -= remaining;
+        }
+        long expectedCrc = readInt();
+        long expectedSize = readInt();
+        if (expectedCrc != crc.getValue()
+                || expectedSize != ((position - memberPosition) & 0xFFFFFFFFL)) {
+            throw new ZipException("Corrupt gzip trailer");
+        }
+    }
+
+    private long readInt() throws IOException {
+        return readByte() | readByte() << 8 | readByte() << 16 | (long) readByte() << 24;
+    }
+
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            throw new EOFException("Unexpected end of gzip data");
+        }
+        compressedPosition++;
+        return b;
+    }
+
+    private void skipBytes(int n) throws IOException {
+        for (int i = 0; i < n; i++) {
+            readByte();
+        }
+    }
+}
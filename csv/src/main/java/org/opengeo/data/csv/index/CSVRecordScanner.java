@@ -0,0 +1,79 @@
+package org.opengeo.data.csv.index;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Walks the raw bytes of a csv file and reports where each record starts, without decoding or
+ * splitting fields. Quoting follows the same rules as CsvReader, so embedded newlines inside
+ * quoted fields do not end a record, and empty lines are skipped.
+ */
+public class CSVRecordScanner {
+
+    private static final int QUOTE = '"';
+
+    private static final int DELIMITER = ',';
+
+    private final InputStream in;
+
+    private long position;
+
+    public CSVRecordScanner(InputStream in) {
+        this(in, 0);
+    }
+
+    public CSVRecordScanner(InputStream in, long position) {
+        this.in = in;
+        this.position = position;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Consumes the next record and returns the byte offset it starts at, or -1 when the input is
+     * exhausted.
+     */
+    public long nextRecord() throws IOException {
+        int c = read();
+        while (c == '\r' || c == '\n') {
+            c = read();
+        }
+        if (c == -1) {
+            return -1;
+        }
+        long start = position - 1;
+        boolean quoted = false;
+        boolean fieldStart = true;
+        while (c != -1) {
+            if (quoted) {
+                if (c == QUOTE) {
+                    int n = read();
+                    if (n != QUOTE) {
+                        quoted = false;
+                        fieldStart = false;
+                        c = n;
+                        continue;
+                    }
+                }
+            } else if (c == '\n' || c == '\r') {
+                break;
+            } else if (c == QUOTE && fieldStart) {
+                quoted = true;
+            } else {
+                fieldStart = c == DELIMITER || (fieldStart && (c == ' ' || c == '\t'));
+            }
+            c = read();
+        }
+        return start;
+    }
+
+    private int read() throws IOException {
+        int c = in.read();
+        if (c != -1) {
+            position++;
+        }
+        return c;
+    }
+}
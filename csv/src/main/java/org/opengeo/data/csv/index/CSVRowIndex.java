@@ -0,0 +1,282 @@
+package org.opengeo.data.csv.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+import org.opengeo.data.csv.CSVCompression;
+
+/**
+ * Sparse index of record byte offsets in a csv file. The offset of every <code>interval</code>-th
+ * record (not counting the header) is kept, so reaching an arbitrary row only requires a seek plus
+ * parsing at most <code>interval - 1</code> records.
+ * <p>
+ * The index is persisted in a sidecar file next to the csv (<code>foo.csv.idx</code>), unless
+ * sidecars are disabled or the directory cannot be written to, and is considered stale as soon as
+ * the size or modification time of the csv changes.
+ */
+public class CSVRowIndex {
+
+    static final Logger LOGGER = Logging.getLogger("org.opengeo.data.csv");
+
+    public static final int DEFAULT_INTERVAL = 1000;
+
+    public static final String EXTENSION = ".idx";
+
+    private static final int MAGIC = 0x43535649;
+
+    private static final int VERSION = 1;
+
+    private final long fileLength;
+
+    private final long lastModified;
+
+    private final int interval;
+
+    private final int rowCount;
+
+    private final long[] offsets;
+
+    CSVRowIndex(long fileLength, long lastModified, int interval, int rowCount, long[] offsets) {
+        this.fileLength = fileLength;
+        this.lastModified = lastModified;
+        this.interval = interval;
+        this.rowCount = rowCount;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Loads the sidecar index for the file if it is present and current, otherwise scans the file
+     * and (re)writes the sidecar. Failing to write the sidecar is not fatal, the index is then
+     * only kept in memory.
+     */
+    public static CSVRowIndex open(File file, int interval) throws IOException {
+        return open(file, CSVCompression.NONE, interval);
+    }
+
+    /**
+     * Same as {@link #open(File, int)}, with offsets taken in the decompressed data for
+     * compressed files.
+     */
+    public static CSVRowIndex open(File file, CSVCompression compression, int interval)
+            throws IOException {
+        return open(file, compression, interval, true);
+    }
+
+    /**
+     * Same as {@link #open(File, CSVCompression, int)}, the sidecar is neither read nor written
+     * when <code>sidecar</code> is false.
+     */
+    public static CSVRowIndex open(File file, CSVCompression compression, int interval,
+            boolean sidecar) throws IOException {
+        File indexFile = getIndexFile(file);
+        if (sidecar && indexFile.exists()) {
+            try {
+                CSVRowIndex index = read(indexFile);
+                if (index.isCurrent(file) && index.interval == interval) {
+                    return index;
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Ignoring unreadable csv index " + indexFile, e);
+            }
+        }
+        CSVRowIndex index = build(file, compression, interval);
+        if (sidecar) {
+            index.writeSidecar(indexFile);
+        }
+        return index;
+    }
+
+    public static File getIndexFile(File file) {
+        return new File(file.getPath() + EXTENSION);
+    }
+
+    /**
+     * Tells whether a sidecar can be written, which takes a writable directory since sidecars are
+     * written to a temporary file first.
+     */
+    public static boolean canWrite(File indexFile) {
+        File dir = indexFile.getAbsoluteFile().getParentFile();
+        return dir != null && dir.canWrite();
+    }
+
+    private void writeSidecar(File indexFile) {
+        if (!canWrite(indexFile)) {
+            LOGGER.fine("Keeping csv index " + indexFile + " in memory, directory is read only");
+            return;
+        }
+        try {
+            write(indexFile);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Unable to write csv index " + indexFile, e);
+        }
+    }
+
+    public static CSVRowIndex build(File file, int interval) throws IOException {
+        return build(file, CSVCompression.NONE, interval);
+    }
+
+    public static CSVRowIndex build(File file, CSVCompression compression, int interval)
+            throws IOException {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Index interval must be positive: " + interval);
+        }
+        long fileLength = file.length();
+        long lastModified = file.lastModified();
+        long[] offsets = new long[16];
+        int size = 0;
+        int rows = 0;
+        InputStream in = new BufferedInputStream(compression.decompress(new FileInputStream(file)));
+        try {
+            CSVRecordScanner scanner = new CSVRecordScanner(in);
+            // skip the header record
+            if (scanner.nextRecord() != -1) {
+                long offset;
+                while ((offset = scanner.nextRecord()) != -1) {
+                    if (rows % interval == 0) {
+                        if (size == offsets.length) {
+                            offsets = Arrays.copyOf(offsets, size * 2);
+                        }
+                        offsets[size++] = offset;
+                    }
+                    rows++;
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return new CSVRowIndex(fileLength, lastModified, interval, rows, Arrays.copyOf(offsets,
+                size));
+    }
+
+    /**
+     * Returns the index extended with the records appended to the file since it was built, and
+     * rewrites the sidecar. The tail stream must hold the data between the end of the indexed
+     * data, which has to end with a line terminator, and the new file length.
+     */
+    public CSVRowIndex append(File file, long length, long modified, InputStream tail)
+            throws IOException {
+        return append(file, length, modified, tail, true);
+    }
+
+    /**
+     * Same as {@link #append(File, long, long, InputStream)}, the sidecar is left alone when
+     * <code>sidecar</code> is false.
+     */
+    public CSVRowIndex append(File file, long length, long modified, InputStream tail,
+            boolean sidecar) throws IOException {
+        long[] appended = Arrays.copyOf(offsets, Math.max(16, offsets.length * 2));
+        int size = offsets.length;
+        int rows = rowCount;
+        CSVRecordScanner scanner = new CSVRecordScanner(tail, fileLength);
+        long offset;
+        while ((offset = scanner.nextRecord()) != -1) {
+            if (rows % interval == 0) {
+                if (size == appended.length) {
+                    appended = Arrays.copyOf(appended, size * 2);
+                }
+                appended[size++] = offset;
+            }
+            rows++;
+        }
+        CSVRowIndex index = new CSVRowIndex(length, modified, interval, rows, Arrays.copyOf(
+                appended, size));
+        if (sidecar) {
+            index.writeSidecar(getIndexFile(file));
+        }
+        return index;
+    }
+
+    public static CSVRowIndex read(File indexFile) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+                indexFile)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a csv index file: " + indexFile);
+            }
+            long fileLength = in.readLong();
+            long lastModified = in.readLong();
+            int interval = in.readInt();
+            int rowCount = in.readInt();
+            long[] offsets = new long[in.readInt()];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = in.readLong();
+            }
+            return new CSVRowIndex(fileLength, lastModified, interval, rowCount, offsets);
+        } finally {
+            in.close();
+        }
+    }
+
+    public void write(File indexFile) throws IOException {
+        // write to a temporary file first so concurrent readers never see a partial index
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+                tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fileLength);
+            out.writeLong(lastModified);
+            out.writeInt(interval);
+            out.writeInt(rowCount);
+            out.writeInt(offsets.length);
+            for (long offset : offsets) {
+                out.writeLong(offset);
+            }
+        } finally {
+            out.close();
+        }
+        if (indexFile.exists() && !indexFile.delete() || !tmp.renameTo(indexFile)) {
+            tmp.delete();
+            throw new IOException("Unable to replace csv index " + indexFile);
+        }
+    }
+
+    public boolean isCurrent(File file) {
+        return file.length() == fileLength && file.lastModified() == lastModified;
+    }
+
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * Returns the closest indexed row at or before the requested one.
+     */
+    public int getIndexedRow(int row) {
+        if (offsets.length == 0) {
+            return 0;
+        }
+        return Math.min(row / interval, offsets.length - 1) * interval;
+    }
+
+    /**
+     * Returns the byte offset of {@link #getIndexedRow(int)}, or 0 if the file has no records, in
+     * which case reading has to start from the header.
+     */
+    public long getOffset(int row) {
+        if (offsets.length == 0) {
+            return 0;
+        }
+        return offsets[Math.min(row / interval, offsets.length - 1)];
+    }
+}
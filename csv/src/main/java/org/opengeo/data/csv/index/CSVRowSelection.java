@@ -0,0 +1,32 @@
+package org.opengeo.data.csv.index;
+
+/**
+ * Set of csv rows picked by an index lookup, in file order, each with the byte offset its record
+ * starts at.
+ */
+public class CSVRowSelection {
+
+    private final int[] rows;
+
+    private final long[] offsets;
+
+    public CSVRowSelection(int[] rows, long[] offsets) {
+        if (rows.length != offsets.length) {
+            throw new IllegalArgumentException("Rows and offsets must have the same length");
+        }
+        this.rows = rows;
+        this.offsets = offsets;
+    }
+
+    public int size() {
+        return rows.length;
+    }
+
+    public int getRow(int i) {
+        return rows[i];
+    }
+
+    public long getOffset(int i) {
+        return offsets[i];
+    }
+}
@@ -0,0 +1,597 @@
+package org.opengeo.data.csv.index;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.logging.Level;
+
+import org.opengeo.data.csv.CSVFileState;
+import org.opengeo.data.csv.parse.CSVStrategy;
+
+import com.csvreader.CsvReader;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Packed STR R-tree over the geometries of a csv file. Leaves hold the envelope of a record along
+ * with its row number and byte offset; upper levels hold the envelopes of groups of
+ * {@link #NODE_CAPACITY} consecutive nodes of the level below, so child ranges are implicit.
+ * <p>
+ * The tree is written to a sidecar file (<code>foo.csv.sidx</code>) and memory mapped. It is keyed
+ * on the csv size and modification time, and on a signature supplied by the strategy so that
+ * stores reading the same file with different geometry columns do not share an index.
+ * <p>
+ * Records appended to a watched file are added to a short list scanned next to the tree, see
+ * {@link #append(long, long, int, double[], long[], int[])}.
+ */
+public class CSVSpatialIndex {
+
+    public static final String EXTENSION = ".sidx";
+
+    public static final int NODE_CAPACITY = 16;
+
+    private static final int MAGIC = 0x43535652;
+
+    private static final int VERSION = 1;
+
+    private static final int LEAF_SIZE = 4 * 8 + 8 + 4;
+
+    private static final int NODE_SIZE = 4 * 8;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Most entries a tree can hold, leaves and nodes have to fit in a single mapped buffer.
+     */
+    static final int MAX_SIZE = (int) ((Integer.MAX_VALUE - WRITE_BUFFER_SIZE)
+            / (LEAF_SIZE + (double) NODE_SIZE / (NODE_CAPACITY - 1)));
+
+    private final ByteBuffer buffer;
+
+    private final long fileLength;
+
+    private final long lastModified;
+
+    private final String signature;
+
+    private final int[] levelCounts;
+
+    private final int[] levelStarts;
+
+    // entries for records appended since the tree was packed, in file order
+    private final int tailSize;
+
+    private final double[] tailBoxes;
+
+    private final long[] tailOffsets;
+
+    private final int[] tailRows;
+
+    CSVSpatialIndex(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a csv spatial index");
+        }
+        fileLength = buffer.getLong(8);
+        lastModified = buffer.getLong(16);
+        int levels = buffer.getInt(24);
+        levelCounts = new int[levels];
+        int pos = 28;
+        for (int i = 0; i < levels; i++) {
+            levelCounts[i] = buffer.getInt(pos);
+            pos += 4;
+        }
+        byte[] bytes = new byte[buffer.getInt(pos)];
+        pos += 4;
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(pos++);
+        }
+        signature = new String(bytes, UTF8);
+        levelStarts = new int[levels];
+        for (int i = 0; i < levels; i++) {
+            levelStarts[i] = pos;
+            pos += levelCounts[i] * (i == 0 ? LEAF_SIZE : NODE_SIZE);
+        }
+        tailSize = 0;
+        tailBoxes = new double[0];
+        tailOffsets = new long[0];
+        tailRows = new int[0];
+    }
+
+    private CSVSpatialIndex(CSVSpatialIndex index, long fileLength, long lastModified,
+            int tailSize, double[] tailBoxes, long[] tailOffsets, int[] tailRows) {
+        this.buffer = index.buffer;
+        this.fileLength = fileLength;
+        this.lastModified = lastModified;
+        this.signature = index.signature;
+        this.levelCounts = index.levelCounts;
+        this.levelStarts = index.levelStarts;
+        this.tailSize = tailSize;
+        this.tailBoxes = tailBoxes;
+        this.tailOffsets = tailOffsets;
+        this.tailRows = tailRows;
+    }
+
+    /**
+     * Maps the sidecar index of the file if it matches the file and signature, otherwise builds
+     * it from the records and rewrites the sidecar. When sidecars are disabled or cannot be
+     * written the index is kept on the heap. Files with too many records to index fail with an
+     * IOException, they have to be scanned instead.
+     */
+    public static CSVSpatialIndex open(CSVFileState csvFileState, CSVStrategy csvStrategy,
+            String signature) throws IOException {
+        File file = csvFileState.getFile();
+        File indexFile = getIndexFile(file);
+        boolean sidecar = csvFileState.isIndexFiles();
+        if (sidecar && indexFile.exists()) {
+            try {
+                CSVSpatialIndex index = map(indexFile);
+                if (index.isCurrent(file) && signature.equals(index.signature)) {
+                    return index;
+                }
+            } catch (IOException e) {
+                CSVRowIndex.LOGGER.log(Level.FINE, "Ignoring unreadable csv spatial index "
+                        + indexFile, e);
+            }
+        }
+        Entries entries = build(csvFileState, csvStrategy);
+        if (sidecar && CSVRowIndex.canWrite(indexFile)) {
+            try {
+                write(entries, signature, indexFile);
+                return map(indexFile);
+            } catch (IOException e) {
+                CSVRowIndex.LOGGER.log(Level.FINE, "Unable to write csv spatial index "
+                        + indexFile, e);
+            }
+        }
+        return new CSVSpatialIndex(pack(entries, signature));
+    }
+
+    /**
+     * Builds an index kept on the heap over the given envelopes, four values per entry, for rows
+     * that are not read back from the file. The offsets of the selected rows are left at 0.
+     */
+    public static CSVSpatialIndex create(String signature, int size, double[] boxes, int[] rows)
+            throws IOException {
+        return new CSVSpatialIndex(pack(new Entries(-1, -1, size, boxes, new long[size], rows),
+                signature));
+    }
+
+    public static File getIndexFile(File file) {
+        return new File(file.getPath() + EXTENSION);
+    }
+
+    static CSVSpatialIndex map(File indexFile) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Csv spatial index too large to map: " + indexFile);
+            }
+            return new CSVSpatialIndex(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            // the mapping stays valid after the channel is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Packs the entries straight into the sidecar, through a temporary file so concurrent readers
+     * never map a partial index.
+     */
+    static void write(Entries entries, String signature, File indexFile) throws IOException {
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        try {
+            raf.setLength(0);
+            pack(entries, signature, raf.getChannel());
+        } catch (IOException e) {
+            raf.close();
+            tmp.delete();
+            throw e;
+        } finally {
+            raf.close();
+        }
+        if (indexFile.exists() && !indexFile.delete() || !tmp.renameTo(indexFile)) {
+            tmp.delete();
+            throw new IOException("Unable to replace csv spatial index " + indexFile);
+        }
+    }
+
+    /**
+     * Reads every record of the file and asks the strategy for its envelope. Records without a
+     * geometry are left out, they can never match a spatial filter.
+     */
+    static Entries build(CSVFileState csvFileState, CSVStrategy csvStrategy) throws IOException {
+        File file = csvFileState.getFile();
+        long fileLength = file.length();
+        long lastModified = file.lastModified();
+
+        int size = 0;
+        double[] boxes = new double[64];
+        long[] offsets = new long[16];
+        int[] rows = new int[16];
+
+        CsvReader csvReader = csvFileState.openCSVReader();
+        InputStream in = new BufferedInputStream(csvFileState.openStream(0));
+        try {
+            CSVRecordScanner scanner = new CSVRecordScanner(in);
+            // the scanner and the csv reader agree on record boundaries, the header comes first
+            scanner.nextRecord();
+            for (int row = 0; csvReader.readRecord(); row++) {
+                long offset = scanner.nextRecord();
+                Envelope envelope = csvStrategy.getEnvelope(csvReader.getValues());
+                if (envelope == null || envelope.isNull()) {
+                    continue;
+                }
+                if (size == rows.length) {
+                    if (size == MAX_SIZE) {
+                        throw new IOException("Too many records in " + file
+                                + " for a spatial index, at most " + MAX_SIZE + " are indexed");
+                    }
+                    int grown = (int) Math.min(2L * size, MAX_SIZE);
+                    boxes = Arrays.copyOf(boxes, grown * 4);
+                    offsets = Arrays.copyOf(offsets, grown);
+                    rows = Arrays.copyOf(rows, grown);
+                }
+                boxes[size * 4] = envelope.getMinX();
+                boxes[size * 4 + 1] = envelope.getMinY();
+                boxes[size * 4 + 2] = envelope.getMaxX();
+                boxes[size * 4 + 3] = envelope.getMaxY();
+                offsets[size] = offset;
+                rows[size] = row;
+                size++;
+            }
+        } finally {
+            in.close();
+            csvReader.close();
+        }
+        return new Entries(fileLength, lastModified, size, boxes, offsets, rows);
+    }
+
+    /**
+     * Packs the entries into a tree kept on the heap.
+     */
+    static ByteBuffer pack(Entries entries, String signature) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate((int) capacity(entries.size,
+                signature.getBytes(UTF8)));
+        pack(entries, signature, new WritableByteChannel() {
+            public int write(ByteBuffer source) {
+                int written = source.remaining();
+                buffer.put(source);
+                return written;
+            }
+
+            public boolean isOpen() {
+                return true;
+            }
+
+            public void close() {
+            }
+        });
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Returns the number of bytes of a tree over that many entries, failing when it is too large
+     * to be mapped.
+     */
+    static long capacity(int size, byte[] signatureBytes) throws IOException {
+        int[] counts = levelCounts(size);
+        long capacity = 28 + 4 * counts.length + 4 + signatureBytes.length;
+        for (int i = 0; i < counts.length; i++) {
+            capacity += (long) counts[i] * (i == 0 ? LEAF_SIZE : NODE_SIZE);
+        }
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException("Too many records for a spatial index: " + size);
+        }
+        return capacity;
+    }
+
+    private static int[] levelCounts(int size) {
+        int levels = 0;
+        int[] counts = new int[32];
+        for (int count = size; count > 0; count = (count + NODE_CAPACITY - 1) / NODE_CAPACITY) {
+            counts[levels++] = count;
+            if (count == 1) {
+                break;
+            }
+        }
+        return Arrays.copyOf(counts, levels);
+    }
+
+    /**
+     * Packs the entries into an STR tree written to the channel, level by level from the leaves
+     * up. Only the envelopes of the level being written are kept in memory besides the entries.
+     */
+    static void pack(Entries entries, String signature, WritableByteChannel channel)
+            throws IOException {
+        int size = entries.size;
+        double[] boxes = entries.boxes;
+        byte[] signatureBytes = signature.getBytes(UTF8);
+        capacity(size, signatureBytes);
+        int[] counts = levelCounts(size);
+        int levels = counts.length;
+
+        ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(entries.fileLength);
+        buffer.putLong(entries.lastModified);
+        buffer.putInt(levels);
+        for (int i = 0; i < levels; i++) {
+            buffer.putInt(counts[i]);
+        }
+        buffer.putInt(signatureBytes.length);
+        for (int i = 0; i < signatureBytes.length; i++) {
+            buffer = flushIfFull(buffer, 1, channel);
+            buffer.put(signatureBytes[i]);
+        }
+
+        // the leaves, gathering the envelopes of the nodes right above them on the way
+        int[] order = strOrder(size, boxes);
+        double[] nodes = newNodes(levels > 1 ? counts[1] : 0);
+        for (int i = 0; i < size; i++) {
+            int entry = order[i];
+            buffer = flushIfFull(buffer, LEAF_SIZE, channel);
+            for (int j = 0; j < 4; j++) {
+                buffer.putDouble(boxes[entry * 4 + j]);
+            }
+            buffer.putLong(entries.offsets[entry]);
+            buffer.putInt(entries.rows[entry]);
+            if (levels > 1) {
+                expand(nodes, i / NODE_CAPACITY, boxes, entry);
+            }
+        }
+
+        for (int level = 1; level < levels; level++) {
+            double[] parents = newNodes(level + 1 < levels ? counts[level + 1] : 0);
+            for (int node = 0; node < counts[level]; node++) {
+                buffer = flushIfFull(buffer, NODE_SIZE, channel);
+                for (int j = 0; j < 4; j++) {
+                    buffer.putDouble(nodes[node * 4 + j]);
+                }
+                if (level + 1 < levels) {
+                    expand(parents, node / NODE_CAPACITY, nodes, node);
+                }
+            }
+            nodes = parents;
+        }
+        flushIfFull(buffer, buffer.capacity(), channel);
+    }
+
+    private static double[] newNodes(int count) {
+        double[] nodes = new double[count * 4];
+        for (int i = 0; i < count; i++) {
+            nodes[i * 4] = Double.POSITIVE_INFINITY;
+            nodes[i * 4 + 1] = Double.POSITIVE_INFINITY;
+            nodes[i * 4 + 2] = Double.NEGATIVE_INFINITY;
+            nodes[i * 4 + 3] = Double.NEGATIVE_INFINITY;
+        }
+        return nodes;
+    }
+
+    private static void expand(double[] nodes, int node, double[] boxes, int entry) {
+        nodes[node * 4] = Math.min(nodes[node * 4], boxes[entry * 4]);
+        nodes[node * 4 + 1] = Math.min(nodes[node * 4 + 1], boxes[entry * 4 + 1]);
+        nodes[node * 4 + 2] = Math.max(nodes[node * 4 + 2], boxes[entry * 4 + 2]);
+        nodes[node * 4 + 3] = Math.max(nodes[node * 4 + 3], boxes[entry * 4 + 3]);
+    }
+
+    /**
+     * Writes out the buffer when it has less than the given number of bytes left.
+     */
+    private static ByteBuffer flushIfFull(ByteBuffer buffer, int needed,
+            WritableByteChannel channel) throws IOException {
+        if (buffer.remaining() < needed) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+        return buffer;
+    }
+
+    /**
+     * The envelopes of the records of a file, four values per entry, with their offset and row.
+     */
+    static class Entries {
+
+        final long fileLength;
+
+        final long lastModified;
+
+        final int size;
+
+        final double[] boxes;
+
+        final long[] offsets;
+
+        final int[] rows;
+
+        Entries(long fileLength, long lastModified, int size, double[] boxes, long[] offsets,
+                int[] rows) {
+            this.fileLength = fileLength;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.boxes = boxes;
+            this.offsets = offsets;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Sort-Tile-Recursive ordering: sort by x center into vertical slices holding sqrt(leaves)
+     * leaves each, then sort every slice by y center.
+     */
+    private static int[] strOrder(int size, double[] boxes) {
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = sortKey((boxes[i * 4] + boxes[i * 4 + 2]) / 2, i);
+        }
+        Arrays.sort(keys);
+        int leaves = (size + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int sliceSize = (int) Math.ceil(Math.sqrt(leaves)) * NODE_CAPACITY;
+        for (int start = 0; start < size; start += sliceSize) {
+            int end = Math.min(start + sliceSize, size);
+            for (int i = start; i < end; i++) {
+                int entry = (int) keys[i];
+                keys[i] = sortKey((boxes[entry * 4 + 1] + boxes[entry * 4 + 3]) / 2, entry);
+            }
+            Arrays.sort(keys, start, end);
+        }
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+
+    /**
+     * Packs an order preserving encoding of the value in the upper half of a long and the entry in
+     * the lower half, so entries can be sorted with a primitive sort.
+     */
+    private static long sortKey(double value, int entry) {
+        int bits = Float.floatToIntBits((float) value);
+        bits ^= (bits >> 31) & 0x7fffffff;
+        return ((long) bits << 32) | (entry & 0xffffffffL);
+    }
+
+    /**
+     * Returns the index extended with the entries of records appended to the file, which must all
+     * come after the rows already indexed. Once the appended entries outgrow an eighth of the tree
+     * everything is packed again, on the heap: the sidecar is only rebuilt the next time the file
+     * is opened.
+     */
+    public CSVSpatialIndex append(long fileLength, long lastModified, int size, double[] boxes,
+            long[] offsets, int[] rows) throws IOException {
+        int total = tailSize + size;
+        double[] appendedBoxes = Arrays.copyOf(tailBoxes, total * 4);
+        long[] appendedOffsets = Arrays.copyOf(tailOffsets, total);
+        int[] appendedRows = Arrays.copyOf(tailRows, total);
+        System.arraycopy(boxes, 0, appendedBoxes, tailSize * 4, size * 4);
+        System.arraycopy(offsets, 0, appendedOffsets, tailSize, size);
+        System.arraycopy(rows, 0, appendedRows, tailSize, size);
+        int leaves = getLeafCount();
+        if (total <= NODE_CAPACITY * NODE_CAPACITY || total <= leaves / 8) {
+            return new CSVSpatialIndex(this, fileLength, lastModified, total, appendedBoxes,
+                    appendedOffsets, appendedRows);
+        }
+        int packed = leaves + total;
+        double[] packedBoxes = new double[packed * 4];
+        long[] packedOffsets = new long[packed];
+        int[] packedRows = new int[packed];
+        for (int i = 0; i < leaves; i++) {
+            int pos = levelStarts[0] + i * LEAF_SIZE;
+            for (int j = 0; j < 4; j++) {
+                packedBoxes[i * 4 + j] = buffer.getDouble(pos + j * 8);
+            }
+            packedOffsets[i] = buffer.getLong(pos + 32);
+            packedRows[i] = buffer.getInt(pos + 40);
+        }
+        System.arraycopy(appendedBoxes, 0, packedBoxes, leaves * 4, total * 4);
+        System.arraycopy(appendedOffsets, 0, packedOffsets, leaves, total);
+        System.arraycopy(appendedRows, 0, packedRows, leaves, total);
+        return new CSVSpatialIndex(pack(new Entries(fileLength, lastModified, packed,
+                packedBoxes, packedOffsets, packedRows), signature));
+    }
+
+    public boolean isCurrent(File file) {
+        return file.length() == fileLength && file.lastModified() == lastModified;
+    }
+
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+
+    public int size() {
+        return getLeafCount() + tailSize;
+    }
+
+    private int getLeafCount() {
+        return levelCounts.length == 0 ? 0 : levelCounts[0];
+    }
+
+    /**
+     * Returns the rows whose envelope intersects the given one, sorted in file order.
+     */
+    public CSVRowSelection query(Envelope bbox) {
+        Hits hits = new Hits();
+        if (levelCounts.length > 0) {
+            int top = levelCounts.length - 1;
+            search(top, 0, levelCounts[top], bbox, hits);
+        }
+        // hits carry the row in their upper half, sorting them restores file order
+        Arrays.sort(hits.values, 0, hits.size);
+        int treeHits = hits.size;
+        // appended rows come after every row in the tree
+        for (int i = 0; i < tailSize; i++) {
+            if (tailBoxes[i * 4] <= bbox.getMaxX() && tailBoxes[i * 4 + 1] <= bbox.getMaxY()
+                    && tailBoxes[i * 4 + 2] >= bbox.getMinX()
+                    && tailBoxes[i * 4 + 3] >= bbox.getMinY()) {
+                hits.add(i);
+            }
+        }
+        int[] rows = new int[hits.size];
+        long[] offsets = new long[hits.size];
+        for (int i = 0; i < treeHits; i++) {
+            rows[i] = (int) (hits.values[i] >>> 32);
+            int pos = levelStarts[0] + ((int) hits.values[i]) * LEAF_SIZE;
+            offsets[i] = buffer.getLong(pos + 32);
+        }
+        for (int i = treeHits; i < hits.size; i++) {
+            int entry = (int) hits.values[i];
+            rows[i] = tailRows[entry];
+            offsets[i] = tailOffsets[entry];
+        }
+        return new CSVRowSelection(rows, offsets);
+    }
+
+    private void search(int level, int from, int to, Envelope bbox, Hits hits) {
+        int nodeSize = level == 0 ? LEAF_SIZE : NODE_SIZE;
+        for (int i = from; i < to; i++) {
+            int pos = levelStarts[level] + i * nodeSize;
+            if (buffer.getDouble(pos) > bbox.getMaxX() || buffer.getDouble(pos + 8) > bbox.getMaxY()
+                    || buffer.getDouble(pos + 16) < bbox.getMinX()
+                    || buffer.getDouble(pos + 24) < bbox.getMinY()) {
+                continue;
+            }
+            if (level == 0) {
+                hits.add(((long) buffer.getInt(pos + 40) << 32) | i);
+            } else {
+                int first = i * NODE_CAPACITY;
+                search(level - 1, first, Math.min(first + NODE_CAPACITY, levelCounts[level - 1]),
+                        bbox, hits);
+            }
+        }
+    }
+
+    private static class Hits {
+
+        long[] values = new long[16];
+
+        int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,543 @@
+package org.opengeo.data.csv.memory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+import org.opengeo.data.csv.CSVFileState;
+import org.opengeo.data.csv.memory.CSVColumnStore.Column;
+import org.opengeo.data.csv.memory.CSVColumnStore.DictionaryColumn;
+import org.opengeo.data.csv.memory.CSVColumnStore.DoubleColumn;
+import org.opengeo.data.csv.memory.CSVColumnStore.LongColumn;
+import org.opengeo.data.csv.memory.CSVColumnStore.NumberColumn;
+import org.opengeo.data.csv.memory.CSVColumnStore.RowGroup;
+
+import com.csvreader.CsvReader;
+
+/**
+ * Binary columnar copy of a csv file, kept in a sidecar file (<code>foo.csv.cols</code>) so that
+ * a file served over and over is parsed once rather than on every read. Records are stored in
+ * groups of {@link #GROUP_SIZE} rows holding typed columns, numbers as binary values and text
+ * dictionary encoded, along with the range of the number columns of the group.
+ * <p>
+ * Reading maps the groups rather than loading them, so files larger than the heap can be cached,
+ * and returns a {@link CSVColumnStore} over them whose row groups let filtered reads skip the
+ * groups that cannot match. The cache is written in one pass over the file holding a single group
+ * in memory, and is keyed on the file size and modification time like the indexes.
+ */
+public class CSVColumnCache {
+
+    static final Logger LOGGER = Logging.getLogger("org.opengeo.data.csv");
+
+    public static final String EXTENSION = ".cols";
+
+    static final int GROUP_SHIFT = 16;
+
+    public static final int GROUP_SIZE = 1 << GROUP_SHIFT;
+
+    private static final int GROUP_MASK = GROUP_SIZE - 1;
+
+    // dictionaries up to this size are decoded once when the cache is opened
+    private static final int MAX_DECODED = 1024;
+
+    private static final int MAGIC = 0x43535643;
+
+    // 2 holds trimmed values, older caches are rewritten
+    private static final int VERSION = 2;
+
+    private static final byte LONG = 0;
+
+    private static final byte DOUBLE = 1;
+
+    private static final byte DICTIONARY = 2;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private CSVColumnCache() {
+    }
+
+    /**
+     * Opens the cache of the file if it is present and current, otherwise converts the file and
+     * (re)writes the cache first.
+     */
+    public static CSVColumnStore open(CSVFileState csvFileState) throws IOException {
+        File file = csvFileState.getFile();
+        File cacheFile = getCacheFile(file);
+        if (cacheFile.exists()) {
+            try {
+                CSVColumnStore store = read(cacheFile);
+                if (store.isCurrent(file)) {
+                    return store;
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Ignoring unreadable csv column cache " + cacheFile, e);
+            }
+        }
+        write(csvFileState, cacheFile);
+        return read(cacheFile);
+    }
+
+    public static File getCacheFile(File file) {
+        return new File(file.getPath() + EXTENSION);
+    }
+
+    /**
+     * Converts the file. Column types are taken from the file statistics, and fall back on text
+     * in the groups where a column holds something else than numbers.
+     */
+    public static void write(CSVFileState csvFileState, File cacheFile) throws IOException {
+        File file = csvFileState.getFile();
+        long fileLength = file.length();
+        long lastModified = file.lastModified();
+        String[] headers = csvFileState.getCSVHeaders();
+        Map<String, Class<?>> types = csvFileState.getStatistics().getTypes();
+
+        File tmp = new File(cacheFile.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+        boolean written = false;
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fileLength);
+            out.writeLong(lastModified);
+            out.writeInt(headers.length);
+            List<Long> groupOffsets = new ArrayList<Long>();
+            long rowCount = 0;
+            CsvReader csvReader = csvFileState.openCSVReader();
+            try {
+                Column[] columns = CSVColumnStore.createColumns(headers, types, GROUP_SIZE);
+                int[] columnCounts = new int[GROUP_SIZE];
+                boolean ragged = false;
+                int rows = 0;
+                boolean read = true;
+                while (read) {
+                    read = csvReader.readRecord();
+                    if (read) {
+                        String[] values = csvReader.getValues();
+                        int count = Math.min(values.length, columns.length);
+                        for (int i = 0; i < columns.length; i++) {
+                            columns[i] = columns[i].add(rows, i < count ? values[i].trim()
+                                    : "");
+                        }
+                        columnCounts[rows++] = count;
+                        ragged |= count != columns.length;
+                    }
+                    if (rows == GROUP_SIZE || !read && rows > 0) {
+                        out.flush();
+                        groupOffsets.add(fileOut.getChannel().position());
+                        writeGroup(out, columns, rows, ragged ? columnCounts : null);
+                        rowCount += rows;
+                        columns = CSVColumnStore.createColumns(headers, types, GROUP_SIZE);
+                        ragged = false;
+                        rows = 0;
+                    }
+                }
+            } finally {
+                csvReader.close();
+            }
+            if (rowCount > Integer.MAX_VALUE) {
+                throw new IOException("Too many records to cache: " + rowCount);
+            }
+            out.flush();
+            long directory = fileOut.getChannel().position();
+            out.writeInt((int) rowCount);
+            out.writeInt(groupOffsets.size());
+            for (int i = 0; i < groupOffsets.size(); i++) {
+                long end = i + 1 < groupOffsets.size() ? groupOffsets.get(i + 1) : directory;
+                if (end - groupOffsets.get(i) > Integer.MAX_VALUE) {
+                    throw new IOException("Records too large to cache in " + file);
+                }
+                out.writeLong(groupOffsets.get(i));
+            }
+            out.writeLong(directory);
+            written = true;
+        } finally {
+            out.close();
+            if (!written) {
+                tmp.delete();
+            }
+        }
+        if (cacheFile.exists() && !cacheFile.delete() || !tmp.renameTo(cacheFile)) {
+            tmp.delete();
+            throw new IOException("Unable to replace csv column cache " + cacheFile);
+        }
+    }
+
+    private static void writeGroup(DataOutputStream out, Column[] columns, int rows,
+            int[] columnCounts) throws IOException {
+        out.writeInt(rows);
+        out.writeBoolean(columnCounts != null);
+        if (columnCounts != null) {
+            for (int i = 0; i < rows; i++) {
+                out.writeInt(columnCounts[i]);
+            }
+        }
+        for (Column column : columns) {
+            column = column.trim(rows);
+            if (column instanceof NumberColumn) {
+                writeNumbers(out, (NumberColumn) column, rows);
+            } else {
+                writeText(out, column, rows);
+            }
+        }
+    }
+
+    private static void writeNumbers(DataOutputStream out, NumberColumn column, int rows)
+            throws IOException {
+        boolean integer = column instanceof LongColumn;
+        long[] longs = integer ? ((LongColumn) column).values : null;
+        double[] doubles = integer ? null : ((DoubleColumn) column).values;
+        BitSet empty = column.empty;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        boolean ranged = rows > 0 && empty.isEmpty();
+        for (int i = 0; i < rows && ranged; i++) {
+            double value = integer ? longs[i] : doubles[i];
+            if (Double.isNaN(value)) {
+                ranged = false;
+            }
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        out.writeByte(integer ? LONG : DOUBLE);
+        out.writeDouble(ranged ? min : Double.NaN);
+        out.writeDouble(ranged ? max : Double.NaN);
+        long[] words = new long[(empty.length() + 63) >>> 6];
+        for (int i = empty.nextSetBit(0); i >= 0; i = empty.nextSetBit(i + 1)) {
+            words[i >>> 6] |= 1L << (i & 63);
+        }
+        out.writeInt(words.length);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+        for (int i = 0; i < rows; i++) {
+            if (integer) {
+                out.writeLong(longs[i]);
+            } else {
+                out.writeDouble(doubles[i]);
+            }
+        }
+    }
+
+    private static void writeText(DataOutputStream out, Column column, int rows)
+            throws IOException {
+        String[] dictionary;
+        char[] codes;
+        if (column instanceof DictionaryColumn) {
+            dictionary = ((DictionaryColumn) column).dictionary;
+            codes = ((DictionaryColumn) column).codes;
+        } else {
+            // a group never holds more distinct values than a dictionary can
+            Map<String, Integer> lookup = new HashMap<String, Integer>();
+            List<String> values = new ArrayList<String>();
+            codes = new char[rows];
+            for (int i = 0; i < rows; i++) {
+                String value = column.get(i);
+                Integer code = lookup.get(value);
+                if (code == null) {
+                    code = values.size();
+                    lookup.put(value, code);
+                    values.add(value);
+                }
+                codes[i] = (char) code.intValue();
+            }
+            dictionary = values.toArray(new String[values.size()]);
+        }
+        out.writeByte(DICTIONARY);
+        out.writeDouble(Double.NaN);
+        out.writeDouble(Double.NaN);
+        byte[][] encoded = new byte[dictionary.length][];
+        out.writeInt(dictionary.length);
+        int offset = 0;
+        out.writeInt(offset);
+        for (int i = 0; i < dictionary.length; i++) {
+            encoded[i] = dictionary[i].getBytes(UTF8);
+            offset += encoded[i].length;
+            out.writeInt(offset);
+        }
+        for (byte[] bytes : encoded) {
+            out.write(bytes);
+        }
+        for (int i = 0; i < rows; i++) {
+            out.writeChar(codes[i]);
+        }
+    }
+
+    public static CSVColumnStore read(File cacheFile) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(cacheFile, "r");
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a csv column cache file: " + cacheFile);
+            }
+            long fileLength = in.readLong();
+            long lastModified = in.readLong();
+            int columnCount = in.readInt();
+            in.seek(in.length() - 8);
+            long directory = in.readLong();
+            in.seek(directory);
+            int rowCount = in.readInt();
+            int groupCount = in.readInt();
+            long[] offsets = new long[groupCount + 1];
+            for (int i = 0; i < groupCount; i++) {
+                offsets[i] = in.readLong();
+            }
+            offsets[groupCount] = directory;
+
+            FileChannel channel = in.getChannel();
+            Column[][] parts = new Column[columnCount][groupCount];
+            RowGroup[] rowGroups = new RowGroup[groupCount];
+            int[] columnCounts = null;
+            for (int group = 0; group < groupCount; group++) {
+                ByteBuffer buffer = channel.map(MapMode.READ_ONLY, offsets[group],
+                        offsets[group + 1] - offsets[group]);
+                int start = group << GROUP_SHIFT;
+                int rows = buffer.getInt(0);
+                if (rows != Math.min(GROUP_SIZE, rowCount - start)) {
+                    throw new IOException("Invalid row group in csv column cache " + cacheFile);
+                }
+                int position = 5;
+                if (buffer.get(4) != 0) {
+                    if (columnCounts == null) {
+                        columnCounts = new int[rowCount];
+                        Arrays.fill(columnCounts, 0, start, columnCount);
+                    }
+                    for (int i = 0; i < rows; i++, position += 4) {
+                        columnCounts[start + i] = buffer.getInt(position);
+                    }
+                } else if (columnCounts != null) {
+                    Arrays.fill(columnCounts, start, start + rows, columnCount);
+                }
+                double[] min = new double[columnCount];
+                double[] max = new double[columnCount];
+                for (int column = 0; column < columnCount; column++) {
+                    byte type = buffer.get(position);
+                    min[column] = buffer.getDouble(position + 1);
+                    max[column] = buffer.getDouble(position + 9);
+                    position += 17;
+                    MappedColumn part;
+                    if (type == DICTIONARY) {
+                        part = new MappedDictionaryColumn(buffer, position, rows);
+                    } else if (type == LONG || type == DOUBLE) {
+                        part = new MappedNumberColumn(buffer, position, rows, type == LONG);
+                    } else {
+                        throw new IOException("Invalid column in csv column cache " + cacheFile);
+                    }
+                    parts[column][group] = part;
+                    position = part.end;
+                }
+                rowGroups[group] = new RowGroup(min, max);
+            }
+            Column[] columns = new Column[columnCount];
+            for (int column = 0; column < columnCount; column++) {
+                columns[column] = new GroupedColumn(parts[column]);
+            }
+            return new CSVColumnStore(fileLength, lastModified, columns, columnCounts, rowCount,
+                    rowGroups);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Column of the whole file made of the columns of its row groups.
+     */
+    static class GroupedColumn extends Column {
+
+        private final Column[] groups;
+
+        GroupedColumn(Column[] groups) {
+            this.groups = groups;
+        }
+
+        @Override
+        Column add(int row, String value) {
+            throw new UnsupportedOperationException("Cached columns are read only");
+        }
+
+        @Override
+        Column trim(int size) {
+            throw new UnsupportedOperationException("Cached columns are read only");
+        }
+
+        @Override
+        boolean isEmpty(int row) {
+            return groups[row >>> GROUP_SHIFT].isEmpty(row & GROUP_MASK);
+        }
+
+        @Override
+        String get(int row) {
+            return groups[row >>> GROUP_SHIFT].get(row & GROUP_MASK);
+        }
+
+        @Override
+        double getDouble(int row) {
+            return groups[row >>> GROUP_SHIFT].getDouble(row & GROUP_MASK);
+        }
+
+        @Override
+        long getLong(int row) {
+            return groups[row >>> GROUP_SHIFT].getLong(row & GROUP_MASK);
+        }
+    }
+
+    /**
+     * Column of a row group read from the mapped cache. Only absolute reads are made on the
+     * buffer, so concurrent cursors can share it.
+     */
+    abstract static class MappedColumn extends Column {
+
+        final ByteBuffer buffer;
+
+        // position right after the column in the buffer
+        int end;
+
+        MappedColumn(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        Column add(int row, String value) {
+            throw new UnsupportedOperationException("Cached columns are read only");
+        }
+
+        @Override
+        Column trim(int size) {
+            throw new UnsupportedOperationException("Cached columns are read only");
+        }
+    }
+
+    static class MappedNumberColumn extends MappedColumn {
+
+        private final boolean integer;
+
+        private final int words;
+
+        private final int emptyPosition;
+
+        private final int valuesPosition;
+
+        MappedNumberColumn(ByteBuffer buffer, int position, int rows, boolean integer) {
+            super(buffer);
+            this.integer = integer;
+            this.words = buffer.getInt(position);
+            this.emptyPosition = position + 4;
+            this.valuesPosition = emptyPosition + words * 8;
+            this.end = valuesPosition + rows * 8;
+        }
+
+        @Override
+        boolean isEmpty(int row) {
+            int word = row >>> 6;
+            return word < words
+                    && (buffer.getLong(emptyPosition + word * 8) & 1L << (row & 63)) != 0;
+        }
+
+        @Override
+        String get(int row) {
+            if (isEmpty(row)) {
+                return "";
+            }
+            int position = valuesPosition + row * 8;
+            return integer ? String.valueOf(buffer.getLong(position)) : String.valueOf(buffer
+                    .getDouble(position));
+        }
+
+        @Override
+        double getDouble(int row) {
+            if (isEmpty(row)) {
+                throw new NumberFormatException("Empty field");
+            }
+            int position = valuesPosition + row * 8;
+            return integer ? buffer.getLong(position) : buffer.getDouble(position);
+        }
+
+        @Override
+        long getLong(int row) {
+            if (isEmpty(row)) {
+                throw new NumberFormatException("Empty field");
+            }
+            int position = valuesPosition + row * 8;
+            if (integer) {
+                return buffer.getLong(position);
+            }
+            double value = buffer.getDouble(position);
+            if (value != Math.rint(value)) {
+                throw new NumberFormatException("Not an integer: " + value);
+            }
+            return (long) value;
+        }
+    }
+
+    static class MappedDictionaryColumn extends MappedColumn {
+
+        private final int offsetsPosition;
+
+        private final int bytesPosition;
+
+        private final int codesPosition;
+
+        // null for large dictionaries, whose values are decoded on every read
+        private final String[] decoded;
+
+        MappedDictionaryColumn(ByteBuffer buffer, int position, int rows) {
+            super(buffer);
+            int size = buffer.getInt(position);
+            this.offsetsPosition = position + 4;
+            this.bytesPosition = offsetsPosition + (size + 1) * 4;
+            this.codesPosition = bytesPosition + buffer.getInt(offsetsPosition + size * 4);
+            this.end = codesPosition + rows * 2;
+            if (size <= MAX_DECODED) {
+                decoded = new String[size];
+                for (int i = 0; i < size; i++) {
+                    decoded[i] = decode(i);
+                }
+            } else {
+                decoded = null;
+            }
+        }
+
+        private String decode(int code) {
+            int start = buffer.getInt(offsetsPosition + code * 4);
+            int length = buffer.getInt(offsetsPosition + code * 4 + 4) - start;
+            byte[] bytes = new byte[length];
+            ByteBuffer view = buffer.duplicate();
+            view.position(bytesPosition + start);
+            view.get(bytes);
+            return new String(bytes, UTF8);
+        }
+
+        private int getCode(int row) {
+            return buffer.getChar(codesPosition + row * 2);
+        }
+
+        @Override
+        boolean isEmpty(int row) {
+            int code = getCode(row);
+            return buffer.getInt(offsetsPosition + code * 4) == buffer.getInt(offsetsPosition
+                    + code * 4 + 4);
+        }
+
+        @Override
+        String get(int row) {
+            int code = getCode(row);
+            return decoded != null ? decoded[code] : decode(code);
+        }
+    }
+}
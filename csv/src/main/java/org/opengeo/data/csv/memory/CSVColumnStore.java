@@ -0,0 +1,551 @@
+package org.opengeo.data.csv.memory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.opengeo.data.csv.CSVFileState;
+import org.opengeo.data.csv.index.CSVSpatialIndex;
+import org.opengeo.data.csv.parse.CSVRecord;
+import org.opengeo.data.csv.parse.CSVRecordFilter;
+import org.opengeo.data.csv.parse.CSVStrategy;
+import org.opengeo.data.csv.parse.CSVValueRanges;
+
+import com.csvreader.CsvReader;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Whole csv file loaded into memory, one array per column, so reading it again costs no parsing.
+ * Columns inferred as numbers are kept as <code>double[]</code> or <code>long[]</code>, text
+ * columns are dictionary encoded while they have few distinct values. Records are read back
+ * through a {@link Cursor}, a view over the columns that plugs in wherever a {@link CSVRecord} is
+ * expected, so feature builders and record filters work on it unchanged.
+ * <p>
+ * The store is immutable once loaded and can be shared by concurrent readers, each with its own
+ * cursor. It is keyed on the file size and modification time like the indexes. Stores read from a
+ * {@link CSVColumnCache} file are split in row groups, with the value ranges of each group.
+ */
+public class CSVColumnStore {
+
+    /**
+     * Text columns with more distinct values than this are kept as plain strings.
+     */
+    public static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+    private final long fileLength;
+
+    private final long lastModified;
+
+    private final Column[] columns;
+
+    // null when every record has one field per header
+    private final int[] columnCounts;
+
+    private final int rowCount;
+
+    // null unless read from a column cache file
+    private final RowGroup[] rowGroups;
+
+    private final Map<String, CSVSpatialIndex> spatialIndexes =
+            new HashMap<String, CSVSpatialIndex>();
+
+    CSVColumnStore(long fileLength, long lastModified, Column[] columns, int[] columnCounts,
+            int rowCount) {
+        this(fileLength, lastModified, columns, columnCounts, rowCount, null);
+    }
+
+    CSVColumnStore(long fileLength, long lastModified, Column[] columns, int[] columnCounts,
+            int rowCount, RowGroup[] rowGroups) {
+        this.fileLength = fileLength;
+        this.lastModified = lastModified;
+        this.columns = columns;
+        this.columnCounts = columnCounts;
+        this.rowCount = rowCount;
+        this.rowGroups = rowGroups;
+    }
+
+    /**
+     * Reads every record of the file into columns. Column types are taken from the file
+     * statistics; a column that turns out to hold something else than numbers falls back on text.
+     */
+    public static CSVColumnStore load(CSVFileState csvFileState) throws IOException {
+        File file = csvFileState.getFile();
+        long fileLength = file.length();
+        long lastModified = file.lastModified();
+        String[] headers = csvFileState.getCSVHeaders();
+        Map<String, Class<?>> types = csvFileState.getStatistics().getTypes();
+        int capacity = Math.max(16, csvFileState.getStatistics().getRowCount());
+
+        Column[] columns = createColumns(headers, types, capacity);
+        int[] columnCounts = null;
+        int rows = 0;
+        CsvReader csvReader = csvFileState.openCSVReader();
+        try {
+            while (csvReader.readRecord()) {
+                String[] values = csvReader.getValues();
+                int count = Math.min(values.length, columns.length);
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = columns[i].add(rows, i < count ? values[i].trim() : "");
+                }
+                if (count != columns.length && columnCounts == null) {
+                    columnCounts = new int[Math.max(capacity, rows + 1)];
+                    Arrays.fill(columnCounts, 0, rows, columns.length);
+                }
+                if (columnCounts != null) {
+                    if (rows == columnCounts.length) {
+                        columnCounts = Arrays.copyOf(columnCounts, rows * 2);
+                    }
+                    columnCounts[rows] = count;
+                }
+                rows++;
+            }
+        } finally {
+            csvReader.close();
+        }
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = columns[i].trim(rows);
+        }
+        if (columnCounts != null) {
+            columnCounts = Arrays.copyOf(columnCounts, rows);
+        }
+        return new CSVColumnStore(fileLength, lastModified, columns, columnCounts, rows);
+    }
+
+    static Column[] createColumns(String[] headers, Map<String, Class<?>> types, int capacity) {
+        Column[] columns = new Column[headers.length];
+        for (int i = 0; i < columns.length; i++) {
+            Class<?> type = types.get(headers[i]);
+            if (type == Integer.class || type == Long.class) {
+                columns[i] = new LongColumn(capacity);
+            } else if (type == Double.class) {
+                columns[i] = new DoubleColumn(capacity);
+            } else {
+                columns[i] = new DictionaryColumn(capacity);
+            }
+        }
+        return columns;
+    }
+
+    public boolean isCurrent(File file) {
+        return file.length() == fileLength && file.lastModified() == lastModified;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns true when the columns are read from a {@link CSVColumnCache} file rather than held
+     * on the heap.
+     */
+    public boolean isCached() {
+        return rowGroups != null;
+    }
+
+    /**
+     * Returns the row group of the row, -1 when the store is not split in groups.
+     */
+    public int getGroup(int row) {
+        return rowGroups != null ? row >>> CSVColumnCache.GROUP_SHIFT : -1;
+    }
+
+    /**
+     * Returns the first row of the group, the row count past the last group.
+     */
+    public int getGroupStart(int group) {
+        return (int) Math.min((long) group << CSVColumnCache.GROUP_SHIFT, rowCount);
+    }
+
+    /**
+     * Returns false when the value ranges of the group show none of its rows can match the
+     * filter.
+     */
+    public boolean mayMatch(int group, CSVRecordFilter filter) {
+        return rowGroups == null || group >= rowGroups.length
+                || filter.mayMatch(rowGroups[group]);
+    }
+
+    /**
+     * Returns a cursor positioned before the given row.
+     */
+    public Cursor cursor(int row) {
+        Cursor cursor = new Cursor();
+        cursor.seek(row);
+        return cursor;
+    }
+
+    /**
+     * Returns the spatial index of the envelopes the strategy computes for the rows, built on the
+     * heap the first time a strategy with this signature asks for it.
+     */
+    public synchronized CSVSpatialIndex getSpatialIndex(CSVStrategy csvStrategy,
+            String signature) throws IOException {
+        CSVSpatialIndex index = spatialIndexes.get(signature);
+        if (index == null) {
+            int size = 0;
+            double[] boxes = new double[rowCount * 4];
+            int[] rows = new int[rowCount];
+            Cursor cursor = cursor(0);
+            while (cursor.next()) {
+                Envelope envelope = csvStrategy.getEnvelope(cursor.getValues());
+                if (envelope == null || envelope.isNull()) {
+                    continue;
+                }
+                boxes[size * 4] = envelope.getMinX();
+                boxes[size * 4 + 1] = envelope.getMinY();
+                boxes[size * 4 + 2] = envelope.getMaxX();
+                boxes[size * 4 + 3] = envelope.getMaxY();
+                rows[size++] = cursor.getRow();
+            }
+            index = CSVSpatialIndex.create(signature, size, boxes, rows);
+            spatialIndexes.put(signature, index);
+        }
+        return index;
+    }
+
+    /**
+     * View of one row of the store at a time. Not thread safe, every reader needs its own.
+     */
+    public class Cursor implements CSVRecord {
+
+        private int row;
+
+        /**
+         * Moves to the next row, returns false past the last one.
+         */
+        public boolean next() {
+            if (row >= rowCount) {
+                return false;
+            }
+            return ++row < rowCount;
+        }
+
+        /**
+         * Positions the cursor so that {@link #next()} moves to the given row.
+         */
+        public void seek(int row) {
+            this.row = Math.min(row, rowCount) - 1;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return columnCounts != null ? columnCounts[row] : columns.length;
+        }
+
+        @Override
+        public boolean isEmpty(int column) {
+            return columns[column].isEmpty(row);
+        }
+
+        @Override
+        public String get(int column) {
+            return columns[column].get(row);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return columns[column].getDouble(row);
+        }
+
+        @Override
+        public long getLong(int column) {
+            return columns[column].getLong(row);
+        }
+
+        @Override
+        public String[] getValues() {
+            String[] values = new String[getColumnCount()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = columns[i].get(row);
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Value ranges of the number columns of a row group, NaN for the other columns and for number
+     * columns with empty fields.
+     */
+    static class RowGroup implements CSVValueRanges {
+
+        final double[] min;
+
+        final double[] max;
+
+        RowGroup(double[] min, double[] max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public boolean hasRange(int column) {
+            return column < min.length && !Double.isNaN(min[column])
+                    && !Double.isNaN(max[column]);
+        }
+
+        @Override
+        public double getMin(int column) {
+            return min[column];
+        }
+
+        @Override
+        public double getMax(int column) {
+            return max[column];
+        }
+    }
+
+    /**
+     * Values of one csv column. While loading, {@link #add(int, String)} returns the column to
+     * keep adding to, which is a different one when the values no longer fit the encoding.
+     */
+    abstract static class Column {
+
+        abstract Column add(int row, String value);
+
+        abstract Column trim(int size);
+
+        abstract boolean isEmpty(int row);
+
+        abstract String get(int row);
+
+        double getDouble(int row) {
+            return Double.parseDouble(get(row));
+        }
+
+        long getLong(int row) {
+            return Long.parseLong(get(row));
+        }
+
+        // copies the rows loaded so far into a text column
+        Column toText(int rows) {
+            Column text = new DictionaryColumn(rows + 16);
+            for (int i = 0; i < rows; i++) {
+                text = text.add(i, get(i));
+            }
+            return text;
+        }
+    }
+
+    abstract static class NumberColumn extends Column {
+
+        // rows whose field is empty
+        final BitSet empty = new BitSet();
+
+        @Override
+        boolean isEmpty(int row) {
+            return empty.get(row);
+        }
+
+        void checkNotEmpty(int row) {
+            if (empty.get(row)) {
+                throw new NumberFormatException("Empty field");
+            }
+        }
+    }
+
+    static class DoubleColumn extends NumberColumn {
+
+        double[] values;
+
+        DoubleColumn(int capacity) {
+            values = new double[capacity];
+        }
+
+        @Override
+        Column add(int row, String value) {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            if (value.length() == 0) {
+                empty.set(row);
+                return this;
+            }
+            try {
+                values[row] = Double.parseDouble(value);
+                return this;
+            } catch (NumberFormatException e) {
+                return toText(row).add(row, value);
+            }
+        }
+
+        @Override
+        Column trim(int size) {
+            values = Arrays.copyOf(values, size);
+            return this;
+        }
+
+        @Override
+        String get(int row) {
+            return empty.get(row) ? "" : String.valueOf(values[row]);
+        }
+
+        @Override
+        double getDouble(int row) {
+            checkNotEmpty(row);
+            return values[row];
+        }
+
+        @Override
+        long getLong(int row) {
+            checkNotEmpty(row);
+            double value = values[row];
+            if (value != Math.rint(value)) {
+                throw new NumberFormatException("Not an integer: " + value);
+            }
+            return (long) value;
+        }
+    }
+
+    static class LongColumn extends NumberColumn {
+
+        long[] values;
+
+        LongColumn(int capacity) {
+            values = new long[capacity];
+        }
+
+        @Override
+        Column add(int row, String value) {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            if (value.length() == 0) {
+                empty.set(row);
+                return this;
+            }
+            try {
+                values[row] = Long.parseLong(value);
+                return this;
+            } catch (NumberFormatException e) {
+                return toText(row).add(row, value);
+            }
+        }
+
+        @Override
+        Column trim(int size) {
+            values = Arrays.copyOf(values, size);
+            return this;
+        }
+
+        @Override
+        String get(int row) {
+            return empty.get(row) ? "" : String.valueOf(values[row]);
+        }
+
+        @Override
+        double getDouble(int row) {
+            checkNotEmpty(row);
+            return values[row];
+        }
+
+        @Override
+        long getLong(int row) {
+            checkNotEmpty(row);
+            return values[row];
+        }
+    }
+
+    /**
+     * Text column holding each distinct value once, rows refer to it by a 16 bit code.
+     */
+    static class DictionaryColumn extends Column {
+
+        char[] codes;
+
+        String[] dictionary = new String[16];
+
+        final Map<String, Integer> lookup = new HashMap<String, Integer>();
+
+        DictionaryColumn(int capacity) {
+            codes = new char[capacity];
+        }
+
+        @Override
+        Column add(int row, String value) {
+            Integer code = lookup.get(value);
+            if (code == null) {
+                if (lookup.size() == MAX_DICTIONARY_SIZE) {
+                    return toStrings(row).add(row, value);
+                }
+                code = lookup.size();
+                if (code == dictionary.length) {
+                    dictionary = Arrays.copyOf(dictionary, code * 2);
+                }
+                dictionary[code] = value;
+                lookup.put(value, code);
+            }
+            if (row == codes.length) {
+                codes = Arrays.copyOf(codes, row * 2);
+            }
+            codes[row] = (char) code.intValue();
+            return this;
+        }
+
+        private Column toStrings(int rows) {
+            StringColumn strings = new StringColumn(Math.max(16, rows * 2));
+            for (int i = 0; i < rows; i++) {
+                strings.add(i, get(i));
+            }
+            return strings;
+        }
+
+        @Override
+        Column trim(int size) {
+            codes = Arrays.copyOf(codes, size);
+            dictionary = Arrays.copyOf(dictionary, lookup.size());
+            lookup.clear();
+            return this;
+        }
+
+        @Override
+        boolean isEmpty(int row) {
+            return dictionary[codes[row]].length() == 0;
+        }
+
+        @Override
+        String get(int row) {
+            return dictionary[codes[row]];
+        }
+    }
+
+    static class StringColumn extends Column {
+
+        String[] values;
+
+        StringColumn(int capacity) {
+            values = new String[capacity];
+        }
+
+        @Override
+        Column add(int row, String value) {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            values[row] = value;
+            return this;
+        }
+
+        @Override
+        Column trim(int size) {
+            values = Arrays.copyOf(values, size);
+            return this;
+        }
+
+        @Override
+        boolean isEmpty(int row) {
+            return values[row].length() == 0;
+        }
+
+        @Override
+        String get(int row) {
+            return values[row];
+        }
+    }
+}
@@ -1,19 +1,53 @@
 package org.opengeo.data.csv.parse;
 
+import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.util.Converters;
+import org.geotools.util.logging.Logging;
+import org.opengeo.data.csv.CSVFileListener;
 import org.opengeo.data.csv.CSVFileState;
+import org.opengeo.data.csv.CSVFileStatistics;
+import org.opengeo.data.csv.index.CSVRecordScanner;
+import org.opengeo.data.csv.index.CSVSpatialIndex;
+import org.opengeo.data.csv.memory.CSVColumnStore;
+import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
-public abstract class AbstractCSVStrategy implements CSVStrategy {
+import com.csvreader.CsvReader;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+public abstract class AbstractCSVStrategy implements CSVStrategy, CSVFileListener {
+
+    static final Logger LOGGER = Logging.getLogger("org.opengeo.data.csv");
 
     protected final CSVFileState csvFileState;
 
     protected volatile SimpleFeatureType featureType;
 
+    // published along with featureType
+    private int[] attributeIndexes;
+
+    private CSVSpatialIndex spatialIndex;
+
+    // size and modification time of the file when the spatial index could not be built, -1 if it
+    // could
+    private long unindexedLength = -1;
+
+    private long unindexedModified = -1;
+
     public AbstractCSVStrategy(CSVFileState csvFileState) {
         this.csvFileState = csvFileState;
         featureType = null;
+        csvFileState.addListener(this);
     }
 
     protected abstract SimpleFeatureType buildFeatureType();
@@ -23,16 +57,277 @@ public abstract class AbstractCSVStrategy implements CSVStrategy {
         if (featureType == null) {
             synchronized (this) {
                 if (featureType == null) {
-                    featureType = buildFeatureType();
+                    SimpleFeatureType type = buildFeatureType();
+                    attributeIndexes = mapColumns(type, csvFileState.getCSVHeaders());
+                    featureType = type;
                 }
             }
         }
         return featureType;
     }
 
+    /**
+     * Maps each csv column to the index of the attribute it is copied to, -1 for columns that have
+     * no attribute of their own, like the coordinates of a point. Called once, right after the
+     * feature type is built.
+     */
+    protected int[] mapColumns(SimpleFeatureType featureType, String[] headers) {
+        int[] indexes = new int[headers.length];
+        for (int i = 0; i < headers.length; i++) {
+            indexes[i] = featureType.indexOf(headers[i]);
+        }
+        return indexes;
+    }
+
+    protected int[] getAttributeIndexes() {
+        getFeatureType();
+        return attributeIndexes;
+    }
+
+    /**
+     * Same as {@link #getAttributeIndexes()}, for a feature type holding a subset of the
+     * attributes of the full one.
+     */
+    protected int[] getAttributeIndexes(SimpleFeatureType subset) {
+        SimpleFeatureType featureType = getFeatureType();
+        if (subset == featureType) {
+            return attributeIndexes;
+        }
+        int[] indexes = new int[attributeIndexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = attributeIndexes[i] < 0 ? -1 : subset.indexOf(featureType.getDescriptor(
+                    attributeIndexes[i]).getLocalName());
+        }
+        return indexes;
+    }
+
+    @Override
+    public CSVFeatureBuilder createFeatureBuilder() {
+        return createFeatureBuilder(getFeatureType());
+    }
+
+    /**
+     * Builds a single feature. Readers should create a {@link CSVFeatureBuilder} instead, which
+     * avoids setting up a new builder for every record.
+     */
+    @Override
+    public SimpleFeature createFeature(String recordId, String[] csvRecord) {
+        return createFeatureBuilder().build(recordId, csvRecord);
+    }
+
+    @Override
+    public String[] createRecord(SimpleFeature feature) {
+        int[] indexes = getAttributeIndexes();
+        String[] csvRecord = new String[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            csvRecord[i] = indexes[i] >= 0 ? format(feature.getAttribute(indexes[i])) : "";
+        }
+        Object geometry = feature.getDefaultGeometry();
+        if (geometry instanceof Geometry) {
+            setGeometry((Geometry) geometry, csvRecord);
+        }
+        return csvRecord;
+    }
+
+    /**
+     * Writes the geometry into the columns it is derived from. Strategies without geometries
+     * have nothing to write.
+     */
+    protected void setGeometry(Geometry geometry, String[] csvRecord) {
+    }
+
+    private static String format(Object value) {
+        if (value == null) {
+            return "";
+        } else if (value instanceof String) {
+            return (String) value;
+        }
+        String text = Converters.convert(value, String.class);
+        return text != null ? text : value.toString();
+    }
+
     @Override
     public CSVIterator iterator() throws IOException {
         return new CSVIterator(csvFileState, this);
     }
 
+    @Override
+    public CSVIterator iterator(int offset) throws IOException {
+        return new CSVIterator(csvFileState, this, offset);
+    }
+
+    @Override
+    public CSVIterator iterator(Envelope bbox) throws IOException {
+        CSVSpatialIndex index = getSpatialIndex();
+        if (index == null) {
+            return iterator();
+        }
+        return new CSVIterator(csvFileState, this, index.query(bbox));
+    }
+
+    @Override
+    public Envelope getEnvelope(String[] csvRecord) {
+        if (getFeatureType().getGeometryDescriptor() == null) {
+            return null;
+        }
+        Object geometry;
+        try {
+            geometry = createFeature("", csvRecord).getDefaultGeometry();
+        } catch (RuntimeException e) {
+            return null;
+        }
+        return geometry instanceof Geometry ? ((Geometry) geometry).getEnvelopeInternal() : null;
+    }
+
+    @Override
+    public ReferencedEnvelope getBounds() throws IOException {
+        CoordinateReferenceSystem crs = getFeatureType().getCoordinateReferenceSystem();
+        if (getFeatureType().getGeometryDescriptor() == null) {
+            return new ReferencedEnvelope(crs);
+        }
+        CSVFileStatistics statistics = csvFileState.getStatistics();
+        Envelope bounds = statistics.getBounds(getSignature());
+        if (bounds == null) {
+            bounds = new Envelope();
+            CsvReader csvReader = csvFileState.openCSVReader();
+            try {
+                while (csvReader.readRecord()) {
+                    Envelope envelope = getEnvelope(csvReader.getValues());
+                    if (envelope != null) {
+                        bounds.expandToInclude(envelope);
+                    }
+                }
+            } finally {
+                csvReader.close();
+            }
+            statistics.setBounds(getSignature(), bounds);
+        }
+        return new ReferencedEnvelope(bounds, crs);
+    }
+
+    /**
+     * Returns the spatial index over the file, building or refreshing it when the file changed.
+     * There is no index for in memory data, or when the feature type has no geometry. Files loaded
+     * into memory get an index kept on the heap instead, while cached columns use the persisted
+     * one so it is not rebuilt on every start. Null is also returned when the index cannot be
+     * built, for instance over too many records, and spatial queries then scan the file; building
+     * is not tried again until the file changes.
+     */
+    public synchronized CSVSpatialIndex getSpatialIndex() throws IOException {
+        File file = csvFileState.getFile();
+        if (file == null || getFeatureType().getGeometryDescriptor() == null) {
+            return null;
+        }
+        CSVColumnStore columnStore = csvFileState.getColumnStore();
+        if (columnStore != null && !columnStore.isCached()) {
+            return columnStore.getSpatialIndex(this, getSignature());
+        }
+        if (spatialIndex == null || !spatialIndex.isCurrent(file)) {
+            spatialIndex = null;
+            long length = file.length();
+            long modified = file.lastModified();
+            if (length == unindexedLength && modified == unindexedModified) {
+                return null;
+            }
+            try {
+                spatialIndex = CSVSpatialIndex.open(csvFileState, this, getSignature());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to build the spatial index of " + file
+                        + ", spatial queries will scan the file", e);
+                unindexedLength = length;
+                unindexedModified = modified;
+            }
+        }
+        return spatialIndex;
+    }
+
+    /**
+     * Grows the cached bounds and spatial index with the envelopes of the appended records,
+     * reading only those.
+     */
+    @Override
+    public void recordsAppended(CSVFileState csvFileState, long offset, int row,
+            long fileLength, long lastModified) throws IOException {
+        if (featureType == null || featureType.getGeometryDescriptor() == null) {
+            return;
+        }
+        CSVFileStatistics statistics = csvFileState.getStatistics();
+        synchronized (this) {
+            Envelope bounds = statistics.getBounds(getSignature());
+            CSVSpatialIndex index = spatialIndex;
+            if (index != null && (row < 0 || index.getFileLength() != offset)) {
+                spatialIndex = index = null;
+            }
+            if (bounds == null && index == null) {
+                return;
+            }
+            bounds = bounds != null ? new Envelope(bounds) : null;
+            int size = 0;
+            double[] boxes = new double[64];
+            long[] offsets = new long[16];
+            int[] rows = new int[16];
+            CsvReader csvReader = csvFileState.openCSVReader(offset, fileLength);
+            InputStream in = new BufferedInputStream(csvFileState.openStream(offset, fileLength));
+            try {
+                CSVRecordScanner scanner = new CSVRecordScanner(in, offset);
+                for (; csvReader.readRecord(); row++) {
+                    long recordOffset = scanner.nextRecord();
+                    Envelope envelope = getEnvelope(csvReader.getValues());
+                    if (envelope == null || envelope.isNull()) {
+                        continue;
+                    }
+                    if (bounds != null) {
+                        bounds.expandToInclude(envelope);
+                    }
+                    if (size == rows.length) {
+                        boxes = Arrays.copyOf(boxes, size * 8);
+                        offsets = Arrays.copyOf(offsets, size * 2);
+                        rows = Arrays.copyOf(rows, size * 2);
+                    }
+                    boxes[size * 4] = envelope.getMinX();
+                    boxes[size * 4 + 1] = envelope.getMinY();
+                    boxes[size * 4 + 2] = envelope.getMaxX();
+                    boxes[size * 4 + 3] = envelope.getMaxY();
+                    offsets[size] = recordOffset;
+                    rows[size] = row;
+                    size++;
+                }
+            } finally {
+                in.close();
+                csvReader.close();
+            }
+            if (bounds != null) {
+                statistics.setBounds(getSignature(), bounds);
+            }
+            if (index != null) {
+                try {
+                    spatialIndex = index.append(fileLength, lastModified, size, boxes, offsets,
+                            rows);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Unable to extend the spatial index of "
+                            + csvFileState.getFile() + ", spatial queries will scan the file", e);
+                    spatialIndex = null;
+                    unindexedLength = fileLength;
+                    unindexedModified = lastModified;
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void fileChanged(CSVFileState csvFileState, boolean schemaChanged) {
+        spatialIndex = null;
+        if (schemaChanged) {
+            featureType = null;
+        }
+    }
+
+    /**
+     * Identifies how this strategy derives geometries, indexes and bounds computed with a
+     * different signature are not reused.
+     */
+    protected String getSignature() {
+        return getClass().getName();
+    }
+
 }
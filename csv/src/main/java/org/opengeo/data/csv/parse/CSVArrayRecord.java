@@ -0,0 +1,47 @@
+package org.opengeo.data.csv.parse;
+
+/**
+ * Exposes the values read by CsvReader as a {@link CSVRecord}. Reused between records, the values
+ * are trimmed in place.
+ */
+public class CSVArrayRecord implements CSVRecord {
+
+    private String[] values;
+
+    public void setValues(String[] values) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = values[i].trim();
+        }
+        this.values = values;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return values.length;
+    }
+
+    @Override
+    public boolean isEmpty(int column) {
+        return values[column].length() == 0;
+    }
+
+    @Override
+    public String get(int column) {
+        return values[column];
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return CSVDecimalParser.parseDouble(values[column]);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return Long.parseLong(values[column]);
+    }
+
+    @Override
+    public String[] getValues() {
+        return values;
+    }
+}
@@ -1,9 +1,7 @@
 package org.opengeo.data.csv.parse;
 
-import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.opengeo.data.csv.CSVFileState;
-import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 
 public class CSVAttributesOnlyStrategy extends AbstractCSVStrategy implements CSVStrategy {
@@ -18,22 +16,9 @@ public class CSVAttributesOnlyStrategy extends AbstractCSVStrategy implements CS
     }
 
     @Override
-    public SimpleFeature createFeature(String recordId, String[] csvRecord) {
-        SimpleFeatureType featureType = getFeatureType();
-        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(featureType);
-        String[] headers;
-        headers = csvFileState.getCSVHeaders();
-        for (int i = 0; i < headers.length; i++) {
-            String header = headers[i];
-            if (i < csvRecord.length) {
-                String value = csvRecord[i].trim();
-                builder.set(header, value);
-            } else {
-                // geotools converters take care of converting for us
-                builder.set(header, null);
-            }
-        }
-        return builder.buildFeature(csvFileState.getTypeName() + "-" + recordId);
+    public CSVFeatureBuilder createFeatureBuilder(SimpleFeatureType featureType) {
+        return new CSVFeatureBuilder(featureType, getAttributeIndexes(featureType),
+                csvFileState.getTypeName());
     }
 
 }
@@ -0,0 +1,107 @@
+package org.opengeo.data.csv.parse;
+
+/**
+ * Parses decimal numbers out of strings without creating intermediate objects. Plain decimals
+ * with up to 15 significant digits and a small exponent are computed with a single correctly
+ * rounded operation, so the result is the same as {@link Double#parseDouble(String)}, which
+ * handles everything else: surrounding whitespace, NaN, Infinity, hex and malformed values.
+ * <p>
+ * Characters are read through a {@link CharSequence}, so fields can be parsed in place, for
+ * instance straight from the bytes of a memory mapped file, see {@link CSVMappedTokenizer}.
+ */
+public class CSVDecimalParser {
+
+    // exactly representable powers of ten
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private CSVDecimalParser() {
+    }
+
+    public static double parseDouble(String s) {
+        return parseDouble(s, 0, s.length());
+    }
+
+    /**
+     * Parses the characters between start, inclusive, and end, exclusive.
+     *
+     * @throws NumberFormatException if they are not a number
+     */
+    public static double parseDouble(CharSequence s, int start, int end) {
+        int p = start;
+        boolean negative = false;
+        if (p < end && (s.charAt(p) == '-' || s.charAt(p) == '+')) {
+            negative = s.charAt(p) == '-';
+            p++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        for (; p < end; p++) {
+            char c = s.charAt(p);
+            if (c >= '0' && c <= '9') {
+                seenDigit = true;
+                if (mantissa == 0 && c == '0') {
+                    // leading zeros are not significant
+                } else if (digits < 15) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    digits++;
+                } else {
+                    return Double.parseDouble(s.subSequence(start, end).toString());
+                }
+                if (seenPoint) {
+                    scale++;
+                }
+            } else if (c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                break;
+            }
+        }
+        int exponent = 0;
+        if (p < end && seenDigit && (s.charAt(p) == 'e' || s.charAt(p) == 'E')) {
+            p++;
+            boolean negativeExponent = false;
+            if (p < end && (s.charAt(p) == '-' || s.charAt(p) == '+')) {
+                negativeExponent = s.charAt(p) == '-';
+                p++;
+            }
+            int exponentStart = p;
+            for (; p < end && exponent < 1000; p++) {
+                char c = s.charAt(p);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                exponent = exponent * 10 + (c - '0');
+            }
+            if (p == exponentStart) {
+                return Double.parseDouble(s.subSequence(start, end).toString());
+            }
+            exponent = negativeExponent ? -exponent : exponent;
+        }
+        if (!seenDigit || p != end) {
+            // empty, NaN, Infinity, hex and trailing type suffixes take the slow path
+            return Double.parseDouble(s.subSequence(start, end).toString());
+        }
+        exponent -= scale;
+        double value;
+        if (mantissa == 0) {
+            value = 0;
+        } else if (exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+            value = mantissa * POWERS_OF_TEN[exponent];
+        } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[-exponent];
+        } else {
+            return Double.parseDouble(s.subSequence(start, end).toString());
+        }
+        return negative ? -value : value;
+    }
+}
@@ -0,0 +1,159 @@
+package org.opengeo.data.csv.parse;
+
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.GeometryDescriptor;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Turns csv records into features. A builder keeps its feature builder, geometry factory and
+ * parsers between records, so it is cheap per record but not thread safe: every reader creates
+ * its own through {@link CSVStrategy#createFeatureBuilder()}.
+ * <p>
+ * Records come either as decoded values or as a {@link CSVRecord}, such as a
+ * {@link CSVMappedTokenizer} positioned on them, in which case only the columns mapped to an
+ * attribute are decoded. Strategies producing geometries override both <code>createGeometry</code>
+ * methods.
+ * <p>
+ * Attribute values are trimmed of surrounding whitespace, quoted ones included. Decoded values are
+ * trimmed here, records hand their fields over trimmed already.
+ */
+public class CSVFeatureBuilder {
+
+    protected final SimpleFeatureBuilder builder;
+
+    protected final GeometryFactory geometryFactory = new GeometryFactory();
+
+    /**
+     * Index of the geometry attribute, -1 when the feature type has no geometry.
+     */
+    protected final int geometryIndex;
+
+    private final int[] attributeIndexes;
+
+    private final Class<?>[] bindings;
+
+    private final String idPrefix;
+
+    public CSVFeatureBuilder(SimpleFeatureType featureType, int[] attributeIndexes,
+            String typeName) {
+        this.builder = new SimpleFeatureBuilder(featureType);
+        this.attributeIndexes = attributeIndexes;
+        this.bindings = new Class<?>[featureType.getAttributeCount()];
+        for (int i = 0; i < bindings.length; i++) {
+            bindings[i] = featureType.getDescriptor(i).getType().getBinding();
+        }
+        GeometryDescriptor geometryDescriptor = featureType.getGeometryDescriptor();
+        this.geometryIndex = geometryDescriptor == null ? -1 : featureType
+                .indexOf(geometryDescriptor.getLocalName());
+        this.idPrefix = typeName + "-";
+    }
+
+    public SimpleFeature build(String recordId, String[] csvRecord) {
+        setAttributes(csvRecord);
+        if (geometryIndex >= 0) {
+            builder.set(geometryIndex, createGeometry(csvRecord));
+        }
+        return buildFeature(recordId);
+    }
+
+    public SimpleFeature build(String recordId, CSVRecord record) {
+        setAttributes(record);
+        if (geometryIndex >= 0) {
+            builder.set(geometryIndex, createGeometry(record));
+        }
+        return buildFeature(recordId);
+    }
+
+    /**
+     * Only derives the geometry of the record, null when the feature type has none.
+     */
+    public Geometry buildGeometry(CSVRecord record) {
+        return geometryIndex >= 0 ? createGeometry(record) : null;
+    }
+
+    protected Geometry createGeometry(String[] csvRecord) {
+        return null;
+    }
+
+    protected Geometry createGeometry(CSVRecord record) {
+        return null;
+    }
+
+    /**
+     * Copies every column that maps to an attribute. Missing trailing columns are left null.
+     */
+    protected void setAttributes(String[] csvRecord) {
+        int n = Math.min(csvRecord.length, attributeIndexes.length);
+        for (int i = 0; i < n; i++) {
+            int attribute = attributeIndexes[i];
+            if (attribute >= 0) {
+                builder.set(attribute, convert(bindings[attribute], csvRecord[i].trim()));
+            }
+        }
+    }
+
+    protected void setAttributes(CSVRecord record) {
+        int n = Math.min(record.getColumnCount(), attributeIndexes.length);
+        for (int i = 0; i < n; i++) {
+            int attribute = attributeIndexes[i];
+            if (attribute >= 0) {
+                builder.set(attribute, convert(bindings[attribute], record, i));
+            }
+        }
+    }
+
+    protected SimpleFeature buildFeature(String recordId) {
+        return builder.buildFeature(idPrefix + recordId);
+    }
+
+    // the common bindings are parsed directly, the rest is left to the geotools converters
+    private static Object convert(Class<?> binding, String value) {
+        if (binding == String.class) {
+            return value;
+        }
+        if (value.length() == 0) {
+            return null;
+        }
+        try {
+            if (binding == Integer.class) {
+                return Integer.valueOf(value);
+            } else if (binding == Long.class) {
+                return Long.valueOf(value);
+            } else if (binding == Double.class) {
+                return Double.valueOf(value);
+            }
+        } catch (NumberFormatException e) {
+            // let the feature builder try its converters
+        }
+        return value;
+    }
+
+    // numbers are parsed from the raw bytes, or taken from the columns, without an intermediate
+    // string
+    private static Object convert(Class<?> binding, CSVRecord record, int column) {
+        if (binding != String.class) {
+            if (record.isEmpty(column)) {
+                return null;
+            }
+            try {
+                if (binding == Integer.class) {
+                    long value = record.getLong(column);
+                    if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                        return Integer.valueOf((int) value);
+                    }
+                } else if (binding == Long.class) {
+                    return Long.valueOf(record.getLong(column));
+                } else if (binding == Double.class) {
+                    return Double.valueOf(record.getDouble(column));
+                }
+            } catch (NumberFormatException e) {
+                // let the feature builder try its converters
+            }
+        }
+        return record.get(column);
+    }
+}
@@ -4,33 +4,156 @@ import java.io.IOException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
+import org.opengeo.data.csv.CSVCompression;
 import org.opengeo.data.csv.CSVFileState;
+import org.opengeo.data.csv.index.CSVRowIndex;
+import org.opengeo.data.csv.index.CSVRowSelection;
+import org.opengeo.data.csv.memory.CSVColumnStore;
 import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.Filter;
 
 import com.csvreader.CsvReader;
 
 public class CSVIterator implements Iterator<SimpleFeature> {
 
+    // gaps between selected rows up to this many records are read through instead of seeking
+    private static final int MAX_READ_THROUGH = 64;
+
     private int idx;
 
     private SimpleFeature next;
 
-    private final CsvReader csvReader;
+    private CsvReader csvReader;
+
+    private CSVMappedTokenizer tokenizer;
+
+    private CSVColumnStore columnStore;
+
+    private CSVColumnStore.Cursor cursor;
+
+    // row group of the cursor whose value ranges were last checked against the filter
+    private int checkedGroup = -1;
+
+    // the tokenizer or the cursor, null when reading through the csv reader
+    private CSVRecord record;
+
+    private final CSVFileState csvFileState;
 
     private final CSVStrategy csvStrategy;
 
+    private CSVFeatureBuilder featureBuilder;
+
+    private Filter filter;
+
+    private CSVRecordFilter recordFilter;
+
+    private final CSVArrayRecord arrayRecord = new CSVArrayRecord();
+
+    private final CSVRowSelection selection;
+
+    private int selected;
+
+    private int row;
+
     public CSVIterator(CSVFileState csvFileState, CSVStrategy csvStrategy) throws IOException {
+        this(csvFileState, csvStrategy, 0);
+    }
+
+    public CSVIterator(CSVFileState csvFileState, CSVStrategy csvStrategy, int offset)
+            throws IOException {
+        this.csvFileState = csvFileState;
         this.csvStrategy = csvStrategy;
-        csvReader = csvFileState.openCSVReader();
-        idx = 1;
+        this.featureBuilder = csvStrategy.createFeatureBuilder();
+        this.selection = null;
+        int skip = offset;
+        columnStore = csvFileState.getColumnStore();
+        CSVRowIndex rowIndex = offset > 0 && columnStore == null ? csvFileState.getRowIndex()
+                : null;
+        if (columnStore != null) {
+            // rows held in memory are reached directly
+            cursor = columnStore.cursor(offset);
+            record = cursor;
+            skip = 0;
+        } else if (rowIndex != null) {
+            open(rowIndex.getOffset(offset));
+            skip = offset - rowIndex.getIndexedRow(offset);
+        } else {
+            open(0);
+        }
+        try {
+            for (int i = 0; i < skip && readRecord(); i++) {
+                // records before the requested offset are not turned into features
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        // feature ids stay stable no matter where reading started
+        idx = offset + 1;
         next = null;
     }
 
-    private SimpleFeature buildFeature(String[] csvRecord) {
-        String id = "" + idx;
-        SimpleFeature feature = csvStrategy.createFeature(id, csvRecord);
-        idx++;
-        return feature;
+    /**
+     * Creates an iterator that only visits the selected rows, seeking to each one unless it is
+     * close enough to the previous one.
+     */
+    public CSVIterator(CSVFileState csvFileState, CSVStrategy csvStrategy,
+            CSVRowSelection selection) throws IOException {
+        this.csvFileState = csvFileState;
+        this.csvStrategy = csvStrategy;
+        this.featureBuilder = csvStrategy.createFeatureBuilder();
+        this.selection = selection;
+        columnStore = csvFileState.getColumnStore();
+        if (columnStore != null) {
+            cursor = columnStore.cursor(0);
+            record = cursor;
+        }
+        selected = 0;
+        next = null;
+    }
+
+    /**
+     * Replaces the builder, typically with one for a retyped feature type.
+     */
+    public void setFeatureBuilder(CSVFeatureBuilder featureBuilder) {
+        this.featureBuilder = featureBuilder;
+    }
+
+    /**
+     * Only returns the features matching the filter. Records the filter can be decided on from
+     * their raw values are skipped without building a feature, the features built must still
+     * hold all the attributes the filter uses.
+     */
+    public void setFilter(Filter filter) {
+        if (filter == null || filter == Filter.INCLUDE) {
+            this.filter = null;
+            this.recordFilter = null;
+        } else {
+            this.filter = filter;
+            this.recordFilter = CSVRecordFilter.compile(filter, csvStrategy,
+                    csvFileState.getCSVHeaders());
+        }
+    }
+
+    private void open(long offset) throws IOException {
+        close();
+        tokenizer = csvFileState.openTokenizer(offset);
+        record = tokenizer;
+        if (tokenizer == null) {
+            csvReader = csvFileState.openCSVReader(offset);
+        }
+    }
+
+    private boolean readRecord() throws IOException {
+        if (cursor != null) {
+            while (cursor.next()) {
+                if (recordFilter == null || !skipGroup()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return tokenizer != null ? tokenizer.readRecord() : csvReader.readRecord();
     }
 
     @Override
@@ -47,13 +170,84 @@ public class CSVIterator implements Iterator<SimpleFeature> {
     }
 
     private SimpleFeature readFeature() throws IOException {
-        if (csvReader.readRecord()) {
-            String[] csvRecord = csvReader.getValues();
-            return buildFeature(csvRecord);
+        while (selection != null ? readSelectedRecord() : readRecord()) {
+            String id = String.valueOf(idx++);
+            String[] values = record != null ? null : csvReader.getValues();
+            int match = CSVRecordFilter.MATCH;
+            if (recordFilter != null) {
+                CSVRecord filtered = record;
+                if (filtered == null) {
+                    arrayRecord.setValues(values);
+                    filtered = arrayRecord;
+                }
+                match = recordFilter.evaluate(filtered);
+                if (match == CSVRecordFilter.NO_MATCH) {
+                    continue;
+                }
+            }
+            SimpleFeature feature = record != null ? featureBuilder.build(id, record)
+                    : featureBuilder.build(id, values);
+            if (match == CSVRecordFilter.UNKNOWN && !filter.evaluate(feature)) {
+                continue;
+            }
+            return feature;
         }
         return null;
     }
 
+    /**
+     * On the first row read from a row group the filter cannot match, moves the cursor to the
+     * end of the group and returns true.
+     */
+    private boolean skipGroup() {
+        int row = cursor.getRow();
+        int group = columnStore.getGroup(row);
+        if (group < 0 || group == checkedGroup) {
+            return false;
+        }
+        checkedGroup = group;
+        if (columnStore.mayMatch(group, recordFilter)) {
+            return false;
+        }
+        int next = columnStore.getGroupStart(group + 1);
+        idx += next - row;
+        cursor.seek(next);
+        return true;
+    }
+
+    private boolean readSelectedRecord() throws IOException {
+        if (selected >= selection.size()) {
+            return false;
+        }
+        int target = selection.getRow(selected);
+        if (cursor != null) {
+            selected++;
+            cursor.seek(target);
+            idx = target + 1;
+            return cursor.next();
+        }
+        // seeking in a compressed file decompresses from the start of a block again, which costs
+        // more than reading forward through the rows in between
+        if ((csvReader == null && tokenizer == null) || target < row
+                || target - row > MAX_READ_THROUGH
+                && csvFileState.getCompression() == CSVCompression.NONE) {
+            open(selection.getOffset(selected));
+            row = target;
+        }
+        selected++;
+        for (; row < target; row++) {
+            if (!readRecord()) {
+                return false;
+            }
+        }
+        if (!readRecord()) {
+            return false;
+        }
+        row++;
+        idx = target + 1;
+        return true;
+    }
+
     @Override
     public SimpleFeature next() {
         if (next != null) {
@@ -79,7 +273,20 @@ public class CSVIterator implements Iterator<SimpleFeature> {
     }
 
     public void close() {
-        csvReader.close();
+        if (csvReader != null) {
+            csvReader.close();
+            csvReader = null;
+        }
+        if (tokenizer != null) {
+            try {
+                tokenizer.close();
+            } catch (IOException e) {
+                // nothing left to release
+            }
+            tokenizer = null;
+        }
+        cursor = null;
+        record = null;
     }
 
 }
@@ -3,98 +3,121 @@ package org.opengeo.data.csv.parse;
 import java.io.IOException;
 import java.util.Map;
 
-import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.opengeo.data.csv.CSVFileState;
-import org.opengis.feature.simple.SimpleFeature;
+import org.opengeo.data.csv.CSVFileStatistics;
 import org.opengis.feature.simple.SimpleFeatureType;
-import org.opengis.feature.type.GeometryDescriptor;
 
-import com.csvreader.CsvReader;
 import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.Point;
 
 public class CSVLatLonStrategy extends AbstractCSVStrategy implements CSVStrategy {
 
     private static final String GEOMETRY_COLUMN = "location";
 
+    // columns holding the coordinates, set when the feature type is built
+    private int latColumn;
+
+    private int lonColumn;
+
     public CSVLatLonStrategy(CSVFileState csvFileState) {
         super(csvFileState);
     }
 
     protected SimpleFeatureType buildFeatureType() {
-        String[] headers;
-        Map<String, Class<?>> typesFromData;
-        CsvReader csvReader = null;
+        CSVFileStatistics statistics;
         try {
-            csvReader = csvFileState.openCSVReader();
-            headers = csvReader.getHeaders();
-            typesFromData = CSVStrategySupport.findMostSpecificTypesFromData(csvReader, headers);
+            statistics = csvFileState.getStatistics();
         } catch (IOException e) {
             throw new RuntimeException(e);
-        } finally {
-            if (csvReader != null) {
-                csvReader.close();
-            }
         }
+        String[] headers = statistics.getHeaders();
+        Map<String, Class<?>> typesFromData = statistics.getTypes();
         SimpleFeatureTypeBuilder builder = CSVStrategySupport.createBuilder(csvFileState, headers,
                 typesFromData);
         boolean validLat = false;
         boolean validLon = false;
-        String latSpelling = null;
-        String lonSpelling = null;
-        for (String col : headers) {
+        latColumn = -1;
+        lonColumn = -1;
+        for (int i = 0; i < headers.length; i++) {
+            String col = headers[i];
             Class<?> type = typesFromData.get(col);
             if (isLatitude(col)) {
-                latSpelling = col;
-                if (CSVStrategySupport.isNumeric(type)) {
-                    validLat = true;
-                }
+                latColumn = i;
+                validLat = CSVStrategySupport.isNumeric(type);
             } else if (isLongitude(col)) {
-                lonSpelling = col;
-                if (CSVStrategySupport.isNumeric(type)) {
-                    validLon = true;
-                }
+                lonColumn = i;
+                validLon = CSVStrategySupport.isNumeric(type);
             }
         }
         if (validLat && validLon) {
             builder.add(GEOMETRY_COLUMN, Point.class);
-            builder.remove(latSpelling);
-            builder.remove(lonSpelling);
+            builder.remove(headers[latColumn]);
+            builder.remove(headers[lonColumn]);
         }
         return builder.buildFeatureType();
     }
 
     @Override
-    public SimpleFeature createFeature(String recordId, String[] csvRecord) {
-        SimpleFeatureType featureType = getFeatureType();
-        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(featureType);
-        GeometryDescriptor geometryDescriptor = featureType.getGeometryDescriptor();
-        GeometryFactory geometryFactory = new GeometryFactory();
-        Double x = null, y = null;
-        String[] headers = csvFileState.getCSVHeaders();
-        for (int i = 0; i < headers.length; i++) {
-            String header = headers[i];
-            if (i < csvRecord.length) {
-                String value = csvRecord[i].trim();
-                if (geometryDescriptor != null && isLatitude(header)) {
-                    y = Double.valueOf(value);
-                } else if (geometryDescriptor != null && isLongitude(header)) {
-                    x = Double.valueOf(value);
-                } else {
-                    builder.set(header, value);
+    public CSVFeatureBuilder createFeatureBuilder(SimpleFeatureType featureType) {
+        return new CSVFeatureBuilder(featureType, getAttributeIndexes(featureType),
+                csvFileState.getTypeName()) {
+            @Override
+            protected Geometry createGeometry(String[] csvRecord) {
+                if (latColumn >= csvRecord.length || lonColumn >= csvRecord.length) {
+                    return null;
+                }
+                try {
+                    double x = CSVDecimalParser.parseDouble(csvRecord[lonColumn]);
+                    double y = CSVDecimalParser.parseDouble(csvRecord[latColumn]);
+                    return geometryFactory.createPoint(new Coordinate(x, y));
+                } catch (NumberFormatException e) {
+                    // the column types may come from a sample, null out records that don't fit
+                    return null;
+                }
+            }
+
+            @Override
+            protected Geometry createGeometry(CSVRecord record) {
+                if (latColumn >= record.getColumnCount()
+                        || lonColumn >= record.getColumnCount()) {
+                    return null;
+                }
+                try {
+                    double x = record.getDouble(lonColumn);
+                    double y = record.getDouble(latColumn);
+                    return geometryFactory.createPoint(new Coordinate(x, y));
+                } catch (NumberFormatException e) {
+                    return null;
                 }
-            } else {
-                builder.set(header, null);
             }
+        };
+    }
+
+    @Override
+    protected void setGeometry(Geometry geometry, String[] csvRecord) {
+        if (geometry instanceof Point) {
+            Point point = (Point) geometry;
+            csvRecord[latColumn] = String.valueOf(point.getY());
+            csvRecord[lonColumn] = String.valueOf(point.getX());
         }
-        if (x != null && y != null && geometryDescriptor != null) {
-            Coordinate coordinate = new Coordinate(x, y);
-            Point point = geometryFactory.createPoint(coordinate);
-            builder.set(geometryDescriptor.getLocalName(), point);
+    }
+
+    @Override
+    public Envelope getEnvelope(String[] csvRecord) {
+        if (getFeatureType().getGeometryDescriptor() == null || latColumn >= csvRecord.length
+                || lonColumn >= csvRecord.length) {
+            return null;
+        }
+        try {
+            double x = CSVDecimalParser.parseDouble(csvRecord[lonColumn]);
+            double y = CSVDecimalParser.parseDouble(csvRecord[latColumn]);
+            return new Envelope(x, x, y, y);
+        } catch (NumberFormatException e) {
+            return null;
         }
-        return builder.buildFeature(csvFileState.getTypeName() + "-" + recordId);
     }
 
     private boolean isLatitude(String s) {
@@ -0,0 +1,424 @@
+package org.opengeo.data.csv.parse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Splits a csv file into records and fields straight from a memory mapped buffer. Fields are kept
+ * as byte ranges and only decoded into strings, or parsed into numbers, when asked for, so
+ * columns nobody reads cost nothing beyond finding their delimiters.
+ * <p>
+ * Quoting and empty line handling follow CsvReader, and records start at the same offsets the row
+ * index reports. Fields are trimmed like {@link String#trim()} does, quoted ones included. The charset must encode the delimiter, quote and line
+ * breaks as single ASCII bytes, see {@link #isSupported(Charset)}.
+ * <p>
+ * Large files are mapped one window at a time, a record crossing the end of a window is parsed
+ * again from a window starting at the record.
+ */
+public class CSVMappedTokenizer implements CSVRecord {
+
+    private static final byte QUOTE = '"';
+
+    private static final byte DELIMITER = ',';
+
+    private static final byte CR = '\r';
+
+    private static final byte LF = '\n';
+
+    private static final int DEFAULT_WINDOW_SIZE = 1 << 28;
+
+    private final RandomAccessFile file;
+
+    private final FileChannel channel;
+
+    private final long fileLength;
+
+    private final CharsetDecoder decoder;
+
+    private int windowSize;
+
+    private MappedByteBuffer buffer;
+
+    private long windowStart;
+
+    private int limit;
+
+    private int position;
+
+    private long recordOffset = -1;
+
+    private int columnCount;
+
+    private int[] starts = new int[16];
+
+    private int[] ends = new int[16];
+
+    private boolean[] escaped = new boolean[16];
+
+    private byte[] bytes = new byte[64];
+
+    private char[] chars = new char[64];
+
+    private final Field field = new Field();
+
+    public CSVMappedTokenizer(File file, Charset charset) throws IOException {
+        this(file, charset, DEFAULT_WINDOW_SIZE);
+    }
+
+    CSVMappedTokenizer(File file, Charset charset, int windowSize) throws IOException {
+        if (!isSupported(charset)) {
+            throw new IllegalArgumentException("Unsupported charset for tokenizing: " + charset);
+        }
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.fileLength = channel.size();
+        this.windowSize = windowSize;
+        this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        map(0);
+        if ("UTF-8".equals(charset.name()) && limit >= 3 && (buffer.get(0) & 0xFF) == 0xEF
+                && (buffer.get(1) & 0xFF) == 0xBB && (buffer.get(2) & 0xFF) == 0xBF) {
+            position = 3;
+        }
+    }
+
+    /**
+     * Whether the charset encodes the characters that structure a csv file as the same single
+     * bytes as ASCII, and never uses those byte values inside multi byte characters.
+     */
+    public static boolean isSupported(Charset charset) {
+        if ("UTF-8".equals(charset.name())) {
+            return true;
+        }
+        CharsetEncoder encoder = charset.newEncoder();
+        if (encoder.maxBytesPerChar() != 1) {
+            return false;
+        }
+        try {
+            ByteBuffer encoded = encoder.encode(CharBuffer.wrap("\",\r\n \t"));
+            return encoded.remaining() == 6 && encoded.get(0) == QUOTE
+                    && encoded.get(1) == DELIMITER && encoded.get(2) == CR
+                    && encoded.get(3) == LF && encoded.get(4) == ' ' && encoded.get(5) == '\t';
+        } catch (CharacterCodingException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Moves to the record starting at the given byte offset, as reported by the row index.
+     */
+    public void seek(long offset) throws IOException {
+        map(offset);
+        columnCount = 0;
+        recordOffset = -1;
+    }
+
+    public boolean readRecord() throws IOException {
+        while (true) {
+            int p = position;
+            while (p < limit && (buffer.get(p) == CR || buffer.get(p) == LF)) {
+                p++;
+            }
+            if (p >= limit) {
+                if (atEnd()) {
+                    position = p;
+                    columnCount = 0;
+                    return false;
+                }
+                map(windowStart + p);
+                continue;
+            }
+            int end = tokenize(p);
+            if (end >= 0) {
+                recordOffset = windowStart + p;
+                position = end;
+                return true;
+            }
+            // the record runs past the window, map again from its start, growing if needed
+            if (p == 0) {
+                windowSize = (int) Math.min(Integer.MAX_VALUE, windowSize * 2L);
+            }
+            map(windowStart + p);
+        }
+    }
+
+    /**
+     * Byte offset the current record starts at.
+     */
+    public long getRecordOffset() {
+        return recordOffset;
+    }
+
+    /**
+     * Byte offset right after the current record, including its line terminator.
+     */
+    public long getRecordEnd() {
+        return windowStart + position;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    @Override
+    public boolean isEmpty(int column) {
+        return ends[column] == starts[column];
+    }
+
+    @Override
+    public String get(int column) {
+        int start = starts[column];
+        int length = ends[column] - start;
+        if (escaped[column]) {
+            length = unescape(start, length);
+            return decode(ByteBuffer.wrap(bytes, 0, length), bytes, length);
+        }
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(start + length).position(start);
+        return decode(slice, null, length);
+    }
+
+    @Override
+    public String[] getValues() {
+        String[] values = new String[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            values[i] = get(i);
+        }
+        return values;
+    }
+
+    /**
+     * Parses the field as a double without decoding it into a string first, see
+     * {@link CSVDecimalParser}.
+     */
+    @Override
+    public double getDouble(int column) {
+        field.column = column;
+        return CSVDecimalParser.parseDouble(field, 0, field.length());
+    }
+
+    /**
+     * Parses the field as a decimal integer without decoding it into a string first.
+     */
+    public long getLong(int column) {
+        int p = starts[column];
+        int end = ends[column];
+        boolean negative = false;
+        if (p < end && (buffer.get(p) == '-' || buffer.get(p) == '+')) {
+            negative = buffer.get(p) == '-';
+            p++;
+        }
+        if (p == end || end - p > 18) {
+            // let the slow path report errors and check for overflow
+            return Long.parseLong(get(column));
+        }
+        long value = 0;
+        for (; p < end; p++) {
+            byte b = buffer.get(p);
+            if (b < '0' || b > '9') {
+                throw new NumberFormatException("For input string: \"" + get(column) + "\"");
+            }
+            value = value * 10 + (b - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    public void close() throws IOException {
+        buffer = null;
+        file.close();
+    }
+
+    private boolean atEnd() {
+        return windowStart + limit >= fileLength;
+    }
+
+    private void map(long start) throws IOException {
+        long size = Math.min(windowSize, fileLength - start);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.max(0, size));
+        windowStart = start;
+        limit = buffer.limit();
+        position = 0;
+    }
+
+    /**
+     * Splits the record starting at p into fields. Returns the position after the record, or -1
+     * when the record is not complete within the current window.
+     */
+    private int tokenize(int p) {
+        boolean eof = atEnd();
+        columnCount = 0;
+        while (true) {
+            while (p < limit && isBlank(buffer.get(p))) {
+                p++;
+            }
+            int start;
+            int end;
+            boolean escapes = false;
+            if (p < limit && buffer.get(p) == QUOTE) {
+                start = ++p;
+                while (true) {
+                    if (p >= limit) {
+                        if (!eof) {
+                            return -1;
+                        }
+                        end = p;
+                        break;
+                    }
+                    if (buffer.get(p) == QUOTE) {
+                        if (p + 1 >= limit && !eof) {
+                            return -1;
+                        }
+                        if (p + 1 < limit && buffer.get(p + 1) == QUOTE) {
+                            escapes = true;
+                            p += 2;
+                            continue;
+                        }
+                        end = p++;
+                        break;
+                    }
+                    p++;
+                }
+                // like CsvReader, anything between the closing quote and the delimiter is dropped
+                while (p < limit && !isFieldEnd(buffer.get(p))) {
+                    p++;
+                }
+            } else {
+                start = p;
+                while (p < limit && !isFieldEnd(buffer.get(p))) {
+                    p++;
+                }
+                end = p;
+                while (end > start && isBlank(buffer.get(end - 1))) {
+                    end--;
+                }
+            }
+            while (start < end && isTrimmed(buffer.get(start))) {
+                start++;
+            }
+            while (end > start && isTrimmed(buffer.get(end - 1))) {
+                end--;
+            }
+            addField(start, end, escapes);
+            if (p >= limit) {
+                return eof ? p : -1;
+            }
+            byte b = buffer.get(p++);
+            if (b != DELIMITER) {
+                if (b == CR && p < limit && buffer.get(p) == LF) {
+                    p++;
+                }
+                return p;
+            }
+        }
+    }
+
+    private void addField(int start, int end, boolean escapes) {
+        if (columnCount == starts.length) {
+            int size = columnCount * 2;
+            int[] newStarts = new int[size];
+            int[] newEnds = new int[size];
+            boolean[] newEscaped = new boolean[size];
+            System.arraycopy(starts, 0, newStarts, 0, columnCount);
+            System.arraycopy(ends, 0, newEnds, 0, columnCount);
+            System.arraycopy(escaped, 0, newEscaped, 0, columnCount);
+            starts = newStarts;
+            ends = newEnds;
+            escaped = newEscaped;
+        }
+        starts[columnCount] = start;
+        ends[columnCount] = end;
+        escaped[columnCount] = escapes;
+        columnCount++;
+    }
+
+    // copies the field into the byte scratch buffer, collapsing doubled quotes
+    private int unescape(int start, int length) {
+        if (bytes.length < length) {
+            bytes = new byte[length];
+        }
+        int n = 0;
+        for (int p = start; p < start + length; p++) {
+            byte b = buffer.get(p);
+            bytes[n++] = b;
+            if (b == QUOTE) {
+                p++;
+            }
+        }
+        return n;
+    }
+
+    private String decode(ByteBuffer slice, byte[] array, int length) {
+        if (chars.length < length) {
+            chars = new char[length];
+        }
+        // plain ASCII is the same in every supported charset
+        int base = slice.position();
+        for (int i = 0; i < length; i++) {
+            byte b = array != null ? array[i] : slice.get(base + i);
+            if (b < 0) {
+                try {
+                    return decoder.decode(slice).toString();
+                } catch (CharacterCodingException e) {
+                    // cannot happen, malformed input is replaced
+                    throw new IllegalStateException(e);
+                }
+            }
+            chars[i] = (char) b;
+        }
+        return new String(chars, 0, length);
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    // same characters as String.trim(), bytes of multi byte characters are negative
+    private static boolean isTrimmed(byte b) {
+        return b >= 0 && b <= ' ';
+    }
+
+    private static boolean isFieldEnd(byte b) {
+        return b == DELIMITER || b == CR || b == LF;
+    }
+
+    /**
+     * The raw bytes of a field seen as characters, which only holds for the ASCII range the
+     * decimal parser looks at. Anything it does not handle itself goes through
+     * {@link #toString()}, which decodes the field.
+     */
+    private class Field implements CharSequence {
+
+        int column;
+
+        public int length() {
+            return ends[column] - starts[column];
+        }
+
+        public char charAt(int index) {
+            return (char) (buffer.get(starts[column] + index) & 0xFF);
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            if (start == 0 && end == length()) {
+                return this;
+            }
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return get(column);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.opengeo.data.csv.parse;
+
+/**
+ * Raw fields of the current csv record, before they are turned into attribute values. Fields are
+ * trimmed of surrounding whitespace, quoted ones included, like attribute values are.
+ */
+public interface CSVRecord {
+
+    public int getColumnCount();
+
+    public boolean isEmpty(int column);
+
+    public String get(int column);
+
+    /**
+     * Parses the field as a number, throwing NumberFormatException when it is not one.
+     */
+    public double getDouble(int column);
+
+    /**
+     * Parses the field as an integer, throwing NumberFormatException when it is not one.
+     */
+    public long getLong(int column);
+
+    public String[] getValues();
+}
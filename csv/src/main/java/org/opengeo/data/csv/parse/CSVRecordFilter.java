@@ -0,0 +1,436 @@
+package org.opengeo.data.csv.parse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.geotools.filter.visitor.ExtractBoundsFilterVisitor;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.filter.And;
+import org.opengis.filter.BinaryComparisonOperator;
+import org.opengis.filter.ExcludeFilter;
+import org.opengis.filter.Filter;
+import org.opengis.filter.IncludeFilter;
+import org.opengis.filter.Not;
+import org.opengis.filter.Or;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.PropertyIsGreaterThan;
+import org.opengis.filter.PropertyIsGreaterThanOrEqualTo;
+import org.opengis.filter.PropertyIsLessThan;
+import org.opengis.filter.PropertyIsLessThanOrEqualTo;
+import org.opengis.filter.PropertyIsLike;
+import org.opengis.filter.PropertyIsNotEqualTo;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.spatial.BBOX;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * Evaluates a filter on the raw fields of a record, so records that cannot match are dropped
+ * before a feature is built for them. Numeric comparisons, string equality, LIKE on string
+ * columns and BBOX are handled, combined with AND, OR and NOT. Anything else, or a record the
+ * filter cannot be decided on from its fields, yields {@link #UNKNOWN} and the filter has to be
+ * evaluated on the feature.
+ */
+public abstract class CSVRecordFilter {
+
+    public static final int NO_MATCH = 0;
+
+    public static final int MATCH = 1;
+
+    public static final int UNKNOWN = 2;
+
+    private static final double MAX_EXACT = 1L << 53;
+
+    private static final CSVRecordFilter UNDECIDED = new CSVRecordFilter() {
+        @Override
+        public int evaluate(CSVRecord record) {
+            return UNKNOWN;
+        }
+    };
+
+    private static final CSVRecordFilter ALL = new CSVRecordFilter() {
+        @Override
+        public int evaluate(CSVRecord record) {
+            return MATCH;
+        }
+    };
+
+    private static final CSVRecordFilter NONE = new CSVRecordFilter() {
+        @Override
+        public int evaluate(CSVRecord record) {
+            return NO_MATCH;
+        }
+
+        @Override
+        public boolean mayMatch(CSVValueRanges ranges) {
+            return false;
+        }
+    };
+
+    /**
+     * Returns {@link #MATCH}, {@link #NO_MATCH} or {@link #UNKNOWN}.
+     */
+    public abstract int evaluate(CSVRecord record);
+
+    /**
+     * Returns false when no record of a group with the given value ranges can match, true when
+     * some may.
+     */
+    public boolean mayMatch(CSVValueRanges ranges) {
+        return true;
+    }
+
+    public static CSVRecordFilter compile(Filter filter, CSVStrategy csvStrategy,
+            String[] headers) {
+        return new Compiler(csvStrategy, headers).compile(filter);
+    }
+
+    private static class Compiler {
+
+        private final CSVStrategy csvStrategy;
+
+        private final SimpleFeatureType featureType;
+
+        private final List<String> headers;
+
+        Compiler(CSVStrategy csvStrategy, String[] headers) {
+            this.csvStrategy = csvStrategy;
+            this.featureType = csvStrategy.getFeatureType();
+            this.headers = Arrays.asList(headers);
+        }
+
+        CSVRecordFilter compile(Filter filter) {
+            if (filter instanceof IncludeFilter) {
+                return ALL;
+            } else if (filter instanceof ExcludeFilter) {
+                return NONE;
+            } else if (filter instanceof And || filter instanceof Or) {
+                List<Filter> children = filter instanceof And ? ((And) filter).getChildren()
+                        : ((Or) filter).getChildren();
+                List<CSVRecordFilter> compiled = new ArrayList<CSVRecordFilter>();
+                for (Filter child : children) {
+                    compiled.add(compile(child));
+                }
+                return new Logic(compiled.toArray(new CSVRecordFilter[compiled.size()]),
+                        filter instanceof And);
+            } else if (filter instanceof Not) {
+                final CSVRecordFilter negated = compile(((Not) filter).getFilter());
+                return new CSVRecordFilter() {
+                    @Override
+                    public int evaluate(CSVRecord record) {
+                        int result = negated.evaluate(record);
+                        return result == UNKNOWN ? UNKNOWN : MATCH - result;
+                    }
+                };
+            } else if (filter instanceof BinaryComparisonOperator) {
+                return compileComparison((BinaryComparisonOperator) filter);
+            } else if (filter instanceof PropertyIsLike) {
+                return compileLike((PropertyIsLike) filter);
+            } else if (filter instanceof BBOX) {
+                return compileBBox((BBOX) filter);
+            }
+            return UNDECIDED;
+        }
+
+        private CSVRecordFilter compileComparison(BinaryComparisonOperator comparison) {
+            Expression left = comparison.getExpression1();
+            Expression right = comparison.getExpression2();
+            boolean swapped = false;
+            if (left instanceof Literal && right instanceof PropertyName) {
+                Expression swap = left;
+                left = right;
+                right = swap;
+                swapped = true;
+            }
+            if (!(left instanceof PropertyName) || !(right instanceof Literal)) {
+                return UNDECIDED;
+            }
+            final int column = getColumn((PropertyName) left);
+            Object value = ((Literal) right).getValue();
+            if (column < 0 || value == null) {
+                return UNDECIDED;
+            }
+            Class<?> binding = getBinding(column);
+            final int operator = getOperator(comparison, swapped);
+            if (operator == 0) {
+                return UNDECIDED;
+            }
+            if (CSVStrategySupport.isNumeric(binding)) {
+                final double number;
+                try {
+                    number = value instanceof Number ? ((Number) value).doubleValue() : Double
+                            .parseDouble(value.toString().trim());
+                } catch (NumberFormatException e) {
+                    return UNDECIDED;
+                }
+                if (binding != Double.class && number != Math.rint(number)) {
+                    // integer to fraction comparisons depend on how geotools converts the literal
+                    return UNDECIDED;
+                }
+                return new CSVRecordFilter() {
+                    @Override
+                    public int evaluate(CSVRecord record) {
+                        if (column >= record.getColumnCount() || record.isEmpty(column)) {
+                            return UNKNOWN;
+                        }
+                        double field;
+                        try {
+                            field = record.getDouble(column);
+                        } catch (NumberFormatException e) {
+                            return UNKNOWN;
+                        }
+                        if (Double.isNaN(field) || Double.isNaN(number)
+                                || Math.abs(field) >= MAX_EXACT || Math.abs(number) >= MAX_EXACT) {
+                            // long values this large do not survive the conversion to double
+                            return UNKNOWN;
+                        }
+                        return compare(operator, field < number ? -1 : field > number ? 1 : 0);
+                    }
+
+                    @Override
+                    public boolean mayMatch(CSVValueRanges ranges) {
+                        if (!ranges.hasRange(column) || Double.isNaN(number)
+                                || Math.abs(number) >= MAX_EXACT) {
+                            return true;
+                        }
+                        double min = ranges.getMin(column);
+                        double max = ranges.getMax(column);
+                        if (Math.abs(min) >= MAX_EXACT || Math.abs(max) >= MAX_EXACT) {
+                            return true;
+                        }
+                        switch (operator) {
+                        case EQUAL:
+                            return min <= number && number <= max;
+                        case NOT_EQUAL:
+                            return min != number || max != number;
+                        case LESS:
+                            return min < number;
+                        case LESS_OR_EQUAL:
+                            return min <= number;
+                        case GREATER:
+                            return max > number;
+                        default:
+                            return max >= number;
+                        }
+                    }
+                };
+            } else if (binding == String.class && (operator == EQUAL || operator == NOT_EQUAL)) {
+                final String string = value.toString();
+                final boolean matchCase = comparison.isMatchingCase();
+                return new CSVRecordFilter() {
+                    @Override
+                    public int evaluate(CSVRecord record) {
+                        if (column >= record.getColumnCount()) {
+                            return UNKNOWN;
+                        }
+                        String field = record.get(column);
+                        boolean equal = matchCase ? field.equals(string) : field
+                                .equalsIgnoreCase(string);
+                        return (operator == EQUAL) == equal ? MATCH : NO_MATCH;
+                    }
+                };
+            }
+            return UNDECIDED;
+        }
+
+        private CSVRecordFilter compileLike(PropertyIsLike like) {
+            if (!(like.getExpression() instanceof PropertyName)) {
+                return UNDECIDED;
+            }
+            final int column = getColumn((PropertyName) like.getExpression());
+            if (column < 0 || getBinding(column) != String.class || isEmpty(like.getWildCard())
+                    || isEmpty(like.getSingleChar()) || isEmpty(like.getEscape())
+                    || like.getLiteral() == null) {
+                return UNDECIDED;
+            }
+            final Pattern pattern = toPattern(like);
+            return new CSVRecordFilter() {
+                @Override
+                public int evaluate(CSVRecord record) {
+                    if (column >= record.getColumnCount()) {
+                        return UNKNOWN;
+                    }
+                    return pattern.matcher(record.get(column)).matches() ? MATCH : NO_MATCH;
+                }
+            };
+        }
+
+        private CSVRecordFilter compileBBox(BBOX bbox) {
+            GeometryDescriptor geometryDescriptor = featureType.getGeometryDescriptor();
+            Expression expression = bbox.getExpression1();
+            if (geometryDescriptor == null || !(expression instanceof PropertyName)) {
+                return UNDECIDED;
+            }
+            String name = ((PropertyName) expression).getPropertyName();
+            if (name != null && name.length() > 0
+                    && !name.equals(geometryDescriptor.getLocalName())) {
+                return UNDECIDED;
+            }
+            final Envelope envelope = (Envelope) bbox.accept(
+                    ExtractBoundsFilterVisitor.BOUNDS_VISITOR, null);
+            if (envelope == null || envelope.isNull()) {
+                return UNDECIDED;
+            }
+            // for points the envelope test is the whole test, other geometries can miss the box
+            final boolean points = Point.class.isAssignableFrom(geometryDescriptor.getType()
+                    .getBinding());
+            return new CSVRecordFilter() {
+                @Override
+                public int evaluate(CSVRecord record) {
+                    Envelope bounds = csvStrategy.getEnvelope(record.getValues());
+                    if (bounds == null) {
+                        return UNKNOWN;
+                    }
+                    if (!envelope.intersects(bounds)) {
+                        return NO_MATCH;
+                    }
+                    return points ? MATCH : UNKNOWN;
+                }
+            };
+        }
+
+        private boolean isEmpty(String string) {
+            return string == null || string.length() == 0;
+        }
+
+        private int getColumn(PropertyName propertyName) {
+            String name = propertyName.getPropertyName();
+            int column = headers.indexOf(name);
+            // columns turned into a geometry are not attributes of their own
+            if (column < 0 || featureType.getDescriptor(name) == null) {
+                return -1;
+            }
+            return column;
+        }
+
+        private Class<?> getBinding(int column) {
+            AttributeDescriptor descriptor = featureType.getDescriptor(headers.get(column));
+            return descriptor.getType().getBinding();
+        }
+    }
+
+    private static final int EQUAL = 1;
+
+    private static final int NOT_EQUAL = 2;
+
+    private static final int LESS = 3;
+
+    private static final int LESS_OR_EQUAL = 4;
+
+    private static final int GREATER = 5;
+
+    private static final int GREATER_OR_EQUAL = 6;
+
+    private static int getOperator(BinaryComparisonOperator comparison, boolean swapped) {
+        if (comparison instanceof PropertyIsEqualTo) {
+            return EQUAL;
+        } else if (comparison instanceof PropertyIsNotEqualTo) {
+            return NOT_EQUAL;
+        } else if (comparison instanceof PropertyIsLessThan) {
+            return swapped ? GREATER : LESS;
+        } else if (comparison instanceof PropertyIsLessThanOrEqualTo) {
+            return swapped ? GREATER_OR_EQUAL : LESS_OR_EQUAL;
+        } else if (comparison instanceof PropertyIsGreaterThan) {
+            return swapped ? LESS : GREATER;
+        } else if (comparison instanceof PropertyIsGreaterThanOrEqualTo) {
+            return swapped ? LESS_OR_EQUAL : GREATER_OR_EQUAL;
+        }
+        return 0;
+    }
+
+    private static int compare(int operator, int comparison) {
+        boolean result;
+        switch (operator) {
+        case EQUAL:
+            result = comparison == 0;
+            break;
+        case NOT_EQUAL:
+            result = comparison != 0;
+            break;
+        case LESS:
+            result = comparison < 0;
+            break;
+        case LESS_OR_EQUAL:
+            result = comparison <= 0;
+            break;
+        case GREATER:
+            result = comparison > 0;
+            break;
+        default:
+            result = comparison >= 0;
+        }
+        return result ? MATCH : NO_MATCH;
+    }
+
+    static Pattern toPattern(PropertyIsLike like) {
+        String wildCard = like.getWildCard();
+        String singleChar = like.getSingleChar();
+        String escape = like.getEscape();
+        String literal = like.getLiteral();
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < literal.length(); i++) {
+            if (literal.startsWith(escape, i) && i + escape.length() < literal.length()) {
+                i += escape.length();
+                regex.append(Pattern.quote(literal.substring(i, i + 1)));
+            } else if (literal.startsWith(wildCard, i)) {
+                regex.append(".*");
+                i += wildCard.length() - 1;
+            } else if (literal.startsWith(singleChar, i)) {
+                regex.append('.');
+                i += singleChar.length() - 1;
+            } else {
+                regex.append(Pattern.quote(literal.substring(i, i + 1)));
+            }
+        }
+        int flags = Pattern.DOTALL;
+        if (!like.isMatchingCase()) {
+            flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        }
+        return Pattern.compile(regex.toString(), flags);
+    }
+
+    private static class Logic extends CSVRecordFilter {
+
+        private final CSVRecordFilter[] children;
+
+        private final boolean and;
+
+        Logic(CSVRecordFilter[] children, boolean and) {
+            this.children = children;
+            this.and = and;
+        }
+
+        @Override
+        public boolean mayMatch(CSVValueRanges ranges) {
+            for (CSVRecordFilter child : children) {
+                if (child.mayMatch(ranges) != and) {
+                    return !and;
+                }
+            }
+            return and;
+        }
+
+        @Override
+        public int evaluate(CSVRecord record) {
+            // a deciding child settles the outcome, unknowns only matter otherwise
+            int decisive = and ? NO_MATCH : MATCH;
+            int result = and ? MATCH : NO_MATCH;
+            for (CSVRecordFilter child : children) {
+                int value = child.evaluate(record);
+                if (value == decisive) {
+                    return decisive;
+                } else if (value == UNKNOWN) {
+                    result = UNKNOWN;
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -1,18 +1,18 @@
 package org.opengeo.data.csv.parse;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
-import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.opengeo.data.csv.CSVFileState;
-import org.opengis.feature.simple.SimpleFeature;
+import org.opengeo.data.csv.CSVFileStatistics;
 import org.opengis.feature.simple.SimpleFeatureType;
-import org.opengis.feature.type.GeometryDescriptor;
 
-import com.csvreader.CsvReader;
 import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.Point;
 
 public class CSVSpecifiedLatLngStrategy extends AbstractCSVStrategy implements CSVStrategy {
@@ -23,6 +23,11 @@ public class CSVSpecifiedLatLngStrategy extends AbstractCSVStrategy implements C
 
     private final String pointField;
 
+    // columns holding the coordinates, set when the feature type is built
+    private int latColumn;
+
+    private int lngColumn;
+
     public CSVSpecifiedLatLngStrategy(CSVFileState csvFileState, String latField, String lngField,
             String pointField) {
         super(csvFileState);
@@ -37,24 +42,21 @@ public class CSVSpecifiedLatLngStrategy extends AbstractCSVStrategy implements C
 
     @Override
     protected SimpleFeatureType buildFeatureType() {
-        String[] headers;
-        Map<String, Class<?>> typesFromData;
-        CsvReader csvReader = null;
+        CSVFileStatistics statistics;
         try {
-            csvReader = csvFileState.openCSVReader();
-            headers = csvReader.getHeaders();
-            typesFromData = CSVStrategySupport.findMostSpecificTypesFromData(csvReader, headers);
+            statistics = csvFileState.getStatistics();
         } catch (IOException e) {
             throw new RuntimeException(e);
-        } finally {
-            if (csvReader != null) {
-                csvReader.close();
-            }
         }
+        String[] headers = statistics.getHeaders();
+        Map<String, Class<?>> typesFromData = statistics.getTypes();
         SimpleFeatureTypeBuilder builder = CSVStrategySupport.createBuilder(csvFileState, headers,
                 typesFromData);
         Class<?> latClass = typesFromData.get(latField);
         Class<?> lngClass = typesFromData.get(lngField);
+        List<String> columns = Arrays.asList(headers);
+        latColumn = columns.indexOf(latField);
+        lngColumn = columns.indexOf(lngField);
         if (CSVStrategySupport.isNumeric(latClass) && CSVStrategySupport.isNumeric(lngClass)) {
             builder.remove(latField);
             builder.remove(lngField);
@@ -64,34 +66,70 @@ public class CSVSpecifiedLatLngStrategy extends AbstractCSVStrategy implements C
     }
 
     @Override
-    public SimpleFeature createFeature(String recordId, String[] csvRecord) {
-        SimpleFeatureType featureType = getFeatureType();
-        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(featureType);
-        GeometryDescriptor geometryDescriptor = featureType.getGeometryDescriptor();
-        GeometryFactory geometryFactory = new GeometryFactory();
-        Double lat = null, lng = null;
-        String[] headers = csvFileState.getCSVHeaders();
-        for (int i = 0; i < headers.length; i++) {
-            String header = headers[i];
-            if (i < csvRecord.length) {
-                String value = csvRecord[i].trim();
-                if (geometryDescriptor != null && header.equals(latField)) {
-                    lat = Double.valueOf(value);
-                } else if (geometryDescriptor != null && header.equals(lngField)) {
-                    lng = Double.valueOf(value);
-                } else {
-                    builder.set(header, value);
+    public CSVFeatureBuilder createFeatureBuilder(SimpleFeatureType featureType) {
+        return new CSVFeatureBuilder(featureType, getAttributeIndexes(featureType),
+                csvFileState.getTypeName()) {
+            @Override
+            protected Geometry createGeometry(String[] csvRecord) {
+                if (latColumn >= csvRecord.length || lngColumn >= csvRecord.length) {
+                    return null;
+                }
+                try {
+                    double lat = CSVDecimalParser.parseDouble(csvRecord[latColumn]);
+                    double lng = CSVDecimalParser.parseDouble(csvRecord[lngColumn]);
+                    return geometryFactory.createPoint(new Coordinate(lat, lng));
+                } catch (NumberFormatException e) {
+                    // the column types may come from a sample, null out records that don't fit
+                    return null;
+                }
+            }
+
+            @Override
+            protected Geometry createGeometry(CSVRecord record) {
+                if (latColumn >= record.getColumnCount()
+                        || lngColumn >= record.getColumnCount()) {
+                    return null;
+                }
+                try {
+                    double lat = record.getDouble(latColumn);
+                    double lng = record.getDouble(lngColumn);
+                    return geometryFactory.createPoint(new Coordinate(lat, lng));
+                } catch (NumberFormatException e) {
+                    return null;
                 }
-            } else {
-                builder.set(header, null);
             }
+        };
+    }
+
+    @Override
+    protected void setGeometry(Geometry geometry, String[] csvRecord) {
+        if (geometry instanceof Point) {
+            // same axis order as the points built by the feature builder
+            Point point = (Point) geometry;
+            csvRecord[latColumn] = String.valueOf(point.getX());
+            csvRecord[lngColumn] = String.valueOf(point.getY());
         }
-        if (geometryDescriptor != null && lat != null && lng != null) {
-            Coordinate coordinate = new Coordinate(lat, lng);
-            Point point = geometryFactory.createPoint(coordinate);
-            builder.set(geometryDescriptor.getLocalName(), point);
+    }
+
+    @Override
+    public Envelope getEnvelope(String[] csvRecord) {
+        if (getFeatureType().getGeometryDescriptor() == null || latColumn >= csvRecord.length
+                || lngColumn >= csvRecord.length) {
+            return null;
         }
-        return builder.buildFeature(csvFileState.getTypeName() + "-" + recordId);
+        try {
+            double lat = CSVDecimalParser.parseDouble(csvRecord[latColumn]);
+            double lng = CSVDecimalParser.parseDouble(csvRecord[lngColumn]);
+            // same axis order as the points built by the feature builder
+            return new Envelope(lat, lat, lng, lng);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    protected String getSignature() {
+        return super.getSignature() + ":" + latField + ":" + lngField;
     }
 
 }
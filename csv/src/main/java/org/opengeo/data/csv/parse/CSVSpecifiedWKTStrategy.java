@@ -3,21 +3,22 @@ package org.opengeo.data.csv.parse;
 import java.util.Arrays;
 import java.util.List;
 
-import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.opengeo.data.csv.CSVFileState;
-import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
-import org.opengis.feature.type.GeometryDescriptor;
 
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.io.ParseException;
-import com.vividsolutions.jts.io.WKTReader;
+import com.vividsolutions.jts.io.WKTWriter;
 
 public class CSVSpecifiedWKTStrategy extends AbstractCSVStrategy implements CSVStrategy {
 
     private final String wktField;
 
+    // column holding the geometry, set when the feature type is built
+    private int wktColumn;
+
     public CSVSpecifiedWKTStrategy(CSVFileState csvFileState, String wktField) {
         super(csvFileState);
         this.wktField = wktField;
@@ -28,7 +29,8 @@ public class CSVSpecifiedWKTStrategy extends AbstractCSVStrategy implements CSVS
         SimpleFeatureTypeBuilder builder = CSVStrategySupport.createBuilder(csvFileState);
         String[] csvHeaders = csvFileState.getCSVHeaders();
         List<String> headers = Arrays.asList(csvHeaders);
-        if (headers.contains(wktField)) {
+        wktColumn = headers.indexOf(wktField);
+        if (wktColumn >= 0) {
             builder.remove(wktField);
             builder.add(wktField, Geometry.class);
         }
@@ -36,33 +38,63 @@ public class CSVSpecifiedWKTStrategy extends AbstractCSVStrategy implements CSVS
     }
 
     @Override
-    public SimpleFeature createFeature(String recordId, String[] csvRecord) {
-        SimpleFeatureType featureType = getFeatureType();
-        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(featureType);
-        GeometryDescriptor geometryDescriptor = featureType.getGeometryDescriptor();
-        String[] headers = csvFileState.getCSVHeaders();
-        for (int i = 0; i < headers.length; i++) {
-            String header = headers[i];
-            if (i < csvRecord.length) {
-                String value = csvRecord[i].trim();
-                if (geometryDescriptor != null && header.equals(wktField)) {
-                    WKTReader wktReader = new WKTReader();
-                    Geometry geometry;
-                    try {
-                        geometry = wktReader.read(value);
-                    } catch (ParseException e) {
-                        // policy decision here that just nulls out unparseable geometry
-                        geometry = null;
-                    }
-                    builder.set(wktField, geometry);
-                } else {
-                    builder.set(header, value);
+    protected int[] mapColumns(SimpleFeatureType featureType, String[] headers) {
+        int[] indexes = super.mapColumns(featureType, headers);
+        if (wktColumn >= 0 && featureType.getGeometryDescriptor() != null) {
+            // parsed by the feature builder rather than copied
+            indexes[wktColumn] = -1;
+        }
+        return indexes;
+    }
+
+    @Override
+    public CSVFeatureBuilder createFeatureBuilder(SimpleFeatureType featureType) {
+        return new CSVFeatureBuilder(featureType, getAttributeIndexes(featureType),
+                csvFileState.getTypeName()) {
+
+            private final CSVWKTParser wktParser = new CSVWKTParser(geometryFactory);
+
+            @Override
+            protected Geometry createGeometry(String[] csvRecord) {
+                return wktColumn < csvRecord.length ? read(csvRecord[wktColumn]) : null;
+            }
+
+            @Override
+            protected Geometry createGeometry(CSVRecord record) {
+                return wktColumn < record.getColumnCount() ? read(record.get(wktColumn)) : null;
+            }
+
+            private Geometry read(String wkt) {
+                try {
+                    return wktParser.read(wkt);
+                } catch (ParseException e) {
+                    // policy decision here that just nulls out unparseable geometry
+                    return null;
                 }
-            } else {
-                builder.set(header, null);
             }
+        };
+    }
+
+    @Override
+    protected void setGeometry(Geometry geometry, String[] csvRecord) {
+        csvRecord[wktColumn] = new WKTWriter().write(geometry);
+    }
+
+    @Override
+    public Envelope getEnvelope(String[] csvRecord) {
+        if (getFeatureType().getGeometryDescriptor() == null || wktColumn >= csvRecord.length) {
+            return null;
+        }
+        try {
+            return new CSVWKTParser().read(csvRecord[wktColumn]).getEnvelopeInternal();
+        } catch (ParseException e) {
+            return null;
         }
-        return builder.buildFeature(csvFileState.getTypeName() + "-" + recordId);
+    }
+
+    @Override
+    protected String getSignature() {
+        return super.getSignature() + ":" + wktField;
     }
 
 }
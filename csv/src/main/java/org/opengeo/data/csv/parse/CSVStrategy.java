@@ -2,13 +2,38 @@ package org.opengeo.data.csv.parse;
 
 import java.io.IOException;
 
+import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 
+import com.vividsolutions.jts.geom.Envelope;
+
 public interface CSVStrategy {
     public SimpleFeatureType getFeatureType();
 
     public CSVIterator iterator() throws IOException;
 
+    public CSVIterator iterator(int offset) throws IOException;
+
+    public CSVIterator iterator(Envelope bbox) throws IOException;
+
     public SimpleFeature createFeature(String recordId, String[] csvRecord);
+
+    public CSVFeatureBuilder createFeatureBuilder();
+
+    /**
+     * Creates a builder for features of a type retyped from {@link #getFeatureType()}, only the
+     * attributes it holds are read and geometries are only built when it has one.
+     */
+    public CSVFeatureBuilder createFeatureBuilder(SimpleFeatureType featureType);
+
+    /**
+     * Turns a feature of {@link #getFeatureType()} back into a csv record holding a value for
+     * every column, the reverse of {@link #createFeature(String, String[])}.
+     */
+    public String[] createRecord(SimpleFeature feature);
+
+    public Envelope getEnvelope(String[] csvRecord);
+
+    public ReferencedEnvelope getBounds() throws IOException;
 }
@@ -1,34 +1,36 @@
 package org.opengeo.data.csv.parse;
 
+import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.opengeo.data.csv.CSVFileState;
+import org.opengeo.data.csv.CSVFileStatistics;
+import org.opengeo.data.csv.index.CSVRecordScanner;
 
 import com.csvreader.CsvReader;
 
 public class CSVStrategySupport {
 
+    // consecutive records read from every sampled block
+    private static final int SAMPLE_RUN = 10;
+
+    private static final long SAMPLE_SEED = 0x435356L;
+
     public static SimpleFeatureTypeBuilder createBuilder(CSVFileState csvFileState) {
-        CsvReader csvReader = null;
-        Map<String, Class<?>> typesFromData = null;
-        String[] headers = null;
+        CSVFileStatistics statistics;
         try {
-            csvReader = csvFileState.openCSVReader();
-            headers = csvReader.getHeaders();
-            typesFromData = findMostSpecificTypesFromData(csvReader, headers);
+            statistics = csvFileState.getStatistics();
         } catch (IOException e) {
             throw new RuntimeException("Failure reading csv file", e);
-        } finally {
-            if (csvReader != null) {
-                csvReader.close();
-            }
         }
-        return CSVStrategySupport.createBuilder(csvFileState, headers, typesFromData);
+        return CSVStrategySupport.createBuilder(csvFileState, statistics.getHeaders(),
+                statistics.getTypes());
     }
 
     public static SimpleFeatureTypeBuilder createBuilder(CSVFileState csvFileState,
@@ -48,49 +50,181 @@ public class CSVStrategySupport {
 
     public static Map<String, Class<?>> findMostSpecificTypesFromData(CsvReader csvReader,
             String[] headers) throws IOException {
-        Map<String, Class<?>> result = new HashMap<String, Class<?>>();
-        // start off assuming Integers for everything
-        for (String header : headers) {
-            result.put(header, Integer.class);
+        return computeStatistics(-1, -1, csvReader, headers).getTypes();
+    }
+
+    /**
+     * Reads the remaining records, inferring the type of every column while counting rows and
+     * tracking the value range of each column.
+     */
+    public static CSVFileStatistics computeStatistics(long fileLength, long lastModified,
+            CsvReader csvReader, String[] headers) throws IOException {
+        CSVTypeInference inference = new CSVTypeInference(headers);
+        while (csvReader.readRecord()) {
+            inference.add(csvReader.getValues());
+        }
+        return inference.toStatistics(fileLength, lastModified, inference.getRowCount(), true);
+    }
+
+    /**
+     * Extends statistics with the records of the reader, which were appended to the file after
+     * the statistics were computed. Returns null when the appended values do not fit the inferred
+     * column types, the schema then has to be inferred again. Sampled statistics keep their
+     * types and only update the row count, when it is known.
+     */
+    public static CSVFileStatistics appendStatistics(CSVFileStatistics statistics,
+            long fileLength, long lastModified, CsvReader csvReader) throws IOException {
+        CSVTypeInference inference = statistics.getInference();
+        if (inference == null) {
+            int rows = 0;
+            while (csvReader.readRecord()) {
+                rows++;
+            }
+            int rowCount = statistics.getRowCount();
+            return statistics.withRowCount(fileLength, lastModified, rowCount < 0 ? rowCount
+                    : rowCount + rows);
         }
+        inference = new CSVTypeInference(inference);
+        Map<String, Class<?>> types = inference.getTypes();
         while (csvReader.readRecord()) {
-            String[] record = csvReader.getValues();
-            List<String> values = Arrays.asList(record);
-            if (record.length >= headers.length) {
-                values = values.subList(0, headers.length);
+            inference.add(csvReader.getValues());
+        }
+        if (!types.equals(inference.getTypes())) {
+            return null;
+        }
+        CSVFileStatistics appended = inference.toStatistics(fileLength, lastModified,
+                inference.getRowCount(), true);
+        appended.copyBounds(statistics);
+        return appended;
+    }
+
+    /**
+     * Infers column types from the first <code>sampleSize</code> records only. The row count is
+     * reported as unknown (-1) and no value ranges are kept.
+     */
+    public static CSVFileStatistics computeStatisticsFromFirst(long fileLength,
+            long lastModified, CsvReader csvReader, String[] headers, int sampleSize)
+            throws IOException {
+        CSVTypeInference inference = new CSVTypeInference(headers);
+        for (int i = 0; i < sampleSize && csvReader.readRecord(); i++) {
+            inference.add(csvReader.getValues());
+        }
+        return inference.toStatistics(fileLength, lastModified, -1, false);
+    }
+
+    /**
+     * Infers column types from a random sample of about <code>sampleSize</code> records spread
+     * over the whole file, without scanning it. Byte offsets are picked with a fixed seed, so the
+     * same file always yields the same schema. Reading resyncs on a record start a little after
+     * each offset and takes a short run of records from there, records whose field count does not
+     * match the headers are skipped in case the offset fell inside a quoted field anyway. The
+     * row count is reported as unknown (-1) and no value ranges are kept. Only applies to
+     * uncompressed files, which can be read from any offset.
+     */
+    public static CSVFileStatistics computeStatisticsFromSample(CSVFileState csvFileState,
+            int sampleSize) throws IOException {
+        File file = csvFileState.getFile();
+        long fileLength = file.length();
+        long lastModified = file.lastModified();
+        String[] headers = csvFileState.getCSVHeaders();
+        CSVTypeInference inference = new CSVTypeInference(headers);
+
+        long dataStart = skipHeaders(csvFileState);
+        long[] offsets = new long[(sampleSize + SAMPLE_RUN - 1) / SAMPLE_RUN];
+        Random random = new Random(SAMPLE_SEED);
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = dataStart + (long) (random.nextDouble() * (fileLength - dataStart));
+        }
+        Arrays.sort(offsets);
+
+        // end of the records sampled so far, runs never read them twice
+        long sampled = dataStart;
+        for (long offset : offsets) {
+            if (sampled >= fileLength) {
+                break;
             }
-            int i = 0;
-            for (String value : values) {
-                String header = headers[i];
-                Class<?> type = result.get(header);
-                if (type == Integer.class) {
-                    try {
-                        Integer.parseInt(value);
-                    } catch (NumberFormatException e) {
-                        try {
-                            Double.parseDouble(value);
-                            type = Double.class;
-                        } catch (NumberFormatException ex) {
-                            type = String.class;
-                        }
-                    }
-                } else if (type == Double.class) {
-                    try {
-                        Double.parseDouble(value);
-                    } catch (NumberFormatException e) {
-                        type = String.class;
+            long start;
+            long end;
+            InputStream in = new BufferedInputStream(csvFileState.openStream(Math.max(offset,
+                    sampled)));
+            try {
+                CSVRecordScanner scanner = new CSVRecordScanner(in, Math.max(offset, sampled));
+                if (offset > sampled) {
+                    // skip the record the offset falls in, and the next one as well since it
+                    // may be the tail of a quoted field spanning lines
+                    scanner.nextRecord();
+                    scanner.nextRecord();
+                }
+                start = scanner.nextRecord();
+                for (int i = 1; i < SAMPLE_RUN && scanner.nextRecord() >= 0; i++) {
+                    // skipping to the end of the run
+                }
+                end = scanner.getPosition();
+            } finally {
+                in.close();
+            }
+            if (start < 0) {
+                break;
+            }
+            CsvReader csvReader = csvFileState.openCSVReader(start, end);
+            try {
+                while (csvReader.readRecord()) {
+                    if (csvReader.getColumnCount() == headers.length) {
+                        inference.add(csvReader.getValues());
                     }
-                } else {
-                    type = String.class;
                 }
-                result.put(header, type);
-                i++;
+            } finally {
+                csvReader.close();
+            }
+            sampled = end;
+        }
+        return inference.toStatistics(fileLength, lastModified, -1, false);
+    }
+
+    /**
+     * Returns the byte offset of the first record after the headers.
+     */
+    private static long skipHeaders(CSVFileState csvFileState) throws IOException {
+        InputStream in = new BufferedInputStream(csvFileState.openStream(0));
+        try {
+            CSVRecordScanner scanner = new CSVRecordScanner(in);
+            scanner.nextRecord();
+            return scanner.getPosition();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Classic reservoir sampling over a record stream, used for in memory data and compressed
+     * files, which cannot be read from random offsets. Every record is read but only the sampled
+     * ones are inspected.
+     */
+    public static CSVFileStatistics computeStatisticsFromReservoir(CsvReader csvReader,
+            String[] headers, int sampleSize) throws IOException {
+        Random random = new Random(SAMPLE_SEED);
+        String[][] reservoir = new String[sampleSize][];
+        int rows = 0;
+        while (csvReader.readRecord()) {
+            if (rows < sampleSize) {
+                reservoir[rows] = csvReader.getValues();
+            } else {
+                int slot = random.nextInt(rows + 1);
+                if (slot < sampleSize) {
+                    reservoir[slot] = csvReader.getValues();
+                }
             }
+            rows++;
+        }
+        CSVTypeInference inference = new CSVTypeInference(headers);
+        for (int i = 0; i < Math.min(rows, sampleSize); i++) {
+            inference.add(reservoir[i]);
         }
-        return result;
+        return inference.toStatistics(-1, -1, rows, false);
     }
 
     public static boolean isNumeric(Class<?> clazz) {
-        return clazz != null && (clazz == Double.class || clazz == Integer.class);
+        return clazz != null
+                && (clazz == Double.class || clazz == Integer.class || clazz == Long.class);
     }
 }
@@ -0,0 +1,222 @@
+package org.opengeo.data.csv.parse;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.opengeo.data.csv.CSVFileStatistics;
+
+/**
+ * Infers the most specific type of each column from the records it is fed. A column starts
+ * untyped and narrows as values come in: Integer to Long to Double for numbers, while Boolean,
+ * Date (<code>yyyy-mm-dd</code>) and Timestamp (<code>yyyy-mm-dd hh:mm:ss[.f]</code>) only hold as
+ * long as every value matches. Anything else ends up as String. Columns that never see a value
+ * are reported as Integer.
+ */
+public class CSVTypeInference {
+
+    private final String[] headers;
+
+    private final Column[] columns;
+
+    private int rowCount;
+
+    public CSVTypeInference(String[] headers) {
+        this.headers = headers;
+        this.columns = new Column[headers.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new Column();
+        }
+    }
+
+    /**
+     * Copies the state of another inference, so it can be fed more records without changing the
+     * original.
+     */
+    public CSVTypeInference(CSVTypeInference other) {
+        this.headers = other.headers;
+        this.columns = new Column[other.columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = other.columns[i].copy();
+        }
+        this.rowCount = other.rowCount;
+    }
+
+    public void add(String[] record) {
+        int n = Math.min(record.length, columns.length);
+        for (int i = 0; i < n; i++) {
+            columns[i].add(record[i]);
+        }
+        rowCount++;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public Map<String, Class<?>> getTypes() {
+        Map<String, Class<?>> types = new HashMap<String, Class<?>>();
+        for (int i = 0; i < columns.length; i++) {
+            types.put(headers[i], columns[i].getType());
+        }
+        return types;
+    }
+
+    /**
+     * Builds the statistics for the records seen so far. Value ranges are only meaningful when
+     * every record was fed, sampled inference should pass <code>withRanges</code> false.
+     */
+    public CSVFileStatistics toStatistics(long fileLength, long lastModified, int rowCount,
+            boolean withRanges) {
+        Map<String, Object> minimums = new HashMap<String, Object>();
+        Map<String, Object> maximums = new HashMap<String, Object>();
+        if (withRanges) {
+            for (int i = 0; i < columns.length; i++) {
+                Column column = columns[i];
+                if (column.minString != null) {
+                    minimums.put(headers[i], column.getMinimum());
+                    maximums.put(headers[i], column.getMaximum());
+                }
+            }
+        }
+        // full inferences are kept so the statistics can be extended when records are appended
+        return new CSVFileStatistics(fileLength, lastModified, headers, getTypes(), rowCount,
+                minimums, maximums, withRanges ? this : null);
+    }
+
+    static class Column {
+
+        Class<?> type;
+
+        double minDouble = Double.POSITIVE_INFINITY;
+
+        double maxDouble = Double.NEGATIVE_INFINITY;
+
+        // integral values, epoch millis for dates, 0 and 1 for booleans
+        long minLong = Long.MAX_VALUE;
+
+        long maxLong = Long.MIN_VALUE;
+
+        String minString;
+
+        String maxString;
+
+        void add(String value) {
+            if (minString == null || value.compareTo(minString) < 0) {
+                minString = value;
+            }
+            if (maxString == null || value.compareTo(maxString) > 0) {
+                maxString = value;
+            }
+            if (type != String.class) {
+                type = narrow(value);
+            }
+        }
+
+        Class<?> getType() {
+            return type == null ? Integer.class : type;
+        }
+
+        Column copy() {
+            Column copy = new Column();
+            copy.type = type;
+            copy.minDouble = minDouble;
+            copy.maxDouble = maxDouble;
+            copy.minLong = minLong;
+            copy.maxLong = maxLong;
+            copy.minString = minString;
+            copy.maxString = maxString;
+            return copy;
+        }
+
+        private Class<?> narrow(String value) {
+            boolean untyped = type == null;
+            if (untyped || type == Integer.class || type == Long.class) {
+                try {
+                    long number = Long.parseLong(value);
+                    update(number);
+                    update((double) number);
+                    return type == Long.class || number < Integer.MIN_VALUE
+                            || number > Integer.MAX_VALUE ? Long.class : Integer.class;
+                } catch (NumberFormatException e) {
+                    // try a wider type
+                }
+            }
+            if (untyped || type == Integer.class || type == Long.class || type == Double.class) {
+                try {
+                    update(Double.parseDouble(value));
+                    return Double.class;
+                } catch (NumberFormatException e) {
+                    if (!untyped) {
+                        return String.class;
+                    }
+                }
+            }
+            if (untyped || type == Boolean.class) {
+                if ("true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value)) {
+                    update("true".equalsIgnoreCase(value) ? 1 : 0);
+                    return Boolean.class;
+                }
+                if (!untyped) {
+                    return String.class;
+                }
+            }
+            if (untyped || type == Date.class) {
+                try {
+                    update(Date.valueOf(value).getTime());
+                    return Date.class;
+                } catch (IllegalArgumentException e) {
+                    if (!untyped) {
+                        return String.class;
+                    }
+                }
+            }
+            if (untyped || type == Timestamp.class) {
+                try {
+                    update(Timestamp.valueOf(value).getTime());
+                    return Timestamp.class;
+                } catch (IllegalArgumentException e) {
+                    // not a timestamp either
+                }
+            }
+            return String.class;
+        }
+
+        private void update(long value) {
+            minLong = Math.min(minLong, value);
+            maxLong = Math.max(maxLong, value);
+        }
+
+        private void update(double value) {
+            minDouble = Math.min(minDouble, value);
+            maxDouble = Math.max(maxDouble, value);
+        }
+
+        Object getMinimum() {
+            return getValue(minLong, minDouble, minString);
+        }
+
+        Object getMaximum() {
+            return getValue(maxLong, maxDouble, maxString);
+        }
+
+        private Object getValue(long longValue, double doubleValue, String stringValue) {
+            Class<?> binding = getType();
+            if (binding == Integer.class) {
+                return (int) longValue;
+            } else if (binding == Long.class) {
+                return longValue;
+            } else if (binding == Double.class) {
+                return doubleValue;
+            } else if (binding == Boolean.class) {
+                return longValue == 1;
+            } else if (binding == Date.class) {
+                return new Date(longValue);
+            } else if (binding == Timestamp.class) {
+                return new Timestamp(longValue);
+            }
+            return stringValue;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package org.opengeo.data.csv.parse;
+
+/**
+ * Smallest and largest number held by the columns of a group of records, which tells a
+ * {@link CSVRecordFilter} whether any record of the group can match without reading them.
+ */
+public interface CSVValueRanges {
+
+    /**
+     * Returns true when every field of the column in the group is a number between
+     * {@link #getMin(int)} and {@link #getMax(int)}.
+     */
+    public boolean hasRange(int column);
+
+    public double getMin(int column);
+
+    public double getMax(int column);
+}
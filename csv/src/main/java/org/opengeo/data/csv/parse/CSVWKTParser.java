@@ -0,0 +1,272 @@
+package org.opengeo.data.csv.parse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequence;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Reads the geometries of WKT columns in a single pass over the string. Ordinates are parsed in
+ * place into a buffer reused between geometries and copied once into a
+ * {@link PackedCoordinateSequence}, instead of going through the tokenizer and
+ * <code>Coordinate</code> lists of {@link WKTReader}.
+ * <p>
+ * Handles points, line strings, polygons, their multi variants and collections in two or three
+ * dimensions, optionally marked with <code>Z</code>, and the <code>SRID=n;</code> prefix of
+ * EWKT. Anything else, such as EMPTY or measures, and malformed text is handed to a
+ * {@link WKTReader} so results and errors stay the same as before. Not thread safe.
+ */
+public class CSVWKTParser {
+
+    private static final GeometryFactory DEFAULT_FACTORY = new GeometryFactory();
+
+    /**
+     * Thrown to abandon the fast path, preallocated since it carries no information.
+     */
+    private static final class Fallback extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    private static final Fallback FALLBACK = new Fallback();
+
+    private final GeometryFactory geometryFactory;
+
+    private WKTReader wktReader;
+
+    private String wkt;
+
+    private int pos;
+
+    private int end;
+
+    private double[] ordinates = new double[16];
+
+    private int size;
+
+    public CSVWKTParser(GeometryFactory geometryFactory) {
+        this.geometryFactory = geometryFactory;
+    }
+
+    public CSVWKTParser() {
+        this(DEFAULT_FACTORY);
+    }
+
+    public Geometry read(String wkt) throws ParseException {
+        this.wkt = wkt;
+        this.pos = 0;
+        this.end = wkt.length();
+        int srid = 0;
+        skipWhitespace();
+        if (wkt.regionMatches(true, pos, "SRID=", 0, 5)) {
+            int semicolon = wkt.indexOf(';', pos);
+            if (semicolon < 0) {
+                throw new ParseException("Expected ; after SRID: " + wkt);
+            }
+            try {
+                srid = Integer.parseInt(wkt.substring(pos + 5, semicolon).trim());
+            } catch (NumberFormatException e) {
+                throw new ParseException("Invalid SRID: " + wkt);
+            }
+            pos = semicolon + 1;
+        }
+        int start = pos;
+        Geometry geometry;
+        try {
+            geometry = readGeometry();
+            skipWhitespace();
+            if (pos != end) {
+                geometry = null;
+            }
+        } catch (Fallback e) {
+            geometry = null;
+        } catch (NumberFormatException e) {
+            geometry = null;
+        } finally {
+            this.wkt = null;
+        }
+        if (geometry == null) {
+            if (wktReader == null) {
+                wktReader = new WKTReader(geometryFactory);
+            }
+            geometry = wktReader.read(start == 0 ? wkt : wkt.substring(start));
+        }
+        if (srid != 0) {
+            geometry.setSRID(srid);
+        }
+        return geometry;
+    }
+
+    private Geometry readGeometry() {
+        skipWhitespace();
+        int start = pos;
+        while (pos < end && Character.isLetter(wkt.charAt(pos))) {
+            pos++;
+        }
+        int length = pos - start;
+        skipWhitespace();
+        int dimension = 0;
+        if (pos < end && (wkt.charAt(pos) == 'Z' || wkt.charAt(pos) == 'z')) {
+            pos++;
+            dimension = 3;
+        }
+        if (is(start, length, "POINT")) {
+            CoordinateSequence sequence = readSequence(dimension);
+            if (sequence.size() != 1) {
+                throw FALLBACK;
+            }
+            return geometryFactory.createPoint(sequence);
+        } else if (is(start, length, "LINESTRING")) {
+            return geometryFactory.createLineString(readSequence(dimension));
+        } else if (is(start, length, "POLYGON")) {
+            return readPolygon(dimension);
+        } else if (is(start, length, "MULTIPOINT")) {
+            expect('(');
+            List<Point> points = new ArrayList<Point>();
+            do {
+                skipWhitespace();
+                if (pos < end && wkt.charAt(pos) == '(') {
+                    points.add(geometryFactory.createPoint(readSequence(dimension)));
+                } else {
+                    size = 0;
+                    points.add(geometryFactory.createPoint(pack(readCoordinate(dimension))));
+                }
+            } while (next(','));
+            expect(')');
+            return geometryFactory.createMultiPoint(points.toArray(new Point[points.size()]));
+        } else if (is(start, length, "MULTILINESTRING")) {
+            expect('(');
+            List<LineString> lines = new ArrayList<LineString>();
+            do {
+                lines.add(geometryFactory.createLineString(readSequence(dimension)));
+            } while (next(','));
+            expect(')');
+            return geometryFactory.createMultiLineString(lines.toArray(new LineString[lines
+                    .size()]));
+        } else if (is(start, length, "MULTIPOLYGON")) {
+            expect('(');
+            List<Polygon> polygons = new ArrayList<Polygon>();
+            do {
+                polygons.add(readPolygon(dimension));
+            } while (next(','));
+            expect(')');
+            return geometryFactory.createMultiPolygon(polygons.toArray(new Polygon[polygons
+                    .size()]));
+        } else if (is(start, length, "GEOMETRYCOLLECTION") && dimension == 0) {
+            expect('(');
+            List<Geometry> geometries = new ArrayList<Geometry>();
+            do {
+                geometries.add(readGeometry());
+            } while (next(','));
+            expect(')');
+            return geometryFactory.createGeometryCollection(geometries
+                    .toArray(new Geometry[geometries.size()]));
+        }
+        throw FALLBACK;
+    }
+
+    private boolean is(int start, int length, String type) {
+        return length == type.length() && wkt.regionMatches(true, start, type, 0, length);
+    }
+
+    private Polygon readPolygon(int dimension) {
+        expect('(');
+        LinearRing shell = geometryFactory.createLinearRing(readSequence(dimension));
+        List<LinearRing> holes = new ArrayList<LinearRing>();
+        while (next(',')) {
+            holes.add(geometryFactory.createLinearRing(readSequence(dimension)));
+        }
+        expect(')');
+        return geometryFactory.createPolygon(shell, holes.toArray(new LinearRing[holes.size()]));
+    }
+
+    private CoordinateSequence readSequence(int dimension) {
+        expect('(');
+        size = 0;
+        int actual = readCoordinate(dimension);
+        while (next(',')) {
+            readCoordinate(actual);
+        }
+        expect(')');
+        return pack(actual);
+    }
+
+    /**
+     * Appends the ordinates of the next coordinate to the buffer. Returns the number read, which
+     * has to match the dimension unless that is 0.
+     */
+    private int readCoordinate(int dimension) {
+        int count = 0;
+        while (true) {
+            skipWhitespace();
+            if (pos == end) {
+                break;
+            }
+            char c = wkt.charAt(pos);
+            if ((c < '0' || c > '9') && c != '-' && c != '+' && c != '.') {
+                break;
+            }
+            int start = pos;
+            while (pos < end && isNumberChar(wkt.charAt(pos))) {
+                pos++;
+            }
+            if (size == ordinates.length) {
+                double[] grown = new double[ordinates.length * 2];
+                System.arraycopy(ordinates, 0, grown, 0, size);
+                ordinates = grown;
+            }
+            ordinates[size++] = CSVDecimalParser.parseDouble(wkt, start, pos);
+            count++;
+        }
+        if (count < 2 || count > 3 || (dimension != 0 && count != dimension)) {
+            throw FALLBACK;
+        }
+        return count;
+    }
+
+    private static boolean isNumberChar(char c) {
+        return (c >= '0' && c <= '9') || c == '.' || c == '-' || c == '+' || c == 'e'
+                || c == 'E';
+    }
+
+    private CoordinateSequence pack(int dimension) {
+        double[] packed = new double[size];
+        System.arraycopy(ordinates, 0, packed, 0, size);
+        return new PackedCoordinateSequence.Double(packed, dimension);
+    }
+
+    private void skipWhitespace() {
+        while (pos < end && Character.isWhitespace(wkt.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private boolean next(char c) {
+        skipWhitespace();
+        if (pos < end && wkt.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!next(c)) {
+            throw FALLBACK;
+        }
+    }
+}
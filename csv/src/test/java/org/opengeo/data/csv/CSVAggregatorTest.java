@@ -0,0 +1,140 @@
+package org.opengeo.data.csv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.geotools.data.Query;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.visitor.BoundsVisitor;
+import org.geotools.feature.visitor.CountVisitor;
+import org.geotools.feature.visitor.MaxVisitor;
+import org.geotools.feature.visitor.MinVisitor;
+import org.geotools.feature.visitor.SumVisitor;
+import org.geotools.feature.visitor.UniqueVisitor;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengeo.data.csv.parse.CSVLatLonStrategy;
+import org.opengis.feature.Feature;
+import org.opengis.feature.FeatureVisitor;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+public class CSVAggregatorTest {
+
+    private static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2(null);
+
+    private static final int ROWS = 5500;
+
+    private File file;
+
+    private CSVFeatureSource featureSource;
+
+    @Before
+    public void setUp() throws IOException {
+        StringBuilder contents = new StringBuilder("id,lat,lon,name\n");
+        for (int i = 0; i < ROWS; i++) {
+            contents.append(i + "," + (i % 90) + "," + (i % 180) + ",n" + (i % 7) + "\n");
+        }
+        file = CSVTestFiles.createFile("aggregate", contents);
+        CSVStatisticsCache.clear();
+        CSVFileState fileState = new CSVFileState(file);
+        CSVDataStore dataStore = new CSVDataStore(fileState, new CSVLatLonStrategy(fileState));
+        dataStore.setParallelism(4);
+        featureSource = new CSVFeatureSource(dataStore);
+    }
+
+    @After
+    public void tearDown() {
+        CSVStatisticsCache.clear();
+        CSVTestFiles.delete(file);
+    }
+
+    private void visit(Filter filter, FeatureVisitor visitor) throws IOException {
+        assertTrue("Visitor should be handled from the records", featureSource.handleVisitor(
+                new Query(null, filter), visitor));
+    }
+
+    @Test
+    public void testCount() throws IOException {
+        CountVisitor visitor = new CountVisitor();
+        visit(FF.greaterOrEqual(FF.property("id"), FF.literal(1000)), visitor);
+        assertEquals("Invalid count", ROWS - 1000, visitor.getCount());
+
+        visitor = new CountVisitor();
+        visit(Filter.INCLUDE, visitor);
+        assertEquals("Invalid count", ROWS, visitor.getCount());
+    }
+
+    @Test
+    public void testBounds() throws IOException {
+        BoundsVisitor visitor = new BoundsVisitor();
+        visit(FF.less(FF.property("id"), FF.literal(100)), visitor);
+        ReferencedEnvelope bounds = visitor.getBounds();
+        assertEquals("Invalid min x", 0, bounds.getMinX(), 0);
+        assertEquals("Invalid max x", 99, bounds.getMaxX(), 0);
+        assertEquals("Invalid min y", 0, bounds.getMinY(), 0);
+        assertEquals("Invalid max y", 89, bounds.getMaxY(), 0);
+    }
+
+    @Test
+    public void testMinMax() throws IOException {
+        Filter filter = FF.equals(FF.property("name"), FF.literal("n3"));
+        MinVisitor min = new MinVisitor(FF.property("id"));
+        visit(filter, min);
+        assertEquals("Invalid minimum", 3, min.getResult().getValue());
+        MaxVisitor max = new MaxVisitor(FF.property("id"));
+        visit(filter, max);
+        assertEquals("Invalid maximum", 5498, max.getResult().getValue());
+
+        max = new MaxVisitor(FF.property("name"));
+        visit(Filter.INCLUDE, max);
+        assertEquals("Invalid maximum", "n6", max.getResult().getValue());
+    }
+
+    @Test
+    public void testUnique() throws IOException {
+        UniqueVisitor visitor = new UniqueVisitor(FF.property("name"));
+        visit(FF.less(FF.property("id"), FF.literal(5)), visitor);
+        Set<Object> expected = new HashSet<Object>();
+        for (int i = 0; i < 5; i++) {
+            expected.add("n" + i);
+        }
+        assertEquals("Invalid unique values", expected, visitor.getUnique());
+    }
+
+    @Test
+    public void testUnordered() throws IOException {
+        // expressions cannot be aggregated from the records, features are read in parallel
+        MinVisitor min = new MinVisitor(FF.add(FF.property("id"), FF.literal(1)));
+        assertTrue("Order independent visitors should be handled", featureSource.handleVisitor(
+                Query.ALL, min));
+        assertEquals("Invalid minimum", 1, ((Number) min.getResult().getValue()).intValue());
+
+        SumVisitor sum = new SumVisitor(FF.property("id"));
+        assertTrue("Order independent visitors should be handled", featureSource.handleVisitor(
+                new Query(null, FF.less(FF.property("id"), FF.literal(100))), sum));
+        assertEquals("Invalid sum", 4950, sum.getResult().toInt());
+    }
+
+    @Test
+    public void testUnsupported() throws IOException {
+        FeatureVisitor visitor = new FeatureVisitor() {
+            public void visit(Feature feature) {
+            }
+        };
+        assertFalse("Visitors depending on order are left to features", featureSource
+                .handleVisitor(Query.ALL, visitor));
+        Query query = new Query(null, Filter.INCLUDE);
+        query.setMaxFeatures(10);
+        assertFalse("Limits are left to features", featureSource.handleVisitor(query,
+                new CountVisitor()));
+    }
+}
@@ -11,12 +11,19 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.data.Transaction;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.junit.Before;
 import org.junit.Test;
 import org.opengeo.data.csv.parse.CSVLatLonStrategy;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.Name;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Point;
@@ -86,4 +93,86 @@ public class CSVDataStoreTest {
                 .split(", "));
         assertEquals("Unexpected numbers", expectedNumbers, numbers);
     }
+
+    @Test
+    public void testBoundsAndCount() throws IOException {
+        SimpleFeatureSource featureSource = csvDataStore.getFeatureSource();
+        ReferencedEnvelope bounds = featureSource.getBounds();
+        assertEquals("Invalid min x", -123.365556, bounds.getMinX(), 1e-6);
+        assertEquals("Invalid max x", 151.211111, bounds.getMaxX(), 1e-6);
+        assertEquals("Invalid min y", -33.925278, bounds.getMinY(), 1e-6);
+        assertEquals("Invalid max y", 48.428611, bounds.getMaxY(), 1e-6);
+        assertEquals("Invalid count", 9, featureSource.getCount(Query.ALL));
+    }
+
+    private List<String> readCities(Query query) throws IOException {
+        FeatureReader<SimpleFeatureType, SimpleFeature> reader = csvDataStore.getFeatureReader(
+                query, Transaction.AUTO_COMMIT);
+        List<String> cities = new ArrayList<String>();
+        try {
+            while (reader.hasNext()) {
+                cities.add(reader.next().getAttribute("CITY").toString());
+            }
+        } finally {
+            reader.close();
+        }
+        return cities;
+    }
+
+    @Test
+    public void testFilteredQuery() throws IOException {
+        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+        Filter greater = ff.greater(ff.property("NUMBER"), ff.literal(300));
+        assertEquals("Unexpected comparison result",
+                Arrays.asList("Minneapolis", "Lausanne", "Victoria", "Cape Town", "Sydney"),
+                readCities(new Query("locations", greater)));
+
+        Filter like = ff.like(ff.property("CITY"), "S*");
+        assertEquals("Unexpected like result", Arrays.asList("St Paul", "Sydney"),
+                readCities(new Query("locations", like)));
+
+        Filter bbox = ff.bbox("location", -100, 40, -70, 50, null);
+        assertEquals("Unexpected bbox result", Arrays.asList("St Paul", "Ottawa", "Minneapolis"),
+                readCities(new Query("locations", bbox)));
+
+        Filter or = ff.or(ff.not(greater), ff.equals(ff.property("CITY"), ff.literal("Sydney")));
+        assertEquals("Unexpected logic result",
+                Arrays.asList("Trento", "St Paul", "Bangkok", "Ottawa", "Sydney"),
+                readCities(new Query("locations", or)));
+
+        Query query = new Query("locations", greater);
+        query.setStartIndex(1);
+        query.setMaxFeatures(2);
+        assertEquals("Unexpected paged result", Arrays.asList("Lausanne", "Victoria"),
+                readCities(query));
+
+        SimpleFeatureSource featureSource = csvDataStore.getFeatureSource();
+        assertEquals("Invalid count", 5, featureSource.getCount(new Query("locations", greater)));
+        ReferencedEnvelope bounds = featureSource.getBounds(new Query("locations", like));
+        assertEquals("Invalid min x", -93.0852, bounds.getMinX(), 1e-6);
+        assertEquals("Invalid max x", 151.211111, bounds.getMaxX(), 1e-6);
+    }
+
+    @Test
+    public void testRetypedQuery() throws IOException {
+        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+        Query query = new Query("locations", ff.greater(ff.property("NUMBER"), ff.literal(500)),
+                new String[] { "CITY" });
+        FeatureReader<SimpleFeatureType, SimpleFeature> reader = csvDataStore.getFeatureReader(
+                query, Transaction.AUTO_COMMIT);
+        List<String> cities = new ArrayList<String>();
+        try {
+            assertEquals("Invalid attribute count", 1, reader.getFeatureType()
+                    .getAttributeCount());
+            while (reader.hasNext()) {
+                SimpleFeature feature = reader.next();
+                assertEquals("Invalid attribute count", 1, feature.getAttributeCount());
+                cities.add(feature.getAttribute("CITY").toString());
+            }
+        } finally {
+            reader.close();
+        }
+        assertEquals("Unexpected cities", Arrays.asList("Lausanne", "Victoria", "Cape Town"),
+                cities);
+    }
 }
@@ -0,0 +1,209 @@
+package org.opengeo.data.csv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.geotools.data.DataStore;
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.data.Transaction;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.FilterFactory2;
+
+public class CSVDirectoryDataStoreTest {
+
+    private static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2(null);
+
+    private File directory;
+
+    private Map<String, Serializable> params;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("drops", "");
+        directory.delete();
+        directory.mkdir();
+        for (int day = 1; day <= 3; day++) {
+            write("day-" + day + ".csv", day * 100);
+        }
+        FileUtils.copyURLToFile(CSVDataStoreFactory.class.getResource("locations.csv"),
+                new File(directory, "locations.csv"));
+        FileUtils.writeStringToFile(new File(directory, "readme.txt"), "not a csv file");
+        CSVFileStateCache.getInstance().clear();
+        params = new HashMap<String, Serializable>();
+        params.put(CSVDirectoryDataStoreFactory.DIRECTORYP.key, directory);
+        params.put(CSVDataStoreFactory.STRATEGYP.key, "guess");
+    }
+
+    private void write(String name, int rows) throws IOException {
+        FileWriter writer = new FileWriter(new File(directory, name));
+        try {
+            writer.write("id,lat,lon\n");
+            for (int i = 0; i < rows; i++) {
+                writer.write(i + "," + (i % 90) + "," + (i % 180) + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        CSVFileStateCache.getInstance().clear();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    private DataStore createDataStore() throws IOException {
+        CSVDirectoryDataStoreFactory factory = new CSVDirectoryDataStoreFactory();
+        assertTrue("Directory should be accepted", factory.canProcess(params));
+        return factory.createDataStore(params);
+    }
+
+    @Test
+    public void testTypeNames() throws IOException {
+        DataStore dataStore = createDataStore();
+        Set<String> typeNames = new HashSet<String>(Arrays.asList(dataStore.getTypeNames()));
+        assertEquals("Invalid type names", new HashSet<String>(Arrays.asList("day-1", "day-2",
+                "day-3", "locations")), typeNames);
+        assertEquals("Listing should not open the files", 0, CSVFileStateCache.getInstance()
+                .getSize());
+
+        SimpleFeatureSource featureSource = dataStore.getFeatureSource("day-2");
+        assertEquals("Invalid count", 200, featureSource.getCount(Query.ALL));
+        assertEquals("Only the accessed file should be open", 1, CSVFileStateCache
+                .getInstance().getSize());
+        assertEquals("Invalid schema", "locations", dataStore.getSchema("locations")
+                .getTypeName());
+    }
+
+    @Test
+    public void testUnion() throws IOException {
+        params.put(CSVDirectoryDataStoreFactory.UNIONP.key, "day-.*\\.csv");
+        params.put(CSVDataStoreFactory.PARALLELISMP.key, 2);
+        DataStore dataStore = createDataStore();
+        Set<String> typeNames = new HashSet<String>(Arrays.asList(dataStore.getTypeNames()));
+        String unionName = directory.getName();
+        assertEquals("Invalid type names", new HashSet<String>(Arrays.asList(unionName,
+                "locations")), typeNames);
+
+        SimpleFeatureSource featureSource = dataStore.getFeatureSource(unionName);
+        SimpleFeatureType featureType = featureSource.getSchema();
+        assertEquals("Invalid type name", unionName, featureType.getTypeName());
+        assertEquals("Invalid count", 600, featureSource.getCount(Query.ALL));
+        assertEquals("Invalid max x", 179, featureSource.getBounds().getMaxX(), 0);
+
+        Query query = new Query(unionName, FF.less(FF.property("id"), FF.literal(10)));
+        FeatureReader<SimpleFeatureType, SimpleFeature> reader = dataStore.getFeatureReader(
+                query, Transaction.AUTO_COMMIT);
+        Set<String> ids = new HashSet<String>();
+        try {
+            while (reader.hasNext()) {
+                SimpleFeature feature = reader.next();
+                assertTrue("Duplicate feature id " + feature.getID(), ids.add(feature.getID()));
+            }
+        } finally {
+            reader.close();
+        }
+        assertEquals("Invalid number of features", 30, ids.size());
+        assertTrue("Ids should name the file", ids.contains("day-3.1"));
+    }
+
+    @Test
+    public void testUnionMissingProperty() throws IOException {
+        // the first file sets the schema, the others lack its name column
+        FileUtils.writeStringToFile(new File(directory, "day-0.csv"),
+                "id,lat,lon,name\n0,1,2,first\n");
+        params.put(CSVDirectoryDataStoreFactory.UNIONP.key, "day-.*\\.csv");
+        DataStore dataStore = createDataStore();
+        String unionName = directory.getName();
+        Query query = new Query(unionName);
+        query.setPropertyNames(new String[] { "id", "name" });
+        FeatureReader<SimpleFeatureType, SimpleFeature> reader = dataStore.getFeatureReader(
+                query, Transaction.AUTO_COMMIT);
+        int count = 0;
+        try {
+            while (reader.hasNext()) {
+                SimpleFeature feature = reader.next();
+                Object name = feature.getAttribute("name");
+                if (feature.getID().startsWith("day-0.")) {
+                    assertEquals("Invalid name", "first", name);
+                } else {
+                    assertEquals("Missing column should be empty", null, name);
+                }
+                count++;
+            }
+        } finally {
+            reader.close();
+        }
+        assertEquals("Invalid number of features", 601, count);
+    }
+
+    @Test(timeout = 60000)
+    public void testUnionAbandonedReaders() throws IOException {
+        for (int i = 1; i <= 2; i++) {
+            write("big-" + i + ".csv", 5000);
+        }
+        params.put(CSVDirectoryDataStoreFactory.UNIONP.key, "big-.*\\.csv");
+        params.put(CSVDataStoreFactory.PARALLELISMP.key, 2);
+        DataStore dataStore = createDataStore();
+        Query query = new Query(directory.getName());
+
+        // readers left open after their first feature must not hold up the shared pool
+        List<FeatureReader<SimpleFeatureType, SimpleFeature>> abandoned =
+            new ArrayList<FeatureReader<SimpleFeatureType, SimpleFeature>>();
+        try {
+            for (int i = 0; i < Runtime.getRuntime().availableProcessors(); i++) {
+                FeatureReader<SimpleFeatureType, SimpleFeature> reader = dataStore
+                        .getFeatureReader(query, Transaction.AUTO_COMMIT);
+                abandoned.add(reader);
+                assertTrue("Missing features", reader.hasNext());
+                reader.next();
+            }
+
+            FeatureReader<SimpleFeatureType, SimpleFeature> reader = dataStore
+                    .getFeatureReader(query, Transaction.AUTO_COMMIT);
+            int count = 0;
+            try {
+                while (reader.hasNext()) {
+                    reader.next();
+                    count++;
+                }
+            } finally {
+                reader.close();
+            }
+            assertEquals("Invalid number of features", 10000, count);
+        } finally {
+            for (FeatureReader<SimpleFeatureType, SimpleFeature> reader : abandoned) {
+                reader.close();
+            }
+        }
+    }
+
+    @Test
+    public void testCanProcess() {
+        params.put(CSVDirectoryDataStoreFactory.DIRECTORYP.key, new File(directory,
+                "locations.csv"));
+        assertFalse("Files are left to the csv factory",
+                new CSVDirectoryDataStoreFactory().canProcess(params));
+    }
+}
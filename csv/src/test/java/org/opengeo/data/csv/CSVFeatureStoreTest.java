@@ -0,0 +1,203 @@
+package org.opengeo.data.csv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.geotools.data.DefaultTransaction;
+import org.geotools.data.FeatureReader;
+import org.geotools.data.FeatureWriter;
+import org.geotools.data.Query;
+import org.geotools.data.Transaction;
+import org.geotools.data.simple.SimpleFeatureStore;
+import org.geotools.factory.CommonFactoryFinder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengeo.data.csv.parse.CSVLatLonStrategy;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+public class CSVFeatureStoreTest {
+
+    private static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2(null);
+
+    private File file;
+
+    private CSVDataStore csvDataStore;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("locations", ".csv");
+        FileUtils.copyURLToFile(CSVDataStoreFactory.class.getResource("locations.csv"), file);
+        csvDataStore = createDataStore();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private CSVDataStore createDataStore() {
+        CSVFileState csvFileState = new CSVFileState(file, null, "locations", null);
+        csvFileState.setCharset(Charset.forName("UTF-8"));
+        return new CSVDataStore(csvFileState, new CSVLatLonStrategy(csvFileState));
+    }
+
+    private List<String> readCities(CSVDataStore dataStore) throws IOException {
+        FeatureReader<SimpleFeatureType, SimpleFeature> reader = dataStore.getFeatureReader();
+        List<String> cities = new ArrayList<String>();
+        try {
+            while (reader.hasNext()) {
+                cities.add(reader.next().getAttribute("CITY").toString());
+            }
+        } finally {
+            reader.close();
+        }
+        return cities;
+    }
+
+    @Test
+    public void testAppend() throws IOException {
+        String original = FileUtils.readFileToString(file, "UTF-8");
+        FeatureWriter<SimpleFeatureType, SimpleFeature> writer = csvDataStore
+                .getFeatureWriterAppend(Transaction.AUTO_COMMIT);
+        try {
+            assertFalse("Append writer should not visit existing features", writer.hasNext());
+            SimpleFeature feature = writer.next();
+            assertEquals("Invalid new feature id", "locations-10", feature.getID());
+            feature.setAttribute("CITY", "Rome, Italy");
+            feature.setAttribute("NUMBER", 10);
+            feature.setDefaultGeometry(new GeometryFactory().createPoint(new Coordinate(12.5,
+                    41.9)));
+            writer.write();
+        } finally {
+            writer.close();
+        }
+        assertTrue("Existing records should be left untouched",
+                FileUtils.readFileToString(file, "UTF-8").startsWith(original));
+
+        CSVDataStore reopened = createDataStore();
+        List<String> cities = readCities(reopened);
+        assertEquals("Invalid feature count", 10, cities.size());
+        assertEquals("Invalid appended city", "Rome, Italy", cities.get(9));
+        FeatureReader<SimpleFeatureType, SimpleFeature> reader = reopened.getFeatureReader(
+                new Query("locations", FF.equals(FF.property("CITY"), FF.literal("Rome, Italy"))),
+                Transaction.AUTO_COMMIT);
+        SimpleFeature rome;
+        try {
+            rome = reader.next();
+        } finally {
+            reader.close();
+        }
+        Point point = (Point) rome.getDefaultGeometry();
+        assertEquals("Invalid x", 12.5, point.getX(), 0);
+        assertEquals("Invalid y", 41.9, point.getY(), 0);
+        assertEquals("Invalid number", 10, rome.getAttribute("NUMBER"));
+    }
+
+    @Test
+    public void testUpdateAndRemove() throws IOException {
+        FeatureWriter<SimpleFeatureType, SimpleFeature> writer = csvDataStore.getFeatureWriter(
+                FF.equals(FF.property("CITY"), FF.literal("Ottawa")), Transaction.AUTO_COMMIT);
+        try {
+            assertTrue(writer.hasNext());
+            SimpleFeature feature = writer.next();
+            assertEquals("Invalid feature id", "locations-4", feature.getID());
+            feature.setAttribute("NUMBER", 201);
+            writer.write();
+            assertFalse(writer.hasNext());
+        } finally {
+            writer.close();
+        }
+
+        writer = csvDataStore.getFeatureWriter(FF.greater(FF.property("NUMBER"), FF.literal(500)),
+                Transaction.AUTO_COMMIT);
+        try {
+            while (writer.hasNext()) {
+                writer.next();
+                writer.remove();
+            }
+        } finally {
+            writer.close();
+        }
+
+        String content = FileUtils.readFileToString(file, "UTF-8");
+        assertTrue("Unchanged records should be copied as they were",
+                content.contains("46.066667, 11.116667, Trento, 140"));
+        assertFalse("Removed records should be gone", content.contains("Lausanne"));
+
+        CSVDataStore reopened = createDataStore();
+        assertEquals("Unexpected cities", Arrays.asList("Trento", "St Paul", "Bangkok",
+                "Ottawa", "Minneapolis", "Sydney"), readCities(reopened));
+        assertEquals("Invalid count", 1, reopened.getFeatureSource().getCount(
+                new Query("locations", FF.equals(FF.property("NUMBER"), FF.literal(201)))));
+        for (File other : file.getParentFile().listFiles()) {
+            assertFalse("Leftover temporary file " + other, other.getName().startsWith(
+                    file.getName() + "-"));
+        }
+    }
+
+    @Test
+    public void testTransaction() throws IOException {
+        Filter filter = FF.greater(FF.property("NUMBER"), FF.literal(500));
+        SimpleFeatureStore store = (SimpleFeatureStore) csvDataStore.getFeatureSource();
+        Transaction transaction = new DefaultTransaction();
+        try {
+            store.setTransaction(transaction);
+            store.removeFeatures(filter);
+            store.modifyFeatures("CITY", "Saint Paul", FF.equals(FF.property("CITY"),
+                    FF.literal("St Paul")));
+            assertEquals("Edits should not be visible before the commit", 9,
+                    readCities(createDataStore()).size());
+            transaction.rollback();
+            assertEquals("Rolled back edits should not be applied", 9,
+                    readCities(createDataStore()).size());
+
+            store.removeFeatures(filter);
+            store.modifyFeatures("CITY", "Saint Paul", FF.equals(FF.property("CITY"),
+                    FF.literal("St Paul")));
+            transaction.commit();
+        } finally {
+            transaction.close();
+        }
+        assertEquals("Unexpected cities", Arrays.asList("Trento", "Saint Paul", "Bangkok",
+                "Ottawa", "Minneapolis", "Sydney"), readCities(createDataStore()));
+    }
+
+    @Test
+    public void testCloseFromAnotherThread() throws Exception {
+        final FeatureWriter<SimpleFeatureType, SimpleFeature> writer = csvDataStore
+                .getFeatureWriterAppend(Transaction.AUTO_COMMIT);
+        final IOException[] failure = new IOException[1];
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+        assertEquals("Close failed", null, failure[0]);
+        assertTrue("File left locked", csvDataStore.getCSVFileState().getWriteLock()
+                .tryAcquire());
+        csvDataStore.getCSVFileState().getWriteLock().release();
+    }
+}
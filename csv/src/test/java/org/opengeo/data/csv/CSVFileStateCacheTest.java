@@ -0,0 +1,87 @@
+package org.opengeo.data.csv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengeo.data.csv.parse.CSVAttributesOnlyStrategy;
+
+public class CSVFileStateCacheTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("cache", ".csv");
+        FileUtils.copyURLToFile(CSVDataStoreFactory.class.getResource("locations.csv"), file);
+        CSVFileStateCache.getInstance().remove(file);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        CSVFileStateCache.getInstance().remove(file);
+        file.delete();
+    }
+
+    private CSVFileStateCache.Entry createEntry(File file) {
+        CSVFileState csvFileState = new CSVFileState(file);
+        return new CSVFileStateCache.Entry(file, csvFileState, new CSVAttributesOnlyStrategy(
+                csvFileState));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() throws IOException {
+        CSVFileStateCache cache = new CSVFileStateCache(2);
+        cache.put("a", createEntry(file));
+        cache.put("b", createEntry(file));
+        cache.get("a", file);
+        cache.put("c", createEntry(file));
+        assertEquals("Invalid size", 2, cache.getSize());
+        assertNull("Least recently used entry should be evicted", cache.get("b", file));
+        assertEquals("Invalid eviction count", 1, cache.getEvictionCount());
+        assertEquals("Invalid hit count", 1, cache.getHitCount());
+        assertEquals("Invalid miss count", 1, cache.getMissCount());
+
+        cache.setMaxSize(1);
+        assertEquals("Shrinking should evict", 1, cache.getSize());
+        assertEquals("Invalid eviction count", 2, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testStaleAfterChange() throws IOException {
+        CSVFileStateCache cache = new CSVFileStateCache(2);
+        cache.put("a", createEntry(file));
+        file.setLastModified(file.lastModified() - 10000);
+        assertNull("Changed file should not be served from the cache", cache.get("a", file));
+        assertEquals("Stale entry should be dropped", 0, cache.getSize());
+    }
+
+    @Test
+    public void testSharedByStores() throws IOException {
+        CSVDataStoreFactory factory = new CSVDataStoreFactory();
+        Map<String, Serializable> params = new HashMap<String, Serializable>();
+        params.put("file", file);
+        CSVDataStore first = (CSVDataStore) factory.createDataStore(params);
+        CSVDataStore second = (CSVDataStore) factory.createDataStore(params);
+        assertSame("Stores for the same file should share the file state",
+                first.getCSVFileState(), second.getCSVFileState());
+        assertSame("Stores for the same file should share the strategy",
+                first.getCSVStrategy(), second.getCSVStrategy());
+
+        params.put("strategy", "guess");
+        CSVDataStore guessed = (CSVDataStore) factory.createDataStore(params);
+        assertNotSame("Different parameters should not share the state",
+                first.getCSVFileState(), guessed.getCSVFileState());
+    }
+}
@@ -0,0 +1,63 @@
+package org.opengeo.data.csv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opengeo.data.csv.parse.CSVTestStrategySupport;
+
+public class CSVFileStatisticsTest {
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        URL resource = CSVDataStoreFactory.class.getResource("locations.csv");
+        file = new File(resource.getFile());
+        CSVStatisticsCache.clear();
+    }
+
+    @Test
+    public void testStatistics() throws IOException {
+        CSVFileStatistics statistics = new CSVFileState(file).getStatistics();
+        assertEquals("Invalid row count", 9, statistics.getRowCount());
+        assertEquals("Invalid type", Double.class, statistics.getTypes().get("LAT"));
+        assertEquals("Invalid type", Integer.class, statistics.getTypes().get("NUMBER"));
+        assertEquals("Invalid type", String.class, statistics.getTypes().get("CITY"));
+        assertEquals("Invalid minimum", -33.925278, statistics.getMinimum("LAT"));
+        assertEquals("Invalid maximum", 721, statistics.getMaximum("NUMBER"));
+        assertEquals("Invalid minimum", "Bangkok", statistics.getMinimum("CITY"));
+        assertEquals("Invalid maximum", "Victoria", statistics.getMaximum("CITY"));
+    }
+
+    @Test
+    public void testSharedAcrossStates() throws IOException {
+        CSVFileStatistics statistics = new CSVFileState(file).getStatistics();
+        assertSame("Statistics not shared", statistics, new CSVFileState(file).getStatistics());
+    }
+
+    @Test
+    public void testBounded() throws IOException {
+        for (int i = 1; i <= CSVStatisticsCache.MAX_SIZE + 10; i++) {
+            CSVFileState csvFileState = new CSVFileState(file);
+            csvFileState.setInferenceMode(CSVInferenceMode.FIRST, i);
+            csvFileState.getStatistics();
+        }
+        assertEquals("Cache not bounded", CSVStatisticsCache.MAX_SIZE, CSVStatisticsCache.size());
+    }
+
+    @Test
+    public void testEmptyColumn() throws IOException {
+        String input = CSVTestStrategySupport.buildInputString("a,b", "1");
+        CSVFileStatistics statistics = new CSVFileState(input, "typename").getStatistics();
+        assertEquals("Invalid row count", 1, statistics.getRowCount());
+        assertEquals("Invalid type", Integer.class, statistics.getTypes().get("b"));
+        assertNull("Unexpected minimum", statistics.getMinimum("b"));
+    }
+}
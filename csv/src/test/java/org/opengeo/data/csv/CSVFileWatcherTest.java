@@ -0,0 +1,127 @@
+package org.opengeo.data.csv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengeo.data.csv.index.CSVRowIndex;
+import org.opengeo.data.csv.index.CSVRowSelection;
+import org.opengeo.data.csv.index.CSVSpatialIndex;
+import org.opengeo.data.csv.parse.CSVIterator;
+import org.opengeo.data.csv.parse.CSVLatLonStrategy;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+public class CSVFileWatcherTest {
+
+    private File file;
+
+    private CSVFileState csvFileState;
+
+    private CSVLatLonStrategy strategy;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("watcher", ".csv");
+        FileUtils.copyURLToFile(CSVDataStoreFactory.class.getResource("locations.csv"), file);
+        CSVStatisticsCache.clear();
+        csvFileState = new CSVFileState(file);
+        strategy = new CSVLatLonStrategy(csvFileState);
+        csvFileState.setWatched(true);
+    }
+
+    @After
+    public void tearDown() {
+        csvFileState.setWatched(false);
+        CSVStatisticsCache.clear();
+        CSVRowIndex.getIndexFile(file).delete();
+        CSVSpatialIndex.getIndexFile(file).delete();
+        file.delete();
+    }
+
+    private void append(String data) throws IOException {
+        FileWriter writer = new FileWriter(file, true);
+        try {
+            writer.write(data);
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testAppend() throws IOException {
+        SimpleFeatureType featureType = strategy.getFeatureType();
+        assertEquals("Invalid bounds", 151.211111, strategy.getBounds().getMaxX(), 1e-6);
+        assertEquals("Invalid row count", 9, csvFileState.getRowIndex().getRowCount());
+        strategy.getSpatialIndex();
+        assertFalse("Nothing changed yet", csvFileState.refresh());
+
+        append("10.5, 170.5, Tarawa, 42\n");
+        assertTrue("Append should be picked up", csvFileState.refresh());
+        assertEquals("Invalid row count", 10, csvFileState.getRowIndex().getRowCount());
+        assertEquals("Invalid statistics row count", 10, csvFileState.getStatistics()
+                .getRowCount());
+        ReferencedEnvelope bounds = strategy.getBounds();
+        assertEquals("Bounds should grow", 170.5, bounds.getMaxX(), 1e-6);
+        assertEquals("Bounds should keep the old records", -123.365556, bounds.getMinX(), 1e-6);
+        assertSame("Schema should not be rebuilt", featureType, strategy.getFeatureType());
+
+        CSVSpatialIndex index = strategy.getSpatialIndex();
+        assertEquals("Invalid index size", 10, index.size());
+        CSVRowSelection selection = index.query(new Envelope(170, 171, 10, 11));
+        assertEquals("Appended record should be indexed", 1, selection.size());
+        assertEquals("Invalid row", 9, selection.getRow(0));
+        CSVIterator iterator = new CSVIterator(csvFileState, strategy, selection);
+        try {
+            SimpleFeature feature = iterator.next();
+            assertEquals("Invalid appended feature", "Tarawa", feature.getAttribute("CITY"));
+        } finally {
+            iterator.close();
+        }
+    }
+
+    @Test
+    public void testPartialRecord() throws IOException {
+        csvFileState.getRowIndex();
+        append("10.5, 170.5, Tar");
+        assertFalse("Partial records should wait", csvFileState.refresh());
+        append("awa, 42\n");
+        assertTrue("Completed record should be picked up", csvFileState.refresh());
+        assertEquals("Invalid row count", 10, csvFileState.getRowIndex().getRowCount());
+    }
+
+    @Test
+    public void testTypeChange() throws IOException {
+        SimpleFeatureType featureType = strategy.getFeatureType();
+        assertEquals("Invalid type", Integer.class, featureType.getDescriptor("NUMBER").getType()
+                .getBinding());
+        append("10.5, 170.5, Tarawa, 42.5\n");
+        assertTrue("Append should be picked up", csvFileState.refresh());
+        assertNotSame("Schema should be rebuilt", featureType, strategy.getFeatureType());
+        assertEquals("Invalid type", Double.class, strategy.getFeatureType().getDescriptor(
+                "NUMBER").getType().getBinding());
+    }
+
+    @Test
+    public void testHeaderChange() throws IOException {
+        SimpleFeatureType featureType = strategy.getFeatureType();
+        FileUtils.writeStringToFile(file, "LAT, LON, TOWN\n46.066667, 11.116667, Trento\n");
+        assertTrue("Change should be picked up", csvFileState.refresh());
+        assertNotSame("Schema should be rebuilt", featureType, strategy.getFeatureType());
+        assertEquals("Invalid headers", "TOWN", csvFileState.getCSVHeaders()[2]);
+        assertEquals("Invalid row count", 1, csvFileState.getRowIndex().getRowCount());
+    }
+}
@@ -0,0 +1,110 @@
+package org.opengeo.data.csv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengeo.data.csv.parse.CSVAttributesOnlyStrategy;
+import org.opengis.feature.simple.SimpleFeature;
+
+public class CSVParallelReaderTest {
+
+    private static final int ROWS = 5500;
+
+    private File file;
+
+    private CSVFileState fileState;
+
+    private CSVAttributesOnlyStrategy strategy;
+
+    @Before
+    public void setUp() throws IOException {
+        StringBuilder contents = new StringBuilder("id,comment\n");
+        for (int i = 0; i < ROWS; i++) {
+            // multi-line quoted fields around the row index block boundaries
+            if (i % 1000 == 999 || i % 1000 == 0) {
+                contents.append(i + ",\"line one\nline two, \"\"quoted\"\"\"\n");
+            } else {
+                contents.append(i + ",plain\n");
+            }
+        }
+        file = CSVTestFiles.createFile("parallel", contents);
+        fileState = new CSVFileState(file);
+        strategy = new CSVAttributesOnlyStrategy(fileState);
+    }
+
+    @After
+    public void tearDown() {
+        CSVTestFiles.delete(file);
+    }
+
+    @Test
+    public void testOrdered() throws IOException {
+        CSVParallelReader reader = new CSVParallelReader(fileState, strategy, 4, true);
+        try {
+            int count = 0;
+            while (reader.hasNext()) {
+                SimpleFeature feature = reader.next();
+                assertEquals("Invalid feature order", count, feature.getAttribute("id"));
+                assertEquals("Invalid feature id", fileState.getTypeName() + "-" + (count + 1),
+                        feature.getID());
+                boolean multiLine = count % 1000 == 999 || count % 1000 == 0;
+                String expected = multiLine ? "line one\nline two, \"quoted\"" : "plain";
+                assertEquals("Invalid comment", expected, feature.getAttribute("comment"));
+                count++;
+            }
+            assertEquals("Invalid number of features", ROWS, count);
+            assertFalse(reader.hasNext());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testUnordered() throws IOException {
+        CSVParallelReader reader = new CSVParallelReader(fileState, strategy, 3, false);
+        Set<Object> ids = new HashSet<Object>();
+        try {
+            while (reader.hasNext()) {
+                assertTrue("Duplicate feature", ids.add(reader.next().getAttribute("id")));
+            }
+        } finally {
+            reader.close();
+        }
+        assertEquals("Invalid number of features", ROWS, ids.size());
+    }
+
+    @Test
+    public void testShutdown() throws IOException {
+        CSVParallelReader reader = new CSVParallelReader(fileState, strategy, 3, true);
+        int count = 0;
+        try {
+            assertTrue(reader.hasNext());
+            // readers that are running carry on
+            CSVParallelReader.shutdown();
+            while (reader.hasNext()) {
+                reader.next();
+                count++;
+            }
+        } finally {
+            reader.close();
+        }
+        assertEquals("Invalid number of features", ROWS, count);
+    }
+
+    @Test
+    public void testCloseEarly() throws IOException {
+        CSVParallelReader reader = new CSVParallelReader(fileState, strategy, 4, true);
+        assertTrue(reader.hasNext());
+        reader.next();
+        reader.close();
+    }
+}
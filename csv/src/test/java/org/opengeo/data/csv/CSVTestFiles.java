@@ -0,0 +1,54 @@
+package org.opengeo.data.csv;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.opengeo.data.csv.index.CSVBlockIndex;
+import org.opengeo.data.csv.index.CSVRowIndex;
+import org.opengeo.data.csv.index.CSVSpatialIndex;
+import org.opengeo.data.csv.memory.CSVColumnCache;
+
+/**
+ * Creates the temporary csv files tests run against, and deletes them along with every sidecar
+ * built over them.
+ */
+public class CSVTestFiles {
+
+    /**
+     * Writes the contents to a new temporary csv file.
+     */
+    public static File createFile(String prefix, CharSequence contents) throws IOException {
+        File file = File.createTempFile(prefix, ".csv");
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.append(contents);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    /**
+     * Copies the locations.csv resource to a new temporary csv file.
+     */
+    public static File copyLocations(String prefix) throws IOException {
+        File file = File.createTempFile(prefix, ".csv");
+        FileUtils.copyURLToFile(CSVDataStoreFactory.class.getResource("locations.csv"), file);
+        return file;
+    }
+
+    /**
+     * Deletes the file, its indexes and column cache, and any of those left half written.
+     */
+    public static void delete(File file) {
+        for (File sidecar : new File[] { CSVRowIndex.getIndexFile(file),
+                CSVBlockIndex.getIndexFile(file), CSVSpatialIndex.getIndexFile(file),
+                CSVColumnCache.getCacheFile(file) }) {
+            sidecar.delete();
+            new File(sidecar.getPath() + ".tmp").delete();
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,133 @@
+package org.opengeo.data.csv.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengeo.data.csv.CSVCompression;
+import org.opengeo.data.csv.CSVFileState;
+
+import com.csvreader.CsvReader;
+
+public class CSVBlockIndexTest {
+
+    private File file;
+
+    private byte[] content;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("blockindex", ".csv.gz");
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            // one gzip member per ten records, like bgzip does per block
+            StringBuilder member = new StringBuilder("id,name\n");
+            for (int i = 0; i < 50; i++) {
+                member.append(i).append(",name").append(i).append('\n');
+                if (i % 10 == 9) {
+                    byte[] bytes = member.toString().getBytes("UTF-8");
+                    data.write(bytes);
+                    GZIPOutputStream gzip = new GZIPOutputStream(out);
+                    gzip.write(bytes);
+                    gzip.finish();
+                    member.setLength(0);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        content = data.toByteArray();
+    }
+
+    @After
+    public void tearDown() {
+        CSVBlockIndex.getIndexFile(file).delete();
+        CSVRowIndex.getIndexFile(file).delete();
+        file.delete();
+    }
+
+    private byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[7];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testDecompressMembers() throws IOException {
+        CSVFileState fileState = new CSVFileState(file);
+        assertEquals("Invalid compression", CSVCompression.GZIP, fileState.getCompression());
+        assertEquals("Invalid type name", file.getName().substring(0,
+                file.getName().length() - ".csv.gz".length()), fileState.getTypeName());
+        assertEquals("All members should be decompressed", new String(content, "UTF-8"),
+                new String(readFully(fileState.openStream(0)), "UTF-8"));
+    }
+
+    @Test
+    public void testBuild() throws IOException {
+        CSVBlockIndex index = CSVBlockIndex.build(file, CSVCompression.GZIP, 1);
+        assertEquals("Invalid block count", 5, index.size());
+        assertEquals("Invalid first block", 0, index.getCompressedOffset(0));
+        assertEquals("Invalid block", 2, index.getBlock(index.getOffset(2)));
+        assertEquals("Invalid block", 2, index.getBlock(index.getOffset(3) - 1));
+        assertEquals("Invalid block", 4, index.getBlock(content.length));
+        assertTrue("Index should be current", index.isCurrent(file));
+
+        CSVBlockIndex merged = CSVBlockIndex.build(file, CSVCompression.GZIP);
+        assertEquals("Small blocks should be merged", 1, merged.size());
+    }
+
+    @Test
+    public void testSidecarRoundTrip() throws IOException {
+        CSVBlockIndex index = CSVBlockIndex.build(file, CSVCompression.GZIP, 1);
+        File indexFile = CSVBlockIndex.getIndexFile(file);
+        index.write(indexFile);
+        CSVBlockIndex read = CSVBlockIndex.read(indexFile);
+        assertEquals("Invalid block count", index.size(), read.size());
+        assertEquals("Invalid offset", index.getOffset(3), read.getOffset(3));
+        assertEquals("Invalid compressed offset", index.getCompressedOffset(3),
+                read.getCompressedOffset(3));
+    }
+
+    @Test
+    public void testSeek() throws IOException {
+        CSVBlockIndex.build(file, CSVCompression.GZIP, 1).write(
+                CSVBlockIndex.getIndexFile(file));
+        CSVFileState fileState = new CSVFileState(file);
+        assertEquals("Invalid block count", 5, fileState.getBlockIndex().size());
+        for (int offset : new int[] { 1, 100, 200, content.length - 3 }) {
+            byte[] expected = new byte[content.length - offset];
+            System.arraycopy(content, offset, expected, 0, expected.length);
+            assertEquals("Invalid data at offset " + offset, new String(expected, "UTF-8"),
+                    new String(readFully(fileState.openStream(offset)), "UTF-8"));
+        }
+
+        CSVRowIndex rowIndex = CSVRowIndex.build(file, CSVCompression.GZIP, 10);
+        assertEquals("Invalid row count", 50, rowIndex.getRowCount());
+        CsvReader csvReader = fileState.openCSVReader(rowIndex.getOffset(37));
+        try {
+            assertTrue("Record not found at offset", csvReader.readRecord());
+            assertEquals("Invalid record at offset", "name" + rowIndex.getIndexedRow(37),
+                    csvReader.get(1));
+        } finally {
+            csvReader.close();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.opengeo.data.csv.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.geotools.data.Query;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengeo.data.csv.CSVCompression;
+import org.opengeo.data.csv.CSVFeatureReader;
+import org.opengeo.data.csv.CSVFileState;
+import org.opengeo.data.csv.CSVTestFiles;
+import org.opengeo.data.csv.parse.CSVAttributesOnlyStrategy;
+import org.opengis.feature.simple.SimpleFeature;
+
+import com.csvreader.CsvReader;
+
+public class CSVRowIndexTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        StringBuilder contents = new StringBuilder("id,name\n");
+        for (int i = 0; i < 25; i++) {
+            contents.append(i + ",name" + i + "\n");
+            if (i == 10) {
+                // blank lines and quoted newlines must not count as records
+                contents.append("\n");
+            }
+        }
+        contents.append("25,\"multi\nline\"\n");
+        file = CSVTestFiles.createFile("rowindex", contents);
+    }
+
+    @After
+    public void tearDown() {
+        CSVTestFiles.delete(file);
+    }
+
+    @Test
+    public void testBuild() throws IOException {
+        CSVRowIndex index = CSVRowIndex.build(file, 10);
+        assertEquals("Invalid row count", 26, index.getRowCount());
+        assertEquals("Invalid indexed row", 10, index.getIndexedRow(17));
+        assertEquals("Invalid indexed row", 20, index.getIndexedRow(500));
+        assertTrue("Index should be current", index.isCurrent(file));
+
+        CsvReader csvReader = new CSVFileState(file).openCSVReader(index.getOffset(17));
+        try {
+            assertTrue("Record not found at offset", csvReader.readRecord());
+            assertEquals("Invalid record at offset", "name10", csvReader.get(1));
+        } finally {
+            csvReader.close();
+        }
+    }
+
+    @Test
+    public void testSidecarRoundTrip() throws IOException {
+        CSVRowIndex index = CSVRowIndex.open(file, 10);
+        File indexFile = CSVRowIndex.getIndexFile(file);
+        assertTrue("Sidecar index not written", indexFile.exists());
+        CSVRowIndex read = CSVRowIndex.read(indexFile);
+        assertEquals("Invalid row count", index.getRowCount(), read.getRowCount());
+        assertEquals("Invalid offset", index.getOffset(15), read.getOffset(15));
+    }
+
+    @Test
+    public void testWithoutSidecar() throws IOException {
+        CSVRowIndex index = CSVRowIndex.open(file, CSVCompression.NONE, 10, false);
+        assertEquals("Invalid row count", 26, index.getRowCount());
+        assertFalse("Sidecar index written", CSVRowIndex.getIndexFile(file).exists());
+    }
+
+    @Test
+    public void testStaleAfterChange() throws IOException {
+        CSVRowIndex index = CSVRowIndex.open(file, 10);
+        FileWriter writer = new FileWriter(file, true);
+        try {
+            writer.write("26,appended\n");
+        } finally {
+            writer.close();
+        }
+        assertFalse("Index should be stale", index.isCurrent(file));
+        assertEquals("Invalid row count", 27, CSVRowIndex.open(file, 10).getRowCount());
+    }
+
+    @Test
+    public void testPagedRead() throws IOException {
+        CSVFileState fileState = new CSVFileState(file);
+        CSVAttributesOnlyStrategy strategy = new CSVAttributesOnlyStrategy(fileState);
+        Query query = new Query(fileState.getTypeName());
+        query.setStartIndex(15);
+        query.setMaxFeatures(3);
+        CSVFeatureReader reader = new CSVFeatureReader(strategy, query);
+        try {
+            for (int i = 15; i < 18; i++) {
+                assertTrue("Missing feature", reader.hasNext());
+                SimpleFeature feature = reader.next();
+                assertEquals("Invalid attribute", "name" + i, feature.getAttribute("name"));
+                assertEquals("Invalid feature id", fileState.getTypeName() + "-" + (i + 1),
+                        feature.getID());
+            }
+            assertFalse("Limit not honoured", reader.hasNext());
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.opengeo.data.csv.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.geotools.data.Query;
+import org.geotools.factory.CommonFactoryFinder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengeo.data.csv.CSVFeatureReader;
+import org.opengeo.data.csv.CSVFileState;
+import org.opengeo.data.csv.CSVTestFiles;
+import org.opengeo.data.csv.parse.CSVLatLonStrategy;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.FilterFactory2;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Point;
+
+public class CSVSpatialIndexTest {
+
+    private File file;
+
+    private CSVFileState fileState;
+
+    private CSVLatLonStrategy strategy;
+
+    @Before
+    public void setUp() throws IOException {
+        StringBuilder contents = new StringBuilder("lat,lon,name\n");
+        for (int lat = -40; lat < 40; lat++) {
+            for (int lon = -40; lon < 40; lon++) {
+                contents.append(lat + "," + lon + ",p" + lat + "_" + lon + "\n");
+            }
+        }
+        file = CSVTestFiles.createFile("spatialindex", contents);
+        fileState = new CSVFileState(file);
+        strategy = new CSVLatLonStrategy(fileState);
+    }
+
+    @After
+    public void tearDown() {
+        CSVTestFiles.delete(file);
+    }
+
+    @Test
+    public void testQuery() throws IOException {
+        CSVSpatialIndex index = strategy.getSpatialIndex();
+        assertEquals("Invalid number of indexed rows", 80 * 80, index.size());
+        assertTrue("Sidecar not written", CSVSpatialIndex.getIndexFile(file).exists());
+
+        CSVRowSelection selection = index.query(new Envelope(10.5, 12.5, -3, -1));
+        assertEquals("Invalid number of hits", 2 * 3, selection.size());
+        for (int i = 1; i < selection.size(); i++) {
+            assertTrue("Hits not in file order", selection.getRow(i - 1) < selection.getRow(i));
+        }
+        // lat -3, lon 11 is row (-3 + 40) * 80 + (11 + 40)
+        assertEquals("Invalid first row", 37 * 80 + 51, selection.getRow(0));
+    }
+
+    @Test
+    public void testReuseAndRebuild() throws IOException {
+        CSVSpatialIndex index = strategy.getSpatialIndex();
+        assertSame("Index should be cached", index, strategy.getSpatialIndex());
+        FileWriter writer = new FileWriter(file, true);
+        try {
+            writer.write("50,50,appended\n");
+        } finally {
+            writer.close();
+        }
+        CSVSpatialIndex rebuilt = strategy.getSpatialIndex();
+        assertNotSame("Index should be rebuilt", index, rebuilt);
+        assertEquals("Invalid number of indexed rows", 80 * 80 + 1, rebuilt.size());
+    }
+
+    @Test
+    public void testBBoxRead() throws IOException {
+        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+        Query query = new Query(fileState.getTypeName(), ff.bbox("location", -0.5, 19.5, 1.5,
+                20.5, "EPSG:4326"));
+        CSVFeatureReader reader = new CSVFeatureReader(strategy, query);
+        try {
+            int count = 0;
+            while (reader.hasNext()) {
+                SimpleFeature feature = reader.next();
+                Point point = (Point) feature.getDefaultGeometry();
+                assertEquals("Invalid name", "p" + (int) point.getY() + "_" + (int) point.getX(),
+                        feature.getAttribute("name"));
+                count++;
+            }
+            assertEquals("Invalid number of features", 2, count);
+            assertFalse(reader.hasNext());
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.opengeo.data.csv.memory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.geotools.factory.CommonFactoryFinder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengeo.data.csv.CSVFileState;
+import org.opengeo.data.csv.CSVTestFiles;
+import org.opengeo.data.csv.parse.CSVIterator;
+import org.opengeo.data.csv.parse.CSVLatLonStrategy;
+import org.opengeo.data.csv.parse.CSVRecordFilter;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+public class CSVColumnCacheTest {
+
+    private static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2(null);
+
+    private static final int ROWS = CSVColumnCache.GROUP_SIZE * 2 + 100;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        StringBuilder contents = new StringBuilder("id,lat,lon,name,code\n");
+        for (int i = 0; i < ROWS; i++) {
+            // one text value in the last group turns its code column to text
+            String code = i % 5 == 0 ? "" : i == ROWS - 1 ? "x" : String.valueOf(i % 100);
+            contents.append(i + "," + (i % 90) + "," + (i % 180) + ",n" + (i % 7) + "," + code
+                    + "\n");
+        }
+        file = CSVTestFiles.createFile("cache", contents);
+    }
+
+    @After
+    public void tearDown() {
+        CSVTestFiles.delete(file);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        CSVFileState csvFileState = new CSVFileState(file);
+        csvFileState.setMemoryLimit(file.length());
+        CSVColumnStore loaded = CSVColumnStore.load(csvFileState);
+        CSVColumnStore cached = CSVColumnCache.open(csvFileState);
+        assertTrue("Cache should be written", CSVColumnCache.getCacheFile(file).exists());
+        assertTrue("Store should be cached", cached.isCached());
+        assertFalse("Loaded store is not cached", loaded.isCached());
+        assertEquals("Invalid row count", ROWS, cached.getRowCount());
+
+        CSVColumnStore.Cursor expected = loaded.cursor(0);
+        CSVColumnStore.Cursor actual = cached.cursor(0);
+        while (expected.next()) {
+            assertTrue("Missing row " + expected.getRow(), actual.next());
+            assertArrayEquals("Invalid row " + expected.getRow(), expected.getValues(), actual
+                    .getValues());
+            assertEquals("Invalid empty code", expected.isEmpty(4), actual.isEmpty(4));
+        }
+        assertFalse("Too many rows", actual.next());
+
+        actual = cached.cursor(CSVColumnCache.GROUP_SIZE + 3);
+        assertTrue("Seek failed", actual.next());
+        assertEquals("Invalid id", CSVColumnCache.GROUP_SIZE + 3, actual.getLong(0));
+        assertEquals("Invalid group", 1, cached.getGroup(actual.getRow()));
+    }
+
+    @Test
+    public void testStale() throws IOException {
+        CSVFileState csvFileState = new CSVFileState(file);
+        CSVColumnCache.open(csvFileState);
+        FileUtils.writeStringToFile(file, "id,lat,lon,name,code\n1,2,3,a,4\n");
+        file.setLastModified(file.lastModified() + 2000);
+        CSVColumnStore cached = CSVColumnCache.open(new CSVFileState(file));
+        assertTrue("Cache should be rebuilt", cached.isCurrent(file));
+        assertEquals("Invalid row count", 1, cached.getRowCount());
+    }
+
+    @Test
+    public void testSkipGroups() throws IOException {
+        CSVFileState csvFileState = new CSVFileState(file);
+        csvFileState.setColumnCache(true);
+        CSVLatLonStrategy strategy = new CSVLatLonStrategy(csvFileState);
+        CSVColumnStore cached = csvFileState.getColumnStore();
+        assertTrue("Store should be cached", cached.isCached());
+
+        int first = CSVColumnCache.GROUP_SIZE * 2 + 10;
+        Filter filter = FF.greaterOrEqual(FF.property("id"), FF.literal(first));
+        CSVRecordFilter recordFilter = CSVRecordFilter.compile(filter, strategy, csvFileState
+                .getCSVHeaders());
+        assertFalse("First group cannot match", cached.mayMatch(0, recordFilter));
+        assertTrue("Last group may match", cached.mayMatch(2, recordFilter));
+        recordFilter = CSVRecordFilter.compile(FF.less(FF.property("code"), FF.literal(0)),
+                strategy, csvFileState.getCSVHeaders());
+        assertTrue("Groups with empty fields have no range", cached.mayMatch(0, recordFilter));
+
+        CSVIterator iterator = strategy.iterator();
+        iterator.setFilter(filter);
+        int count = 0;
+        try {
+            while (iterator.hasNext()) {
+                SimpleFeature feature = iterator.next();
+                if (count == 0) {
+                    assertEquals("Feature ids should survive skipping", first, feature
+                            .getAttribute("id"));
+                    assertTrue("Invalid id " + feature.getID(), feature.getID().endsWith(
+                            "-" + (first + 1)));
+                }
+                count++;
+            }
+        } finally {
+            iterator.close();
+        }
+        assertEquals("Invalid count", ROWS - first, count);
+    }
+}
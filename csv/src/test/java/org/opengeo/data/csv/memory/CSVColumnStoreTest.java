@@ -0,0 +1,144 @@
+package org.opengeo.data.csv.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.data.Transaction;
+import org.geotools.factory.CommonFactoryFinder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengeo.data.csv.CSVDataStore;
+import org.opengeo.data.csv.CSVFileState;
+import org.opengeo.data.csv.CSVInferenceMode;
+import org.opengeo.data.csv.CSVTestFiles;
+import org.opengeo.data.csv.parse.CSVLatLonStrategy;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+import com.vividsolutions.jts.geom.Point;
+
+public class CSVColumnStoreTest {
+
+    private static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2(null);
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = CSVTestFiles.copyLocations("memory");
+    }
+
+    @After
+    public void tearDown() {
+        CSVTestFiles.delete(file);
+    }
+
+    private CSVDataStore createDataStore(long memoryLimit) {
+        CSVFileState csvFileState = new CSVFileState(file);
+        csvFileState.setMemoryLimit(memoryLimit);
+        return new CSVDataStore(csvFileState, new CSVLatLonStrategy(csvFileState));
+    }
+
+    private List<String> read(CSVDataStore dataStore, Query query) throws IOException {
+        FeatureReader<SimpleFeatureType, SimpleFeature> reader = dataStore.getFeatureReader(
+                query, Transaction.AUTO_COMMIT);
+        List<String> features = new ArrayList<String>();
+        try {
+            while (reader.hasNext()) {
+                SimpleFeature feature = reader.next();
+                Point point = (Point) feature.getDefaultGeometry();
+                features.add(feature.getID() + " " + feature.getAttribute("CITY") + " "
+                        + feature.getAttribute("NUMBER") + " " + point.getX() + " "
+                        + point.getY());
+            }
+        } finally {
+            reader.close();
+        }
+        return features;
+    }
+
+    @Test
+    public void testLoad() throws IOException {
+        CSVDataStore dataStore = createDataStore(file.length());
+        CSVColumnStore columnStore = dataStore.getCSVFileState().getColumnStore();
+        assertNotNull("File should be held in memory", columnStore);
+        assertEquals("Invalid row count", 9, columnStore.getRowCount());
+        assertTrue("Store should be current", columnStore.isCurrent(file));
+
+        CSVColumnStore.Cursor cursor = columnStore.cursor(3);
+        assertTrue("Missing row", cursor.next());
+        assertEquals("Invalid text", "Ottawa", cursor.get(2));
+        assertEquals("Invalid number", 45.420833, cursor.getDouble(0), 0);
+        assertEquals("Invalid integer", 200, cursor.getLong(3));
+        assertEquals("Invalid values", Arrays.asList("45.420833", "-75.69", "Ottawa", "200"),
+                Arrays.asList(cursor.getValues()));
+
+        assertNull("Files over the limit should be read from disk",
+                createDataStore(file.length() - 1).getCSVFileState().getColumnStore());
+    }
+
+    @Test
+    public void testSameAsFile() throws IOException {
+        CSVDataStore fromFile = createDataStore(0);
+        CSVDataStore inMemory = createDataStore(file.length());
+        Filter greater = FF.greater(FF.property("NUMBER"), FF.literal(300));
+        Filter like = FF.like(FF.property("CITY"), "S*");
+        Filter bbox = FF.bbox("location", -100, 40, -70, 50, null);
+        for (Filter filter : new Filter[] { Filter.INCLUDE, greater, like, bbox }) {
+            Query query = new Query("locations", filter);
+            assertEquals("Unexpected features for " + filter, read(fromFile, query),
+                    read(inMemory, query));
+        }
+        Query page = new Query("locations");
+        page.setStartIndex(4);
+        page.setMaxFeatures(3);
+        assertEquals("Unexpected page", read(fromFile, page), read(inMemory, page));
+        assertEquals("Invalid count", 5, inMemory.getFeatureSource().getCount(
+                new Query("locations", greater)));
+    }
+
+    @Test
+    public void testColumnFallback() throws IOException {
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write("id,code,name\n");
+            for (int i = 0; i < 100; i++) {
+                writer.write(i + "," + (i < 99 ? String.valueOf(i * 2) : "n/a") + ",same\n");
+            }
+            writer.write("100\n");
+        } finally {
+            writer.close();
+        }
+        CSVFileState csvFileState = new CSVFileState(file);
+        // the code column looks numeric in the first records
+        csvFileState.setInferenceMode(CSVInferenceMode.FIRST, 10);
+        csvFileState.setMemoryLimit(file.length());
+        CSVColumnStore columnStore = csvFileState.getColumnStore();
+        assertEquals("Invalid row count", 101, columnStore.getRowCount());
+        CSVColumnStore.Cursor cursor = columnStore.cursor(98);
+        assertTrue(cursor.next());
+        assertEquals("Numbers loaded before a text value should be kept", "196", cursor.get(1));
+        assertTrue(cursor.next());
+        assertEquals("Invalid text value", "n/a", cursor.get(1));
+        assertEquals("Invalid dictionary value", "same", cursor.get(2));
+        assertTrue(cursor.next());
+        assertEquals("Short records should keep their column count", 1,
+                cursor.getColumnCount());
+        assertFalse("Cursor should stop after the last row", cursor.next());
+    }
+}
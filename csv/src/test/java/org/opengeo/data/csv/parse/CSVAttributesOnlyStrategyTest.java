@@ -6,6 +6,7 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -14,6 +15,7 @@ import java.util.NoSuchElementException;
 
 import org.junit.Test;
 import org.opengeo.data.csv.CSVFileState;
+import org.opengeo.data.csv.CSVTestFiles;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
@@ -84,6 +86,37 @@ public class CSVAttributesOnlyStrategyTest {
         }
     }
 
+    @Test
+    public void testTrimmedValues() throws IOException {
+        File file = CSVTestFiles.createFile("trim",
+                "id,name\n 1 ,\" padded \"\n2,\"\ttabbed\t\"\n");
+        try {
+            // decoded values and memory mapped records are trimmed alike
+            for (boolean memoryMapped : new boolean[] { false, true }) {
+                CSVFileState fileState = new CSVFileState(file);
+                fileState.setMemoryMapped(memoryMapped);
+                CSVStrategy strategy = new CSVAttributesOnlyStrategy(fileState);
+                CSVIterator iterator = strategy.iterator();
+                try {
+                    assertTrue("next value not read", iterator.hasNext());
+                    SimpleFeature feature = iterator.next();
+                    assertEquals("Invalid feature property", 1, feature.getAttribute("id"));
+                    assertEquals("Invalid feature property", "padded", feature
+                            .getAttribute("name"));
+                    assertTrue("next value not read", iterator.hasNext());
+                    feature = iterator.next();
+                    assertEquals("Invalid feature property", "tabbed", feature
+                            .getAttribute("name"));
+                    assertFalse("extra next value", iterator.hasNext());
+                } finally {
+                    iterator.close();
+                }
+            }
+        } finally {
+            CSVTestFiles.delete(file);
+        }
+    }
+
     @Test
     public void testCreateNoGeometry() throws IOException {
         String input = CSVTestStrategySupport.buildInputString("blub", "fubar");
@@ -7,6 +7,8 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -15,6 +17,8 @@ import java.util.NoSuchElementException;
 
 import org.junit.Test;
 import org.opengeo.data.csv.CSVFileState;
+import org.opengeo.data.csv.CSVInferenceMode;
+import org.opengeo.data.csv.index.CSVRowIndex;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
@@ -91,6 +95,29 @@ public class CSVLatLonStrategyTest {
         }
     }
 
+    @Test
+    public void testFeatureBuilderReuse() {
+        String input = CSVTestStrategySupport.buildInputString("lat,lon,name,count",
+                "1,2,foo,3");
+        CSVFileState fileState = new CSVFileState(input, "reuse");
+        CSVLatLonStrategy strategy = new CSVLatLonStrategy(fileState);
+        CSVFeatureBuilder builder = strategy.createFeatureBuilder();
+
+        SimpleFeature first = builder.build("1", new String[] { "1", "2", "foo", "3" });
+        SimpleFeature second = builder.build("2", new String[] { "5", "6", "bar" });
+        assertEquals("Invalid feature id", "reuse-1", first.getID());
+        assertEquals("Invalid feature property", "foo", first.getAttribute("name"));
+        assertEquals("Invalid feature property", 3, first.getAttribute("count"));
+        Coordinate coordinate = ((Point) first.getDefaultGeometry()).getCoordinate();
+        assertEquals("Invalid point", 2, coordinate.x, 0.1);
+        assertEquals("Invalid point", 1, coordinate.y, 0.1);
+
+        assertEquals("Invalid feature property", "bar", second.getAttribute("name"));
+        assertNull("Values leaked between features", second.getAttribute("count"));
+        coordinate = ((Point) second.getDefaultGeometry()).getCoordinate();
+        assertEquals("Invalid point", 6, coordinate.x, 0.1);
+    }
+
     @Test
     public void testBuildFeatureDifferentTypes() throws IOException {
         String input = CSVTestStrategySupport.buildInputString(
@@ -312,4 +339,51 @@ public class CSVLatLonStrategyTest {
         String bindingName = binding.getName();
         return bindingName;
     }
+
+    @Test
+    public void testSampledTypesWithBadCoordinates() throws IOException {
+        File file = File.createTempFile("latlon", ".csv");
+        try {
+            FileWriter writer = new FileWriter(file);
+            try {
+                writer.write("lat,lon,name\n");
+                for (int i = 0; i < 5000; i++) {
+                    // rows the sampled offsets never reach
+                    String lat = i == 500 ? "" : i == 501 ? "north" : String.valueOf(i % 90);
+                    writer.write(lat + "," + (i % 180) + ",p" + i + "\n");
+                }
+            } finally {
+                writer.close();
+            }
+            for (boolean memoryMapped : new boolean[] { false, true }) {
+                CSVFileState fileState = new CSVFileState(file);
+                fileState.setInferenceMode(CSVInferenceMode.SAMPLE, 100);
+                fileState.setMemoryMapped(memoryMapped);
+                CSVLatLonStrategy strategy = new CSVLatLonStrategy(fileState);
+                assertNotNull("Geometry not inferred", strategy.getFeatureType()
+                        .getGeometryDescriptor());
+
+                int count = 0;
+                int nulls = 0;
+                CSVIterator iterator = strategy.iterator();
+                try {
+                    while (iterator.hasNext()) {
+                        if (iterator.next().getDefaultGeometry() == null) {
+                            nulls++;
+                        }
+                        count++;
+                    }
+                } finally {
+                    iterator.close();
+                }
+                assertEquals("Invalid feature count", 5000, count);
+                assertEquals("Bad coordinates should give null geometries", 2, nulls);
+                assertNull("Bad coordinates have no envelope", strategy.getEnvelope(new String[] {
+                        "north", "3", "p" }));
+            }
+        } finally {
+            CSVRowIndex.getIndexFile(file).delete();
+            file.delete();
+        }
+    }
 }
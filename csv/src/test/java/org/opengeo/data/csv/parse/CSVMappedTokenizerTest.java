@@ -0,0 +1,157 @@
+package org.opengeo.data.csv.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CSVMappedTokenizerTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("tokenizer", ".csv");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private void write(String content, Charset charset) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes(charset.name()));
+        } finally {
+            out.close();
+        }
+    }
+
+    private void assertRecord(CSVMappedTokenizer tokenizer, String... values) throws IOException {
+        assertTrue("Record not read", tokenizer.readRecord());
+        assertEquals("Invalid column count", values.length, tokenizer.getColumnCount());
+        for (int i = 0; i < values.length; i++) {
+            assertEquals("Invalid value", values[i], tokenizer.get(i));
+        }
+    }
+
+    @Test
+    public void testQuoting() throws IOException {
+        write("a,b,c\n  1 , \"x, y\" ,z\r\n\n\"multi\nline\",\"say \"\"hi\"\"\",\r\nlast,row",
+                UTF8);
+        CSVMappedTokenizer tokenizer = new CSVMappedTokenizer(file, UTF8);
+        try {
+            assertRecord(tokenizer, "a", "b", "c");
+            assertRecord(tokenizer, "1", "x, y", "z");
+            long offset = tokenizer.getRecordOffset();
+            assertRecord(tokenizer, "multi\nline", "say \"hi\"", "");
+            assertEquals("Invalid record offset", "a,b,c\n  1 , \"x, y\" ,z\r\n\n".length(),
+                    tokenizer.getRecordOffset());
+            assertRecord(tokenizer, "last", "row");
+            assertFalse(tokenizer.readRecord());
+
+            tokenizer.seek(offset);
+            assertRecord(tokenizer, "1", "x, y", "z");
+        } finally {
+            tokenizer.close();
+        }
+    }
+
+    @Test
+    public void testCharsets() throws IOException {
+        write("\uFEFFname\nSão Paulo\n\"Zürich \"\"Züri\"\"\"\n", UTF8);
+        CSVMappedTokenizer tokenizer = new CSVMappedTokenizer(file, UTF8);
+        try {
+            assertRecord(tokenizer, "name");
+            assertRecord(tokenizer, "São Paulo");
+            assertRecord(tokenizer, "Zürich \"Züri\"");
+        } finally {
+            tokenizer.close();
+        }
+
+        Charset latin1 = Charset.forName("ISO-8859-1");
+        write("name\nSão Paulo\n", latin1);
+        tokenizer = new CSVMappedTokenizer(file, latin1);
+        try {
+            assertRecord(tokenizer, "name");
+            assertRecord(tokenizer, "São Paulo");
+        } finally {
+            tokenizer.close();
+        }
+
+        assertTrue(CSVMappedTokenizer.isSupported(latin1));
+        assertFalse(CSVMappedTokenizer.isSupported(Charset.forName("UTF-16")));
+    }
+
+    @Test
+    public void testNumbers() throws IOException {
+        String[] values = new String[] { "0", "-12.5", "3.14159265358979", "1e-3", "2.5E10",
+                "0.000123", "12345678901234567890", "-0.0", "1.", ".5", "NaN", "42" };
+        StringBuilder content = new StringBuilder("v\n");
+        for (String value : values) {
+            content.append(value).append('\n');
+        }
+        write(content.toString(), UTF8);
+        CSVMappedTokenizer tokenizer = new CSVMappedTokenizer(file, UTF8);
+        try {
+            tokenizer.readRecord();
+            for (String value : values) {
+                assertTrue(tokenizer.readRecord());
+                assertEquals("Invalid double for " + value, Double.parseDouble(value),
+                        tokenizer.getDouble(0), 0);
+            }
+            assertEquals("Invalid long", 42, tokenizer.getLong(0));
+        } finally {
+            tokenizer.close();
+        }
+    }
+
+    @Test
+    public void testTrimming() throws IOException {
+        write("a,b,c\n\" x \",\"  12\t\",  \n", UTF8);
+        CSVMappedTokenizer tokenizer = new CSVMappedTokenizer(file, UTF8);
+        try {
+            tokenizer.readRecord();
+            // quoted fields are trimmed too, like the strategies trim decoded values
+            assertRecord(tokenizer, "x", "12", "");
+            assertEquals("Invalid long", 12, tokenizer.getLong(1));
+            assertEquals("Invalid double", 12, tokenizer.getDouble(1), 0);
+            assertTrue("Blank field should be empty", tokenizer.isEmpty(2));
+        } finally {
+            tokenizer.close();
+        }
+    }
+
+    @Test
+    public void testWindows() throws IOException {
+        StringBuilder content = new StringBuilder("id,text\n");
+        for (int i = 0; i < 500; i++) {
+            content.append(i).append(",\"row ").append(i).append("\nspans lines\"\n");
+        }
+        write(content.toString(), UTF8);
+        // a tiny window forces records across window boundaries and window growth
+        CSVMappedTokenizer tokenizer = new CSVMappedTokenizer(file, UTF8, 16);
+        try {
+            assertRecord(tokenizer, "id", "text");
+            for (int i = 0; i < 500; i++) {
+                assertRecord(tokenizer, String.valueOf(i), "row " + i + "\nspans lines");
+                assertEquals("Invalid id", i, tokenizer.getLong(0));
+            }
+            assertFalse(tokenizer.readRecord());
+        } finally {
+            tokenizer.close();
+        }
+    }
+}
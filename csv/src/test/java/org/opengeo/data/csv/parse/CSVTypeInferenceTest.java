@@ -0,0 +1,122 @@
+package org.opengeo.data.csv.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opengeo.data.csv.CSVFileState;
+import org.opengeo.data.csv.CSVFileStatistics;
+import org.opengeo.data.csv.CSVInferenceMode;
+import org.opengeo.data.csv.index.CSVRowIndex;
+
+public class CSVTypeInferenceTest {
+
+    @Test
+    public void testTypes() {
+        CSVTypeInference inference = new CSVTypeInference(new String[] { "int", "long", "double",
+                "bool", "date", "timestamp", "string", "empty" });
+        inference.add(new String[] { "1", "2", "3", "true", "2012-01-31", "2012-01-31 10:15:00",
+                "foo" });
+        inference.add(new String[] { "-7", "3000000000", "4.5", "FALSE", "2011-12-01",
+                "2012-02-01 00:00:00.5", "12" });
+        Map<String, Class<?>> types = inference.getTypes();
+        assertEquals("Invalid type", Integer.class, types.get("int"));
+        assertEquals("Invalid type", Long.class, types.get("long"));
+        assertEquals("Invalid type", Double.class, types.get("double"));
+        assertEquals("Invalid type", Boolean.class, types.get("bool"));
+        assertEquals("Invalid type", Date.class, types.get("date"));
+        assertEquals("Invalid type", Timestamp.class, types.get("timestamp"));
+        assertEquals("Invalid type", String.class, types.get("string"));
+        assertEquals("Invalid type", Integer.class, types.get("empty"));
+
+        CSVFileStatistics statistics = inference.toStatistics(-1, -1, 2, true);
+        assertEquals("Invalid minimum", -7, statistics.getMinimum("int"));
+        assertEquals("Invalid maximum", 3000000000L, statistics.getMaximum("long"));
+        assertEquals("Invalid minimum", false, statistics.getMinimum("bool"));
+        assertEquals("Invalid minimum", Date.valueOf("2011-12-01"), statistics.getMinimum("date"));
+        assertNull("Unexpected minimum", statistics.getMinimum("empty"));
+    }
+
+    @Test
+    public void testMixedTypesFallBackToString() {
+        CSVTypeInference inference = new CSVTypeInference(new String[] { "a", "b", "c" });
+        inference.add(new String[] { "1", "true", "2012-01-31" });
+        inference.add(new String[] { "true", "1", "2012-01-31 10:15:00" });
+        Map<String, Class<?>> types = inference.getTypes();
+        assertEquals("Invalid type", String.class, types.get("a"));
+        assertEquals("Invalid type", String.class, types.get("b"));
+        assertEquals("Invalid type", String.class, types.get("c"));
+    }
+
+    @Test
+    public void testFirstMode() throws IOException {
+        String input = CSVTestStrategySupport.buildInputString("a,b", "1,2", "3,4", "foo,5.5");
+        CSVFileState fileState = new CSVFileState(input, "typename");
+        fileState.setInferenceMode(CSVInferenceMode.FIRST, 2);
+        CSVFileStatistics statistics = fileState.getStatistics();
+        assertEquals("Invalid type", Integer.class, statistics.getTypes().get("a"));
+        assertEquals("Invalid type", Integer.class, statistics.getTypes().get("b"));
+        assertEquals("Row count should be unknown", -1, statistics.getRowCount());
+    }
+
+    @Test
+    public void testSampleMode() throws IOException {
+        File file = File.createTempFile("sample", ".csv");
+        try {
+            FileWriter writer = new FileWriter(file);
+            try {
+                writer.write("id,value\n");
+                for (int i = 0; i < 50000; i++) {
+                    writer.write(i + "," + (i % 2 == 0 ? "true" : "false") + "\n");
+                }
+            } finally {
+                writer.close();
+            }
+            CSVFileState fileState = new CSVFileState(file);
+            fileState.setInferenceMode(CSVInferenceMode.SAMPLE, 100);
+            CSVFileStatistics statistics = fileState.getStatistics();
+            assertEquals("Invalid type", Integer.class, statistics.getTypes().get("id"));
+            assertEquals("Invalid type", Boolean.class, statistics.getTypes().get("value"));
+            assertEquals("Sampled row count should be unknown", -1, statistics.getRowCount());
+            assertNull("Sampled statistics have no ranges", statistics.getMaximum("id"));
+            assertFalse("Sampling should not scan the file", CSVRowIndex.getIndexFile(file)
+                    .exists());
+        } finally {
+            CSVRowIndex.getIndexFile(file).delete();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSampleModeQuotedLines() throws IOException {
+        File file = File.createTempFile("sample", ".csv");
+        try {
+            FileWriter writer = new FileWriter(file);
+            try {
+                writer.write("id,note,value\n");
+                for (int i = 0; i < 50000; i++) {
+                    // sampled offsets fall inside quoted fields spanning two lines
+                    writer.write(i + ",\"first line\nsecond, line\"," + (i % 2 == 0) + "\n");
+                }
+            } finally {
+                writer.close();
+            }
+            CSVFileState fileState = new CSVFileState(file);
+            fileState.setInferenceMode(CSVInferenceMode.SAMPLE, 100);
+            CSVFileStatistics statistics = fileState.getStatistics();
+            assertEquals("Invalid type", Integer.class, statistics.getTypes().get("id"));
+            assertEquals("Invalid type", String.class, statistics.getTypes().get("note"));
+            assertEquals("Invalid type", Boolean.class, statistics.getTypes().get("value"));
+        } finally {
+            file.delete();
+        }
+    }
+}
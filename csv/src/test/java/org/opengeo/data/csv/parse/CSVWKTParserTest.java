@@ -0,0 +1,78 @@
+package org.opengeo.data.csv.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequence;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class CSVWKTParserTest {
+
+    private final CSVWKTParser parser = new CSVWKTParser();
+
+    private void assertSame(String wkt) throws ParseException {
+        Geometry expected = new WKTReader().read(wkt);
+        Geometry actual = parser.read(wkt);
+        assertTrue("Invalid geometry for " + wkt + ": " + actual, expected.equalsExact(actual));
+    }
+
+    @Test
+    public void testGeometries() throws ParseException {
+        assertSame("POINT (1 2)");
+        assertSame("point(-1.5 2e3)");
+        assertSame("POINT (1 2 3)");
+        assertSame("LINESTRING (0 0, 1.25 1, 2 -2)");
+        assertSame("POLYGON ((0 0, 10 0, 10 10, 0 0), (1 1, 2 1, 2 2, 1 1))");
+        assertSame("MULTIPOINT (1 2, 3 4)");
+        assertSame("MULTIPOINT ((1 2), (3 4))");
+        assertSame("MULTILINESTRING ((0 0, 1 1), (2 2, 3 3))");
+        assertSame("MULTIPOLYGON (((0 0, 1 0, 1 1, 0 0)), ((5 5, 6 5, 6 6, 5 5)))");
+        assertSame("GEOMETRYCOLLECTION (POINT (1 2), LINESTRING (0 0, 1 1))");
+        // handed over to the WKTReader
+        assertSame("POINT EMPTY");
+        assertSame("LINESTRING (0 0, 1 1 1)");
+    }
+
+    @Test
+    public void testPackedSequence() throws ParseException {
+        LineString line = (LineString) parser.read("LINESTRING Z (0 0 1, 1 1 2)");
+        assertTrue("Coordinates should be packed",
+                line.getCoordinateSequence() instanceof PackedCoordinateSequence);
+        assertEquals("Invalid dimension", 3, line.getCoordinateSequence().getDimension());
+        assertEquals("Invalid z", 2, line.getCoordinateSequence().getOrdinate(1, 2), 0);
+    }
+
+    @Test
+    public void testEWKT() throws ParseException {
+        Geometry geometry = parser.read("SRID=4326;POINT (1 2)");
+        assertEquals("Invalid srid", 4326, geometry.getSRID());
+        assertEquals("Invalid x", 1, geometry.getCoordinate().x, 0);
+    }
+
+    @Test(expected = ParseException.class)
+    public void testInvalid() throws ParseException {
+        parser.read("POINT (1 two)");
+    }
+
+    @Test
+    public void testDecimals() {
+        String[] values = { "0", "-0", "12.5", " 7 ", "-179.123456789", "1e-7", "2.5E10",
+                "123456789012345678", "0.1234567890123456789", "NaN", "1e400" };
+        for (String value : values) {
+            assertEquals("Invalid value for " + value, Double.parseDouble(value),
+                    CSVDecimalParser.parseDouble(value), 0);
+        }
+        assertEquals("Invalid sign of zero", Double.doubleToLongBits(-0.0),
+                Double.doubleToLongBits(CSVDecimalParser.parseDouble("-0")));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testInvalidDecimal() {
+        CSVDecimalParser.parseDouble("1.2.3");
+    }
+}
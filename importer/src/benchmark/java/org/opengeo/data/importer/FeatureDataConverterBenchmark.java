@@ -0,0 +1,117 @@
+package org.opengeo.data.importer;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * Cost of copying the attributes of one feature, matching attribute names for every feature as
+ * the converters used to versus through a {@link FeatureDataConverter.Mapping} worked out once.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FeatureDataConverterBenchmark {
+
+    @Param({ "default", "oracle" })
+    public String converterName;
+
+    @Param({ "5", "50" })
+    public int attributes;
+
+    private FeatureDataConverter converter;
+
+    private FeatureDataConverter.Mapping mapping;
+
+    private SimpleFeature source;
+
+    private SimpleFeature target;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        boolean oracle = "oracle".equals(converterName);
+        converter = oracle ? FeatureDataConverter.TO_ORACLE : FeatureDataConverter.DEFAULT;
+
+        SimpleFeatureTypeBuilder sb = new SimpleFeatureTypeBuilder();
+        sb.setName("source");
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName(oracle ? "TARGET" : "target");
+        Object[] values = new Object[attributes];
+        for (int i = 0; i < attributes; i++) {
+            String name = "attribute" + i;
+            Class<?> binding = i == 0 ? Point.class : i % 2 == 0 ? String.class : Double.class;
+            sb.add(name, binding);
+            tb.add(oracle ? name.toUpperCase() : name, binding);
+            values[i] = i == 0 ? new GeometryFactory().createPoint(new Coordinate(i, i))
+                : i % 2 == 0 ? (Object) ("value" + i) : (Object) Double.valueOf(i);
+        }
+        SimpleFeatureType sourceType = sb.buildFeatureType();
+        SimpleFeatureType targetType = tb.buildFeatureType();
+
+        source = SimpleFeatureBuilder.build(sourceType, values, "source.1");
+        target = SimpleFeatureBuilder.build(targetType, new Object[attributes], null);
+        mapping = converter.mapping(sourceType, targetType);
+    }
+
+    @Benchmark
+    public SimpleFeature byName() {
+        if (converter == FeatureDataConverter.TO_ORACLE) {
+            Set<String> toAttrNames = attributeNames(target);
+            for (String name : attributeNames(source)) {
+                String toName = name.toUpperCase();
+                if (toAttrNames.contains(toName)) {
+                    target.setAttribute(toName, source.getAttribute(name));
+                }
+            }
+        } else {
+            Set<String> commonNames = new HashSet<String>(attributeNames(source));
+            commonNames.retainAll(attributeNames(target));
+            for (String attrName : commonNames) {
+                target.setAttribute(attrName, source.getAttribute(attrName));
+            }
+        }
+        return target;
+    }
+
+    @Benchmark
+    public SimpleFeature mapping() {
+        mapping.convert(source, target);
+        return target;
+    }
+
+    private static Set<String> attributeNames(SimpleFeature feature) {
+        List<AttributeDescriptor> attributeDescriptors = feature.getType()
+                .getAttributeDescriptors();
+        Set<String> attrNames = new HashSet<String>(attributeDescriptors.size());
+        for (AttributeDescriptor attr : attributeDescriptors) {
+            attrNames.add(attr.getLocalName());
+        }
+        return attrNames;
+    }
+}
@@ -3,11 +3,9 @@ package org.opengeo.data.importer;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -33,6 +31,12 @@ public class Directory extends FileData {
      * list of files contained in directory
      */
     List<FileData> files = new ArrayList<FileData>();
+
+    /**
+     * listings and formats of the files, shared with the files and directories prepared from 
+     * this one
+     */
+    transient DirectoryScanner scanner;
     
     public Directory(File file) {
         super(file);
@@ -69,11 +73,25 @@ public class Directory extends FileData {
     }
 
     public void unpack(File file) throws IOException {
+        unpack(file, null);
+    }
+
+    /**
+     * Unpacks the file into the directory if it is an archive, deleting it afterwards. Progress
+     * is reported to the monitor if not null. Files accepted into the directory go through here,
+     * so the cached listings of the directory are dropped.
+     */
+    public void unpack(File file, ProgressMonitor m) throws IOException {
+        //the directory is changing, don't reuse listings that may not show it
+        if (scanner != null) {
+            scanner.clear();
+        }
+
         //if the file is an archive, unpack it
         VFSWorker vfs = new VFSWorker();
         if (vfs.canHandle(file)) {
             LOGGER.fine("unpacking " + file.getAbsolutePath() + " to " + this.file.getAbsolutePath());
-            vfs.extractTo(file, this.file);
+            vfs.extractTo(file, this.file, m);
 
             LOGGER.fine("deleting " + file.getAbsolutePath());
             file.delete();
@@ -91,6 +109,19 @@ public class Directory extends FileData {
 
     @Override
     public void prepare(ProgressMonitor m) throws IOException {
+        //list the whole tree and look up formats up front, in parallel
+        if (scanner == null) {
+            scanner = new DirectoryScanner(DirectoryScanner.getPool());
+        }
+        scanner.scan(file, m);
+
+        collect(m);
+    }
+
+    /*
+     * gathers the files of the directory from the listings and formats of the scanner
+     */
+    void collect(ProgressMonitor m) throws IOException {
         files = new ArrayList<FileData>();
 
         //recursively search for spatial files, maintain a queue of directories to recurse into
@@ -105,27 +136,32 @@ public class Directory extends FileData {
             }
             m.setTask("Scanning " + dir.getPath());
 
+            DirectoryScanner.Listing listing = scanner.list(dir);
+
             //get all the regular (non directory) files
-            Set<File> all = new LinkedHashSet<File>(Arrays.asList(dir.listFiles(new FilenameFilter() {
-                public boolean accept(File dir, String name) {
-                    return !new File(dir, name).isDirectory();
+            Set<File> all = new LinkedHashSet<File>();
+            for (int i = 0; i < listing.files.length; i++) {
+                if (!listing.directory[i]) {
+                    all.add(listing.files[i]);
                 }
-            })));
+            }
 
             //scan all the files looking for spatial ones
-            for (File f : dir.listFiles()) {
-                if (f.isHidden()) {
+            for (int i = 0; i < listing.files.length; i++) {
+                File f = listing.files[i];
+                if (listing.hidden[i]) {
                     all.remove(f);
                     continue;
                 }
-                if (f.isDirectory()) {
+                if (listing.directory[i]) {
                     // @hacky - ignore __MACOSX
                     // this could probably be dealt with in a better way elsewhere
                     // like by having Directory ignore the contents since they
                     // are all hidden files anyway
                     if (!"__MACOSX".equals(f.getName())) {
                         Directory d = new Directory(f);
-                        d.prepare(m);
+                        d.scanner = scanner;
+                        d.collect(m);
 
                         files.add(d);
                     }
@@ -140,11 +176,12 @@ public class Directory extends FileData {
                 }
 
                 //determine if this is a spatial format or not
-                DataFormat format = DataFormat.lookup(f);
+                DataFormat format = scanner.format(f);
 
                 if (format != null) {
                     SpatialFile sf = new SpatialFile(f);
                     sf.setFormat(format);
+                    sf.scanner = scanner;
 
                     //gather up the related files
                     sf.prepare(m);
@@ -296,7 +333,9 @@ public class Directory extends FileData {
     }
 
     public Directory filter(List<FileData> files) {
-        return new Filtered(file, files);
+        Directory filtered = new Filtered(file, files);
+        filtered.scanner = scanner;
+        return filtered;
     }
 
     @Override
@@ -305,12 +344,20 @@ public class Directory extends FileData {
     }
 
     public void accept(String childName, InputStream in) throws IOException {
+        accept(childName, in, null);
+    }
+
+    /**
+     * Writes the stream to a child of the directory and unpacks it if it is an archive, reporting
+     * progress to the monitor if not null.
+     */
+    public void accept(String childName, InputStream in, ProgressMonitor m) throws IOException {
         File dest = getChild(childName);
         
         IOUtils.copy(in, dest);
 
         try {
-            unpack(dest);
+            unpack(dest, m);
         } catch (IOException ioe) {
             // problably should delete on error
             LOGGER.warning("Possible invalid file uploaded to " + dest.getAbsolutePath());
@@ -319,11 +366,19 @@ public class Directory extends FileData {
     }
 
     public void accept(FileItem item) throws Exception {
+        accept(item, null);
+    }
+
+    /**
+     * Writes the uploaded item to a child of the directory and unpacks it if it is an archive,
+     * reporting progress to the monitor if not null.
+     */
+    public void accept(FileItem item, ProgressMonitor m) throws Exception {
         File dest = getChild(item.getName());
         item.write(dest);
 
         try {
-            unpack(dest);
+            unpack(dest, m);
         } 
         catch (IOException e) {
             // problably should delete on error
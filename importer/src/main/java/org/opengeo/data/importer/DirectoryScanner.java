@@ -0,0 +1,283 @@
+package org.opengeo.data.importer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.commons.io.FilenameUtils;
+import org.opengeo.data.importer.job.ProgressMonitor;
+
+/**
+ * Lists the directories of an upload and looks up the format of their files, caching the
+ * results so that preparing the same files again, as the importer does when creating and then
+ * preparing tasks, doesn't hit the disk or the format lookups again.
+ * <p>
+ * {@link #scan(File, ProgressMonitor)} walks a whole tree up front, listing each directory
+ * once and looking up formats on a pool, several directories and batches of files at a time.
+ * Listings are reused until the directory is modified, and formats until the file is.
+ * </p>
+ */
+class DirectoryScanner {
+
+    /** number of directories and batches of files scanned at once */
+    static final int PARALLELISM = Importer.getIntProperty("org.opengeo.importer.scanParallelism",
+        Runtime.getRuntime().availableProcessors());
+
+    /** files looked up at once */
+    static final int BATCH_SIZE = 32;
+
+    /** marks files of no known format */
+    static final Object NONE = new Object();
+
+    static ExecutorService pool;
+
+    /**
+     * The pool shared by scans, null when scanning in the calling thread.
+     */
+    static synchronized ExecutorService getPool() {
+        if (pool == null && PARALLELISM > 1) {
+            pool = Importer.createPool("importer-scan", PARALLELISM);
+        }
+        return pool;
+    }
+
+    /**
+     * The contents of a directory.
+     */
+    static class Listing {
+        final long lastModified;
+        final File[] files;
+        final boolean[] directory, hidden;
+
+        Listing(File dir) {
+            lastModified = dir.lastModified();
+            File[] list = dir.listFiles();
+            files = list != null ? list : new File[0];
+            directory = new boolean[files.length];
+            hidden = new boolean[files.length];
+            for (int i = 0; i < files.length; i++) {
+                directory[i] = files[i].isDirectory();
+                hidden[i] = files[i].isHidden();
+            }
+        }
+    }
+
+    /**
+     * The format of a file.
+     */
+    static class Lookup {
+        final long lastModified, length;
+        final Object format;
+
+        Lookup(File file) {
+            lastModified = file.lastModified();
+            length = file.length();
+            DataFormat f = DataFormat.lookup(file);
+            format = f != null ? f : NONE;
+        }
+    }
+
+    ExecutorService executor;
+
+    ConcurrentHashMap<File, Listing> listings = new ConcurrentHashMap<File, Listing>();
+    ConcurrentHashMap<File, Lookup> lookups = new ConcurrentHashMap<File, Lookup>();
+
+    DirectoryScanner(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Forgets all listings and formats. Modification times of directories may only have a
+     * resolution of a second, so files added through the importer clear the scanner rather than
+     * relying on them.
+     */
+    void clear() {
+        listings.clear();
+        lookups.clear();
+    }
+
+    /**
+     * Returns the contents of the directory, listing it again if it changed.
+     */
+    Listing list(File dir) {
+        Listing listing = listings.get(dir);
+        if (listing == null || listing.lastModified != dir.lastModified()) {
+            listing = new Listing(dir);
+            listings.put(dir, listing);
+        }
+        return listing;
+    }
+
+    /**
+     * Returns the format of the file, or null if none can read it.
+     */
+    DataFormat format(File file) {
+        Lookup lookup = lookups.get(file);
+        if (lookup == null || lookup.lastModified != file.lastModified()
+            || lookup.length != file.length()) {
+            lookup = new Lookup(file);
+            lookups.put(file, lookup);
+        }
+        return lookup.format != NONE ? (DataFormat) lookup.format : null;
+    }
+
+    /**
+     * Lists the directories, and looks up the formats of the files, of a whole tree. Hidden
+     * files and directories are skipped as {@link Directory#prepare(ProgressMonitor)} does.
+     */
+    void scan(File root, ProgressMonitor m) throws IOException {
+        Scan scan = new Scan(m);
+        scan.submit(scan.list(root));
+        scan.await(root);
+    }
+
+    /**
+     * The jobs of a scan, they never wait on each other so they can't starve the pool.
+     */
+    class Scan {
+
+        ProgressMonitor monitor;
+
+        /** jobs to run in the calling thread when there is no pool */
+        LinkedList<Runnable> queue;
+
+        /** jobs running on the pool, and the first failure of one */
+        int pending;
+        Throwable error;
+
+        Scan(ProgressMonitor monitor) {
+            this.monitor = monitor;
+            this.queue = executor == null ? new LinkedList<Runnable>() : null;
+        }
+
+        /*
+         * lists a directory, queueing its sub directories and the lookups of its files
+         */
+        Runnable list(final File dir) {
+            return new Runnable() {
+                public void run() {
+                    if (monitor.isCanceled()) {
+                        return;
+                    }
+                    Listing listing = DirectoryScanner.this.list(dir);
+
+                    List<File> batch = new ArrayList<File>(BATCH_SIZE);
+                    for (int i = 0; i < listing.files.length; i++) {
+                        File f = listing.files[i];
+                        if (listing.hidden[i]) {
+                            continue;
+                        }
+                        if (listing.directory[i]) {
+                            if (!"__MACOSX".equals(f.getName())) {
+                                submit(list(f));
+                            }
+                            continue;
+                        }
+                        if ("aux".equalsIgnoreCase(FilenameUtils.getExtension(f.getName()))) {
+                            continue;
+                        }
+                        batch.add(f);
+                        if (batch.size() == BATCH_SIZE) {
+                            submit(lookup(batch));
+                            batch = new ArrayList<File>(BATCH_SIZE);
+                        }
+                    }
+                    if (!batch.isEmpty()) {
+                        submit(lookup(batch));
+                    }
+                }
+            };
+        }
+
+        Runnable lookup(final List<File> files) {
+            return new Runnable() {
+                public void run() {
+                    for (File f : files) {
+                        if (monitor.isCanceled()) {
+                            return;
+                        }
+                        format(f);
+                    }
+                }
+            };
+        }
+
+        void submit(final Runnable job) {
+            if (queue != null) {
+                queue.add(job);
+                return;
+            }
+
+            synchronized (this) {
+                pending++;
+            }
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            job.run();
+                        }
+                        catch(Throwable t) {
+                            failed(t);
+                        }
+                        finally {
+                            done();
+                        }
+                    }
+                });
+            }
+            catch(RuntimeException e) {
+                failed(e);
+                done();
+            }
+        }
+
+        synchronized void failed(Throwable t) {
+            if (error == null) {
+                error = t;
+            }
+        }
+
+        synchronized void done() {
+            if (--pending == 0) {
+                notifyAll();
+            }
+        }
+
+        void await(File root) throws IOException {
+            if (queue != null) {
+                while (!queue.isEmpty()) {
+                    queue.poll().run();
+                }
+            }
+            else {
+                synchronized (this) {
+                    while (pending > 0) {
+                        try {
+                            wait();
+                        }
+                        catch(InterruptedException e) {
+                            throw (IOException) new IOException("Interrupted while scanning "
+                                + root.getPath()).initCause(e);
+                        }
+                    }
+                }
+            }
+
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            if (error instanceof Error) {
+                throw (Error) error;
+            }
+            if (error != null) {
+                throw (IOException) new IOException("Error scanning " + root.getPath())
+                    .initCause(error);
+            }
+        }
+    }
+}
@@ -6,6 +6,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -72,23 +73,72 @@ public class FeatureDataConverter {
         return typeBuilder.buildFeatureType();
     }
 
+    /**
+     * Copies the attributes of a feature into one of the converted type. When copying many 
+     * features between the same types use a {@link Mapping} instead.
+     */
     public void convert(SimpleFeature from, SimpleFeature to) {
-        Set<String> fromAttrNames = attributeNames(from);
-        Set<String> toAttrNames = attributeNames(to);
-        Set<String> commonNames = new HashSet<String>(fromAttrNames);
-        commonNames.retainAll(toAttrNames);
-        for (String attrName : commonNames) {
-            to.setAttribute(attrName, from.getAttribute(attrName));
+        mapping(from.getFeatureType(), to.getFeatureType()).convert(from, to);
+    }
+
+    /**
+     * Works out once which attribute of the target type each attribute of the source type is 
+     * copied into.
+     */
+    public Mapping mapping(SimpleFeatureType from, SimpleFeatureType to) {
+        List<AttributeDescriptor> atts = from.getAttributeDescriptors();
+        int[] source = new int[atts.size()];
+        int[] target = new int[atts.size()];
+        int n = 0;
+        for (int i = 0; i < atts.size(); i++) {
+            String name = targetName(atts.get(i), to);
+            int j = name != null ? to.indexOf(name) : -1;
+            if (j >= 0) {
+                source[n] = i;
+                target[n++] = j;
+            }
         }
+        return new Mapping(this, from, to, Arrays.copyOf(source, n), Arrays.copyOf(target, n));
     }
 
-    protected Set<String> attributeNames(SimpleFeature feature) {
-        List<AttributeDescriptor> attributeDescriptors = feature.getType().getAttributeDescriptors();
-        Set<String> attrNames = new HashSet<String>(attributeDescriptors.size());
-        for (AttributeDescriptor attr : attributeDescriptors) {
-            attrNames.add(attr.getLocalName());
+    /**
+     * The name of the attribute of the target type an attribute is copied into, attributes 
+     * without a match are dropped.
+     */
+    protected String targetName(AttributeDescriptor att, SimpleFeatureType to) {
+        return att.getLocalName();
+    }
+
+    /**
+     * Copies features between two types by attribute index.
+     */
+    public static final class Mapping {
+
+        final FeatureDataConverter converter;
+        final SimpleFeatureType from, to;
+
+        /** indexes of the copied attributes in the source, and in the target, types */ 
+        final int[] source, target;
+
+        Mapping(FeatureDataConverter converter, SimpleFeatureType from, SimpleFeatureType to, 
+            int[] source, int[] target) {
+            this.converter = converter;
+            this.from = from;
+            this.to = to;
+            this.source = source;
+            this.target = target;
+        }
+
+        public void convert(SimpleFeature from, SimpleFeature to) {
+            if (from.getFeatureType() != this.from || to.getFeatureType() != this.to) {
+                //features of other types, map them by name
+                converter.convert(from, to);
+                return;
+            }
+            for (int i = 0; i < source.length; i++) {
+                to.setAttribute(target[i], from.getAttribute(source[i]));
+            }
         }
-        return attrNames;
     }
 
     public static FeatureDataConverter DEFAULT = new FeatureDataConverter();
@@ -136,16 +186,13 @@ public class FeatureDataConverter {
         }
 
         @Override
-        public void convert(SimpleFeature from, SimpleFeature to) {
-            for (AttributeDescriptor att : from.getType().getAttributeDescriptors()) {
-                Object obj = from.getAttribute(att.getLocalName());
-                if (att instanceof GeometryDescriptor) {
-                    to.setDefaultGeometry(obj);
-                }
-                else {
-                    to.setAttribute(attName(att.getLocalName()), obj);
-                }
+        protected String targetName(AttributeDescriptor att, SimpleFeatureType to) {
+            if (att instanceof GeometryDescriptor) {
+                //geometries go to the default geometry
+                GeometryDescriptor gd = to.getGeometryDescriptor();
+                return gd != null ? gd.getLocalName() : null;
             }
+            return attName(att.getLocalName());
         }
 
         String attName(String name) {
@@ -176,17 +223,11 @@ public class FeatureDataConverter {
     };
 
     public static final FeatureDataConverter TO_ORACLE = new FeatureDataConverter() {
-        public void convert(SimpleFeature from, SimpleFeature to) {
+        @Override
+        protected String targetName(AttributeDescriptor att, SimpleFeatureType to) {
             //for oracle the target names are always uppercase
-            Set<String> fromAttrNames = attributeNames(from);
-            Set<String> toAttrNames = attributeNames(to);
-            for (String name : fromAttrNames) {
-                String toName = name.toUpperCase();
-                if (toAttrNames.contains(toName)) {
-                    to.setAttribute(toName, from.getAttribute(name));
-                }
-            }
-        };
+            return att.getLocalName().toUpperCase();
+        }
 
         public SimpleFeatureType convertType(SimpleFeatureType featureType, VectorFormat format, ImportData data, ImportItem item) {
             SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
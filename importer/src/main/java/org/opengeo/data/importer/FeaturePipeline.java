@@ -0,0 +1,263 @@
+package org.opengeo.data.importer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.geotools.data.DataStore;
+import org.geotools.data.FeatureReader;
+import org.geotools.data.FeatureWriter;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.opengeo.data.importer.job.ProgressMonitor;
+import org.opengeo.data.importer.transform.VectorTransformChain;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Copies the features of an item from the source reader into the target writer, converting and
+ * transforming them on the way.
+ * <p>
+ * With pools the copy runs in three stages. A reader thread reads batches of features and hands
+ * each one to the convert pool, queueing the pending result. The calling thread takes the results
+ * in order and writes them, so features keep their order and the writer, along with its
+ * transaction, is only used from the calling thread. The queue is bounded, the reader waits when
+ * conversion or writing falls behind. Without pools features are copied one at a time in the
+ * calling thread.
+ * </p>
+ */
+class FeaturePipeline {
+
+    /** features read and converted together */
+    static final int BATCH_SIZE = 256;
+
+    static final Object END = new Object();
+
+    ImportItem item;
+    DataStore dataStore;
+    FeatureDataConverter converter;
+    VectorTransformChain tx;
+
+    /** copies the attributes of the read features into the written ones */
+    FeatureDataConverter.Mapping mapping;
+
+    ExecutorService readPool;
+    ExecutorService convertPool;
+    int depth;
+
+    /** serializes conversions when the transforms can't run concurrently */
+    Object lock;
+
+    volatile boolean stopped;
+
+    /** number of features the transforms skipped */
+    int skipped;
+
+    FeaturePipeline(ImportItem item, DataStore dataStore, FeatureDataConverter converter,
+        VectorTransformChain tx) {
+        this.item = item;
+        this.dataStore = dataStore;
+        this.converter = converter;
+        this.tx = tx;
+    }
+
+    /**
+     * Runs the pipeline with a reader from the read pool and conversions on the convert pool,
+     * with at most depth batches between reading and writing.
+     */
+    void setPools(ExecutorService readPool, ExecutorService convertPool, int depth) {
+        this.readPool = readPool;
+        this.convertPool = convertPool;
+        this.depth = depth;
+        this.lock = tx.isThreadSafe() ? null : new Object();
+    }
+
+    int getSkipped() {
+        return skipped;
+    }
+
+    void copy(FeatureReader reader, FeatureWriter writer, ProgressMonitor monitor)
+        throws Exception {
+        mapping = converter.mapping((SimpleFeatureType) reader.getFeatureType(), 
+            (SimpleFeatureType) writer.getFeatureType());
+        if (readPool == null || convertPool == null) {
+            copySerial(reader, writer, monitor);
+        }
+        else {
+            copyPipelined(reader, writer, monitor);
+        }
+    }
+
+    void copySerial(FeatureReader reader, FeatureWriter writer, ProgressMonitor monitor)
+        throws Exception {
+        int cnt = 0;
+        while(reader.hasNext()) {
+            if (monitor.isCanceled()){
+                break;
+            }
+            SimpleFeature feature = (SimpleFeature) reader.next();
+            SimpleFeature next = (SimpleFeature) writer.next();
+
+            next = convert(feature, next);
+            if (next == null) {
+                skipped++;
+            } else {
+                writer.write();
+            }
+            item.setNumberProcessed(++cnt);
+        }
+    }
+
+    void copyPipelined(final FeatureReader reader, FeatureWriter writer, ProgressMonitor monitor)
+        throws Exception {
+        final SimpleFeatureType featureType = (SimpleFeatureType) writer.getFeatureType();
+        final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(depth);
+
+        Future<?> reading = readPool.submit(new Runnable() {
+            public void run() {
+                try {
+                    try {
+                        List<SimpleFeature> batch = new ArrayList<SimpleFeature>(BATCH_SIZE);
+                        while (!stopped && reader.hasNext()) {
+                            batch.add((SimpleFeature) reader.next());
+                            if (batch.size() == BATCH_SIZE) {
+                                put(queue, convertPool.submit(convert(batch, featureType)));
+                                batch = new ArrayList<SimpleFeature>(BATCH_SIZE);
+                            }
+                        }
+                        if (!batch.isEmpty()) {
+                            put(queue, convertPool.submit(convert(batch, featureType)));
+                        }
+                        put(queue, END);
+                    } catch (InterruptedException e) {
+                        throw e;
+                    } catch (Throwable t) {
+                        put(queue, t);
+                    }
+                } catch (InterruptedException e) {
+                    //stopped by the writer
+                }
+            }
+        });
+
+        int cnt = 0;
+        try {
+            while (!monitor.isCanceled()) {
+                Object next = queue.take();
+                if (next == END) {
+                    break;
+                }
+                if (next instanceof Throwable) {
+                    throw rethrow((Throwable) next);
+                }
+
+                List<SimpleFeature> batch;
+                try {
+                    batch = ((Future<List<SimpleFeature>>) next).get();
+                }
+                catch(ExecutionException e) {
+                    throw rethrow(e.getCause());
+                }
+                for (SimpleFeature feature : batch) {
+                    if (monitor.isCanceled()) {
+                        break;
+                    }
+                    if (feature == null) {
+                        skipped++;
+                    } else {
+                        SimpleFeature target = (SimpleFeature) writer.next();
+                        target.setAttributes(feature.getAttributes());
+                        target.getUserData().putAll(feature.getUserData());
+                        writer.write();
+                    }
+                    item.setNumberProcessed(++cnt);
+                }
+            }
+        }
+        finally {
+            //stop reading and drop pending conversions, the reader can't be closed before the
+            // reading thread is done with it
+            stopped = true;
+            Object pending;
+            while ((pending = queue.poll()) != null) {
+                if (pending instanceof Future) {
+                    ((Future<?>) pending).cancel(false);
+                }
+            }
+            try {
+                reading.get();
+            }
+            catch(ExecutionException e) {
+                //reported through the queue
+            }
+        }
+    }
+
+    void put(BlockingQueue<Object> queue, Object o) throws InterruptedException {
+        while (!stopped && !queue.offer(o, 100, TimeUnit.MILLISECONDS)) {
+            //waiting for the writer to catch up
+        }
+    }
+
+    Callable<List<SimpleFeature>> convert(final List<SimpleFeature> batch,
+        final SimpleFeatureType featureType) {
+        return new Callable<List<SimpleFeature>>() {
+            public List<SimpleFeature> call() throws Exception {
+                if (lock == null) {
+                    return convert(batch);
+                }
+                synchronized (lock) {
+                    return convert(batch);
+                }
+            }
+
+            List<SimpleFeature> convert(List<SimpleFeature> batch) throws Exception {
+                SimpleFeatureBuilder builder = new SimpleFeatureBuilder(featureType);
+                List<SimpleFeature> converted = new ArrayList<SimpleFeature>(batch.size());
+                for (SimpleFeature feature : batch) {
+                    if (stopped) {
+                        break;
+                    }
+                    converted.add(FeaturePipeline.this.convert(feature,
+                        builder.buildFeature(null)));
+                }
+                return converted;
+            }
+        };
+    }
+
+    /*
+     * converts and transforms a source feature into a target one, returning null if the
+     * transforms skipped it
+     */
+    SimpleFeature convert(SimpleFeature feature, SimpleFeature next) throws Exception {
+        //(JD) TODO: some formats will rearrange the geometry type (like shapefile) which
+        // makes the goemetry the first attribute reagardless, so blindly copying over
+        // attributes won't work unless the source type also  has the geometry as the
+        // first attribute in the schema
+        mapping.convert(feature, next);
+
+        // @hack #45678 - mask empty geometry or postgis will complain
+        Geometry geom = (Geometry) next.getDefaultGeometry();
+        if (geom != null && geom.isEmpty()) {
+            next.setDefaultGeometry(null);
+        }
+
+        //apply the feature transform
+        return tx.inline(item, dataStore, feature, next);
+    }
+
+    Exception rethrow(Throwable t) {
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return (Exception) t;
+    }
+}
@@ -2,7 +2,6 @@ package org.opengeo.data.importer;
 
 import com.google.common.collect.Iterators;
 import com.thoughtworks.xstream.XStream;
-import com.vividsolutions.jts.geom.Geometry;
 import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
@@ -13,11 +12,23 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -59,11 +70,11 @@ import org.opengeo.data.importer.job.Job;
 import org.opengeo.data.importer.job.JobQueue;
 import org.opengeo.data.importer.job.ProgressMonitor;
 import org.opengeo.data.importer.job.Task;
+import org.opengeo.data.importer.transform.CreateIndexTransform;
 import org.opengeo.data.importer.transform.RasterTransformChain;
 import org.opengeo.data.importer.transform.ReprojectTransform;
 import org.opengeo.data.importer.transform.TransformChain;
 import org.opengeo.data.importer.transform.VectorTransformChain;
-import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 
 import org.opengis.feature.type.FeatureType;
@@ -92,16 +103,82 @@ public class Importer implements InitializingBean, DisposableBean {
     StyleGenerator styleGen;
 
     /** job queue */
-    JobQueue jobs = new JobQueue();
+    JobQueue jobs = new JobQueue(getIntProperty("org.opengeo.importer.jobs", 
+        JobQueue.DEFAULT_POOL_SIZE));
     
     ConcurrentHashMap<Long,ImportItem> currentlyProcessing = new ConcurrentHashMap<Long, ImportItem>();
 
+    /** maximum number of tasks of a context, and of items overall, running at once */
+    int parallelism = getIntProperty("org.opengeo.importer.parallelism", 
+        Runtime.getRuntime().availableProcessors());
+
+    /** maximum number of items loaded into the same database at once */
+    int storeParallelism = getIntProperty("org.opengeo.importer.storeParallelism", 4);
+
+    /** whether features of new postgis tables are loaded with COPY rather than inserts */
+    boolean bulkLoad = "true".equalsIgnoreCase(
+        GeoServerExtensions.getProperty("org.opengeo.importer.bulkLoad"));
+
+    /** whether the indexes of new postgis tables are built after loading them */
+    boolean deferIndexes = "true".equalsIgnoreCase(
+        GeoServerExtensions.getProperty("org.opengeo.importer.deferIndexes"));
+
+    /** runs the tasks of contexts, created on demand */
+    ExecutorService taskPool;
+
+    /** runs the items of indirect imports, created on demand */
+    ExecutorService itemPool;
+
+    /** reads the features of running items, and converts them, created on demand */
+    ExecutorService readPool, convertPool;
+
+    /** builds the deferred indexes of loaded tables, created on demand */
+    ExecutorService indexPool;
+
+    /** permits to load items into each target store, by store id */
+    ConcurrentHashMap<String,Semaphore> storePermits = new ConcurrentHashMap<String, Semaphore>();
+
+    /** serializes changes to the catalog, and schema creation, across running items */
+    final Object catalogLock = new Object();
+
     public Importer(Catalog catalog) {
         this.catalog = catalog;
         this.contextStore = createContextStore();
         this.styleGen = new StyleGenerator(catalog);
     }
 
+    static int getIntProperty(String name, int defaultValue) {
+        String value = GeoServerExtensions.getProperty(name);
+        if (value != null) {
+            try {
+                int i = Integer.parseInt(value.trim());
+                if (i > 0) {
+                    return i;
+                }
+            }
+            catch(NumberFormatException e) {
+            }
+            LOGGER.warning("Invalid specification for " + name + ": " + value);
+        }
+        return defaultValue;
+    }
+
+    static long getLongProperty(String name, long defaultValue) {
+        String value = GeoServerExtensions.getProperty(name);
+        if (value != null) {
+            try {
+                long l = Long.parseLong(value.trim());
+                if (l >= 0) {
+                    return l;
+                }
+            }
+            catch(NumberFormatException e) {
+            }
+            LOGGER.warning("Invalid specification for " + name + ": " + value);
+        }
+        return defaultValue;
+    }
+
     ImportStore createContextStore() {
         //look up system property
         String store = GeoServerExtensions.getProperty("org.opengeo.importer.store");
@@ -118,6 +195,228 @@ public class Importer implements InitializingBean, DisposableBean {
         return contextStore;
     }
 
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the maximum number of tasks of a context, and of items of indirect imports overall, 
+     * that run at once. 1 runs everything in the calling thread.
+     */
+    public synchronized void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        //running imports finish on the old pools
+        shutdownPools();
+    }
+
+    public int getStoreParallelism() {
+        return storeParallelism;
+    }
+
+    /**
+     * Sets the maximum number of items loaded into the same database at once. Other target 
+     * stores, like shapefile directories, always load one item at a time.
+     */
+    public synchronized void setStoreParallelism(int storeParallelism) {
+        if (storeParallelism < 1) {
+            throw new IllegalArgumentException("Store parallelism must be positive: " 
+                + storeParallelism);
+        }
+        this.storeParallelism = storeParallelism;
+        storePermits.clear();
+    }
+
+    public boolean isBulkLoad() {
+        return bulkLoad;
+    }
+
+    /**
+     * Sets whether features imported into PostGIS are streamed with a single COPY rather than 
+     * inserted one at a time. Only applies to tables created by the import, and only when their 
+     * primary key is generated by the database, other loads go through inserts.
+     */
+    public void setBulkLoad(boolean bulkLoad) {
+        this.bulkLoad = bulkLoad;
+    }
+
+    public boolean isDeferIndexes() {
+        return deferIndexes;
+    }
+
+    /**
+     * Sets whether tables created in PostGIS are loaded without indexes, the spatial index and 
+     * those of {@link CreateIndexTransform} are then built once the features are in, followed by 
+     * a VACUUM ANALYZE of the table.
+     */
+    public void setDeferIndexes(boolean deferIndexes) {
+        this.deferIndexes = deferIndexes;
+    }
+
+    synchronized ExecutorService getTaskPool() {
+        if (taskPool == null && parallelism > 1) {
+            taskPool = createPool("importer-task");
+        }
+        return taskPool;
+    }
+
+    synchronized ExecutorService getItemPool() {
+        if (itemPool == null && parallelism > 1) {
+            itemPool = createPool("importer-item");
+        }
+        return itemPool;
+    }
+
+    synchronized ExecutorService getReadPool() {
+        if (readPool == null && parallelism > 1) {
+            readPool = createPool("importer-read");
+        }
+        return readPool;
+    }
+
+    synchronized ExecutorService getConvertPool() {
+        if (convertPool == null && parallelism > 1) {
+            convertPool = createPool("importer-convert");
+        }
+        return convertPool;
+    }
+
+    synchronized ExecutorService getIndexPool() {
+        if (indexPool == null && parallelism > 1) {
+            indexPool = createPool("importer-index");
+        }
+        return indexPool;
+    }
+
+    ExecutorService createPool(String name) {
+        return createPool(name, parallelism);
+    }
+
+    /*
+     * creates a pool of daemon threads, which go away when idle
+     */
+    static ExecutorService createPool(final String name, int size) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(size, size, 60L, 
+            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                AtomicInteger count = new AtomicInteger();
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    synchronized void shutdownPools() {
+        if (taskPool != null) {
+            taskPool.shutdown();
+            taskPool = null;
+        }
+        if (itemPool != null) {
+            itemPool.shutdown();
+            itemPool = null;
+        }
+        if (readPool != null) {
+            readPool.shutdown();
+            readPool = null;
+        }
+        if (convertPool != null) {
+            convertPool.shutdown();
+            convertPool = null;
+        }
+        if (indexPool != null) {
+            indexPool.shutdown();
+            indexPool = null;
+        }
+    }
+
+    /*
+     * runs the jobs on the pool and waits for all of them, rethrowing the first failure. without
+     * a pool, or with a single job, they run in the calling thread
+     */
+    static void runAll(ExecutorService pool, List<Callable<Void>> jobs) throws IOException {
+        if (pool == null || jobs.size() < 2) {
+            for (Callable<Void> job : jobs) {
+                try {
+                    job.call();
+                }
+                catch(IOException e) {
+                    throw e;
+                }
+                catch(RuntimeException e) {
+                    throw e;
+                }
+                catch(Exception e) {
+                    throw (IOException) new IOException(e.getMessage()).initCause(e);
+                }
+            }
+            return;
+        }
+
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (Callable<Void> job : jobs) {
+            futures.add(pool.submit(job));
+        }
+        Throwable error = null;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            }
+            catch(ExecutionException e) {
+                if (error == null) {
+                    error = e.getCause();
+                }
+            }
+            catch(InterruptedException e) {
+                for (Future<Void> f : futures) {
+                    f.cancel(true);
+                }
+                throw (IOException) new IOException("Interrupted while importing").initCause(e);
+            }
+        }
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        }
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if (error instanceof Error) {
+            throw (Error) error;
+        }
+        if (error != null) {
+            throw (IOException) new IOException(error.getMessage()).initCause(error);
+        }
+    }
+
+    /*
+     * permits limiting the items loaded at once into the target store of a task
+     */
+    Semaphore getStorePermits(ImportTask task) throws IOException {
+        StoreInfo store = task.getStore();
+        if (store.getId() == null) {
+            return new Semaphore(1);
+        }
+        Semaphore permits = storePermits.get(store.getId());
+        if (permits == null) {
+            //jdbc stores take concurrent writers, files written through a store do not
+            int n = 1;
+            if (store instanceof DataStoreInfo 
+                && ((DataStoreInfo) store).getDataStore(null) instanceof JDBCDataStore) {
+                n = storeParallelism;
+            }
+            permits = new Semaphore(n, true);
+            Semaphore existing = storePermits.putIfAbsent(store.getId(), permits);
+            if (existing != null) {
+                permits = existing;
+            }
+        }
+        return permits;
+    }
+
     public ImportItem getCurrentlyProcessingItem(long contextId) {
         return currentlyProcessing.get(new Long(contextId));
     }
@@ -561,7 +860,7 @@ public class Importer implements InitializingBean, DisposableBean {
         run(context, filter, null);
     }
     
-    public void run(ImportContext context, ImportFilter filter, ProgressMonitor monitor) throws IOException {
+    public void run(ImportContext context, final ImportFilter filter, ProgressMonitor monitor) throws IOException {
         context.setProgress(monitor);
         context.setState(ImportContext.State.RUNNING);
         
@@ -569,13 +868,20 @@ public class Importer implements InitializingBean, DisposableBean {
             LOGGER.fine("Running import " + context.getId());
         }
         
-        for (ImportTask task : context.getTasks()) {
+        List<Callable<Void>> runs = new ArrayList<Callable<Void>>();
+        for (final ImportTask task : context.getTasks()) {
             if (!filter.include(task)) {
                 continue;
             }
 
-            run(task, filter);
+            runs.add(new Callable<Void>() {
+                public Void call() throws Exception {
+                    run(task, filter);
+                    return null;
+                }
+            });
         }
+        runAll(getTaskPool(), runs);
 
         context.updated();
         contextStore.save(context);
@@ -647,13 +953,15 @@ public class Importer implements InitializingBean, DisposableBean {
     }
 
     public Long runAsync(final ImportContext context, final ImportFilter filter) {
-        return jobs.submit(new Job<ImportContext>() {
+        Job<ImportContext> job = new Job<ImportContext>() {
             @Override
             protected ImportContext call(ProgressMonitor monitor) throws Exception {
                 run(context, filter, monitor);
                 return context;
             }
-        });
+        };
+        job.setUser(context.getUser());
+        return jobs.submit(job);
     }
 
     public Task<ImportContext> getTask(Long job) {
@@ -667,26 +975,28 @@ public class Importer implements InitializingBean, DisposableBean {
         //TODO: this needs to be transactional in case of errors along the way
 
         //add the store, may have been added in a previous iteration of this task
-        if (task.getStore().getId() == null) {
-            StoreInfo store = task.getStore();
+        synchronized (catalogLock) {
+            if (task.getStore().getId() == null) {
+                StoreInfo store = task.getStore();
 
-            //ensure a unique name
-            store.setName(findUniqueStoreName(task.getStore()));
+                //ensure a unique name
+                store.setName(findUniqueStoreName(task.getStore()));
             
-            //ensure a namespace connection parameter set matching workspace/namespace
-            if (!store.getConnectionParameters().containsKey("namespace")) {
-                WorkspaceInfo ws = task.getContext().getTargetWorkspace();
-                if (ws == null && task.getContext().getTargetStore() != null) {
-                    ws = task.getContext().getTargetStore().getWorkspace();
-                }
-                if (ws != null) {
-                    NamespaceInfo ns = catalog.getNamespaceByPrefix(ws.getName());
-                    if (ns != null) {
-                        store.getConnectionParameters().put("namespace", ns.getURI());
+                //ensure a namespace connection parameter set matching workspace/namespace
+                if (!store.getConnectionParameters().containsKey("namespace")) {
+                    WorkspaceInfo ws = task.getContext().getTargetWorkspace();
+                    if (ws == null && task.getContext().getTargetStore() != null) {
+                        ws = task.getContext().getTargetStore().getWorkspace();
+                    }
+                    if (ws != null) {
+                        NamespaceInfo ns = catalog.getNamespaceByPrefix(ws.getName());
+                        if (ns != null) {
+                            store.getConnectionParameters().put("namespace", ns.getURI());
+                        }
                     }
                 }
+                catalog.add(task.getStore());
             }
-            catalog.add(task.getStore());
         }
 
         //add the individual resources
@@ -727,15 +1037,14 @@ public class Importer implements InitializingBean, DisposableBean {
     /* 
      * an import that involves reading from the datastore and writing into a specified target store
      */
-    void doIndirectImport(ImportTask task, ImportFilter filter) throws IOException {
+    void doIndirectImport(final ImportTask task, ImportFilter filter) throws IOException {
         if (!task.getStore().isEnabled()) {
             task.getStore().setEnabled(true);
         }
         // @todo This needs to be transactional and probably should be extracted to a class for clarity
-        for (ImportItem item : task.getItems()) {
-            if (task.progress().isCanceled()){
-                break;
-            }
+        final Semaphore permits = getStorePermits(task);
+        List<Callable<Void>> loads = new ArrayList<Callable<Void>>();
+        for (final ImportItem item : task.getItems()) {
             if (!item.readyForImport()) {
                 continue;
             }
@@ -743,69 +1052,90 @@ public class Importer implements InitializingBean, DisposableBean {
                 continue;
             }
 
-            item.setState(ImportItem.State.RUNNING);
+            loads.add(new Callable<Void>() {
+                public Void call() throws Exception {
+                    permits.acquire();
+                    try {
+                        if (!task.progress().isCanceled()) {
+                            doIndirectImport(task, item);
+                        }
+                    }
+                    finally {
+                        permits.release();
+                    }
+                    return null;
+                }
+            });
+        }
+        runAll(getItemPool(), loads);
+    }
 
-            //setup transform chain
-            TransformChain tx = item.getTransform();
+    void doIndirectImport(ImportTask task, ImportItem item) {
+        item.setState(ImportItem.State.RUNNING);
 
-            //pre transform
-            if (!doPreTransform(item, task.getData(), tx)) {
-                continue;
-            }
+        //setup transform chain
+        TransformChain tx = item.getTransform();
 
-            boolean canceled = false;
-            DataFormat format = task.getData().getFormat();
-            if (format instanceof VectorFormat) {
-                try {
-                    currentlyProcessing.put(task.getContext().getId(), item);
-                    loadIntoDataStore(item, (DataStoreInfo)task.getStore(), (VectorFormat) format, (VectorTransformChain) tx);
-                    canceled = item.progress().isCanceled();
+        //pre transform
+        if (!doPreTransform(item, task.getData(), tx)) {
+            return;
+        }
 
-                    FeatureTypeInfo featureType = (FeatureTypeInfo) item.getLayer().getResource();
-                    featureType.getAttributes().clear();
+        boolean canceled = false;
+        DataFormat format = task.getData().getFormat();
+        if (format instanceof VectorFormat) {
+            try {
+                currentlyProcessing.put(task.getContext().getId(), item);
+                loadIntoDataStore(item, (DataStoreInfo)task.getStore(), (VectorFormat) format, (VectorTransformChain) tx);
+                canceled = item.progress().isCanceled();
 
-                    //JD: not sure what the rationale is here... ask IS
-                    //if (task.getUpdateMode() == null) {
-                    if (!canceled && item.updateMode() == null) {
-                        addToCatalog(item, task);
-                    }
+                FeatureTypeInfo featureType = (FeatureTypeInfo) item.getLayer().getResource();
+                featureType.getAttributes().clear();
 
-                    // verify that the newly created featuretype's resource
-                    // has bounding boxes computed - this might be required
-                    // for csv or other uploads that have a geometry that is
-                    // the result of a transform. there may be another way...
-                    FeatureTypeInfo resource = getCatalog().getResourceByName(
-                            featureType.getQualifiedName(), FeatureTypeInfo.class);
-                    if (resource.getNativeBoundingBox().isEmpty()
-                            || resource.getMetadata().get("recalculate-bounds") != null) {
-                        // force computation
-                        CatalogBuilder cb = new CatalogBuilder(getCatalog());
-                        ReferencedEnvelope nativeBounds = cb.getNativeBounds(resource);
-                        resource.setNativeBoundingBox(nativeBounds);
-                        resource.setLatLonBoundingBox(cb.getLatLonBounds(nativeBounds,
-                                resource.getCRS()));
+                //JD: not sure what the rationale is here... ask IS
+                //if (task.getUpdateMode() == null) {
+                if (!canceled && item.updateMode() == null) {
+                    addToCatalog(item, task);
+                }
+
+                // verify that the newly created featuretype's resource
+                // has bounding boxes computed - this might be required
+                // for csv or other uploads that have a geometry that is
+                // the result of a transform. there may be another way...
+                FeatureTypeInfo resource = getCatalog().getResourceByName(
+                        featureType.getQualifiedName(), FeatureTypeInfo.class);
+                if (resource.getNativeBoundingBox().isEmpty()
+                        || resource.getMetadata().get("recalculate-bounds") != null) {
+                    // force computation
+                    CatalogBuilder cb = new CatalogBuilder(getCatalog());
+                    ReferencedEnvelope nativeBounds = cb.getNativeBounds(resource);
+                    resource.setNativeBoundingBox(nativeBounds);
+                    resource.setLatLonBoundingBox(cb.getLatLonBounds(nativeBounds,
+                            resource.getCRS()));
+                    synchronized (catalogLock) {
                         getCatalog().save(resource);
                     }
                 }
-                catch(Exception e) {
-                    LOGGER.log(Level.SEVERE, "Error occured during import", e);
-                    item.setError(e);
-                    item.setState(ImportItem.State.ERROR);
-                    continue;
-                } finally {
-                    currentlyProcessing.remove(task.getContext().getId());
-                }
             }
-            else {
-                throw new UnsupportedOperationException("Indirect raster import not yet supported");
-            }
-
-            if (!canceled && !doPostTransform(item, task.getData(), tx)) {
-                continue;
+            catch(Exception e) {
+                LOGGER.log(Level.SEVERE, "Error occured during import", e);
+                item.setError(e);
+                item.setState(ImportItem.State.ERROR);
+                return;
+            } finally {
+                //other items of the context may be running as well
+                currentlyProcessing.remove(task.getContext().getId(), item);
             }
+        }
+        else {
+            throw new UnsupportedOperationException("Indirect raster import not yet supported");
+        }
 
-            item.setState(canceled ? ImportItem.State.CANCELED : ImportItem.State.COMPLETE);
+        if (!canceled && !doPostTransform(item, task.getData(), tx)) {
+            return;
         }
+
+        item.setState(canceled ? ImportItem.State.CANCELED : ImportItem.State.COMPLETE);
     }
 
     boolean doPreTransform(ImportItem item, ImportData data, TransformChain tx) {
@@ -857,37 +1187,53 @@ public class Importer implements InitializingBean, DisposableBean {
         featureType = featureDataConverter.convertType(featureType, format, data, item);
         UpdateMode updateMode = item.updateMode();
         final String uniquifiedFeatureTypeName;
+        //indexes built after loading, only for new tables
+        IndexBuilder indexes = null;
         if (updateMode == null) {
-            //find a unique type name in the target store
-            uniquifiedFeatureTypeName = findUniqueNativeFeatureTypeName(featureType, store);
-            item.setOriginalName(featureTypeName);
-
-            if (!uniquifiedFeatureTypeName.equals(featureTypeName)) {
-                //update the metadata
-                item.getLayer().getResource().setName(uniquifiedFeatureTypeName);
-                item.getLayer().getResource().setNativeName(uniquifiedFeatureTypeName);
+            //names are picked and taken under the lock, items may be loading into the same store
+            synchronized (catalogLock) {
+                //find a unique type name in the target store
+                uniquifiedFeatureTypeName = findUniqueNativeFeatureTypeName(featureType, store);
+                item.setOriginalName(featureTypeName);
+
+                if (!uniquifiedFeatureTypeName.equals(featureTypeName)) {
+                    //update the metadata
+                    item.getLayer().getResource().setName(uniquifiedFeatureTypeName);
+                    item.getLayer().getResource().setNativeName(uniquifiedFeatureTypeName);
                 
-                //retype
-                SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
-                typeBuilder.setName(uniquifiedFeatureTypeName);
-                typeBuilder.addAll(featureType.getAttributeDescriptors());
-                featureType = typeBuilder.buildFeatureType();
-            }
+                    //retype
+                    SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+                    typeBuilder.setName(uniquifiedFeatureTypeName);
+                    typeBuilder.addAll(featureType.getAttributeDescriptors());
+                    featureType = typeBuilder.buildFeatureType();
+                }
 
-            // @todo HACK remove this at some point when timezone issues are fixed
-            // this will force postgis to create timezone w/ timestamp fields
-            if (dataStore instanceof JDBCDataStore) {
-                JDBCDataStore ds = (JDBCDataStore) dataStore;
-                // sniff for postgis (h2 is used in tests and will cause failure if this occurs)
-                if (ds.getSqlTypeNameToClassMappings().containsKey("timestamptz")) {
-                    ds.getSqlTypeToSqlTypeNameOverrides().put(java.sql.Types.TIMESTAMP, "timestamptz");
+                // @todo HACK remove this at some point when timezone issues are fixed
+                // this will force postgis to create timezone w/ timestamp fields
+                if (dataStore instanceof JDBCDataStore) {
+                    JDBCDataStore ds = (JDBCDataStore) dataStore;
+                    // sniff for postgis (h2 is used in tests and will cause failure if this occurs)
+                    if (ds.getSqlTypeNameToClassMappings().containsKey("timestamptz")) {
+                        ds.getSqlTypeToSqlTypeNameOverrides().put(java.sql.Types.TIMESTAMP, "timestamptz");
+                    }
                 }
-            }
 
-            //apply the feature type transform
-            featureType = tx.inline(item, dataStore, featureType);
+                //apply the feature type transform
+                featureType = tx.inline(item, dataStore, featureType);
 
-            dataStore.createSchema(featureType);
+                dataStore.createSchema(featureType);
+            }
+
+            if (deferIndexes && featureDataConverter == FeatureDataConverter.TO_POSTGIS) {
+                indexes = new IndexBuilder((JDBCDataStore) dataStore, featureType.getTypeName());
+                try {
+                    indexes.dropIndexes();
+                }
+                catch(IOException e) {
+                    LOGGER.log(Level.WARNING, "Error dropping indexes, loading with indexes", e);
+                    indexes = null;
+                }
+            }
         } else {
             // @todo what to do if featureType transform is present?
             
@@ -917,8 +1263,10 @@ public class Importer implements InitializingBean, DisposableBean {
         ProgressMonitor monitor = item.progress();
         
         // @todo need better way to communicate to client
-        int skipped = 0;
-        int cnt = 0;
+        FeaturePipeline pipeline = new FeaturePipeline(item, dataStore, featureDataConverter, tx);
+        if (parallelism > 1) {
+            pipeline.setPools(getReadPool(), getConvertPool(), parallelism * 2);
+        }
         // metrics
         long startTime = System.currentTimeMillis();
         item.clearImportMessages();
@@ -927,38 +1275,26 @@ public class Importer implements InitializingBean, DisposableBean {
         
         LOGGER.info("begining import");
         try {
-            writer = dataStore.getFeatureWriterAppend(uniquifiedFeatureTypeName, transaction);
-            
-            while(reader.hasNext()) {
-                if (monitor.isCanceled()){
-                    break;
-                }
-                SimpleFeature feature = (SimpleFeature) reader.next();
-                SimpleFeature next = (SimpleFeature) writer.next();
-
-                //(JD) TODO: some formats will rearrange the geometry type (like shapefile) which
-                // makes the goemetry the first attribute reagardless, so blindly copying over
-                // attributes won't work unless the source type also  has the geometry as the 
-                // first attribute in the schema
-                featureDataConverter.convert(feature, next);
-                
-                // @hack #45678 - mask empty geometry or postgis will complain
-                Geometry geom = (Geometry) next.getDefaultGeometry();
-                if (geom != null && geom.isEmpty()) {
-                    next.setDefaultGeometry(null);
-                }
-                
-                //apply the feature transform
-                next = tx.inline(item, dataStore, feature, next);
-                
-                if (next == null) {
-                    skipped++;
-                } else {
-                    writer.write();
-                }
-                item.setNumberProcessed(++cnt);
+            if (bulkLoad && updateMode == null
+                && featureDataConverter == FeatureDataConverter.TO_POSTGIS) {
+                writer = PostGISCopyWriter.open((JDBCDataStore) dataStore, 
+                    uniquifiedFeatureTypeName, transaction, item);
+            }
+            if (writer == null) {
+                writer = dataStore.getFeatureWriterAppend(uniquifiedFeatureTypeName, transaction);
             }
+
+            //read, convert and transform, and write the features
+            pipeline.copy(reader, writer, monitor);
+            int skipped = pipeline.getSkipped();
+
+            //close before committing, a bulk load is only complete once its writer is closed
+            FeatureWriter w = writer;
+            writer = null;
+            w.close();
+
             transaction.commit();
+
             if (skipped > 0) {
                 item.addImportMessage(Level.WARNING,skipped + " features were skipped.");
             }
@@ -969,6 +1305,17 @@ public class Importer implements InitializingBean, DisposableBean {
         } 
         // no finally block, there is too much to do
         
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (Exception e) {
+                if (error != null) {
+                    error = e;
+                }
+                LOGGER.log(Level.WARNING, "Error closing writer",e);
+            }
+        }
+
         if (error != null || monitor.isCanceled()) {
             // all sub exceptions in this catch block should be logged, not thrown
             // as the triggering exception will be thrown
@@ -982,7 +1329,7 @@ public class Importer implements InitializingBean, DisposableBean {
 
             //attempt to drop the type that was created as well
             try {
-                dropSchema(dataStore,featureTypeName);
+                dropSchema(dataStore,uniquifiedFeatureTypeName);
             } catch(Exception e1) {
                 LOGGER.log(Level.WARNING, "Error dropping schema in rollback",e1);
             }
@@ -997,14 +1344,15 @@ public class Importer implements InitializingBean, DisposableBean {
             }
             LOGGER.log(Level.WARNING, "Error closing transaction",e);
         }
-        if (writer != null) {
+
+        // the features are committed by now, a failure to index them is reported but does not
+        // fail the import
+        if (error == null && indexes != null && !monitor.isCanceled()) {
             try {
-                writer.close();
+                buildIndexes(item, indexes, tx);
             } catch (Exception e) {
-                if (error != null) {
-                    error = e;
-                }
-                LOGGER.log(Level.WARNING, "Error closing writer",e);
+                LOGGER.log(Level.WARNING, "Error building indexes of " + uniquifiedFeatureTypeName, e);
+                item.addImportMessage(Level.WARNING, "Error building indexes: " + e.getMessage());
             }
         }
 
@@ -1034,6 +1382,27 @@ public class Importer implements InitializingBean, DisposableBean {
         }
     }
 
+    /*
+     * builds the indexes of a loaded table, along with those of the CreateIndexTransforms of the
+     * item which are skipped afterwards
+     */
+    void buildIndexes(ImportItem item, IndexBuilder indexes, VectorTransformChain tx) 
+        throws IOException {
+        Set<String> indexed = new HashSet<String>();
+        for (CreateIndexTransform cit : tx.getAll(CreateIndexTransform.class)) {
+            indexes.addIndex(cit.createIndexSQL(indexes.tableName));
+            indexed.add(cit.getField());
+        }
+
+        long startTime = System.currentTimeMillis();
+        runAll(getIndexPool(), indexes.buildIndexes());
+        item.getMetadata().put(CreateIndexTransform.class, indexed);
+        
+        indexes.analyze();
+        LOGGER.info("building " + indexes.getIndexes().size() + " indexes of " + indexes.tableName 
+            + " took " + (System.currentTimeMillis() - startTime));
+    }
+
     StoreInfo lookupDefaultStore() {
         WorkspaceInfo ws = catalog.getDefaultWorkspace();
         if (ws == null) {
@@ -1044,28 +1413,30 @@ public class Importer implements InitializingBean, DisposableBean {
     }
 
     void addToCatalog(ImportItem item, ImportTask task) throws IOException {
-        LayerInfo layer = item.getLayer();
-        ResourceInfo resource = layer.getResource();
-        resource.setStore(task.getStore());
-
-        //add the resource
-        String name = findUniqueResourceName(resource);
-        resource.setName(name); 
-
-        //JD: not setting a native name, it should actually already be set by this point and we 
-        // don't want to blindly set it to the same name as the resource name, which might have 
-        // changed to deal with name clashes
-        //resource.setNativeName(name);
-        resource.setEnabled(true);
-        catalog.add(resource);
+        synchronized (catalogLock) {
+            LayerInfo layer = item.getLayer();
+            ResourceInfo resource = layer.getResource();
+            resource.setStore(task.getStore());
+
+            //add the resource
+            String name = findUniqueResourceName(resource);
+            resource.setName(name); 
+
+            //JD: not setting a native name, it should actually already be set by this point and we 
+            // don't want to blindly set it to the same name as the resource name, which might have 
+            // changed to deal with name clashes
+            //resource.setNativeName(name);
+            resource.setEnabled(true);
+            catalog.add(resource);
+
+            //add the layer (and style)
+            if (layer.getDefaultStyle().getId() == null) {
+                catalog.add(layer.getDefaultStyle());
+            }
 
-        //add the layer (and style)
-        if (layer.getDefaultStyle().getId() == null) {
-            catalog.add(layer.getDefaultStyle());
+            layer.setEnabled(true);
+            catalog.add(layer);
         }
-
-        layer.setEnabled(true);
-        catalog.add(layer);
     }
 
     String findUniqueStoreName(StoreInfo store) {
@@ -1167,6 +1538,7 @@ public class Importer implements InitializingBean, DisposableBean {
 
     public void destroy() throws Exception {
         jobs.shutdown();
+        shutdownPools();
         contextStore.destroy();
     }
 
@@ -0,0 +1,165 @@
+package org.opengeo.data.importer;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.Transaction;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Defers building the indexes of a PostGIS table until it has been loaded.
+ * <p>
+ * {@link #dropIndexes()} records the definitions of the indexes created along with the table,
+ * such as the spatial index, and drops them. Once the rows are in, {@link #buildIndexes()}
+ * creates them again, together with any index added through {@link #addIndex(String)}, each one
+ * in a single pass over the table. Indexes backing primary key and unique constraints are left
+ * alone.
+ * </p>
+ */
+class IndexBuilder {
+
+    static Logger LOGGER = Logging.getLogger(IndexBuilder.class);
+
+    JDBCDataStore dataStore;
+    String tableName;
+
+    /** statements creating the indexes */
+    List<String> indexes = new ArrayList<String>();
+
+    IndexBuilder(JDBCDataStore dataStore, String tableName) {
+        this.dataStore = dataStore;
+        this.tableName = tableName;
+    }
+
+    List<String> getIndexes() {
+        return indexes;
+    }
+
+    void addIndex(String sql) {
+        indexes.add(sql);
+    }
+
+    /**
+     * Drops the indexes of the table, remembering how to create them again.
+     */
+    void dropIndexes() throws IOException {
+        String schema = dataStore.getDatabaseSchema();
+        String sql = "SELECT n.nspname, c.relname, pg_get_indexdef(c.oid) "
+            + "FROM pg_index x JOIN pg_class c ON c.oid = x.indexrelid "
+            + "JOIN pg_class t ON t.oid = x.indrelid "
+            + "JOIN pg_namespace n ON n.oid = t.relnamespace "
+            + "WHERE t.relname = ? AND n.nspname = " + (schema != null ? "?" : "current_schema()")
+            + " AND NOT x.indisprimary AND NOT x.indisunique";
+
+        Connection cx = dataStore.getConnection(Transaction.AUTO_COMMIT);
+        try {
+            List<String> drops = new ArrayList<String>();
+            PreparedStatement ps = cx.prepareStatement(sql);
+            try {
+                ps.setString(1, tableName);
+                if (schema != null) {
+                    ps.setString(2, schema);
+                }
+                ResultSet rs = ps.executeQuery();
+                try {
+                    while (rs.next()) {
+                        drops.add("DROP INDEX " + quote(rs.getString(1)) + "."
+                            + quote(rs.getString(2)));
+                        indexes.add(rs.getString(3));
+                    }
+                }
+                finally {
+                    dataStore.closeSafe(rs);
+                }
+            }
+            finally {
+                dataStore.closeSafe(ps);
+            }
+
+            Statement st = cx.createStatement();
+            try {
+                for (String drop : drops) {
+                    LOGGER.fine(drop);
+                    st.execute(drop);
+                }
+            }
+            finally {
+                dataStore.closeSafe(st);
+            }
+        }
+        catch(SQLException e) {
+            throw (IOException) new IOException("Error dropping indexes of " + tableName)
+                .initCause(e);
+        }
+        finally {
+            dataStore.closeSafe(cx);
+        }
+    }
+
+    /**
+     * Returns the jobs creating the indexes, each one runs on its own connection so they can run
+     * at the same time.
+     */
+    List<Callable<Void>> buildIndexes() {
+        List<Callable<Void>> jobs = new ArrayList<Callable<Void>>();
+        for (final String index : indexes) {
+            jobs.add(new Callable<Void>() {
+                public Void call() throws Exception {
+                    long startTime = System.currentTimeMillis();
+                    execute(index);
+                    LOGGER.fine("Built index in " + (System.currentTimeMillis() - startTime)
+                        + " ms: " + index);
+                    return null;
+                }
+            });
+        }
+        return jobs;
+    }
+
+    /**
+     * Refreshes the planner statistics of the table, and its visibility map since all the rows
+     * were just written.
+     */
+    void analyze() {
+        String sql = "VACUUM ANALYZE " +
+            (dataStore.getDatabaseSchema() != null ? quote(dataStore.getDatabaseSchema()) + "." : "")
+            + quote(tableName);
+        try {
+            execute(sql);
+        }
+        catch(Exception e) {
+            //only affects performance
+            LOGGER.log(Level.WARNING, "Error running " + sql, e);
+        }
+    }
+
+    void execute(String sql) throws IOException {
+        Connection cx = dataStore.getConnection(Transaction.AUTO_COMMIT);
+        Statement st = null;
+        try {
+            st = cx.createStatement();
+            st.execute(sql);
+        }
+        catch(SQLException e) {
+            throw (IOException) new IOException("Error executing: " + sql).initCause(e);
+        }
+        finally {
+            dataStore.closeSafe(st);
+            dataStore.closeSafe(cx);
+        }
+    }
+
+    static String quote(String name) {
+        return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+}
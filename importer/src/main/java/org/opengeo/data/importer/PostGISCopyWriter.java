@@ -0,0 +1,424 @@
+package org.opengeo.data.importer;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.FeatureWriter;
+import org.geotools.data.Transaction;
+import org.geotools.data.jdbc.datasource.DataSourceFinder;
+import org.geotools.data.jdbc.datasource.UnWrapper;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.Hints;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.jdbc.AutoGeneratedPrimaryKeyColumn;
+import org.geotools.jdbc.JDBCDataStore;
+import org.geotools.jdbc.JDBCFeatureSource;
+import org.geotools.jdbc.JDBCFeatureStore;
+import org.geotools.jdbc.PrimaryKey;
+import org.geotools.jdbc.PrimaryKeyColumn;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.io.WKBWriter;
+
+/**
+ * Appends features to a PostGIS table with a single <code>COPY ... FROM STDIN</code> instead of
+ * an INSERT per feature.
+ * <p>
+ * Rows are sent in the text format, geometries as hex encoded EWKB carrying the srid of the
+ * column, over the connection of the import transaction so the load commits or rolls back with
+ * it. The writer has to be closed before the transaction ends, closing it completes the copy.
+ * Key columns are left to their defaults, which only works for keys generated by the database,
+ * tables with other keys are not copied into. The copy rate is reported to the item as rows
+ * are sent.
+ * </p>
+ */
+class PostGISCopyWriter implements FeatureWriter<SimpleFeatureType, SimpleFeature> {
+
+    static Logger LOGGER = Logging.getLogger(PostGISCopyWriter.class);
+
+    /** size of the buffer sent to the server at once */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /** number of rows between progress reports */
+    static final int REPORT_INTERVAL = 10000;
+
+    /**
+     * Starts copying into the table of the feature type, returning null if the connection of
+     * the transaction is not a PostgreSQL one, or if the table has a primary key the database
+     * does not generate itself.
+     */
+    static PostGISCopyWriter open(JDBCDataStore dataStore, String typeName,
+        Transaction transaction, ImportItem item) throws IOException {
+
+        SimpleFeatureType featureType = dataStore.getSchema(typeName);
+        Set<String> keyColumns = generatedKeyColumns(dataStore, typeName);
+        if (keyColumns == null) {
+            LOGGER.fine("Table " + typeName + " has a key not generated by the database, "
+                + "not copying into it");
+            return null;
+        }
+
+        Connection cx = dataStore.getConnection(transaction);
+        PGConnection pgcx = unwrap(cx);
+        if (pgcx == null) {
+            LOGGER.fine("Connection " + cx.getClass().getName() + " does not support COPY");
+            return null;
+        }
+
+        String sql = copySQL(dataStore.getDatabaseSchema(), featureType, keyColumns);
+        LOGGER.fine(sql);
+        try {
+            return new PostGISCopyWriter(featureType, keyColumns,
+                pgcx.getCopyAPI().copyIn(sql), item);
+        }
+        catch (SQLException e) {
+            throw (IOException) new IOException("Error starting copy: " + sql).initCause(e);
+        }
+    }
+
+    static PGConnection unwrap(Connection cx) {
+        if (cx instanceof PGConnection) {
+            return (PGConnection) cx;
+        }
+        UnWrapper unwrapper = DataSourceFinder.getUnWrapper(cx);
+        if (unwrapper != null) {
+            Connection unwrapped = unwrapper.unwrap(cx);
+            if (unwrapped instanceof PGConnection) {
+                return (PGConnection) unwrapped;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the primary key columns of the table, empty if it has none, or null if one of them
+     * is not generated by the database and would have to be computed for each row.
+     */
+    static Set<String> generatedKeyColumns(JDBCDataStore dataStore, String typeName)
+        throws IOException {
+        SimpleFeatureSource source = dataStore.getFeatureSource(typeName);
+        PrimaryKey key;
+        if (source instanceof JDBCFeatureStore) {
+            key = ((JDBCFeatureStore) source).getPrimaryKey();
+        }
+        else if (source instanceof JDBCFeatureSource) {
+            key = ((JDBCFeatureSource) source).getPrimaryKey();
+        }
+        else {
+            return null;
+        }
+        Set<String> columns = new HashSet<String>();
+        for (PrimaryKeyColumn col : key.getColumns()) {
+            if (!(col instanceof AutoGeneratedPrimaryKeyColumn)) {
+                return null;
+            }
+            columns.add(col.getName());
+        }
+        return columns;
+    }
+
+    static String copySQL(String schema, SimpleFeatureType featureType, Set<String> skip) {
+        StringBuilder sql = new StringBuilder("COPY ");
+        if (schema != null) {
+            quote(schema, sql).append(".");
+        }
+        quote(featureType.getTypeName(), sql).append(" (");
+        for (AttributeDescriptor att : featureType.getAttributeDescriptors()) {
+            if (!skip.contains(att.getLocalName())) {
+                quote(att.getLocalName(), sql).append(", ");
+            }
+        }
+        sql.setLength(sql.length() - 2);
+        return sql.append(") FROM STDIN").toString();
+    }
+
+    static StringBuilder quote(String name, StringBuilder sql) {
+        return sql.append('"').append(name.replace("\"", "\"\"")).append('"');
+    }
+
+    SimpleFeatureType featureType;
+    CopyIn copy;
+    ImportItem item;
+
+    /** indexes of the attributes copied, exposed key columns are left out */
+    int[] columns;
+
+    /** srid of each geometry column, null for other columns */
+    Integer[] srids;
+
+    /** writers of 2d and 3d EWKB */
+    WKBWriter wkb2d, wkb3d;
+    boolean[] is3d;
+
+    /** timestamps carry their offset, the server converts them to the column type */
+    SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSSZ");
+
+    SimpleFeatureBuilder builder;
+    SimpleFeature current;
+
+    /** the encoded rows not sent yet */
+    StringBuilder row = new StringBuilder();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int size;
+
+    long rows;
+    long startTime;
+    long reportTime;
+
+    /** set when sending failed, the server aborts the copy */
+    boolean failed;
+
+    PostGISCopyWriter(SimpleFeatureType featureType, Set<String> keyColumns, CopyIn copy,
+        ImportItem item) {
+        this.featureType = featureType;
+        this.copy = copy;
+        this.item = item;
+        this.builder = new SimpleFeatureBuilder(featureType);
+
+        List<AttributeDescriptor> atts = featureType.getAttributeDescriptors();
+        srids = new Integer[atts.size()];
+        is3d = new boolean[atts.size()];
+        int[] copied = new int[atts.size()];
+        int n = 0;
+        for (int i = 0; i < atts.size(); i++) {
+            AttributeDescriptor att = atts.get(i);
+            if (!keyColumns.contains(att.getLocalName())) {
+                copied[n++] = i;
+            }
+            if (att instanceof GeometryDescriptor) {
+                Integer srid = (Integer) att.getUserData().get(JDBCDataStore.JDBC_NATIVE_SRID);
+                srids[i] = srid != null ? srid : 0;
+                Integer dimension = (Integer) att.getUserData().get(Hints.COORDINATE_DIMENSION);
+                is3d[i] = dimension != null && dimension > 2;
+            }
+        }
+        columns = new int[n];
+        System.arraycopy(copied, 0, columns, 0, n);
+        startTime = reportTime = System.currentTimeMillis();
+    }
+
+    public SimpleFeatureType getFeatureType() {
+        return featureType;
+    }
+
+    public boolean hasNext() throws IOException {
+        return false;
+    }
+
+    public SimpleFeature next() throws IOException {
+        current = builder.buildFeature(null);
+        return current;
+    }
+
+    public void remove() throws IOException {
+        throw new UnsupportedOperationException("Copying only appends features");
+    }
+
+    public void write() throws IOException {
+        if (current == null) {
+            throw new IOException("No feature to write, call next() first");
+        }
+        List<Object> values = current.getAttributes();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                row.append('\t');
+            }
+            encode(values.get(columns[i]), columns[i]);
+        }
+        row.append('\n');
+        current = null;
+
+        append(row);
+        row.setLength(0);
+        if (size >= BUFFER_SIZE / 2) {
+            flush();
+        }
+
+        if (++rows % REPORT_INTERVAL == 0) {
+            long now = System.currentTimeMillis();
+            String msg = "Copied " + rows + " rows into " + featureType.getTypeName() + ", "
+                + rate(REPORT_INTERVAL, now - reportTime) + " rows/sec";
+            LOGGER.fine(msg);
+            if (item != null) {
+                item.progress().setTask(msg);
+            }
+            reportTime = now;
+        }
+    }
+
+    void encode(Object value, int i) {
+        if (value == null) {
+            row.append("\\N");
+        }
+        else if (srids[i] != null && value instanceof Geometry) {
+            Geometry g = (Geometry) value;
+            if (g instanceof Point && g.isEmpty()) {
+                //WKB has no empty point, PostGIS writes it with NaN coordinates
+                row.append(WKBWriter.toHex(emptyPoint(srids[i], is3d[i])));
+                return;
+            }
+            g.setSRID(srids[i]);
+            row.append(WKBWriter.toHex(wkbWriter(i).write(g)));
+        }
+        else if (value instanceof java.sql.Date || value instanceof java.sql.Time) {
+            row.append(value.toString());
+        }
+        else if (value instanceof Date) {
+            row.append(timestampFormat.format((Date) value));
+        }
+        else if (value instanceof Boolean) {
+            row.append(((Boolean) value) ? 't' : 'f');
+        }
+        else if (value instanceof byte[]) {
+            row.append("\\\\x").append(WKBWriter.toHex((byte[]) value));
+        }
+        else {
+            escape(value.toString());
+        }
+    }
+
+    static byte[] emptyPoint(int srid, boolean is3d) {
+        ByteBuffer bytes = ByteBuffer.allocate(9 + (is3d ? 24 : 16));
+        bytes.order(ByteOrder.LITTLE_ENDIAN);
+        bytes.put((byte) 1);
+        //point type with the srid and z flags of EWKB
+        bytes.putInt(1 | 0x20000000 | (is3d ? 0x80000000 : 0));
+        bytes.putInt(srid);
+        for (int i = 0; i < (is3d ? 3 : 2); i++) {
+            bytes.putDouble(Double.NaN);
+        }
+        return bytes.array();
+    }
+
+    WKBWriter wkbWriter(int i) {
+        if (is3d[i]) {
+            if (wkb3d == null) {
+                wkb3d = new WKBWriter(3, true);
+            }
+            return wkb3d;
+        }
+        if (wkb2d == null) {
+            wkb2d = new WKBWriter(2, true);
+        }
+        return wkb2d;
+    }
+
+    /*
+     * escapes the characters with a meaning in the text format
+     */
+    void escape(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\': row.append("\\\\"); break;
+                case '\t': row.append("\\t"); break;
+                case '\n': row.append("\\n"); break;
+                case '\r': row.append("\\r"); break;
+                default: row.append(c);
+            }
+        }
+    }
+
+    void append(StringBuilder row) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = row.toString().getBytes("UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        if (size + bytes.length > buffer.length) {
+            flush();
+            if (bytes.length > buffer.length) {
+                send(bytes, bytes.length);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    void flush() throws IOException {
+        if (size > 0) {
+            send(buffer, size);
+            size = 0;
+        }
+    }
+
+    void send(byte[] bytes, int length) throws IOException {
+        try {
+            copy.writeToCopy(bytes, 0, length);
+        }
+        catch (SQLException e) {
+            failed = true;
+            throw (IOException) new IOException("Error copying rows into "
+                + featureType.getTypeName()).initCause(e);
+        }
+    }
+
+    /**
+     * Completes the copy, or abandons it after a failure.
+     */
+    public void close() throws IOException {
+        if (copy == null) {
+            return;
+        }
+        try {
+            if (!copy.isActive()) {
+                return;
+            }
+            if (failed) {
+                copy.cancelCopy();
+                return;
+            }
+            flush();
+            long copied = copy.endCopy();
+            long time = System.currentTimeMillis() - startTime;
+            String msg = "Copied " + copied + " rows into " + featureType.getTypeName() + " in "
+                + time + " ms, " + rate(copied, time) + " rows/sec";
+            LOGGER.info(msg);
+            if (item != null) {
+                item.addImportMessage(Level.INFO, msg);
+            }
+        }
+        catch (SQLException e) {
+            //the connection can't be used for anything else while copying
+            try {
+                if (copy.isActive()) {
+                    copy.cancelCopy();
+                }
+            }
+            catch (SQLException e1) {
+                LOGGER.log(Level.WARNING, "Error cancelling copy", e1);
+            }
+            throw (IOException) new IOException("Error completing copy into "
+                + featureType.getTypeName()).initCause(e);
+        }
+        finally {
+            copy = null;
+        }
+    }
+
+    static long rate(long rows, long millis) {
+        return rows * 1000 / Math.max(1, millis);
+    }
+}
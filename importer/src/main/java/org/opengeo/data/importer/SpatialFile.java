@@ -25,6 +25,9 @@ public class SpatialFile extends FileData {
     /** supplementary files, like indexes, etc...  */
     List<File> suppFiles = new ArrayList<File>();
 
+    /** listings and formats of the directory being prepared, if any */
+    transient DirectoryScanner scanner;
+
     public SpatialFile(File file) {
         super(file);
     }
@@ -58,7 +61,9 @@ public class SpatialFile extends FileData {
         prjFile = null;
         final String baseName = getBaseName(file.getName());
         
-        for (File f : file.getParentFile().listFiles()) {
+        File[] siblings = scanner != null 
+            ? scanner.list(file.getParentFile()).files : file.getParentFile().listFiles();
+        for (File f : siblings) {
             if (f.equals(file)) {
                 continue;
             }
@@ -82,7 +87,7 @@ public class SpatialFile extends FileData {
             }
         }
         if (format == null) {
-            format = DataFormat.lookup(file);
+            format = scanner != null ? scanner.format(file) : DataFormat.lookup(file);
         }
 
         //fix the prj file (match to official epsg wkt)
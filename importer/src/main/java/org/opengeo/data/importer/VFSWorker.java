@@ -22,6 +22,7 @@ import org.apache.commons.vfs.FileSystemException;
 import org.apache.commons.vfs.FileSystemManager;
 import org.apache.commons.vfs.VFS;
 import org.geotools.util.logging.Logging;
+import org.opengeo.data.importer.job.ProgressMonitor;
 
 /**
  * Utility to work with compressed files
@@ -159,6 +160,22 @@ public class VFSWorker {
      * exist.
      */
     public void extractTo(File archiveFile, File targetFolder) throws IOException {
+        extractTo(archiveFile, targetFolder, null);
+    }
+
+    /**
+     * Extracts the archive file {@code archiveFile} to {@code targetFolder}, reporting progress to
+     * the monitor if not null. Zip archives are streamed entry by entry with {@link ZipExtractor},
+     * other archives are copied through commons-vfs.
+     */
+    public void extractTo(File archiveFile, File targetFolder, ProgressMonitor monitor) 
+            throws IOException {
+        if ("zip://".equals(getaArchiveURLProtocol(archiveFile))
+                || archiveFile.getName().toLowerCase().endsWith(".jar")) {
+            new ZipExtractor(ZipExtractor.getPool(), ZipExtractor.MAX_SIZE).extract(archiveFile,
+                    targetFolder, monitor != null ? monitor : new ProgressMonitor());
+            return;
+        }
 
         FileSystemManager manager = VFS.getManager();
         String sourceURI = resolveArchiveURI(archiveFile);
@@ -0,0 +1,223 @@
+package org.opengeo.data.importer;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.geotools.util.logging.Logging;
+import org.opengeo.data.importer.job.ProgressMonitor;
+
+/**
+ * Extracts zip archives, streaming each entry straight from the archive into its file.
+ * <p>
+ * Entries are decompressed at the same time on a pool when one is given. The extracted size is
+ * checked against a limit and against the space left on disk, up front from the sizes recorded
+ * in the archive and then while writing, since those sizes can't be trusted. Entries that would
+ * end up outside the target directory are rejected. When the extraction fails or is canceled
+ * the files and directories it created are deleted again.
+ * </p>
+ */
+class ZipExtractor {
+
+    static final Logger LOGGER = Logging.getLogger(ZipExtractor.class);
+
+    /** maximum number of bytes extracted from an archive, 0 for no limit */
+    static final long MAX_SIZE = Importer.getLongProperty("org.opengeo.importer.maxUnpackedSize", 0);
+
+    /** number of entries decompressed at once */
+    static final int PARALLELISM = Importer.getIntProperty("org.opengeo.importer.unpackParallelism",
+        Runtime.getRuntime().availableProcessors());
+
+    static ExecutorService pool;
+
+    /**
+     * The pool shared by extractions, null when entries are extracted one at a time.
+     */
+    static synchronized ExecutorService getPool() {
+        if (pool == null && PARALLELISM > 1) {
+            pool = Importer.createPool("importer-unpack", PARALLELISM);
+        }
+        return pool;
+    }
+
+    ExecutorService executor;
+    long maxSize;
+
+    /** set once an entry failed, the others stop */
+    volatile boolean failed;
+
+    /** last progress reported, entries report from several threads */
+    float reported;
+
+    ZipExtractor(ExecutorService executor, long maxSize) {
+        this.executor = executor;
+        this.maxSize = maxSize;
+    }
+
+    void extract(final File archive, File target, final ProgressMonitor monitor)
+        throws IOException {
+        if (!target.isDirectory() && !target.mkdirs()) {
+            throw new IOException("Unable to create directory " + target.getAbsolutePath());
+        }
+
+        final ZipFile zip = new ZipFile(archive);
+        List<File> files = new ArrayList<File>();
+        List<File> dirs = new ArrayList<File>();
+        //files and directories that do not exist yet, removed again on failure
+        Set<File> created = new HashSet<File>();
+        boolean done = false;
+        try {
+            String root = target.getCanonicalPath() + File.separator;
+            List<ZipEntry> entries = new ArrayList<ZipEntry>();
+            long declared = 0;
+            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                ZipEntry entry = e.nextElement();
+                File file = new File(target, entry.getName());
+                if (!file.getCanonicalPath().startsWith(root)) {
+                    throw new IOException("Entry " + entry.getName() + " of " + archive.getName()
+                        + " is outside of the target directory");
+                }
+                File d = file;
+                while (!d.exists() && created.add(d)) {
+                    d = d.getParentFile();
+                }
+                if (entry.isDirectory()) {
+                    dirs.add(file);
+                    continue;
+                }
+                entries.add(entry);
+                files.add(file);
+                declared += Math.max(0, entry.getSize());
+            }
+
+            checkSize(archive, declared);
+            if (declared > target.getUsableSpace()) {
+                throw new IOException("Not enough space to extract " + archive.getName() + ", "
+                    + declared + " bytes needed and " + target.getUsableSpace() + " available");
+            }
+
+            for (File d : dirs) {
+                d.mkdirs();
+            }
+
+            monitor.setTask("Extracting " + archive.getName());
+            reported = 0;
+            final long total = Math.max(1, declared);
+            final AtomicLong extracted = new AtomicLong();
+
+            List<Callable<Void>> jobs = new ArrayList<Callable<Void>>();
+            for (int i = 0; i < entries.size(); i++) {
+                final ZipEntry entry = entries.get(i);
+                final File file = files.get(i);
+                jobs.add(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        try {
+                            extract(zip, entry, file, extracted, total, archive, monitor);
+                        }
+                        catch(Exception e) {
+                            failed = true;
+                            throw e;
+                        }
+                        return null;
+                    }
+                });
+            }
+            Importer.runAll(executor, jobs);
+            progress(monitor, 100);
+            done = true;
+        }
+        finally {
+            zip.close();
+            if (!done) {
+                failed = true;
+                delete(created);
+            }
+        }
+    }
+
+    /*
+     * removes what a failed extraction left behind, deepest first so that directories are empty
+     * by the time they are deleted
+     */
+    void delete(Set<File> created) {
+        List<File> sorted = new ArrayList<File>(created);
+        Collections.sort(sorted, Collections.reverseOrder());
+        for (File file : sorted) {
+            if (file.exists() && !file.delete()) {
+                LOGGER.warning("Unable to delete " + file.getAbsolutePath());
+            }
+        }
+    }
+
+    /*
+     * reports progress, entries extracted in parallel may be behind the last one reported
+     */
+    synchronized void progress(ProgressMonitor monitor, float progress) {
+        if (progress > reported) {
+            reported = progress;
+            monitor.progress(progress);
+        }
+    }
+
+    void extract(ZipFile zip, ZipEntry entry, File file, AtomicLong extracted, long total,
+        File archive, ProgressMonitor monitor) throws IOException {
+        if (failed) {
+            return;
+        }
+        LOGGER.fine("Uncompressing " + entry.getName());
+        file.getParentFile().mkdirs();
+
+        InputStream in = zip.getInputStream(entry);
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+            try {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+
+                    long size = extracted.addAndGet(n);
+                    checkSize(archive, size);
+                    if (failed) {
+                        return;
+                    }
+                    if (monitor.isCanceled()) {
+                        throw new IOException("Extraction of " + archive.getName() + " canceled");
+                    }
+                    progress(monitor, Math.min(100f, 100f * size / total));
+                }
+            }
+            finally {
+                out.close();
+            }
+        }
+        finally {
+            in.close();
+        }
+        if (entry.getTime() > 0) {
+            file.setLastModified(entry.getTime());
+        }
+    }
+
+    void checkSize(File archive, long size) throws IOException {
+        if (maxSize > 0 && size > maxSize) {
+            throw new IOException("Extracting " + archive.getName() + " exceeds the limit of "
+                + maxSize + " bytes");
+        }
+    }
+}
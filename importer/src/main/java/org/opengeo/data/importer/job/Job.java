@@ -6,6 +6,9 @@ public abstract class Job<V> implements Callable<V> {
 
     ProgressMonitor monitor;
 
+    /** user the job runs for, queued jobs of different users take turns */
+    String user;
+
     @Override
     public V call() throws Exception {
         return call(monitor);
@@ -15,6 +18,14 @@ public abstract class Job<V> implements Callable<V> {
         this.monitor = monitor;
     }
 
+    public String getUser() {
+        return user;
+    }
+
+    public void setUser(String user) {
+        this.user = user;
+    }
+
     protected abstract V call(ProgressMonitor monitor) throws Exception;
 }
 
@@ -1,17 +1,17 @@
 package org.opengeo.data.importer.job;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.RunnableFuture;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -24,22 +24,84 @@ public class JobQueue {
     /** recent jobs */
     ConcurrentHashMap<Long,Task<?>> jobs = new ConcurrentHashMap<Long, Task<?>>();
 
-    /** job runner */
-    //ExecutorService pool = Executors.newCachedThreadPool();
-    ExecutorService pool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
-            new SynchronousQueue<Runnable>()) {
-        protected <T extends Object> RunnableFuture<T> newTaskFor(Callable<T> callable) {
-            if (callable instanceof Job) {
-                return new Task((Job) callable);
+    /** default number of jobs running at once */
+    public static final int DEFAULT_POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /** job runner, jobs beyond the pool size wait in a queue ordered by {@link #FAIR_ORDER} */
+    ThreadPoolExecutor pool;
+
+    /** last round scheduled for each user */
+    Map<String,Long> rounds = new HashMap<String, Long>();
+
+    /** round of the last job started */
+    long currentRound = 0;
+
+    /** submission counter, orders jobs within a round */
+    long sequence = 0;
+
+    /**
+     * Orders waiting jobs by round and then by submission. Every job of a user gets a round 
+     * after the previous job of that user, so users with many jobs queued take turns with users 
+     * submitting one.
+     */
+    static final Comparator<Runnable> FAIR_ORDER = new Comparator<Runnable>() {
+        public int compare(Runnable r1, Runnable r2) {
+            Task<?> t1 = (Task<?>) r1;
+            Task<?> t2 = (Task<?>) r2;
+            if (t1.round != t2.round) {
+                return t1.round < t2.round ? -1 : 1;
             }
-            return super.newTaskFor(callable);
+            return t1.sequence < t2.sequence ? -1 : (t1.sequence == t2.sequence ? 0 : 1);
+        }
+    };
+
+    public JobQueue() {
+        this(DEFAULT_POOL_SIZE);
+    }
+
+    public JobQueue(int poolSize) {
+        pool = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(11, FAIR_ORDER)) {
+            protected <T extends Object> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+                if (callable instanceof Job) {
+                    Task task = new Task((Job) callable);
+                    schedule(task, ((Job) callable).getUser());
+                    return task;
+                }
+                throw new IllegalArgumentException("Only jobs can be queued");
+            };
+            protected void beforeExecute(Thread t, Runnable r) {
+                started((Task) r);
+            };
+            protected void afterExecute(Runnable r, Throwable t) {
+                if (t != null && r instanceof Task) {
+                    ((Task)r).setError(t);
+                }
+            };
         };
-        protected void afterExecute(Runnable r, Throwable t) {
-            if (t != null && r instanceof Task) {
-                ((Task)r).setError(t);
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    synchronized void schedule(Task<?> task, String user) {
+        Long last = rounds.get(user);
+        task.round = Math.max(last != null ? last + 1 : 0, currentRound);
+        task.sequence = sequence++;
+        rounds.put(user, task.round);
+    }
+
+    synchronized void started(Task<?> task) {
+        currentRound = Math.max(currentRound, task.round);
+        //users whose last round has passed start over from the current one
+        for (Iterator<Long> it = rounds.values().iterator(); it.hasNext();) {
+            if (it.next() < currentRound) {
+                it.remove();
             }
-        };
-    };
+        }
+    }
+
+    public int getPoolSize() {
+        return pool.getMaximumPoolSize();
+    }
 
     /** job cleaner */
     ScheduledExecutorService cleaner = Executors.newSingleThreadScheduledExecutor();
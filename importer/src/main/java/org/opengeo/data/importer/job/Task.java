@@ -8,6 +8,10 @@ public class Task<V> extends FutureTask<V> {
     Throwable error;
     boolean recieved = false;
 
+    /** position in the job queue, see JobQueue */
+    long round;
+    long sequence;
+
     public Task(Job<V> job) {
         super(job);
         monitor = new ProgressMonitor();
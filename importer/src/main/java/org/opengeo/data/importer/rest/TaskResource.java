@@ -124,7 +124,8 @@ public class TaskResource extends AbstractResource {
         Directory directory = createDirectory();
         
         try {
-            directory.accept(getAttribute("task"),getRequest().getEntity().getStream());
+            directory.accept(getAttribute("task"),getRequest().getEntity().getStream(),
+                lookupContext().progress());
         } catch (IOException e) {
             throw new RestletException("Error unpacking file", 
                 Status.SERVER_ERROR_INTERNAL, e);
@@ -155,7 +156,7 @@ public class TaskResource extends AbstractResource {
                 continue;
             }
             try {
-                directory.accept(item);
+                directory.accept(item, lookupContext().progress());
             } catch (Exception ex) {
                 throw new RestletException("Error writing file " + item.getName(), Status.SERVER_ERROR_INTERNAL, ex);
             }
@@ -292,7 +293,7 @@ public class TaskResource extends AbstractResource {
         } else {
             dir = new Directory(file.getParentFile());
             try {
-                dir.unpack(file);
+                dir.unpack(file, lookupContext().progress());
             } catch (IOException ioe) {
                 getLogger().log(Level.WARNING, "Error unpacking " + file.getAbsolutePath(), ioe);
                 throw new RestletException("Possible invalid file", Status.SERVER_ERROR_INTERNAL);
@@ -3,6 +3,7 @@ package org.opengeo.data.importer.transform;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Set;
 import java.util.logging.Level;
 import org.geoserver.catalog.DataStoreInfo;
 import org.geotools.data.DataAccess;
@@ -34,6 +35,12 @@ public class CreateIndexTransform extends AbstractVectorTransform implements Pos
     }
     
     public void apply(ImportItem item, ImportData data) throws Exception {
+        //the importer may have built the index along with the others after loading
+        Set<?> indexed = (Set<?>) item.getMetadata().get(CreateIndexTransform.class);
+        if (indexed != null && indexed.contains(field)) {
+            return;
+        }
+
         DataStoreInfo storeInfo = (DataStoreInfo) item.getTask().getStore();
         DataAccess store = storeInfo.getDataStore(null);
         if (store instanceof JDBCDataStore) {
@@ -43,6 +50,14 @@ public class CreateIndexTransform extends AbstractVectorTransform implements Pos
         }
     }
     
+    /**
+     * The statement creating the index on the table.
+     */
+    public String createIndexSQL(String tableName) {
+        String indexName = "\"" + tableName + "_" + field + "\"";
+        return "CREATE INDEX " + indexName + " ON \"" + tableName + "\" (\"" + field + "\")";
+    }
+
     private void createIndex(ImportItem item, JDBCDataStore store) throws Exception {
         Connection conn = null;
         Statement stmt = null;
@@ -51,9 +66,7 @@ public class CreateIndexTransform extends AbstractVectorTransform implements Pos
         try {
             conn = store.getConnection(Transaction.AUTO_COMMIT);
             stmt = conn.createStatement();
-            String tableName = item.getLayer().getResource().getNativeName();
-            String indexName = "\"" + tableName + "_" + field + "\"";
-            sql = "CREATE INDEX " + indexName + " ON \"" + tableName + "\" (\"" + field + "\")";
+            sql = createIndexSQL(item.getLayer().getResource().getNativeName());
             stmt.execute(sql);
         } catch (SQLException sqle) {
             error = sqle;
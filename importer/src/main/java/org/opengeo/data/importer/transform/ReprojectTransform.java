@@ -18,7 +18,7 @@ public class ReprojectTransform extends AbstractVectorTransform implements Inlin
     private static final long serialVersionUID = 1L;
 
     CoordinateReferenceSystem source, target;
-    transient MathTransform transform;
+    transient volatile MathTransform transform;
 
     public CoordinateReferenceSystem getSource() {
         return source;
@@ -71,6 +71,23 @@ public class VectorTransformChain extends TransformChain<VectorTransform> {
         return feature;
     }
 
+    /**
+     * Whether features can go through the inline transforms from several threads at once. Only 
+     * transforms known to keep no per feature state qualify, the date transforms for instance 
+     * share their formats.
+     */
+    public boolean isThreadSafe() {
+        for (InlineVectorTransform tx : filter(transforms, InlineVectorTransform.class)) {
+            if (!(tx instanceof ReprojectTransform || tx instanceof KMLPlacemarkTransform
+                || tx instanceof AttributesToPointGeometryTransform 
+                || tx.getClass() == AttributeRemapTransform.class
+                || tx.getClass() == NumberFormatTransform.class)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public void post(ImportItem item, ImportData data) throws Exception {
         for (PostVectorTransform tx : filter(transforms, PostVectorTransform.class)) {
             try {
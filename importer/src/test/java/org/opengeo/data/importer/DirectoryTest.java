@@ -1,6 +1,7 @@
 package org.opengeo.data.importer;
 
 import java.io.File;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -101,4 +102,65 @@ public class DirectoryTest extends ImporterTestSupport {
         assertTrue( d.getFiles().get(2) instanceof ASpatialFile);
     }
 
+    public void testNestedDirectories() throws Exception {
+        File dir = tmpDir();
+        unpack("shape/archsites_epsg_prj.zip", new File(dir, "a"));
+        unpack("shape/bugsites_esri_prj.tar.gz", new File(dir, "b/c"));
+
+        Directory d = new Directory(dir);
+        d.prepare();
+
+        List<Directory> flat = d.flatten();
+        assertEquals(4, flat.size());
+
+        int spatial = 0;
+        for (Directory sub : flat) {
+            for (FileData f : sub.getFiles()) {
+                assertTrue(f instanceof SpatialFile);
+                spatial++;
+            }
+        }
+        assertEquals(2, spatial);
+    }
+
+    public void testPrepareAgain() throws Exception {
+        File dir = unpack("shape/archsites_epsg_prj.zip");
+
+        Directory d = new Directory(dir);
+        d.prepare();
+        assertEquals(1, d.getFiles().size());
+
+        //listings are cached, changes to the directory are still picked up
+        unpack("shape/bugsites_esri_prj.tar.gz", dir);
+        dir.setLastModified(dir.lastModified() + 1000);
+        d.prepare();
+        assertEquals(2, d.getFiles().size());
+
+        Directory filtered = d.filter(d.getFiles().subList(0, 1));
+        filtered.prepare();
+        assertEquals(1, filtered.getFiles().size());
+        assertEquals(d.getFiles().get(0), filtered.getFiles().get(0));
+    }
+
+    public void testAcceptAfterPrepare() throws Exception {
+        File dir = unpack("shape/archsites_epsg_prj.zip");
+
+        Directory d = new Directory(dir);
+        d.prepare();
+        assertEquals(1, d.getFiles().size());
+
+        //an upload within the same second doesn't change the modification time of the directory
+        long lastModified = dir.lastModified();
+        InputStream in = ImporterTestSupport.class.getResourceAsStream(
+            "../test-data/shape/bugsites_esri_prj.tar.gz");
+        try {
+            d.accept("bugsites_esri_prj.tar.gz", in);
+        }
+        finally {
+            in.close();
+        }
+        dir.setLastModified(lastModified);
+        d.prepare();
+        assertEquals(2, d.getFiles().size());
+    }
 }
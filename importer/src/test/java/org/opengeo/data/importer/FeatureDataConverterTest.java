@@ -0,0 +1,83 @@
+package org.opengeo.data.importer;
+
+import junit.framework.TestCase;
+
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+public class FeatureDataConverterTest extends TestCase {
+
+    SimpleFeatureType sourceType;
+    SimpleFeature source;
+
+    @Override
+    protected void setUp() throws Exception {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("widgets");
+        tb.add("name", String.class);
+        tb.add("geom", Point.class);
+        tb.add("a_very_long_name", Integer.class);
+        sourceType = tb.buildFeatureType();
+
+        Point p = new GeometryFactory().createPoint(new Coordinate(1, 2));
+        source = SimpleFeatureBuilder.build(sourceType, new Object[]{"anvil", p, 3}, "1");
+    }
+
+    SimpleFeatureType type(Object... namesAndBindings) {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("target");
+        for (int i = 0; i < namesAndBindings.length; i += 2) {
+            tb.add((String) namesAndBindings[i], (Class<?>) namesAndBindings[i + 1]);
+        }
+        return tb.buildFeatureType();
+    }
+
+    SimpleFeature convert(FeatureDataConverter converter, SimpleFeatureType targetType) {
+        SimpleFeature target = SimpleFeatureBuilder.build(targetType,
+            new Object[targetType.getAttributeCount()], null);
+        converter.mapping(sourceType, targetType).convert(source, target);
+        return target;
+    }
+
+    public void testDefault() throws Exception {
+        SimpleFeature target = convert(FeatureDataConverter.DEFAULT,
+            type("geom", Point.class, "name", String.class,
+            "other", String.class));
+        assertEquals(source.getAttribute("geom"), target.getAttribute("geom"));
+        assertEquals("anvil", target.getAttribute("name"));
+        assertNull(target.getAttribute("other"));
+    }
+
+    public void testShapefile() throws Exception {
+        SimpleFeature target = convert(FeatureDataConverter.TO_SHAPEFILE,
+            type("the_geom", Point.class, "name", String.class,
+            "a_very_lon", Integer.class));
+        assertEquals(source.getAttribute("geom"), target.getDefaultGeometry());
+        assertEquals("anvil", target.getAttribute("name"));
+        assertEquals(3, target.getAttribute("a_very_lon"));
+    }
+
+    public void testOracle() throws Exception {
+        SimpleFeature target = convert(FeatureDataConverter.TO_ORACLE,
+            type("NAME", String.class, "GEOM", Point.class));
+        assertEquals("anvil", target.getAttribute("NAME"));
+        assertEquals(source.getAttribute("geom"), target.getAttribute("GEOM"));
+    }
+
+    public void testOtherTypes() throws Exception {
+        //features of other types than the mapping's are still copied by name
+        SimpleFeatureType targetType = type("name", String.class);
+        FeatureDataConverter.Mapping mapping =
+            FeatureDataConverter.DEFAULT.mapping(type("geom", Point.class), targetType);
+
+        SimpleFeature target = SimpleFeatureBuilder.build(targetType, new Object[1], null);
+        mapping.convert(source, target);
+        assertEquals("anvil", target.getAttribute("name"));
+    }
+}
@@ -328,6 +328,17 @@ public class ImporterDataTest extends ImporterTestSupport {
         runChecks("bugsites");
     }
     
+    public void testImportIntoDatabaseSerial() throws Exception {
+        int parallelism = importer.getParallelism();
+        importer.setParallelism(1);
+        try {
+            testImportIntoDatabase();
+        }
+        finally {
+            importer.setParallelism(parallelism);
+        }
+    }
+
     public void testImportIntoDatabaseWithEncoding() throws Exception {
         Catalog cat = getCatalog();
 
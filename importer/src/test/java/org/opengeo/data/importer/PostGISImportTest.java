@@ -0,0 +1,122 @@
+package org.opengeo.data.importer;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.geoserver.catalog.DataStoreInfo;
+import org.geotools.data.jdbc.JDBCUtils;
+import org.geotools.jdbc.JDBCDataStoreFactory;
+
+public class PostGISImportTest extends ImporterDbTestBase {
+
+    @Override
+    protected String getFixtureId() {
+        return "postgis";
+    }
+
+    @Override
+    protected void createWidgetsTable(Statement st) throws Exception {
+        String sql = "CREATE TABLE widgets (id serial PRIMARY KEY, "
+            + "geometry geometry(Point,4326), doubleProperty float8, stringProperty varchar(255))";
+        run(sql, st);
+
+        sql = "INSERT INTO widgets (geometry,doubleProperty,stringProperty) VALUES ("
+            + "ST_GeomFromText('POINT(0 0)',4326), 1.99,'anvil')";
+        run(sql, st);
+
+        sql = "INSERT INTO widgets (geometry,doubleProperty,stringProperty) VALUES ("
+            + "ST_GeomFromText('POINT(1 1)',4326), 1.99,'bomb')";
+        run(sql, st);
+
+        sql = "INSERT INTO widgets (geometry,doubleProperty,stringProperty) VALUES ("
+            + "ST_GeomFromText('POINT(2 2)',4326), 2.99,'dynamite')";
+        run(sql, st);
+
+        run("CREATE INDEX widgets_geometry_index ON widgets USING GIST (geometry)", st);
+    }
+
+    public void testIndirectToDbBulkLoad() throws Exception {
+        importer.setBulkLoad(true);
+        try {
+            testIndirectToDb();
+        }
+        finally {
+            importer.setBulkLoad(false);
+        }
+
+        //copied rows carry the srid of the column
+        assertTrue(queryInt("SELECT count(*) FROM archsites") > 0);
+        assertEquals(1, queryInt("SELECT count(DISTINCT ST_SRID(the_geom)) FROM archsites"));
+    }
+
+    public void testBulkLoadUpdateModes() throws Exception {
+        importer.setBulkLoad(true);
+        try {
+            testIndirectToDb();
+            int archsitesCount = queryInt("SELECT count(*) FROM archsites");
+            int bugsitesCount = queryInt("SELECT count(*) FROM bugsites");
+
+            //existing tables are written with inserts, exposed keys included
+            DataStoreInfo ds = getCatalog().getDataStoreByName("oracle");
+            ds.getConnectionParameters().put(JDBCDataStoreFactory.EXPOSE_PK.key, true);
+            getCatalog().save(ds);
+
+            File dir = tmpDir();
+            unpack("shape/archsites_epsg_prj.zip", dir);
+            unpack("shape/bugsites_esri_prj.tar.gz", dir);
+
+            ImportContext context = importer.createContext(new Directory(dir), ds);
+            for (ImportItem item : context.getTasks().get(0).getItems()) {
+                item.setUpdateMode("archsites".equals(item.getLayer().getName())
+                    ? UpdateMode.REPLACE : UpdateMode.APPEND);
+            }
+            importer.run(context);
+            assertEquals(ImportContext.State.COMPLETE, context.getState());
+
+            assertEquals(archsitesCount, queryInt("SELECT count(*) FROM archsites"));
+            assertEquals(bugsitesCount * 2, queryInt("SELECT count(*) FROM bugsites"));
+        }
+        finally {
+            importer.setBulkLoad(false);
+        }
+    }
+
+    public void testIndirectToDbInserts() throws Exception {
+        importer.setBulkLoad(false);
+        testIndirectToDb();
+    }
+
+    public void testIndirectToDbDeferIndexes() throws Exception {
+        importer.setDeferIndexes(true);
+        try {
+            testIndirectToDb();
+        }
+        finally {
+            importer.setDeferIndexes(false);
+        }
+
+        //the spatial index is built again after loading
+        assertEquals(1, queryInt("SELECT count(*) FROM pg_indexes WHERE tablename = 'archsites' "
+            + "AND indexdef LIKE '%USING gist%'"));
+    }
+
+    int queryInt(String sql) throws Exception {
+        Connection cx = getConnection();
+        try {
+            Statement st = cx.createStatement();
+            try {
+                ResultSet rs = st.executeQuery(sql);
+                assertTrue(rs.next());
+                return rs.getInt(1);
+            }
+            finally {
+                JDBCUtils.close(st);
+            }
+        }
+        finally {
+            JDBCUtils.close(cx, null, null);
+        }
+    }
+}
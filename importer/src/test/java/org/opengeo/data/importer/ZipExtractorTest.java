@@ -0,0 +1,165 @@
+package org.opengeo.data.importer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.opengeo.data.importer.job.ProgressMonitor;
+
+public class ZipExtractorTest extends TestCase {
+
+    File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("importer", "zip", new File("target"));
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    File zip(String... namesAndContents) throws IOException {
+        File zip = new File(dir, "test.zip");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+        try {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                out.putNextEntry(new ZipEntry(namesAndContents[i]));
+                if (namesAndContents[i + 1] != null) {
+                    out.write(namesAndContents[i + 1].getBytes("UTF-8"));
+                }
+                out.closeEntry();
+            }
+        }
+        finally {
+            out.close();
+        }
+        return zip;
+    }
+
+    void assertContent(String expected, File file) throws IOException {
+        assertTrue(file.getPath(), file.exists());
+        assertEquals(expected, FileUtils.readFileToString(file, "UTF-8"));
+    }
+
+    public void testExtract() throws Exception {
+        File zip = zip("a.txt", "foo", "sub/", null, "sub/b.txt", "bar", "empty/", null);
+        File target = new File(dir, "target");
+
+        ProgressMonitor monitor = new ProgressMonitor();
+        new ZipExtractor(null, 0).extract(zip, target, monitor);
+
+        assertContent("foo", new File(target, "a.txt"));
+        assertContent("bar", new File(target, "sub/b.txt"));
+        assertTrue(new File(target, "empty").isDirectory());
+        assertEquals(100f, monitor.getProgress());
+    }
+
+    public void testExtractParallel() throws Exception {
+        String[] entries = new String[40];
+        for (int i = 0; i < entries.length; i += 2) {
+            entries[i] = "file" + i + ".txt";
+            entries[i + 1] = "content" + i;
+        }
+        File zip = zip(entries);
+        File target = new File(dir, "target");
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            new ZipExtractor(pool, 0).extract(zip, target, new ProgressMonitor());
+        }
+        finally {
+            pool.shutdown();
+        }
+        for (int i = 0; i < entries.length; i += 2) {
+            assertContent(entries[i + 1], new File(target, entries[i]));
+        }
+    }
+
+    public void testProgressParallel() throws Exception {
+        String[] entries = new String[400];
+        for (int i = 0; i < entries.length; i += 2) {
+            entries[i] = "file" + i + ".txt";
+            entries[i + 1] = "content" + i;
+        }
+        File zip = zip(entries);
+
+        final List<Float> reported = new ArrayList<Float>();
+        ProgressMonitor monitor = new ProgressMonitor() {
+            @Override
+            public void progress(float percent) {
+                synchronized (reported) {
+                    reported.add(percent);
+                }
+                super.progress(percent);
+            }
+        };
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            new ZipExtractor(pool, 0).extract(zip, new File(dir, "target"), monitor);
+        }
+        finally {
+            pool.shutdown();
+        }
+        for (int i = 1; i < reported.size(); i++) {
+            assertTrue("progress went back at " + i, reported.get(i) > reported.get(i - 1));
+        }
+        assertEquals(100f, monitor.getProgress());
+    }
+
+    public void testMaxSize() throws Exception {
+        File zip = zip("a.txt", "0123456789", "sub/b.txt", "0123456789");
+        File target = new File(dir, "target");
+        try {
+            new ZipExtractor(null, 15).extract(zip, target, new ProgressMonitor());
+            fail("extracted more than the limit");
+        }
+        catch(IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("limit"));
+        }
+        assertEquals(0, target.list().length);
+    }
+
+    public void testOutsideTarget() throws Exception {
+        File zip = zip("../evil.txt", "foo");
+        try {
+            new ZipExtractor(null, 0).extract(zip, new File(dir, "target"),
+                new ProgressMonitor());
+            fail("extracted outside of the target");
+        }
+        catch(IOException e) {
+        }
+        assertFalse(new File(dir, "evil.txt").exists());
+    }
+
+    public void testCanceled() throws Exception {
+        File zip = zip("a.txt", "foo", "sub/b.txt", "bar");
+        File target = new File(dir, "target");
+        target.mkdirs();
+        FileUtils.writeStringToFile(new File(target, "existing.txt"), "kept");
+
+        ProgressMonitor monitor = new ProgressMonitor();
+        monitor.setCanceled(true);
+        try {
+            new ZipExtractor(null, 0).extract(zip, target, monitor);
+            fail("extraction not canceled");
+        }
+        catch(IOException e) {
+        }
+        assertFalse(new File(target, "a.txt").exists());
+        assertFalse(new File(target, "sub").exists());
+        assertContent("kept", new File(target, "existing.txt"));
+    }
+}
@@ -0,0 +1,79 @@
+package org.opengeo.data.importer.job;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class JobQueueTest extends TestCase {
+
+    JobQueue queue;
+
+    @Override
+    protected void tearDown() throws Exception {
+        queue.shutdown();
+    }
+
+    Job<String> job(final String name, String user, final List<String> started, 
+        final CountDownLatch latch) {
+        Job<String> job = new Job<String>() {
+            @Override
+            protected String call(ProgressMonitor monitor) throws Exception {
+                started.add(name);
+                latch.await(10, TimeUnit.SECONDS);
+                return name;
+            }
+        };
+        job.setUser(user);
+        return job;
+    }
+
+    public void testUsersTakeTurns() throws Exception {
+        queue = new JobQueue(1);
+        List<String> started = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch latch = new CountDownLatch(1);
+
+        Long first = queue.submit(job("a1", "a", started, latch));
+        queue.submit(job("a2", "a", started, latch));
+        queue.submit(job("a3", "a", started, latch));
+        Long last = queue.submit(job("b1", "b", started, latch));
+        latch.countDown();
+
+        assertEquals("a1", queue.getFuture(first).get(10, TimeUnit.SECONDS));
+        assertEquals("b1", queue.getFuture(last).get(10, TimeUnit.SECONDS));
+        while (started.size() < 4) {
+            Thread.sleep(10);
+        }
+        assertEquals(Arrays.asList("a1", "b1", "a2", "a3"), started);
+    }
+
+    public void testBounded() throws Exception {
+        queue = new JobQueue(2);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger max = new AtomicInteger();
+        List<Long> ids = new ArrayList<Long>();
+        for (int i = 0; i < 6; i++) {
+            ids.add(queue.submit(new Job<Integer>() {
+                @Override
+                protected Integer call(ProgressMonitor monitor) throws Exception {
+                    int n = running.incrementAndGet();
+                    synchronized (max) {
+                        max.set(Math.max(max.get(), n));
+                    }
+                    Thread.sleep(50);
+                    running.decrementAndGet();
+                    return n;
+                }
+            }));
+        }
+        for (Long id : ids) {
+            queue.getFuture(id).get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(2, max.get());
+    }
+}